@@ -0,0 +1,109 @@
+package apps;
+
+import rmi.*;
+
+import naming.HotPaths;
+import naming.NamingStubs;
+import naming.Service;
+
+/** Hot paths application.
+
+    <p>
+    The hot paths application prints the paths looked up most often through a
+    naming server over a recent window, with the estimated number of lookups
+    of each and the rate they amount to. It is run as
+    <pre>
+    java -jar dfs.jar hot naming-server [seconds] [count]
+    </pre>
+    where <code>naming-server</code> is the hostname or address of the naming
+    server, optionally followed by <code>:port</code> if it does not use the
+    default client port, <code>seconds</code> is the window, sixty seconds by
+    default, and <code>count</code> the number of paths printed, twenty by
+    default. See {@link naming.Service#hotPaths}.
+ */
+public class HotPathsApp extends Application
+{
+    /** Default window, in seconds. */
+    private static final long       DEFAULT_WINDOW = 60;
+    /** Default number of paths printed. */
+    private static final int        DEFAULT_COUNT = 20;
+
+    /** Hot paths application entry point. */
+    public static void main(String[] arguments)
+    {
+        new HotPathsApp().run(arguments);
+    }
+
+    /** Prints the hot paths and terminates the application.
+
+        @param arguments Command line arguments.
+     */
+    @Override
+    void run(String[] arguments)
+    {
+        if(arguments.length < 1 || arguments.length > 3)
+            fail("arguments: naming-server [seconds] [count]");
+
+        long            window = DEFAULT_WINDOW;
+        int             count = DEFAULT_COUNT;
+        Service         naming_server = null;
+
+        try
+        {
+            if(arguments.length > 1)
+                window = Long.parseLong(arguments[1]);
+
+            if(arguments.length > 2)
+                count = Integer.parseInt(arguments[2]);
+
+            int         separator = arguments[0].lastIndexOf(':');
+
+            naming_server = separator < 0
+                ? NamingStubs.service(arguments[0])
+                : NamingStubs.service(
+                      arguments[0].substring(0, separator),
+                      Integer.parseInt(arguments[0].substring(separator + 1)));
+        }
+        catch(IllegalArgumentException e)
+        {
+            fail("bad argument: " + e.getMessage());
+        }
+
+        if(window <= 0 || count <= 0)
+            fail("the window and count must be positive");
+
+        HotPaths        hot = null;
+
+        try
+        {
+            hot = naming_server.hotPaths(window * 1000, count);
+        }
+        catch(RMIException e)
+        {
+            fail("unable to contact naming server: " + e.getMessage());
+        }
+
+        // The window covered may differ from the window asked for, since the
+        // naming server counts lookups in buckets of a few seconds.
+        double          seconds = Math.max(1, hot.window()) / 1000.0;
+
+        System.out.printf("lookups over the last %.0f seconds%n", seconds);
+        System.out.printf("%12s %10s  %s%n", "count", "per second", "path");
+
+        for(int index = 0; index < hot.size(); ++index)
+        {
+            System.out.printf("%12d %10.1f  %s%n", hot.count(index),
+                              hot.count(index) / seconds, hot.path(index));
+        }
+
+        System.exit(EXIT_SUCCESS);
+    }
+
+    /** Prints a message and terminates the application with a failure
+        status. */
+    private static void fail(String message)
+    {
+        System.err.println(message);
+        System.exit(EXIT_FAILURE);
+    }
+}
@@ -33,6 +33,7 @@ public class Launcher
 
         applications.put("naming", new NamingServerApp());
         applications.put("storage", new StorageServerApp());
+        applications.put("hot", new HotPathsApp());
 
         // Check that at least an application name is present. If not, print a
         // help message and exit.
@@ -78,6 +79,9 @@ public class Launcher
         System.out.println("\nfor example, the arguments to start a storage " +
                            "server:");
         System.out.println("  storage 127.0.0.1 127.0.0.1 storage-test/");
+        System.out.println("\nthe arguments to list the most looked up " +
+                           "paths:");
+        System.out.println("  hot naming-server [seconds] [count]");
         System.out.println("\npaths can take two forms:");
         System.out.println("  naming-server:remote-path    OR    local-path");
 
@@ -1,20 +1,85 @@
 package apps;
 
 import rmi.*;
+import common.Path;
 
+import naming.MountTable;
 import naming.NamingServer;
+import naming.NamingStubs;
+import naming.Placements;
+
+import java.net.InetSocketAddress;
 
 /** Naming server application.
 
     <p>
-    The naming server application does not take any arguments. It starts a
-    naming server listening on the default client and registration ports for
-    clients and storage servers, respectively.
+    The naming server application starts a naming server listening on the
+    default client and registration ports for clients and storage servers,
+    respectively.
+
+    <p>
+    The application accepts optional arguments of the form
+    <code>option=value</code>:
+    <ul>
+    <li><code>placement=policy</code>: the policy choosing the storage server
+        for each new file, one of <code>random</code> (the default),
+        <code>least-bytes</code>, <code>least-files</code>,
+        <code>two-choices</code> and <code>siblings</code>. See
+        {@link naming.Placements}.</li>
+    <li><code>replication=count</code>: the number of storage servers each
+        new file is placed on. The default is one.</li>
+    <li><code>hot-threshold=reads</code>: reads per second per replica above
+        which a file is copied to more storage servers. Zero, the default,
+        disables hot file replication.</li>
+    <li><code>rebalance=bytes</code>: bytes per second that may be copied
+        while moving files from full to empty storage servers. Zero, the
+        default, disables rebalancing.</li>
+    <li><code>deferred-create=true</code>: records new files in the
+        directory tree only, and creates them on the storage servers in the
+        background or on their first write. The default is
+        <code>false</code>.</li>
+    <li><code>service-port=port</code> and
+        <code>registration-port=port</code>: the ports of the client and
+        registration interfaces, by default those defined in
+        {@link naming.NamingStubs}.</li>
+    <li><code>mount=/path@host:port</code>: mounts the subtree at
+        <code>/path</code> on the naming server whose client interface is at
+        <code>host:port</code>. The option may be repeated. When it is given,
+        the namespace is sharded across the servers named by the mounts, the
+        root directory must be mounted, and every shard must be started with
+        the same mounts. See {@link naming.MountTable}.</li>
+    <li><code>shard=host:port</code>: the address of this naming server in
+        the mounts. It defaults to the local host and the service port.</li>
+    <li><code>follow=host:port</code>: makes this naming server a read-only
+        follower of the naming server whose client interface is at
+        <code>host:port</code>. See
+        {@link naming.NamingServer#setFollowing}.</li>
+    <li><code>max-staleness=ms</code>: milliseconds a follower may lag
+        behind its primary and still answer lookups. The default is
+        one second.</li>
+    </ul>
  */
 public class NamingServerApp extends ServerApplication
 {
     /** The naming server. */
     private static StoppingNamingServer     server;
+    /** Port of the client interface. */
+    private int                             service_port =
+        NamingStubs.SERVICE_PORT;
+    /** Port of the registration interface. */
+    private int                             registration_port =
+        NamingStubs.REGISTRATION_PORT;
+    /** Mounts given on the command line, or <code>null</code> if the
+        namespace is not sharded. */
+    private MountTable                      mounts = null;
+    /** Address of this server in the mounts, or <code>null</code> for the
+        default. */
+    private InetSocketAddress               shard = null;
+    /** Primary to follow, or <code>null</code> if this server is a
+        primary. */
+    private InetSocketAddress               primary = null;
+    /** Milliseconds a follower may lag behind its primary. */
+    private long                            max_staleness = 1000;
 
     /** Naming server application entry point. */
     public static void main(String[] arguments)
@@ -32,20 +97,142 @@ public class NamingServerApp extends ServerApplication
     /** Starts the naming server.
 
         @param arguments Command line arguments.
-        @throws BadUsageException If there are any command line arguments.
+        @throws BadUsageException If any command line argument is not a
+                                  recognized option with a valid value.
         @throws RMIException If the naming server cannot be started.
      */
     @Override
     protected void startServer(String[] arguments)
         throws BadUsageException, RMIException
     {
-        if(arguments.length != 0)
-            throw new BadUsageException("naming server expects no arguments");
-
         server = new StoppingNamingServer();
+
+        for(String argument : arguments)
+        {
+            int         separator = argument.indexOf('=');
+
+            if(separator < 0)
+            {
+                throw new BadUsageException("naming server arguments must " +
+                                            "have the form option=value");
+            }
+
+            configure(argument.substring(0, separator),
+                      argument.substring(separator + 1));
+        }
+
+        try
+        {
+            server.setPorts(service_port, registration_port);
+
+            if(mounts != null)
+            {
+                if(shard == null)
+                    shard = new InetSocketAddress("127.0.0.1", service_port);
+
+                server.setMountTable(mounts, shard);
+            }
+
+            if(primary != null)
+                server.setFollowing(primary, max_staleness);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new BadUsageException(e.getMessage());
+        }
+
         server.start();
     }
 
+    /** Applies a command line option to the naming server.
+
+        @param option Option name.
+        @param value Option value.
+        @throws BadUsageException If the option is not recognized or the value
+                                  is not valid for it.
+     */
+    private void configure(String option, String value)
+        throws BadUsageException
+    {
+        try
+        {
+            switch(option)
+            {
+            case "placement":
+                server.setPlacementPolicy(Placements.forName(value));
+                break;
+            case "replication":
+                server.setReplication(Integer.parseInt(value));
+                break;
+            case "hot-threshold":
+                server.setHotReplication(Double.parseDouble(value));
+                break;
+            case "rebalance":
+                server.setRebalancing(Long.parseLong(value));
+                break;
+            case "deferred-create":
+                if(!value.equals("true") && !value.equals("false"))
+                    throw new IllegalArgumentException("expected true or false");
+
+                server.setDeferredCreation(value.equals("true"));
+                break;
+            case "service-port":
+                service_port = Integer.parseInt(value);
+                break;
+            case "registration-port":
+                registration_port = Integer.parseInt(value);
+                break;
+            case "shard":
+                shard = address(value);
+                break;
+            case "follow":
+                primary = address(value);
+                break;
+            case "max-staleness":
+                max_staleness = Long.parseLong(value);
+                break;
+            case "mount":
+                int     at = value.lastIndexOf('@');
+
+                if(at < 0)
+                    throw new IllegalArgumentException("expected /path@host:port");
+
+                if(mounts == null)
+                    mounts = new MountTable();
+
+                mounts.mount(new Path(value.substring(0, at)),
+                             address(value.substring(at + 1)));
+                break;
+            default:
+                throw new BadUsageException("unknown naming server option " +
+                                            option);
+            }
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new BadUsageException("bad value for option " + option +
+                                        ": " + e.getMessage());
+        }
+    }
+
+    /** Parses a network address given as <code>host:port</code>.
+
+        @param value The address.
+        @return The address.
+        @throws IllegalArgumentException If the value has no port or the port
+                                         is not a valid number.
+     */
+    private static InetSocketAddress address(String value)
+    {
+        int         separator = value.lastIndexOf(':');
+
+        if(separator < 0)
+            throw new IllegalArgumentException("expected host:port");
+
+        return new InetSocketAddress(value.substring(0, separator),
+                    Integer.parseInt(value.substring(separator + 1)));
+    }
+
     /** Stops the naming server. */
     @Override
     protected void stopServer()
@@ -1,6 +1,7 @@
 package apps;
 
 import naming.NamingStubs;
+import naming.Registration;
 import rmi.RMIException;
 import storage.StorageServer;
 
@@ -83,8 +84,26 @@ public class StorageServerApp extends ServerApplication
         File            local_root = new File(arguments[2]).getAbsoluteFile();
         server = new StoppingStorageServer(local_root);
 
-        // Start and register the storage server.
-        server.start(arguments[0], NamingStubs.registration(arguments[1]));
+        // Start and register the storage server. The naming server may be
+        // given as host:port if it does not use the default registration port.
+        int             separator = arguments[1].lastIndexOf(':');
+        Registration    naming_server;
+
+        try
+        {
+            naming_server = separator < 0
+                ? NamingStubs.registration(arguments[1])
+                : NamingStubs.registration(
+                      arguments[1].substring(0, separator),
+                      Integer.parseInt(arguments[1].substring(separator + 1)));
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new BadUsageException("bad naming server address " +
+                                        arguments[1]);
+        }
+
+        server.start(arguments[0], naming_server);
     }
 
     /** Stops the storage server. */
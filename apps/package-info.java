@@ -2,6 +2,7 @@
 
     <p>
     Filesystem applications provide ways to start naming and storage servers
-    from the command line.
+    from the command line, and to list the paths looked up most often through
+    a naming server.
  */
 package apps;
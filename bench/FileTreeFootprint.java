@@ -0,0 +1,198 @@
+package bench;
+
+import common.FileTree;
+import common.Path;
+import rmi.Stub;
+import storage.Storage;
+
+import java.net.InetSocketAddress;
+import java.nio.file.FileAlreadyExistsException;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Heap footprint benchmark for the naming server directory tree.
+
+    <p>
+    The benchmark builds the same namespace twice and reports the heap used per
+    file: once as a graph of node objects, as the tree was kept before the
+    inode table was introduced (a <code>Leaf</code> with its own name string
+    and <code>Storage</code> reference per file, an <code>ArrayList</code> per
+    directory), and once as a <code>FileTree</code>. The namespace has
+    <code>directories</code> directories of <code>files</code> files each.
+    It is measured twice: with file names that repeat from one directory to
+    the next, as they do in partitioned datasets, and with a distinct name
+    for every file, as in most other namespaces. Each distinct name is kept
+    once, in the name pool, so the second case shows its cost.
+
+    <p>
+    The two structures do not hold the same data. The node graph keeps only a
+    name and a stub per file. The <code>FileTree</code> also keeps, for each
+    file, its length, modification time and version, and its entry among the
+    inodes with its name, and for each directory a sorted index of its
+    children once it is large, and the usage of its subtree. Of its footprint,
+    the arrays over every inode take 44 bytes per file: six ints of links,
+    name and server, an int length, and a long each for the modification time
+    and the version. The name lists and directory indexes take about four
+    bytes per file each, and the rest is the unused capacity of the arrays
+    and the name pool. With a million files in a thousand directories, the
+    node graph takes about 93 bytes per file either way, and the
+    <code>FileTree</code> about 70 with repeated names and 165 with distinct
+    ones. A distinct name costs its string, about 64 bytes, and about 17 in
+    the pool: its slot, its reference count and its index entry, and about
+    12 for its list of inodes.
+
+    <p>
+    Usage:
+    <pre>
+    java -Xmx4g bench.FileTreeFootprint [directories] [files]
+    </pre>
+ */
+public class FileTreeFootprint
+{
+    /** Keeps the structure being measured reachable. */
+    private static Object   retained;
+
+    /** Runs the benchmark.
+
+        @param arguments Optional directory count and files per directory.
+     */
+    public static void main(String[] arguments)
+        throws FileNotFoundException, FileAlreadyExistsException
+    {
+        int         directories =
+            arguments.length > 0 ? Integer.parseInt(arguments[0]) : 1000;
+        int         files =
+            arguments.length > 1 ? Integer.parseInt(arguments[1]) : 1000;
+        long        total = (long)directories * files;
+        Storage     storage = Stub.create(Storage.class,
+            new InetSocketAddress("127.0.0.1", 8001));
+
+        System.out.println("files:                   " + total);
+        System.out.println("                         shared names  " +
+                           "unique names");
+
+        long[]      objects = new long[2];
+        long[]      table = new long[2];
+
+        for(int unique = 0; unique < 2; ++unique)
+        {
+            long    before = used();
+            retained = buildObjects(directories, files, storage, unique == 1);
+            objects[unique] = (used() - before) / total;
+            retained = null;
+
+            before = used();
+            retained = buildTable(directories, files, storage, unique == 1);
+            table[unique] = (used() - before) / total;
+            retained = null;
+        }
+
+        System.out.println(String.format("object graph bytes/file: %12d  %12d",
+                                         objects[0], objects[1]));
+        System.out.println(String.format("inode table bytes/file:  %12d  %12d",
+                                         table[0], table[1]));
+    }
+
+    /** Builds the namespace as a graph of node objects. */
+    private static LegacyBranch buildObjects(int directories, int files,
+                                             Storage storage, boolean unique)
+    {
+        LegacyBranch    root = new LegacyBranch("/");
+
+        for(int d = 0; d < directories; ++d)
+        {
+            LegacyBranch    directory = new LegacyBranch(directoryName(d));
+            root.list.add(directory);
+
+            for(int f = 0; f < files; ++f)
+                directory.list.add(new LegacyLeaf(fileName(d, f, unique),
+                                                  storage));
+        }
+
+        return root;
+    }
+
+    /** Builds the namespace as a <code>FileTree</code>. */
+    private static FileTree buildTable(int directories, int files,
+                                       Storage storage, boolean unique)
+        throws FileNotFoundException, FileAlreadyExistsException
+    {
+        FileTree        tree = new FileTree();
+
+        for(int d = 0; d < directories; ++d)
+        {
+            Path        directory = new Path("/" + directoryName(d));
+
+            for(int f = 0; f < files; ++f)
+                tree.touch(new Path(directory, fileName(d, f, unique)),
+                           storage);
+        }
+
+        return tree;
+    }
+
+    private static String directoryName(int index)
+    {
+        return String.format("dir-%05d", index);
+    }
+
+    /** Returns a fresh string for each call, as deserialized paths would.
+
+        @param directory Index of the directory holding the file.
+        @param index Index of the file in its directory.
+        @param unique Whether the name is distinct for every file, or repeats
+                      in every directory.
+     */
+    private static String fileName(int directory, int index, boolean unique)
+    {
+        if(unique)
+            return String.format("part-%05d-%05d.parquet", directory, index);
+
+        return String.format("part-%05d.parquet", index);
+    }
+
+    /** Returns the heap in use after garbage collection. */
+    private static long used()
+    {
+        Runtime     runtime = Runtime.getRuntime();
+
+        for(int round = 0; round < 4; ++round)
+        {
+            System.gc();
+
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Directory node as it was kept before the inode table. */
+    private static class LegacyBranch
+    {
+        final String        name;
+        final List<Object>  list = new ArrayList<>();
+
+        LegacyBranch(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /** File node as it was kept before the inode table. */
+    private static class LegacyLeaf
+    {
+        final String        name;
+        final Storage       storage;
+
+        LegacyLeaf(String name, Storage storage)
+        {
+            this.name = name;
+            this.storage = storage;
+        }
+    }
+}
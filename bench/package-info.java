@@ -0,0 +1,7 @@
+/** Benchmarks.
+
+    <p>
+    Programs in this package measure the memory and time costs of filesystem
+    data structures. They are not part of the filesystem distribution.
+ */
+package bench;
@@ -0,0 +1,177 @@
+package client;
+
+import java.io.*;
+import java.util.*;
+
+import rmi.*;
+import common.*;
+import naming.*;
+
+/** Stream of the changes below a path of the distributed filesystem.
+
+    <p>
+    A <code>ChangeFeed</code> exports a <code>Watcher</code> skeleton and
+    registers it with the naming server through <code>Service.watch</code>.
+    The naming server pushes the changes below the watched path to the
+    skeleton, which hands them to the listener in order, one batch at a time.
+    The feed renews its watch every third of <code>Watcher.TERM</code>, from
+    the sequence number of the last batch received, so that a watch dropped
+    by the naming server because the client could not be reached resumes
+    where it stopped. Batches already received are not passed on again.
+
+    <p>
+    A feed is a replacement for listing directories repeatedly: the listener
+    lists the watched subtree once, then applies the changes. When a batch is
+    a reset, because the naming server no longer had the changes following
+    the last batch received or was restarted, the listener must list the
+    subtree again. The feed must be closed when it is no longer needed.
+ */
+public class ChangeFeed implements Closeable
+{
+    /** Naming server stub. */
+    private final Service               naming_server;
+    /** The watched path. */
+    private final Path                  prefix;
+    /** Receiver of the changes. */
+    private final Listener              listener;
+    /** Skeleton receiving the changes. */
+    private final Skeleton<Watcher>     skeleton;
+    /** Stub for the skeleton, registered with the naming server. */
+    private final Watcher               watcher;
+    /** Renews the watch. */
+    private final Timer                 timer;
+    /** Sequence number of the last batch passed to the listener. Guarded by
+        the feed object. */
+    private long                        sequence;
+
+    /** Receiver of the changes of a feed. */
+    public interface Listener
+    {
+        /** Receives a batch of changes. Batches are received one at a
+            time, in order.
+
+            @param changes The changes following the previous batch, or a
+                           reset.
+         */
+        void changed(Changes changes);
+    }
+
+    /** Creates a feed and registers its watch.
+
+        @param naming_server Stub for the naming server holding the watched
+                             path.
+        @param hostname Externally-visible hostname or address of the local
+                        machine, at which the naming server reaches the
+                        skeleton receiving the changes.
+        @param prefix The watched path. It need not exist.
+        @param after Sequence number of the last change already received,
+                     from a previous feed's <code>sequence</code>, or a
+                     negative number to receive the changes made from now
+                     on.
+        @param listener Receiver of the changes.
+        @throws RMIException If the skeleton cannot be started, or the naming
+                             server cannot be contacted.
+        @throws NullPointerException If any argument is <code>null</code>.
+     */
+    public ChangeFeed(Service naming_server, String hostname, Path prefix,
+                      long after, Listener listener)
+        throws RMIException
+    {
+        if(naming_server == null || hostname == null || prefix == null ||
+           listener == null)
+        {
+            throw new NullPointerException();
+        }
+
+        this.naming_server = naming_server;
+        this.prefix = prefix;
+        this.listener = listener;
+
+        skeleton = new Skeleton<Watcher>(Watcher.class, new Receiver());
+        skeleton.start();
+        watcher = Stub.create(Watcher.class, skeleton, hostname);
+
+        long            start;
+
+        try
+        {
+            start = naming_server.watch(prefix, after, watcher);
+        }
+        catch(RMIException | RuntimeException e)
+        {
+            skeleton.stop();
+            throw e;
+        }
+
+        // Changes may have been pushed before the call returned.
+        synchronized(this)
+        {
+            sequence = Math.max(sequence, start);
+        }
+
+        timer = new Timer(true);
+        timer.schedule(new Renewal(), Watcher.TERM / 3, Watcher.TERM / 3);
+    }
+
+    /** Returns the sequence number of the last batch received, from which a
+        later feed on the same path may resume. */
+    public synchronized long sequence()
+    {
+        return sequence;
+    }
+
+    /** Drops the watch and stops the skeleton. */
+    @Override
+    public void close()
+    {
+        timer.cancel();
+
+        try
+        {
+            naming_server.unwatch(watcher);
+        }
+        catch(RMIException | RuntimeException e)
+        {
+            // The naming server drops the watch once it is not renewed.
+        }
+
+        skeleton.stop();
+    }
+
+    /** Receives the changes pushed by the naming server. */
+    private class Receiver implements Watcher
+    {
+        @Override
+        public void changed(Path path, Changes changes)
+        {
+            synchronized(ChangeFeed.this)
+            {
+                // A watch resumed from an older sequence number may push
+                // changes that were already received.
+                if(!changes.isReset() && changes.sequence() <= sequence)
+                    return;
+
+                listener.changed(changes);
+                sequence = changes.sequence();
+            }
+        }
+    }
+
+    /** Renews the watch, resuming it if the naming server dropped it. */
+    private class Renewal extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                naming_server.watch(prefix, sequence(), watcher);
+            }
+            catch(RMIException | RuntimeException e)
+            {
+                // The naming server cannot be reached; try again at the next
+                // renewal.
+            }
+        }
+    }
+}
@@ -33,6 +33,8 @@ public class DFSInputStream extends InputStream
     private long            offset = 0;
     /** Total file length. */
     private final long      length;
+    /** Version of the file when it was opened. */
+    private final long      version;
 
     /** Indicates that the stream has been closed. */
     private boolean         closed = false;
@@ -40,6 +42,14 @@ public class DFSInputStream extends InputStream
     /** Creates a <code>DFSInputStream</code> for a file listed by the given
         naming server.
 
+        <p>
+        The storage server, the length and the version of the file are
+        retrieved from the naming server with one <code>open</code> call. The
+        length covers every write made through a <code>DFSOutputStream</code>
+        that was closed, which reports it with <code>Service.written</code>.
+        The storage server is asked for the length only when the naming
+        server does not know it yet.
+
         @param naming_server Stub for the naming server hosting metadata for the
                              file.
         @param file Path to the file.
@@ -53,23 +63,37 @@ public class DFSInputStream extends InputStream
     public DFSInputStream(Service naming_server, Path file) throws FileNotFoundException, IOException
     {
         // Retrieve a stub for the storage server hosting the file.
+        OpenFile    status;
+
         try
         {
-            storage_server = naming_server.getStorage(file);
+            status = naming_server.open(file, OpenFile.READ);
         }
         catch(RMIException e)
         {
             throw new IOException("could not contact naming server", e);
         }
 
-        // Retrieve the length of the file from the storage server.
-        try
-        {
-            length = storage_server.size(file);
-        }
-        catch(RMIException e)
+        if(status.isDirectory())
+            throw new FileNotFoundException(file + " is a directory");
+
+        storage_server = status.storage();
+        version = status.version();
+
+        // Retrieve the length of the file from the storage server, if it was
+        // never reported to the naming server.
+        if(status.size() != FileStatus.UNKNOWN)
+            length = status.size();
+        else
         {
-            throw new IOException("could not contact storage server", e);
+            try
+            {
+                length = storage_server.size(file);
+            }
+            catch(RMIException e)
+            {
+                throw new IOException("could not contact storage server", e);
+            }
         }
 
         path = file;
@@ -320,4 +344,16 @@ public class DFSInputStream extends InputStream
 
         return (int)(length - offset);
     }
+
+    /** Returns the version of the file when the stream was opened.
+
+        <p>
+        A client keeping data read from the file can compare this version with
+        the one later returned by <code>Service.stat</code> or
+        <code>Service.open</code> to tell whether the file has changed since.
+     */
+    public long version()
+    {
+        return version;
+    }
 }
@@ -2,6 +2,7 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
 
 import rmi.*;
 import common.*;
@@ -11,10 +12,11 @@ import storage.*;
 /** Output stream directed to a file in the distributed filesystem.
 
     <p>
-    Write calls on a <code>DFSOutputStream</code> are directed to a storage
-    server hosting the given file. Each call corresponds to one network request.
-    If this is not desirable, the <code>DFSOutputStream</code> should be wrapped
-    in a <code>BufferedOutputStream</code> object.
+    Write calls on a <code>DFSOutputStream</code> are directed to the storage
+    servers holding replicas of the given file. Each call corresponds to one
+    network request per replica. If this is not desirable, the
+    <code>DFSOutputStream</code> should be wrapped in a
+    <code>BufferedOutputStream</code> object.
 
     <p>
     Creating a <code>DFSOutputStream</code> for a file does not cause the file
@@ -26,13 +28,17 @@ public class DFSOutputStream extends OutputStream
 {
     /** Path to the file. */
     private final Path      path;
-    /** Storage server hosting the file. */
-    private final Storage   storage_server;
+    /** Storage servers holding replicas of the file. Every write is applied
+        to each of them, and a server a write fails on is dropped. */
+    private Storage[]       storage_servers;
     /** Naming server used to find the storage server hosting the file. */
     private final Service   naming_server;
 
     /** Current write offset in the file. */
     private long            offset = 0;
+    /** Offset following the last byte written, or zero if nothing was
+        written. */
+    private long            end = 0;
 
     /** Indicates that the stream has been closed. */
     private boolean         closed = false;
@@ -53,16 +59,23 @@ public class DFSOutputStream extends OutputStream
     public DFSOutputStream(Service naming_server, Path file)
         throws FileNotFoundException, IOException
     {
-        // Retrieve a stub for the storage server hosting the file.
+        // Retrieve stubs for the storage servers holding the file.
+        OpenFile    opened;
+
         try
         {
-            storage_server = naming_server.getStorage(file);
+            opened = naming_server.open(file, OpenFile.WRITE);
         }
         catch(RMIException e)
         {
             throw new IOException("could not contact naming server", e);
         }
 
+        if(opened.isDirectory())
+            throw new FileNotFoundException(file + " is a directory");
+
+        storage_servers = opened.replicas();
+
         path = file;
         this.naming_server = naming_server;
     }
@@ -134,26 +147,53 @@ public class DFSOutputStream extends OutputStream
 
         <p>
         The stream is marked as closed. Further attempts to use the output
-        stream will result in <code>IOException</code>.
+        stream will result in <code>IOException</code>. If anything was
+        written, the end of the data written is reported to the naming server
+        with <code>Service.written</code> before the call returns, so that a
+        reader opening the file afterwards reads the data.
+
+        @throws IOException If the naming server cannot be contacted, or the
+                            file no longer exists.
      */
     @Override
     public void close() throws IOException
     {
+        if(closed)
+            return;
+
         closed = true;
+
+        if(end == 0)
+            return;
+
+        try
+        {
+            naming_server.written(path, end);
+        }
+        catch(RMIException e)
+        {
+            throw new IOException("could not contact naming server", e);
+        }
     }
 
     /** Writes bytes from a buffer to the output stream.
 
         <p>
-        The write is performed in a single request to the storage server.
+        The write is performed in a single request to each storage server
+        holding a replica of the file. If the request fails on some of them,
+        they are reported to the naming server with
+        <code>Service.writeFailed</code>, which stops readers from being sent
+        to them, and later writes go to the other servers only. The write
+        fails if it fails on every replica.
 
         @param buffer Buffer containing bytes to be written.
         @param buffer_offset Offset into the buffer from which bytes are to be
                              written.
         @param write_length Number of bytes to be written.
-        @throws IOException If the stream is closed, if the storage server
-                            cannot be contacted, or if a write error occurs on
-                            the storage server.
+        @throws IOException If the stream is closed, if no storage server
+                            holding the file can be written, or if the
+                            naming server cannot be told about the replicas
+                            that failed.
         @throws NullPointerException If <code>buffer</code> is
                                      <code>null</code>.
         @throws IndexOutOfBoundsException If <code>buffer_offset</code> or
@@ -209,21 +249,61 @@ public class DFSOutputStream extends OutputStream
                 data[index] = buffer[buffer_offset + index];
         }
 
-        // Send the write request to the server. If the write request succeds,
-        // advance the stream offset.
-        try
-        {
-            storage_server.write(path, offset, data);
-            offset += write_length;
-        }
-        catch(FileNotFoundException e)
+        // Send the write request to every replica. The replicas the request
+        // fails on are set aside.
+        Storage[]   written = new Storage[storage_servers.length];
+        Storage[]   failed = new Storage[storage_servers.length];
+        int         succeeded = 0;
+        int         failures = 0;
+        IOException error = null;
+
+        for(Storage storage_server : storage_servers)
         {
-            throw new IOException("file missing on storage server", e);
+            try
+            {
+                storage_server.write(path, offset, data);
+                written[succeeded++] = storage_server;
+                continue;
+            }
+            catch(FileNotFoundException e)
+            {
+                error = new IOException("file missing on storage server", e);
+            }
+            catch(RMIException e)
+            {
+                error = new IOException("unable to contact storage server", e);
+            }
+            catch(IOException e)
+            {
+                error = e;
+            }
+
+            failed[failures++] = storage_server;
         }
-        catch(RMIException e)
+
+        if(error != null && succeeded == 0)
+            throw error;
+
+        // If the request failed on some replicas only, their contents now
+        // differ from the others: have the naming server drop them, and stop
+        // writing to them.
+        if(failures > 0)
         {
-            throw new IOException("unable to contact storage server", e);
+            try
+            {
+                naming_server.writeFailed(path, Arrays.copyOf(failed, failures));
+            }
+            catch(RMIException e)
+            {
+                throw new IOException("could not contact naming server", e);
+            }
+
+            storage_servers = Arrays.copyOf(written, succeeded);
         }
+
+        // Advance the stream offset.
+        offset += write_length;
+        end = Math.max(end, offset);
     }
 
     /** Writes a single byte to the output stream.
@@ -0,0 +1,548 @@
+package client;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import rmi.*;
+import common.*;
+import naming.*;
+import storage.*;
+
+/** Naming server client interface caching lookups under leases.
+
+    <p>
+    A <code>MetadataCache</code> wraps a naming server stub, and is itself a
+    <code>Service</code>, so that it can be given to
+    <code>DFSInputStream</code>, <code>DFSOutputStream</code> or any other code
+    using the naming server. The calls <code>isDirectory</code>,
+    <code>list(Path)</code>, <code>getStorage</code>, <code>getReplicas</code>,
+    <code>stat</code> and <code>open</code> are answered from a lease obtained with
+    <code>Service.lease</code>, which is cached until it expires or the naming
+    server revokes it. Repeated lookups of the same objects therefore reach the
+    naming server once per lease term. All other calls are forwarded to the
+    naming server.
+
+    <p>
+    To receive revocations, the cache exports a <code>LeaseHolder</code>
+    skeleton, which the naming server must be able to reach at the given
+    hostname. The naming server revokes a lease before completing any call
+    modifying the leased object or the entries of a leased directory, so that
+    lookups through the cache never return metadata older than the last
+    completed modification, unless the naming server could not reach the
+    skeleton within <code>NamingServer.REVOKE_TIMEOUT</code>; the lease then
+    runs until it expires. The cache must be closed when it is no longer
+    needed, to stop the skeleton.
+
+    <p>
+    Once enabled with <code>setPathFilter</code>, the cache also keeps a copy
+    of the naming server's path filter, and answers lookups of paths missing
+    from it with <code>FileNotFoundException</code> without calling the
+    naming server. Such answers may be stale by up to the refresh period of
+    the filter.
+
+    <p>
+    A file read through a cached <code>getStorage</code> is always read from
+    the replica chosen when the lease was granted, rather than from the least
+    loaded replica at the time of the read.
+ */
+public class MetadataCache implements Service, Closeable
+{
+    /** Maximum number of cached leases. */
+    private static final int                CAPACITY = 1 << 16;
+
+    /** Naming server stub. */
+    private final Service                   naming_server;
+    /** Skeleton receiving revocations. */
+    private final Skeleton<LeaseHolder>     skeleton;
+    /** Stub for the skeleton, sent with each lease request. */
+    private final LeaseHolder               holder;
+    /** Cached leases by path. Guarded by the cache object. */
+    private final Map<Path, Cached>         leases = new HashMap<>();
+    /** Largest sequence number of a revocation received. Guarded by the
+        cache object. */
+    private long                            revoked = 0;
+    /** Milliseconds between two refreshes of the path filter, or zero if no
+        filter is used. */
+    private volatile long                   filterRefresh = 0;
+    /** Guards the path filter fields below, and is held while the filter is
+        refreshed. */
+    private final Object                    filterLock = new Object();
+    /** Copy of the naming server's path filter, or <code>null</code>. */
+    private PathFilter                      filter = null;
+    /** Generation of the filter, or -1 if there is none. */
+    private long                            filterGeneration = -1;
+    /** Version of the filter. */
+    private long                            filterVersion = 0;
+    /** Local time at which the filter was last refreshed. */
+    private long                            filterRefreshed = 0;
+
+    /** Creates a cache and starts its revocation skeleton.
+
+        @param naming_server Stub for the naming server.
+        @param hostname Externally-visible hostname or address of the local
+                        machine, at which the naming server reaches the
+                        revocation skeleton.
+        @throws RMIException If the revocation skeleton cannot be started.
+        @throws NullPointerException If either argument is <code>null</code>.
+     */
+    public MetadataCache(Service naming_server, String hostname)
+        throws RMIException
+    {
+        if(naming_server == null || hostname == null)
+            throw new NullPointerException();
+
+        this.naming_server = naming_server;
+
+        skeleton = new Skeleton<LeaseHolder>(LeaseHolder.class, new Revoker());
+        skeleton.start();
+        holder = Stub.create(LeaseHolder.class, skeleton, hostname);
+    }
+
+    /** Stops the revocation skeleton and drops all cached leases. The naming
+        server waits for the leases to expire before modifying their
+        objects. */
+    @Override
+    public void close()
+    {
+        skeleton.stop();
+
+        synchronized(this)
+        {
+            leases.clear();
+        }
+    }
+
+    /** Makes the cache answer lookups of paths missing from the naming
+        server's path filter without calling the naming server.
+
+        <p>
+        The cache fetches the filter with <code>Service.pathFilter</code> on
+        the first lookup, and, on a lookup at least <code>refresh</code>
+        milliseconds after the last refresh, fetches the words changed since.
+        A lookup of an object with no cached lease and not in the filter
+        throws <code>FileNotFoundException</code> at once. An object created
+        by another client, or added by a storage server registering, may
+        therefore be reported missing for up to <code>refresh</code>
+        milliseconds; objects created through this cache are added to its
+        filter when they are created. If the naming server publishes no
+        filter, because it is a shard of the namespace, the cache stops using
+        the filter.
+
+        @param refresh Maximum age of the filter in milliseconds, or zero to
+                       stop using the filter.
+        @throws IllegalArgumentException If <code>refresh</code> is
+                                         negative.
+     */
+    public void setPathFilter(long refresh)
+    {
+        if(refresh < 0)
+            throw new IllegalArgumentException("refresh period must not be " +
+                                               "negative");
+
+        synchronized(filterLock)
+        {
+            filterRefresh = refresh;
+            filter = null;
+            filterGeneration = -1;
+        }
+    }
+
+    /** Tells whether the path filter shows that an object does not exist,
+        refreshing the filter if it is too old.
+
+        @param path The object.
+        @return <code>true</code> if the object certainly does not exist;
+                <code>false</code> if it may exist, or no filter is used or
+                could be obtained.
+     */
+    private boolean absent(Path path)
+    {
+        if(filterRefresh == 0)
+            return false;
+
+        synchronized(filterLock)
+        {
+            long        now = System.currentTimeMillis();
+
+            if(filterRefresh == 0)
+                return false;
+
+            if(filter == null || now - filterRefreshed >= filterRefresh)
+            {
+                try
+                {
+                    PathFilterUpdate    update =
+                        naming_server.pathFilter(filterGeneration,
+                                                 filterVersion);
+
+                    filter = update.apply(filter);
+                    filterGeneration = update.generation();
+                    filterVersion = update.version();
+                    filterRefreshed = now;
+                }
+                catch(IllegalStateException e)
+                {
+                    filterRefresh = 0;
+                    filter = null;
+                    filterGeneration = -1;
+                    return false;
+                }
+                catch(RMIException e)
+                {
+                    // Leave the lookup to the naming server.
+                    return false;
+                }
+            }
+
+            return !filter.mightContain(path);
+        }
+    }
+
+    /** Adds the path of an object created through the cache to the path
+        filter, if one is used. */
+    private void created(Path path)
+    {
+        synchronized(filterLock)
+        {
+            if(filter != null)
+                filter.add(PathFilter.hash(path), null);
+        }
+    }
+
+    /** Returns the valid lease on a path, obtaining one if none is cached.
+
+        @param path The object.
+        @return The lease.
+        @throws FileNotFoundException If the object does not exist.
+        @throws RMIException If the naming server cannot be contacted.
+     */
+    private Lease lease(Path path) throws RMIException, FileNotFoundException
+    {
+        if(path == null)
+            throw new NullPointerException();
+
+        long        now = System.currentTimeMillis();
+
+        synchronized(this)
+        {
+            Cached  cached = leases.get(path);
+
+            if(cached != null && cached.expiry > now)
+                return cached.lease;
+        }
+
+        if(absent(path))
+            throw new FileNotFoundException(path + " does not exist");
+
+        // The term is counted from the time the request is sent, so that the
+        // cached lease expires no later than the naming server's record of it.
+        Lease       lease = naming_server.lease(path, holder);
+
+        synchronized(this)
+        {
+            // A revocation received while the request was in progress may
+            // concern this lease, granted before the modification.
+            if(lease.sequence() >= revoked)
+            {
+                if(leases.size() >= CAPACITY)
+                {
+                    leases.values().removeIf(entry -> entry.expiry <= now);
+
+                    if(leases.size() >= CAPACITY)
+                        leases.clear();
+                }
+
+                leases.put(path, new Cached(lease, now + lease.term()));
+            }
+        }
+
+        return lease;
+    }
+
+    // Lookups answered from leases. Documented in Service.java.
+    @Override
+    public boolean isDirectory(Path path)
+        throws RMIException, FileNotFoundException
+    {
+        return lease(path).isDirectory();
+    }
+
+    @Override
+    public String[] list(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        Lease       lease = lease(directory);
+
+        if(!lease.isDirectory())
+            throw new FileNotFoundException(directory + " is not a directory");
+
+        String[]    children = lease.children();
+
+        return children != null ? children : naming_server.list(directory);
+    }
+
+    @Override
+    public Storage getStorage(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        Lease       lease = lease(file);
+
+        if(lease.isDirectory())
+            throw new FileNotFoundException(file + " is a directory");
+
+        return lease.storage();
+    }
+
+    @Override
+    public FileStatus stat(Path path)
+        throws RMIException, FileNotFoundException
+    {
+        return lease(path).status();
+    }
+
+    @Override
+    public OpenFile open(Path path, int mode)
+        throws RMIException, FileNotFoundException
+    {
+        return lease(path).open(mode);
+    }
+
+    @Override
+    public Storage[] getReplicas(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        Lease       lease = lease(file);
+
+        if(lease.isDirectory())
+            throw new FileNotFoundException(file + " is a directory");
+
+        return lease.replicas();
+    }
+
+    // Calls forwarded to the naming server. Documented in Service.java.
+    @Override
+    public String[] list(Path directory, String startAfter, int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return naming_server.list(directory, startAfter, limit);
+    }
+
+    @Override
+    public DirectoryEntry[] listEntries(Path directory, String startAfter,
+                                        int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return naming_server.listEntries(directory, startAfter, limit);
+    }
+
+    @Override
+    public Path[] find(Path root, String glob, Path startAfter, int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return naming_server.find(root, glob, startAfter, limit);
+    }
+
+    @Override
+    public boolean createFile(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        boolean     created = naming_server.createFile(file);
+
+        created(file);
+        return created;
+    }
+
+    @Override
+    public boolean createDirectory(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        boolean     created = naming_server.createDirectory(directory);
+
+        created(directory);
+        return created;
+    }
+
+    @Override
+    public boolean delete(Path path) throws RMIException, FileNotFoundException
+    {
+        return naming_server.delete(path);
+    }
+
+    @Override
+    public boolean rename(Path source, Path target)
+        throws RMIException, FileNotFoundException
+    {
+        boolean     renamed = naming_server.rename(source, target);
+
+        // The objects below a renamed directory are not known here: refresh
+        // the filter on the next lookup.
+        synchronized(filterLock)
+        {
+            filterRefreshed = 0;
+        }
+
+        return renamed;
+    }
+
+    @Override
+    public void written(Path file, long end)
+        throws RMIException, FileNotFoundException
+    {
+        naming_server.written(file, end);
+    }
+
+    @Override
+    public void writeFailed(Path file, Storage[] replicas)
+        throws RMIException, FileNotFoundException
+    {
+        naming_server.writeFailed(file, replicas);
+    }
+
+    @Override
+    public int getStorageNumber(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return naming_server.getStorageNumber(file);
+    }
+
+    @Override
+    public StorageTable getStorageTable() throws RMIException
+    {
+        return naming_server.getStorageTable();
+    }
+
+    @Override
+    public BatchResult<Boolean> isDirectoryBatch(Path[] paths)
+        throws RMIException
+    {
+        return naming_server.isDirectoryBatch(paths);
+    }
+
+    @Override
+    public BatchResult<Boolean> createFileBatch(Path[] files)
+        throws RMIException
+    {
+        BatchResult<Boolean>    result = naming_server.createFileBatch(files);
+
+        for(int i = 0; i < files.length; i++)
+        {
+            if(result.succeeded(i))
+                created(files[i]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public BatchResult<Boolean> createDirectoryBatch(Path[] directories)
+        throws RMIException
+    {
+        BatchResult<Boolean>    result =
+            naming_server.createDirectoryBatch(directories);
+
+        for(int i = 0; i < directories.length; i++)
+        {
+            if(result.succeeded(i))
+                created(directories[i]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public BatchResult<Storage> getStorageBatch(Path[] files)
+        throws RMIException
+    {
+        return naming_server.getStorageBatch(files);
+    }
+
+    @Override
+    public Usage usage(Path path) throws RMIException, FileNotFoundException
+    {
+        return naming_server.usage(path);
+    }
+
+    @Override
+    public void setQuota(Path directory, long objects, long bytes)
+        throws RMIException, FileNotFoundException
+    {
+        naming_server.setQuota(directory, objects, bytes);
+    }
+
+    @Override
+    public MountTable getMountTable() throws RMIException
+    {
+        return naming_server.getMountTable();
+    }
+
+    @Override
+    public Mutations tail(long after, int limit) throws RMIException
+    {
+        return naming_server.tail(after, limit);
+    }
+
+    @Override
+    public PathFilterUpdate pathFilter(long generation, long version)
+        throws RMIException
+    {
+        return naming_server.pathFilter(generation, version);
+    }
+
+    @Override
+    public HotPaths hotPaths(long window, int limit) throws RMIException
+    {
+        return naming_server.hotPaths(window, limit);
+    }
+
+    @Override
+    public long watch(Path prefix, long after, Watcher watcher)
+        throws RMIException
+    {
+        return naming_server.watch(prefix, after, watcher);
+    }
+
+    @Override
+    public void unwatch(Watcher watcher) throws RMIException
+    {
+        naming_server.unwatch(watcher);
+    }
+
+    @Override
+    public Lease lease(Path path, LeaseHolder holder)
+        throws RMIException, FileNotFoundException
+    {
+        return naming_server.lease(path, holder);
+    }
+
+    /** Receives revocations from the naming server. */
+    private class Revoker implements LeaseHolder
+    {
+        @Override
+        public void revoke(Path[] paths, long sequence)
+        {
+            synchronized(MetadataCache.this)
+            {
+                revoked = Math.max(revoked, sequence);
+
+                for(Path path : paths)
+                    leases.remove(path);
+            }
+        }
+    }
+
+    /** Cached lease. */
+    private static class Cached
+    {
+        /** The lease. */
+        final Lease     lease;
+        /** Local time at which the lease expires. */
+        final long      expiry;
+
+        Cached(Lease lease, long expiry)
+        {
+            this.lease = lease;
+            this.expiry = expiry;
+        }
+    }
+}
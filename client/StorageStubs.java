@@ -0,0 +1,88 @@
+package client;
+
+import java.io.*;
+
+import rmi.*;
+import common.*;
+import naming.*;
+import storage.*;
+
+/** Client-side table of the storage server stubs of a naming server.
+
+    <p>
+    Files are located with <code>Service.getStorageNumber</code>, which
+    returns the server number of a storage server rather than a stub. The stub
+    for each number is taken from a <code>StorageTable</code> fetched from the
+    naming server on first use, and fetched again only when a number is
+    missing from it because a storage server registered since. Each storage
+    server is therefore reached through one stub, and the calls to it share
+    the connections the RMI library keeps open to its address.
+
+    <p>
+    Server numbers are particular to the naming server that assigned them.
+    The table must be given a stub for a single naming server, or a
+    <code>MetadataCache</code> wrapping one, and not a router sending calls to
+    several.
+ */
+public class StorageStubs
+{
+    /** Naming server stub. */
+    private final Service               naming_server;
+    /** Last table fetched, or <code>null</code> before the first lookup. */
+    private volatile StorageTable       table;
+
+    /** Creates an empty table for a naming server.
+
+        @param naming_server Stub for the naming server.
+        @throws NullPointerException If <code>naming_server</code> is
+                                     <code>null</code>.
+     */
+    public StorageStubs(Service naming_server)
+    {
+        if(naming_server == null)
+            throw new NullPointerException();
+
+        this.naming_server = naming_server;
+    }
+
+    /** Returns a stub for the storage server hosting a file, with one call
+        to the naming server.
+
+        @param file Path to the file.
+        @return A stub for communicating with the storage server.
+        @throws FileNotFoundException If the file does not exist.
+        @throws RMIException If the naming server cannot be contacted.
+     */
+    public Storage getStorage(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return storage(naming_server.getStorageNumber(file));
+    }
+
+    /** Returns the stub of a storage server, fetching the table from the
+        naming server if the number is not in the cached table.
+
+        @param server Server number, as returned by the naming server.
+        @return The stub.
+        @throws IllegalArgumentException If the naming server has not assigned
+                                         the number.
+        @throws RMIException If the naming server cannot be contacted.
+     */
+    public Storage storage(int server) throws RMIException
+    {
+        StorageTable    cached = table;
+        Storage         stub = cached == null ? null : cached.get(server);
+
+        if(stub != null)
+            return stub;
+
+        cached = naming_server.getStorageTable();
+        table = cached;
+        stub = cached.get(server);
+
+        if(stub == null)
+            throw new IllegalArgumentException("unknown server number " + server);
+
+        return stub;
+    }
+}
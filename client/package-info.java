@@ -8,5 +8,23 @@
     be accessed as regular Java streams. For example, a file can be read by a
     <code>BufferedReader</code> or a <code>Scanner</code> by constructing those
     from a <code>DFSInputStream</code>.
+
+    <p>
+    <code>MetadataCache</code> wraps a naming server stub and caches lookups
+    under leases granted by the naming server. Giving the cache instead of the
+    stub to the stream classes saves a naming server call on each open of a
+    recently opened file. The cache can also keep a copy of the naming
+    server's path filter, and then answers lookups of most missing paths
+    without calling the naming server.
+
+    <p>
+    <code>StorageStubs</code> locates files by server number and keeps one
+    stub per storage server, fetching the naming server's table of storage
+    servers once rather than receiving a stub with every lookup.
+
+    <p>
+    <code>ChangeFeed</code> receives the changes below a path as the naming
+    server pushes them, in place of listing directories repeatedly to detect
+    new files.
  */
 package client;
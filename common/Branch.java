@@ -1,22 +1,29 @@
 package common;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * @author Yongbing Hu
  * @version 0.0.0
  * @time 2019-11-05 4:53 p.m.
- * @description
+ * @description handle on a directory inode
  */
 public class Branch extends Node {
-    public List<Node> list;
 
-    public Branch(String name) {
-        super(name);
-        this.list = new ArrayList<>();
+    Branch(FileTree tree, int id) {
+        super(tree, id);
     }
 
+    /** names of the children of the directory */
+    public String[] list() {
+        return this.tree.list(this);
+    }
 
-
+    /** one page of the names of the children, in sorted order
+     *
+     * @param startAfter name after which the page starts, null for the first
+     *        page
+     * @param limit maximum number of names
+     */
+    public String[] list(String startAfter, int limit) {
+        return this.tree.list(this.id, startAfter, limit);
+    }
 }
@@ -0,0 +1,185 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** Sorted index of the children of a large directory.
+
+    <p>
+    The index keeps the inode numbers of the children of a directory ordered
+    by name, in pages of at most <code>PAGE</code> entries. A lookup or an
+    insertion compares the name with the last entry of each page by binary
+    search, then searches one page, and moves at most one page of ints; a page
+    of a listing is copied from consecutive pages. A full page is split in
+    two, and an empty page dropped. The names themselves stay in the tree's
+    name pool, so that the index costs between four and eight bytes per child.
+ */
+class ChildIndex implements Serializable
+{
+    /** Largest number of entries in a page. */
+    static final int PAGE = 512;
+    /** Value returned by <code>find</code> for names not in the index. */
+    static final int NONE = -1;
+
+    private int[][] pages;
+    /** number of entries in each page */
+    private int[] sizes;
+    /** number of pages */
+    private int count;
+    /** number of entries */
+    private int size;
+
+    ChildIndex() {
+        this.pages = new int[4][];
+        this.sizes = new int[4];
+        this.count = 0;
+        this.size = 0;
+    }
+
+    /** number of children in the index */
+    int size() {
+        return this.size;
+    }
+
+    /** find a child by name
+     *
+     * @param tree tree holding the names of the children
+     * @param name component name
+     * @return inode of the child, or NONE
+     */
+    int find(FileTree tree, String name) {
+        int p = this.page(tree, name, false);
+        if (p == this.count)
+            return NONE;
+        int i = this.position(tree, p, name, false);
+        int id = this.pages[p][i];
+        return tree.nameOf(id).equals(name) ? id : NONE;
+    }
+
+    /** add a child, whose name is not in the index yet
+     *
+     * @param tree tree holding the names of the children
+     * @param id inode of the child
+     */
+    void add(FileTree tree, int id) {
+        String name = tree.nameOf(id);
+        if (this.count == 0) {
+            this.pages[0] = new int[16];
+            this.sizes[0] = 0;
+            this.count = 1;
+        }
+        int p = this.sizes[0] == 0 ? 0 : Math.min(this.page(tree, name, false), this.count - 1);
+        if (this.sizes[p] == PAGE) {
+            this.split(p);
+            if (tree.nameOf(this.pages[p][this.sizes[p] - 1]).compareTo(name) < 0)
+                p++;
+        }
+        int i = this.position(tree, p, name, false);
+        int[] page = this.pages[p];
+        int n = this.sizes[p];
+        if (n == page.length)
+            page = this.pages[p] = Arrays.copyOf(page, Math.min(PAGE, n * 2));
+        System.arraycopy(page, i, page, i + 1, n - i);
+        page[i] = id;
+        this.sizes[p] = n + 1;
+        this.size++;
+    }
+
+    /** remove a child, which must still have the name it was added with
+     *
+     * @param tree tree holding the names of the children
+     * @param id inode of the child
+     */
+    void remove(FileTree tree, int id) {
+        String name = tree.nameOf(id);
+        int p = this.page(tree, name, false);
+        if (p == this.count)
+            return;
+        int i = this.position(tree, p, name, false);
+        int[] page = this.pages[p];
+        if (page[i] != id)
+            return;
+        int n = --this.sizes[p];
+        System.arraycopy(page, i + 1, page, i, n - i);
+        this.size--;
+        if (n > 0)
+            return;
+        System.arraycopy(this.pages, p + 1, this.pages, p, this.count - p - 1);
+        System.arraycopy(this.sizes, p + 1, this.sizes, p, this.count - p - 1);
+        this.pages[--this.count] = null;
+    }
+
+    /** children named after a name, in name order
+     *
+     * @param tree tree holding the names of the children
+     * @param startAfter name after which the children start, null for the
+     *        first child
+     * @param limit maximum number of children
+     * @return inodes of the children
+     */
+    int[] after(FileTree tree, String startAfter, int limit) {
+        int p = 0;
+        int i = 0;
+        if (startAfter != null) {
+            p = this.page(tree, startAfter, true);
+            if (p < this.count)
+                i = this.position(tree, p, startAfter, true);
+        }
+        int[] found = new int[Math.min(limit, this.size)];
+        int n = 0;
+        for (; p < this.count && n < found.length; p++, i = 0) {
+            int copied = Math.min(this.sizes[p] - i, found.length - n);
+            System.arraycopy(this.pages[p], i, found, n, copied);
+            n += copied;
+        }
+        return n == found.length ? found : Arrays.copyOf(found, n);
+    }
+
+    /** first page whose last entry is named at or, if <code>strict</code>,
+     *  after a name; <code>count</code> if there is none */
+    private int page(FileTree tree, String name, boolean strict) {
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = tree.nameOf(this.pages[mid][this.sizes[mid] - 1]).compareTo(name);
+            if (c < 0 || (strict && c == 0))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** first position of a page whose entry is named at or, if
+     *  <code>strict</code>, after a name */
+    private int position(FileTree tree, int p, String name, boolean strict) {
+        int[] page = this.pages[p];
+        int low = 0;
+        int high = this.sizes[p];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = tree.nameOf(page[mid]).compareTo(name);
+            if (c < 0 || (strict && c == 0))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** split a full page in two halves */
+    private void split(int p) {
+        if (this.count == this.pages.length) {
+            this.pages = Arrays.copyOf(this.pages, this.count * 2);
+            this.sizes = Arrays.copyOf(this.sizes, this.count * 2);
+        }
+        System.arraycopy(this.pages, p + 1, this.pages, p + 2, this.count - p - 1);
+        System.arraycopy(this.sizes, p + 1, this.sizes, p + 2, this.count - p - 1);
+        int half = PAGE / 2;
+        this.pages[p + 1] = Arrays.copyOfRange(this.pages[p], half, PAGE);
+        this.sizes[p + 1] = PAGE - half;
+        this.sizes[p] = half;
+        this.count++;
+    }
+}
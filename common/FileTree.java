@@ -6,23 +6,1127 @@ import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.nio.file.FileAlreadyExistsException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
 
 /**
  * @author Yongbing Hu
  * @version 0.0.0
  * @time 2019-11-01 2:17 a.m.
- * @description
+ * @description directory tree kept as an inode table. Every file and directory
+ * is an inode number; its parent, first child and next and previous siblings
+ * are entries in primitive int arrays, its name is an id in a shared <code>NamePool</code>,
+ * and a file refers to the storage server hosting it by a small server number
+ * instead of holding a <code>Storage</code> stub. Files with more than one
+ * replica keep the extra server numbers in a sparse map. Directories with many
+ * children also keep a sorted index of their inode numbers by name, which
+ * serves lookups and paged listings without walking the sibling chain. The
+ * length and modification time of each file, as last reported by its storage
+ * server, are kept in two more arrays; lengths are ints, and the few lengths
+ * too large for an int are kept in a sparse map. The inodes sharing a name are
+ * listed by name, so that a glob search whose last component ends with a
+ * literal suffix, such as an extension, and matches few inodes visits only
+ * the inodes with those names instead of whole subtrees. Every directory also
+ * keeps the number of files and directories below it and their total length,
+ * in tables holding a row per directory only, updated along the chain of
+ * ancestors whenever an inode is linked, unlinked or resized, so that the
+ * usage of a subtree is read in constant time; directories may carry quotas
+ * on those numbers, held in a sparse map. New paths may be reported to a
+ * receiver as <code>PathFilter</code> hashes. Deleted subtrees are
+ * detached at once and their inodes reclaimed in slices. <code>Branch</code> and
+ * <code>Leaf</code> objects are handles created on demand. The tree is not
+ * thread-safe; callers serialize mutations.
  */
 public class FileTree implements Serializable {
 
-    Branch root;
+    /** inode number of the root directory */
+    public static final int ROOT = 0;
+    /** missing link, and the server number of a file without storage */
+    public static final int NONE = -1;
+    /** server slot value marking an inode as a directory */
+    private static final int DIRECTORY = -2;
+    /** parent value of the root of a detached subtree */
+    private static final int DETACHED = -3;
+    private static final int INITIAL_CAPACITY = 16;
+    /** size value of a file whose length is kept in largeSizes */
+    private static final int LARGE = -2;
+    /** number of children from which a directory keeps a sorted index */
+    private static final int INDEX_THRESHOLD = 64;
+    /** largest number of inodes with names matching the last component of a
+     *  glob for which a search starts from those inodes */
+    private static final int FIND_CANDIDATES = 1 << 16;
+    /** number of children listed at a time by a glob search */
+    private static final int FIND_PAGE = 256;
+
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    /** previous sibling, so that an inode is unlinked without a scan */
+    private int[] prevSibling;
+    private int[] name;
+    private int[] server;
+    /** length of each file in bytes, NONE until reported, or LARGE; for a
+     *  directory, its row in the directory tables */
+    private int[] size;
+    /** modification time of each file, NONE until reported */
+    private long[] modified;
+    /** version of each file, set by the naming server whenever the file's
+     *  replicas or attributes change; 0 until set. Versions are mutation
+     *  sequence numbers that clients compare for equality, so they stay
+     *  longs: an int would wrap on a busy server */
+    private long[] version;
+    /** an inode with each name id, NONE for none */
+    private int[] named;
+    /** the other inodes given each name id, or null; entries are checked when
+     *  read, so inodes released or renamed since are dropped only when the
+     *  list is compacted */
+    private int[][] alsoNamed;
+    /** number of entries in each list of alsoNamed */
+    private int[] alsoNamedSize;
+    /** number of files below each directory, by directory row */
+    private int[] files;
+    /** number of directories below each directory, by directory row */
+    private int[] directories;
+    /** total reported length of the files below each directory, by
+     *  directory row */
+    private long[] bytes;
+    /** number of directory rows handed out so far */
+    private int rows;
+    /** head of the free directory row list, threaded through files */
+    private int freeRow;
+    /** number of inode slots handed out so far */
+    private int used;
+    /** head of the free inode list, threaded through nextSibling */
+    private int free;
+    /** number of live inodes, including the root */
+    private int count;
+
+    private final NamePool names;
+    private final List<Storage> servers;
+    private final Map<Storage, Integer> serverIds;
+    /** number of files hosted by each server number */
+    private int[] serverFiles;
+    /** inodes given a replica on each server number, once indexed by
+     *  indexServers, or null; entries are checked when read, so files that
+     *  lost the replica since are dropped only when the list is compacted */
+    private transient int[][] serverIndex;
+    /** number of entries in each list of serverIndex */
+    private transient int[] serverIndexSize;
+    /** server numbers of the replicas after the first, for files with more
+     *  than one */
+    private final Map<Integer, int[]> replicas;
+    /** children sorted by name, for directories with at least
+     *  INDEX_THRESHOLD children */
+    private final Map<Integer, ChildIndex> indexes;
+    /** limits on the number of objects and bytes below a directory, NONE for
+     *  no limit, for directories with quotas */
+    private final Map<Integer, long[]> quotas;
+    /** lengths of the files longer than Integer.MAX_VALUE bytes */
+    private final Map<Integer, Long> largeSizes;
+    /** receives the path hash of every inode linked at a new path, or null */
+    private transient LongConsumer linked;
 
     public FileTree() {
-        this.root = new Branch(Constant.BACKSLASH_ROOT);
+        this.parent = new int[INITIAL_CAPACITY];
+        this.firstChild = new int[INITIAL_CAPACITY];
+        this.nextSibling = new int[INITIAL_CAPACITY];
+        this.prevSibling = new int[INITIAL_CAPACITY];
+        this.name = new int[INITIAL_CAPACITY];
+        this.server = new int[INITIAL_CAPACITY];
+        this.size = new int[INITIAL_CAPACITY];
+        this.modified = new long[INITIAL_CAPACITY];
+        this.version = new long[INITIAL_CAPACITY];
+        this.named = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.named, NONE);
+        this.alsoNamed = new int[INITIAL_CAPACITY][];
+        this.alsoNamedSize = new int[INITIAL_CAPACITY];
+        this.files = new int[INITIAL_CAPACITY];
+        this.directories = new int[INITIAL_CAPACITY];
+        this.bytes = new long[INITIAL_CAPACITY];
+        this.rows = 0;
+        this.freeRow = NONE;
+        this.used = 0;
+        this.free = NONE;
+        this.count = 0;
+        this.names = new NamePool();
+        this.servers = new ArrayList<>();
+        this.serverIds = new HashMap<>();
+        this.serverFiles = new int[4];
+        this.replicas = new HashMap<>();
+        this.indexes = new HashMap<>();
+        this.quotas = new HashMap<>();
+        this.largeSizes = new HashMap<>();
+        this.allocate(NONE, Constant.BACKSLASH_ROOT, DIRECTORY);
+    }
+
+    /** take an inode from the free list or the end of the table and link it
+     *  as the first child of its parent
+     *
+     * @param dir parent inode, NONE for the root
+     * @param file component name
+     * @param slot server number, or DIRECTORY
+     * @return the new inode
+     */
+    private int allocate(int dir, String file, int slot) {
+        int id;
+        if (this.free != NONE) {
+            id = this.free;
+            this.free = this.nextSibling[id];
+        } else {
+            if (this.used == this.parent.length)
+                this.grow();
+            id = this.used++;
+        }
+        this.parent[id] = dir;
+        this.firstChild[id] = NONE;
+        this.name[id] = this.names.intern(file);
+        this.chain(id);
+        this.server[id] = slot;
+        if (slot >= 0)
+            this.hosted(id, slot);
+        this.size[id] = slot == DIRECTORY ? this.allocateRow() : NONE;
+        this.modified[id] = NONE;
+        this.version[id] = 0;
+        this.prevSibling[id] = NONE;
+        this.nextSibling[id] = NONE;
+        if (dir != NONE)
+            this.link(dir, id);
+        this.count++;
+        if (dir != NONE && this.linked != null)
+            this.linked.accept(this.pathHash(id));
+        return id;
     }
 
+    /** set the receiver of the path hashes of new paths
+     *
+     * <p>The receiver is given the <code>PathFilter</code> hash of every file
+     * and directory created, and of every object of a renamed subtree at its
+     * new path. It is not serialized with the tree.
+     *
+     * @param linked the receiver, or null for none
+     */
+    public void onLink(LongConsumer linked) {
+        this.linked = linked;
+    }
+
+    /** path hash of an inode, as computed by <code>PathFilter.hash</code>
+     *
+     * @param id inode, not in a detached subtree
+     * @return the hash of the inode's path
+     */
+    public long pathHash(int id) {
+        int depth = 0;
+        for (int cur = id; cur != ROOT; cur = this.parent[cur])
+            depth++;
+        int[] chain = new int[depth];
+        for (int cur = id; cur != ROOT; cur = this.parent[cur])
+            chain[--depth] = cur;
+        long hash = PathFilter.ROOT;
+        for (int c : chain)
+            hash = PathFilter.hash(hash, this.nameOf(c));
+        return hash;
+    }
+
+    /** visit the path hashes of an inode and every inode below it
+     *
+     * @param id root of the subtree, not detached
+     * @param consumer receives each hash
+     */
+    public void pathHashes(int id, LongConsumer consumer) {
+        int[] ids = new int[INITIAL_CAPACITY];
+        long[] hashes = new long[INITIAL_CAPACITY];
+        int top = 0;
+        ids[top] = id;
+        hashes[top++] = this.pathHash(id);
+        while (top > 0) {
+            int cur = ids[--top];
+            long hash = hashes[top];
+            consumer.accept(hash);
+            for (int c = this.firstChild[cur]; c != NONE; c = this.nextSibling[c]) {
+                if (top == ids.length) {
+                    ids = Arrays.copyOf(ids, top * 2);
+                    hashes = Arrays.copyOf(hashes, top * 2);
+                }
+                ids[top] = c;
+                hashes[top++] = PathFilter.hash(hash, this.nameOf(c));
+            }
+        }
+    }
+
+    /** link an inode as the first child of a directory, adding its subtree to
+     *  the usage of the directory and its ancestors */
+    private void link(int dir, int id) {
+        this.parent[id] = dir;
+        this.prevSibling[id] = NONE;
+        this.nextSibling[id] = this.firstChild[dir];
+        if (this.firstChild[dir] != NONE)
+            this.prevSibling[this.firstChild[dir]] = id;
+        this.firstChild[dir] = id;
+        this.index(dir, id);
+        this.account(dir, id, 1);
+    }
+
+    /** add or remove the usage of a subtree along the chain of ancestors
+     *
+     * @param dir first directory updated
+     * @param id root inode of the subtree
+     * @param sign 1 to add the subtree, -1 to remove it
+     */
+    private void account(int dir, int id, int sign) {
+        boolean directory = this.server[id] == DIRECTORY;
+        int files = this.fileCount(id);
+        int directories = directory ? this.directories[this.row(id)] + 1 : 0;
+        long bytes = this.bytes(id);
+        for (int d = dir; d >= 0; d = this.parent[d]) {
+            int row = this.row(d);
+            this.files[row] += sign * files;
+            this.directories[row] += sign * directories;
+            this.bytes[row] += sign * bytes;
+        }
+    }
+
+    /** row of a directory in the directory tables */
+    private int row(int dir) {
+        return this.size[dir];
+    }
+
+    /** take a directory row from the free list or the end of the tables,
+     *  with zero usage */
+    private int allocateRow() {
+        int row;
+        if (this.freeRow != NONE) {
+            row = this.freeRow;
+            this.freeRow = this.files[row];
+        } else {
+            if (this.rows == this.files.length) {
+                int capacity = this.rows + (this.rows >> 1);
+                this.files = Arrays.copyOf(this.files, capacity);
+                this.directories = Arrays.copyOf(this.directories, capacity);
+                this.bytes = Arrays.copyOf(this.bytes, capacity);
+            }
+            row = this.rows++;
+        }
+        this.files[row] = 0;
+        this.directories[row] = 0;
+        this.bytes[row] = 0;
+        return row;
+    }
+
+    /** add a new child to its directory's sorted index, building the index
+     *  once the directory reaches INDEX_THRESHOLD children
+     *
+     * @param dir directory inode
+     * @param id child inode, already linked
+     */
+    private void index(int dir, int id) {
+        ChildIndex index = this.indexes.get(dir);
+        if (index != null) {
+            index.add(this, id);
+            return;
+        }
+        int children = 0;
+        for (int c = this.firstChild[dir]; c != NONE && children < INDEX_THRESHOLD; c = this.nextSibling[c])
+            children++;
+        if (children < INDEX_THRESHOLD)
+            return;
+        index = new ChildIndex();
+        for (int c = this.firstChild[dir]; c != NONE; c = this.nextSibling[c])
+            index.add(this, c);
+        this.indexes.put(dir, index);
+    }
+
+    private void grow() {
+        int capacity = this.used + (this.used >> 1);
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+        this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+        this.prevSibling = Arrays.copyOf(this.prevSibling, capacity);
+        this.name = Arrays.copyOf(this.name, capacity);
+        this.server = Arrays.copyOf(this.server, capacity);
+        this.size = Arrays.copyOf(this.size, capacity);
+        this.modified = Arrays.copyOf(this.modified, capacity);
+        this.version = Arrays.copyOf(this.version, capacity);
+    }
+
+    /** add an inode to the inodes with its name */
+    private void chain(int id) {
+        int key = this.name[id];
+        if (key >= this.named.length) {
+            int length = this.named.length;
+            int capacity = Math.max(key + 1, Math.max(this.names.capacity(), length + (length >> 1)));
+            this.named = Arrays.copyOf(this.named, capacity);
+            Arrays.fill(this.named, length, capacity, NONE);
+            this.alsoNamed = Arrays.copyOf(this.alsoNamed, capacity);
+            this.alsoNamedSize = Arrays.copyOf(this.alsoNamedSize, capacity);
+        }
+        int first = this.named[key];
+        if (first == NONE || this.name[first] != key) {
+            this.named[key] = id;
+            return;
+        }
+        if (first == id)
+            return;
+        int[] list = this.alsoNamed[key];
+        if (list == null)
+            list = this.alsoNamed[key] = new int[4];
+        int n = this.alsoNamedSize[key];
+        if (n == list.length) {
+            n = this.compactNamed(key);
+            if (n > list.length / 2)
+                list = this.alsoNamed[key] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[n] = id;
+        this.alsoNamedSize[key] = n + 1;
+    }
+
+    /** drop the entries of a name's list whose inode no longer has the name,
+     *  and duplicates, left by an inode renamed away and back
+     *
+     * @return the number of entries left
+     */
+    private int compactNamed(int key) {
+        int[] list = this.alsoNamed[key];
+        int n = this.alsoNamedSize[key];
+        Arrays.sort(list, 0, n);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if ((kept == 0 || list[kept - 1] != list[i]) && this.name[list[i]] == key && list[i] != this.named[key])
+                list[kept++] = list[i];
+        }
+        this.alsoNamedSize[key] = kept;
+        return kept;
+    }
+
+    /** drop an inode's reference on its name, forgetting the inodes with the
+     *  name once no inode has it any more */
+    private void unchain(int id) {
+        int key = this.name[id];
+        this.names.release(key);
+        if (this.names.get(key) != null)
+            return;
+        this.named[key] = NONE;
+        this.alsoNamed[key] = null;
+        this.alsoNamedSize[key] = 0;
+    }
+
+    /** inodes with a name, including inodes in detached subtrees
+     *
+     * @param key name id
+     * @return the inodes, sorted
+     */
+    private int[] named(int key) {
+        int n = this.alsoNamedSize[key];
+        int[] found = new int[n + 1];
+        int valid = 0;
+        int first = this.named[key];
+        if (first != NONE && this.name[first] == key)
+            found[valid++] = first;
+        int[] list = this.alsoNamed[key];
+        for (int i = 0; i < n; i++) {
+            if (this.name[list[i]] == key)
+                found[valid++] = list[i];
+        }
+        return this.distinct(found, valid);
+    }
+
+    /** remove an inode from its parent's child list, removing its subtree
+     *  from the usage of the parent and its ancestors */
+    private void unlink(int id) {
+        int dir = this.parent[id];
+        this.account(dir, id, -1);
+        ChildIndex index = this.indexes.get(dir);
+        if (index != null) {
+            index.remove(this, id);
+            if (index.size() < INDEX_THRESHOLD)
+                this.indexes.remove(dir);
+        }
+        int prev = this.prevSibling[id];
+        int next = this.nextSibling[id];
+        if (prev == NONE)
+            this.firstChild[dir] = next;
+        else
+            this.nextSibling[prev] = next;
+        if (next != NONE)
+            this.prevSibling[next] = prev;
+        this.prevSibling[id] = NONE;
+        this.nextSibling[id] = NONE;
+    }
+
+    /** return an unlinked inode to the free list */
+    private void release(int id) {
+        if (this.server[id] == DIRECTORY) {
+            this.files[this.row(id)] = this.freeRow;
+            this.freeRow = this.row(id);
+        }
+        if (this.server[id] >= 0)
+            this.serverFiles[this.server[id]]--;
+        int[] extra = this.replicas.remove(id);
+        if (extra != null) {
+            for (int slot : extra)
+                this.serverFiles[slot]--;
+        }
+        this.indexes.remove(id);
+        this.quotas.remove(id);
+        if (this.size[id] == LARGE)
+            this.largeSizes.remove(id);
+        this.unchain(id);
+        this.parent[id] = NONE;
+        this.firstChild[id] = NONE;
+        this.name[id] = NONE;
+        this.server[id] = NONE;
+        this.nextSibling[id] = this.free;
+        this.free = id;
+        this.count--;
+    }
+
+    /** find a child of a directory by name
+     *
+     * @param dir directory inode
+     * @param file component name
+     * @return child inode, or NONE if there is none
+     */
+    private int child(int dir, String file) {
+        ChildIndex index = this.indexes.get(dir);
+        if (index != null)
+            return index.find(this, file);
+        int key = this.names.find(file);
+        if (key == NamePool.NONE)
+            return NONE;
+        for (int c = this.firstChild[dir]; c != NONE; c = this.nextSibling[c]) {
+            if (this.name[c] == key)
+                return c;
+        }
+        return NONE;
+    }
+
+    /** find a child of a directory by name
+     *
+     * @param dir directory inode
+     * @param file component name
+     * @return child inode, or NONE if there is none
+     */
+    public int find(int dir, String file) {
+        return this.child(dir, file);
+    }
+
+    /** resolve a path to its inode
+     *
+     * @param path path
+     * @return inode of the object named by the path
+     * @throws FileNotFoundException if the path does not exist
+     */
+    public int lookup(Path path) throws FileNotFoundException {
+        if (path == null)
+            throw new NullPointerException("path can not be null");
+        int cur = ROOT;
+        for (String file : path) {
+            if (this.server[cur] != DIRECTORY)
+                throw new FileNotFoundException(path.toString());
+            cur = this.child(cur, file);
+            if (cur == NONE)
+                throw new FileNotFoundException(path.toString());
+        }
+        return cur;
+    }
+
+    /** resolve many paths at once, looking up each distinct parent directory
+     *  only once
+     *
+     * @param paths paths, in any order
+     * @return inode of each path, NONE for paths that do not exist
+     */
+    public int[] lookup(Path[] paths) {
+        Integer[] order = new Integer[paths.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> paths[a].compareTo(paths[b]));
+
+        int[] ids = new int[paths.length];
+        Path lastParent = null;
+        int lastDir = NONE;
+        for (int i : order) {
+            Path path = paths[i];
+            if (path.isRoot()) {
+                ids[i] = ROOT;
+                continue;
+            }
+            Path parent = path.parent();
+            if (lastParent == null || !lastParent.equals(parent)) {
+                lastParent = parent;
+                try {
+                    lastDir = this.lookup(parent);
+                } catch (FileNotFoundException e) {
+                    lastDir = NONE;
+                }
+            }
+            ids[i] = lastDir == NONE || this.server[lastDir] != DIRECTORY ?
+                    NONE : this.child(lastDir, path.last());
+        }
+        return ids;
+    }
+
+    /** small server number of a storage stub, assigned on first use
+     *
+     * @param storage storage stub, may be null
+     * @return server number, NONE for null
+     */
+    public int storageId(Storage storage) {
+        if (storage == null)
+            return NONE;
+        Integer id = this.serverIds.get(storage);
+        if (id == null) {
+            id = this.servers.size();
+            this.servers.add(storage);
+            this.serverIds.put(storage, id);
+            if (id == this.serverFiles.length) {
+                this.serverFiles = Arrays.copyOf(this.serverFiles, id * 2);
+                if (this.serverIndex != null) {
+                    this.serverIndex = Arrays.copyOf(this.serverIndex, id * 2);
+                    this.serverIndexSize = Arrays.copyOf(this.serverIndexSize, id * 2);
+                }
+            }
+            if (this.serverIndex != null)
+                this.serverIndex[id] = new int[16];
+        }
+        return id;
+    }
+
+    /** number of server numbers assigned; numbers run from 0 to one less */
+    public int storageCount() {
+        return this.servers.size();
+    }
+
+    /** storage stub of a server number
+     *
+     * @param id server number
+     * @return stub, or null for NONE
+     */
+    public Storage storage(int id) {
+        return id == NONE ? null : this.servers.get(id);
+    }
+
+    /** number of files hosted by a server
+     *
+     * @param id server number
+     * @return file count
+     */
+    public int files(int id) {
+        return id < this.servers.size() ? this.serverFiles[id] : 0;
+    }
+
+    /** server number of some file in a directory
+     *
+     * @param dir directory path
+     * @return server number of a file directly in the directory, NONE if the
+     *         directory holds no file with storage
+     */
+    public int siblingServer(Path dir) throws FileNotFoundException {
+        return this.siblingServer(this.lookup(dir));
+    }
+
+    /** server number of some file in a directory
+     *
+     * @param dir directory inode
+     * @return server number of a file directly in the directory, NONE if the
+     *         directory holds no file with storage
+     */
+    public int siblingServer(int dir) {
+        for (int c = this.firstChild[dir]; c != NONE; c = this.nextSibling[c]) {
+            if (this.server[c] >= 0)
+                return this.server[c];
+        }
+        return NONE;
+    }
+
+    /** server numbers of all replicas of a file, the first replica first
+     *
+     * @param id file inode
+     * @return server numbers, empty for a file without storage or a directory
+     */
+    public int[] replicas(int id) {
+        if (this.server[id] < 0)
+            return new int[0];
+        int[] extra = this.replicas.get(id);
+        if (extra == null)
+            return new int[] {this.server[id]};
+        int[] all = new int[extra.length + 1];
+        all[0] = this.server[id];
+        System.arraycopy(extra, 0, all, 1, extra.length);
+        return all;
+    }
+
+    /** length of a file in bytes, as last reported
+     *
+     * @param id file inode
+     * @return the length, NONE if not reported or a directory
+     */
+    public long size(int id) {
+        if (this.server[id] == DIRECTORY)
+            return NONE;
+        return this.size[id] == LARGE ? this.largeSizes.get(id) : this.size[id];
+    }
+
+    /** modification time of a file, as last reported
+     *
+     * @param id file inode
+     * @return milliseconds since the epoch, NONE if not reported or a
+     *         directory
+     */
+    public long modified(int id) {
+        return this.modified[id];
+    }
+
+    /** record the length and modification time of a file
+     *
+     * @param id file inode
+     * @param size length in bytes
+     * @param modified modification time in milliseconds since the epoch
+     */
+    public void setAttributes(int id, long size, long modified) {
+        if (this.server[id] == DIRECTORY)
+            throw new IllegalArgumentException("a directory has no length");
+        long change = Math.max(size, 0) - this.bytes(id);
+        for (int d = this.parent[id]; d >= 0 && change != 0; d = this.parent[d])
+            this.bytes[this.row(d)] += change;
+        if (size > Integer.MAX_VALUE) {
+            this.size[id] = LARGE;
+            this.largeSizes.put(id, size);
+        } else {
+            if (this.size[id] == LARGE)
+                this.largeSizes.remove(id);
+            this.size[id] = (int)Math.max(size, NONE);
+        }
+        this.modified[id] = modified;
+    }
+
+    /** version of a file
+     *
+     * @param id file inode
+     * @return the version last set, 0 if none was set
+     */
+    public long version(int id) {
+        return this.version[id];
+    }
+
+    /** set the version of a file */
+    public void setVersion(int id, long version) {
+        this.version[id] = version;
+    }
+
+    /** number of files below a directory, or 1 for a file */
+    public int fileCount(int id) {
+        return this.server[id] == DIRECTORY ? this.files[this.row(id)] : 1;
+    }
+
+    /** number of directories below a directory, or 0 for a file */
+    public int directoryCount(int id) {
+        return this.server[id] == DIRECTORY ? this.directories[this.row(id)] : 0;
+    }
+
+    /** total reported length of the files below a directory, or the length
+     *  of a file; lengths not reported yet count as zero */
+    public long bytes(int id) {
+        return this.server[id] == DIRECTORY ? this.bytes[this.row(id)] : Math.max(this.size(id), 0);
+    }
+
+    /** set or clear the quotas of a directory
+     *
+     * @param dir directory inode
+     * @param objects largest number of files and directories below the
+     *        directory, NONE for no limit
+     * @param bytes largest total length of the files below the directory,
+     *        NONE for no limit
+     * @throws IllegalArgumentException if the inode is a file or a limit is
+     *         negative
+     */
+    public void setQuota(int dir, long objects, long bytes) {
+        if (this.server[dir] != DIRECTORY)
+            throw new IllegalArgumentException("a file has no quota");
+        if (objects < NONE || bytes < NONE)
+            throw new IllegalArgumentException("negative quota");
+        if (objects == NONE && bytes == NONE)
+            this.quotas.remove(dir);
+        else
+            this.quotas.put(dir, new long[] {objects, bytes});
+    }
+
+    /** quotas of a directory
+     *
+     * @param dir directory inode
+     * @return the limits on objects and bytes, NONE for no limit, or null if
+     *         the directory has no quota
+     */
+    public long[] quota(int dir) {
+        long[] quota = this.quotas.get(dir);
+        return quota == null ? null : quota.clone();
+    }
+
+    /** find a quota that new objects in a directory would exceed
+     *
+     * <p>A directory refuses new objects once they would take the number of
+     * objects below it past its object quota, or once the files below it
+     * have reached its byte quota. Lengths are reported after files are
+     * written, so the byte quota is only checked when objects are created.
+     *
+     * @param dir directory the objects are created in
+     * @param objects number of new files and directories
+     * @return the nearest directory, from <code>dir</code> up, whose quota is
+     *         exceeded, or NONE
+     */
+    public int overQuota(int dir, int objects) {
+        if (this.quotas.isEmpty())
+            return NONE;
+        for (int d = dir; d >= 0; d = this.parent[d]) {
+            long[] quota = this.quotas.get(d);
+            if (quota == null)
+                continue;
+            if (quota[0] != NONE && (long)this.fileCount(d) + this.directoryCount(d) + objects > quota[0])
+                return d;
+            if (quota[1] != NONE && this.bytes(d) >= quota[1])
+                return d;
+        }
+        return NONE;
+    }
+
+    /** add a replica to a file
+     *
+     * @param id file inode
+     * @param slot server number of the new replica
+     * @return true if added, false if the server already holds a replica
+     */
+    public boolean addReplica(int id, int slot) {
+        if (this.server[id] == DIRECTORY)
+            throw new IllegalArgumentException("a directory has no storage");
+        for (int held : this.replicas(id)) {
+            if (held == slot)
+                return false;
+        }
+        if (this.server[id] == NONE) {
+            this.server[id] = slot;
+        } else {
+            int[] extra = this.replicas.get(id);
+            if (extra == null) {
+                extra = new int[] {slot};
+            } else {
+                extra = Arrays.copyOf(extra, extra.length + 1);
+                extra[extra.length - 1] = slot;
+            }
+            this.replicas.put(id, extra);
+        }
+        this.hosted(id, slot);
+        return true;
+    }
+
+    /** remove a replica from a file; the next replica, if any, becomes the
+     *  first
+     *
+     * @param id file inode
+     * @param slot server number of the replica
+     * @return true if removed, false if the server holds no replica
+     */
+    public boolean removeReplica(int id, int slot) {
+        int[] extra = this.replicas.get(id);
+        if (this.server[id] == slot) {
+            if (extra == null) {
+                this.server[id] = NONE;
+            } else {
+                this.server[id] = extra[0];
+                this.setExtra(id, Arrays.copyOfRange(extra, 1, extra.length));
+            }
+        } else {
+            int at = -1;
+            for (int i = 0; extra != null && i < extra.length; i++) {
+                if (extra[i] == slot)
+                    at = i;
+            }
+            if (at < 0)
+                return false;
+            int[] rest = new int[extra.length - 1];
+            System.arraycopy(extra, 0, rest, 0, at);
+            System.arraycopy(extra, at + 1, rest, at, rest.length - at);
+            this.setExtra(id, rest);
+        }
+        this.serverFiles[slot]--;
+        return true;
+    }
+
+    /** move a replica of a file from one server to another, keeping its
+     *  place in the replica set
+     *
+     * @param id file inode
+     * @param from server number holding the replica
+     * @param to server number receiving it
+     * @return true if moved, false if <code>from</code> holds no replica or
+     *         <code>to</code> already holds one
+     */
+    public boolean moveReplica(int id, int from, int to) {
+        int[] held = this.replicas(id);
+        int at = -1;
+        for (int i = 0; i < held.length; i++) {
+            if (held[i] == to)
+                return false;
+            if (held[i] == from)
+                at = i;
+        }
+        if (at < 0)
+            return false;
+        if (at == 0)
+            this.server[id] = to;
+        else
+            this.replicas.get(id)[at - 1] = to;
+        this.serverFiles[from]--;
+        this.hosted(id, to);
+        return true;
+    }
+
+    /** count a new replica of a file on a server, and index it if servers
+     *  are indexed */
+    private void hosted(int id, int slot) {
+        this.serverFiles[slot]++;
+        if (this.serverIndex == null)
+            return;
+        int[] list = this.serverIndex[slot];
+        int n = this.serverIndexSize[slot];
+        if (n == list.length) {
+            n = this.compact(slot);
+            list = this.serverIndex[slot];
+            if (n > list.length / 2)
+                list = this.serverIndex[slot] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[n] = id;
+        this.serverIndexSize[slot] = n + 1;
+    }
+
+    /** whether a live file has a replica on a server */
+    private boolean holds(int id, int slot) {
+        if (this.name[id] == NONE || this.server[id] < 0)
+            return false;
+        for (int held : this.replicas(id)) {
+            if (held == slot)
+                return true;
+        }
+        return false;
+    }
+
+    /** drop the entries of a server's list whose file lost the replica, and
+     *  duplicates, left by a file that lost the replica and got it again
+     *
+     * @return the number of entries left
+     */
+    private int compact(int slot) {
+        int[] list = this.serverIndex[slot];
+        int n = this.serverIndexSize[slot];
+        Arrays.sort(list, 0, n);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if ((kept == 0 || list[kept - 1] != list[i]) && this.holds(list[i], slot))
+                list[kept++] = list[i];
+        }
+        this.serverIndexSize[slot] = kept;
+        return kept;
+    }
+
+    /** index the files of every server, so that filesOn reads the files of
+     *  one server instead of the whole table; the index costs an int per
+     *  replica, and is kept up to date from then on */
+    public void indexServers() {
+        if (this.serverIndex != null)
+            return;
+        this.serverIndex = new int[this.serverFiles.length][];
+        this.serverIndexSize = new int[this.serverFiles.length];
+        for (int slot = 0; slot < this.servers.size(); slot++)
+            this.serverIndex[slot] = new int[Math.max(16, this.serverFiles[slot])];
+        for (int id = 0; id < this.used; id++) {
+            if (this.name[id] == NONE || this.server[id] < 0)
+                continue;
+            for (int slot : this.replicas(id))
+                this.serverIndex[slot][this.serverIndexSize[slot]++] = id;
+        }
+    }
+
+    /** files with a replica on one server and none on another
+     *
+     * <p>Once servers are indexed, the files of the server are read from its
+     * index; otherwise the whole table is scanned.
+     *
+     * @param slot server number holding the files
+     * @param without server number that must not hold them, or NONE
+     * @param limit maximum number of files returned
+     * @return inodes of the files
+     */
+    public int[] filesOn(int slot, int without, int limit) {
+        int[] found = new int[Math.min(limit, this.files(slot))];
+        int n = 0;
+        if (this.serverIndex != null) {
+            int[] list = this.serverIndex[slot];
+            int size = this.serverIndexSize[slot];
+            for (int i = 0; i < size && n < found.length; i++) {
+                int id = list[i];
+                if (this.holds(id, slot) && (without == NONE || !this.holds(id, without)))
+                    found[n++] = id;
+            }
+            return this.distinct(found, n);
+        }
+        for (int id = 0; id < this.used && n < found.length; id++) {
+            if (this.name[id] == NONE || this.server[id] < 0)
+                continue;
+            boolean on = false;
+            boolean excluded = false;
+            for (int held : this.replicas(id)) {
+                on |= held == slot;
+                excluded |= held == without;
+            }
+            if (on && !excluded)
+                found[n++] = id;
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /** server numbers holding replicas of the files at or below an inode
+     *
+     * <p>The subtree is walked until every server has been found, so the
+     * walk of a subtree whose files are spread over all the servers stops
+     * early.
+     *
+     * @param root inode of a file or directory
+     * @return the server numbers, sorted
+     */
+    public int[] serversBelow(int root) {
+        boolean[] seen = new boolean[this.servers.size()];
+        int found = 0;
+        int[] stack = new int[INITIAL_CAPACITY];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0 && found < seen.length) {
+            int id = stack[--top];
+            if (this.server[id] >= 0) {
+                for (int slot : this.replicas(id)) {
+                    if (!seen[slot]) {
+                        seen[slot] = true;
+                        found++;
+                    }
+                }
+            }
+            for (int c = this.firstChild[id]; c != NONE; c = this.nextSibling[c]) {
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = c;
+            }
+        }
+        int[] slots = new int[found];
+        int n = 0;
+        for (int slot = 0; slot < seen.length; slot++) {
+            if (seen[slot])
+                slots[n++] = slot;
+        }
+        return slots;
+    }
+
+    /** files at or below an inode with a replica on a server
+     *
+     * @param root inode of a file or directory
+     * @param slot server number
+     * @return inodes of the files
+     */
+    public int[] filesBelow(int root, int slot) {
+        int[] files = new int[INITIAL_CAPACITY];
+        int n = 0;
+        int[] stack = new int[INITIAL_CAPACITY];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int id = stack[--top];
+            if (this.server[id] >= 0 && this.holds(id, slot)) {
+                if (n == files.length)
+                    files = Arrays.copyOf(files, n * 2);
+                files[n++] = id;
+            }
+            for (int c = this.firstChild[id]; c != NONE; c = this.nextSibling[c]) {
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = c;
+            }
+        }
+        return Arrays.copyOf(files, n);
+    }
+
+    /** the distinct values among the first n of an array, sorted */
+    private int[] distinct(int[] values, int n) {
+        Arrays.sort(values, 0, n);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (kept == 0 || values[kept - 1] != values[i])
+                values[kept++] = values[i];
+        }
+        return Arrays.copyOf(values, kept);
+    }
+
+    /** path of an inode
+     *
+     * @param id inode
+     * @return the path from the root to the inode, or null if the inode is in
+     *         a detached subtree
+     */
+    public Path path(int id) {
+        if (id == ROOT)
+            return new Path();
+        List<String> components = new ArrayList<>();
+        for (int cur = id; cur != ROOT; cur = this.parent[cur]) {
+            if (cur == DETACHED)
+                return null;
+            components.add(this.nameOf(cur));
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = components.size() - 1; i >= 0; i--)
+            builder.append(Constant.BACKSLASH_ROOT).append(components.get(i));
+        return new Path(builder.toString());
+    }
+
+    private void setExtra(int id, int[] extra) {
+        if (extra.length == 0)
+            this.replicas.remove(id);
+        else
+            this.replicas.put(id, extra);
+    }
+
+    /** name of an inode
+     *
+     * @param id inode
+     * @return last component of the inode's path
+     */
+    public String nameOf(int id) {
+        return this.names.get(this.name[id]);
+    }
+
+    Storage storageOf(int id) {
+        return this.storage(this.server[id]);
+    }
+
+    void setStorage(int id, Storage storage) {
+        if (this.server[id] == DIRECTORY)
+            throw new IllegalArgumentException("a directory has no storage");
+        int slot = this.storageId(storage);
+        if (this.server[id] >= 0)
+            this.serverFiles[this.server[id]]--;
+        this.server[id] = slot;
+        if (slot >= 0)
+            this.hosted(id, slot);
+    }
+
+    /** number of files and directories in the tree, including the root */
+    public int size() {
+        return this.count;
+    }
+
+    /** number of distinct component names in the tree */
+    public int distinctNames() {
+        return this.names.size();
+    }
 
     /** determine a path is a directory
      *
@@ -31,19 +1135,7 @@ public class FileTree implements Serializable {
      * @throws FileNotFoundException
      */
     public boolean isDirectory(Path path) throws FileNotFoundException {
-        if (path.isRoot())
-            return true;
-        Iterator<String> files = path.iterator();
-        Branch cur = this.root;
-
-        while (files.hasNext()) {
-            String file = files.next();
-            if (!this.isDirectory(cur, file))
-                return false;
-            else
-                cur = this.cd(cur, file);
-        }
-        return true;
+        return this.server[this.lookup(path)] == DIRECTORY;
     }
 
     /** make a directory in a branch
@@ -54,13 +1146,9 @@ public class FileTree implements Serializable {
     public void mkdir(Branch parent, String dir) throws FileAlreadyExistsException {
         if (parent == null || dir == null)
             throw new NullPointerException();
-        try {
-            if (this.isDirectory(parent, dir) || this.isFile(parent, dir))
-                throw new FileAlreadyExistsException("directory already exist");
-        } catch (FileNotFoundException e) {
-            Branch branch = new Branch(dir);
-            parent.list.add(branch);
-        }
+        if (this.child(parent.id, dir) != NONE)
+            throw new FileAlreadyExistsException("directory already exist");
+        this.allocate(parent.id, dir, DIRECTORY);
     }
 
     /** touch a file with storage
@@ -72,14 +1160,9 @@ public class FileTree implements Serializable {
     public void touch(String file, Branch parent, Storage storage) throws FileAlreadyExistsException {
         if (file == null || parent == null)
             throw new NullPointerException();
-        try {
-            if (this.isFile(parent, file) || this.isDirectory(parent, file))
-                throw new FileAlreadyExistsException(file);
-        } catch (FileNotFoundException e) {
-            Leaf f = new Leaf(file, storage);
-            parent.list.add(f);
-        }
-
+        if (this.child(parent.id, file) != NONE)
+            throw new FileAlreadyExistsException(file);
+        this.allocate(parent.id, file, this.storageId(storage));
     }
 
     /** touch a file without storage
@@ -91,10 +1174,324 @@ public class FileTree implements Serializable {
         this.touch(file, branch, null);
     }
 
+    /** touch a file with storage, making its parent directories
+     *
+     * @param path path of the file
+     * @param storage
+     * @throws FileAlreadyExistsException if the path exists or a file is in
+     *         the way of one of its parent directories
+     */
     public void touch(Path path, Storage storage) throws FileNotFoundException, FileAlreadyExistsException {
-        this.mkdirs(this.root, path.parent());
-        Branch parent = this.cd(path.parent());
-        this.touch(path.last(), parent,storage);
+        if (path.isRoot())
+            throw new FileAlreadyExistsException(path.toString());
+        int dir = ROOT;
+        for (String f : path.parent()) {
+            int c = this.child(dir, f);
+            if (c == NONE)
+                c = this.allocate(dir, f, DIRECTORY);
+            else if (this.server[c] != DIRECTORY)
+                throw new FileAlreadyExistsException(path.toString());
+            dir = c;
+        }
+        this.touch(path.last(), new Branch(this, dir), storage);
+    }
+
+    /** add many files hosted by one storage server in a single pass
+     *
+     * <p>The files are visited in path order, so that the parent directory of
+     * consecutive files is looked up, or made, once. Files whose path exists,
+     * or whose parent path is blocked by a file, are not added.
+     *
+     * @param files paths of the files, in any order
+     * @param storage storage server hosting the files
+     * @return the files that were not added
+     */
+    public List<Path> merge(Path[] files, Storage storage) {
+        Path[] sorted = files.clone();
+        Arrays.sort(sorted);
+        int slot = this.storageId(storage);
+        List<Path> duplicates = new ArrayList<>();
+        Path lastParent = null;
+        int lastDir = NONE;
+        for (Path file : sorted) {
+            if (file.isRoot())
+                continue;
+            Path parent = file.parent();
+            if (lastParent == null || !lastParent.equals(parent)) {
+                lastParent = parent;
+                lastDir = this.directories(parent);
+            }
+            if (lastDir == NONE || this.child(lastDir, file.last()) != NONE)
+                duplicates.add(file);
+            else
+                this.allocate(lastDir, file.last(), slot);
+        }
+        return duplicates;
+    }
+
+    /** resolve a directory path, making the directories that are missing
+     *
+     * @param path directory path
+     * @return inode of the directory, NONE if a file is in the way
+     */
+    private int directories(Path path) {
+        int dir = ROOT;
+        for (String f : path) {
+            int c = this.child(dir, f);
+            if (c == NONE)
+                c = this.allocate(dir, f, DIRECTORY);
+            else if (this.server[c] != DIRECTORY)
+                return NONE;
+            dir = c;
+        }
+        return dir;
+    }
+
+    /** list names of a branch
+     *
+     * @param parent
+     * @return names of the children, in no particular order
+     */
+    public String[] list(Branch parent) {
+        if (parent == null)
+            throw new NullPointerException();
+        List<String> children = new ArrayList<>();
+        for (int c = this.firstChild[parent.id]; c != NONE; c = this.nextSibling[c])
+            children.add(this.nameOf(c));
+        return children.toArray(new String[children.size()]);
+    }
+
+    /** list one page of the names of a directory, in sorted order
+     *
+     * @param dir directory inode
+     * @param startAfter name after which the page starts, null for the first
+     *        page
+     * @param limit maximum number of names
+     * @return names following <code>startAfter</code>, sorted; fewer than
+     *         <code>limit</code> only on the last page
+     */
+    public String[] list(int dir, String startAfter, int limit) {
+        int[] page = this.children(dir, startAfter, limit);
+        String[] names = new String[page.length];
+        for (int i = 0; i < page.length; i++)
+            names[i] = this.nameOf(page[i]);
+        return names;
+    }
+
+    /** one page of the children of a directory, in name order
+     *
+     * @param dir directory inode
+     * @param startAfter name after which the page starts, null for the first
+     *        page
+     * @param limit maximum number of children
+     * @return inodes of the children named after <code>startAfter</code>;
+     *         fewer than <code>limit</code> only on the last page
+     */
+    public int[] children(int dir, String startAfter, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("page size must be positive");
+        ChildIndex index = this.indexes.get(dir);
+        if (index != null)
+            return index.after(this, startAfter, limit);
+        List<Integer> children = new ArrayList<>();
+        for (int c = this.firstChild[dir]; c != NONE; c = this.nextSibling[c]) {
+            if (startAfter == null || this.nameOf(c).compareTo(startAfter) > 0)
+                children.add(c);
+        }
+        children.sort((a, b) -> this.nameOf(a).compareTo(this.nameOf(b)));
+        int[] page = new int[Math.min(limit, children.size())];
+        for (int i = 0; i < page.length; i++)
+            page[i] = children.get(i);
+        return page;
+    }
+
+    /** one page of the objects below a directory whose paths match a glob
+     *
+     * <p>Paths are returned in <code>Path</code> order, which is the order of
+     * a depth-first walk visiting children by name. When the last component
+     * of the glob ends with literal text and few inodes have names it
+     * matches, the search
+     * starts from those inodes, found through the suffix index of the name
+     * pool and the chains of inodes by name, and checks their ancestors
+     * against the rest of the glob. Otherwise the tree is walked from the
+     * directory, descending only into children the glob may still match, and
+     * looking children up by name where the glob is literal.
+     *
+     * @param root directory searched; its own path is never returned
+     * @param glob the glob, relative to <code>root</code>
+     * @param startAfter path after which the page starts, null for the first
+     *        page
+     * @param limit maximum number of paths
+     * @return matching paths following <code>startAfter</code>, sorted; fewer
+     *         than <code>limit</code> only on the last page
+     * @throws FileNotFoundException if <code>root</code> is not a directory
+     */
+    public Path[] find(Path root, Glob glob, Path startAfter, int limit) throws FileNotFoundException {
+        if (root == null || glob == null)
+            throw new NullPointerException();
+        if (limit < 1)
+            throw new IllegalArgumentException("page size must be positive");
+        int dir = this.lookup(root);
+        if (this.server[dir] != DIRECTORY)
+            throw new FileNotFoundException(root + " is not a directory");
+        List<Integer> keys = this.matchingNames(glob);
+        if (keys != null)
+            return this.findNamed(dir, keys, glob, startAfter, limit);
+        List<String> base = root.getComponents();
+        List<String> after = startAfter == null ? null : startAfter.getComponents();
+        boolean bounded = false;
+        if (after != null) {
+            if (after.size() >= base.size() && after.subList(0, base.size()).equals(base))
+                bounded = after.size() > base.size();
+            else if (startAfter.compareTo(root) > 0)
+                return new Path[0];
+        }
+        List<Path> found = new ArrayList<>();
+        this.walk(dir, root, glob.start(), glob, after, base.size(), bounded, limit, found);
+        return found.toArray(new Path[found.size()]);
+    }
+
+    /** names matching the last component of a glob, if few enough inodes
+     *  have them
+     *
+     * @return ids of the names, or null if the last component has no literal
+     *         suffix or more than FIND_CANDIDATES inodes may match
+     */
+    private List<Integer> matchingNames(Glob glob) {
+        String suffix = glob.suffix();
+        if (suffix == null || suffix.isEmpty())
+            return null;
+        List<Integer> keys = new ArrayList<>();
+        int scanned = 0;
+        long candidates = 0;
+        for (int key : this.names.endingWith(suffix, FIND_CANDIDATES + 1)) {
+            if (++scanned > FIND_CANDIDATES)
+                return null;
+            if (glob.matchesLast(this.names.get(key))) {
+                keys.add(key);
+                candidates += this.names.references(key);
+                if (candidates > FIND_CANDIDATES)
+                    return null;
+            }
+        }
+        return keys;
+    }
+
+    /** search the children of a directory in name order
+     *
+     * @param dir directory inode
+     * @param path path of the directory
+     * @param state state of the glob after the path of the directory
+     * @param after components of the path the page starts after, or null
+     * @param depth index in <code>after</code> of the children's component
+     * @param bounded true if the directory is a proper prefix of
+     *        <code>after</code>, so that earlier children are skipped
+     * @param found receives the matching paths
+     * @return false once <code>limit</code> paths are found
+     */
+    private boolean walk(int dir, Path path, long state, Glob glob, List<String> after, int depth, boolean bounded,
+                         int limit, List<Path> found) {
+        String from = bounded ? after.get(depth) : null;
+        List<String> literals = glob.literals(state);
+        if (literals != null) {
+            Collections.sort(literals);
+            for (String file : literals) {
+                if (from != null && file.compareTo(from) < 0)
+                    continue;
+                int c = this.child(dir, file);
+                if (c != NONE && !this.visit(c, path, state, glob, after, depth, file.equals(from), limit, found))
+                    return false;
+            }
+            return true;
+        }
+        if (from != null) {
+            int c = this.child(dir, from);
+            if (c != NONE && !this.visit(c, path, state, glob, after, depth, true, limit, found))
+                return false;
+        }
+        int[] page;
+        do {
+            page = this.children(dir, from, FIND_PAGE);
+            for (int c : page) {
+                if (!this.visit(c, path, state, glob, after, depth, false, limit, found))
+                    return false;
+            }
+            if (page.length > 0)
+                from = this.nameOf(page[page.length - 1]);
+        } while (page.length == FIND_PAGE);
+        return true;
+    }
+
+    /** search a child and, for a directory, its subtree
+     *
+     * @param dir path of the directory holding the child
+     * @param bounded true if the child is a prefix of <code>after</code> and
+     *        so is not returned itself
+     */
+    private boolean visit(int c, Path dir, long state, Glob glob, List<String> after, int depth, boolean bounded,
+                          int limit, List<Path> found) {
+        String file = this.nameOf(c);
+        long next = glob.step(state, file);
+        boolean descend = this.server[c] == DIRECTORY && glob.live(next);
+        if (!descend && (bounded || !glob.accepts(next)))
+            return true;
+        Path path = new Path(dir, file);
+        if (!bounded && glob.accepts(next)) {
+            found.add(path);
+            if (found.size() == limit)
+                return false;
+        }
+        if (descend)
+            return this.walk(c, path, next, glob, after, depth + 1, bounded && after.size() > depth + 1, limit, found);
+        return true;
+    }
+
+    /** search the inodes with the given names, keeping the first page */
+    private Path[] findNamed(int dir, List<Integer> keys, Glob glob, Path startAfter, int limit) {
+        PriorityQueue<Path> page = new PriorityQueue<>(Collections.reverseOrder());
+        List<String> components = new ArrayList<>();
+        for (int key : keys) {
+            for (int id : this.named(key)) {
+                if (!this.below(id, dir, components))
+                    continue;
+                long state = glob.start();
+                for (int i = components.size() - 1; i >= 0 && state != 0; i--)
+                    state = glob.step(state, components.get(i));
+                if (!glob.accepts(state))
+                    continue;
+                Path path = this.path(id);
+                if (startAfter != null && path.compareTo(startAfter) <= 0)
+                    continue;
+                if (page.size() < limit) {
+                    page.add(path);
+                } else if (path.compareTo(page.peek()) < 0) {
+                    page.poll();
+                    page.add(path);
+                }
+            }
+        }
+        Path[] sorted = page.toArray(new Path[page.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /** collect the names on the way from a directory down to an inode
+     *
+     * @param id inode
+     * @param dir directory inode
+     * @param components receives the names from the inode up, excluding the
+     *        directory's
+     * @return true if the inode is strictly below the directory and not in a
+     *         detached subtree
+     */
+    private boolean below(int id, int dir, List<String> components) {
+        components.clear();
+        for (int cur = id; cur != dir; cur = this.parent[cur]) {
+            if (cur == ROOT || cur == DETACHED)
+                return false;
+            components.add(this.nameOf(cur));
+        }
+        return !components.isEmpty();
     }
 
     /** list branches of a  branch
@@ -106,9 +1503,9 @@ public class FileTree implements Serializable {
         if (parent == null)
             throw new NullPointerException();
         List<Branch> children = new ArrayList<>();
-        for (Node n : parent.list) {
-            if (n instanceof Branch)
-                children.add((Branch) n);
+        for (int c = this.firstChild[parent.id]; c != NONE; c = this.nextSibling[c]) {
+            if (this.server[c] == DIRECTORY)
+                children.add(new Branch(this, c));
         }
         return children;
     }
@@ -122,31 +1519,13 @@ public class FileTree implements Serializable {
         if (parent == null)
             throw new NullPointerException("parent can not be null");
         List<Leaf> children = new ArrayList<>();
-        for (Node n : parent.list) {
-            if (n instanceof Leaf)
-                children.add((Leaf) n);
+        for (int c = this.firstChild[parent.id]; c != NONE; c = this.nextSibling[c]) {
+            if (this.server[c] != DIRECTORY)
+                children.add(new Leaf(this, c));
         }
         return children;
     }
 
-    /** get child node
-     *
-     * @param branch
-     * @param file
-     * @return node if exists else null
-     */
-
-    private Node getChild(Branch branch, String file) {
-        if (branch == null || file == null)
-            throw new NullPointerException();
-
-        for (Node node : branch.list) {
-            if (node.equals(file))
-                return node;
-        }
-        return null;
-    }
-
     /** determine a node is a file or not
      *
      * @param parent
@@ -157,13 +1536,10 @@ public class FileTree implements Serializable {
     public boolean isFile(Branch parent, String file) throws FileNotFoundException{
         if (parent == null || file == null)
             throw new NullPointerException();
-        for (Node n : parent.list) {
-            if (n instanceof Leaf && n.getName().equals(file))
-                return true;
-            if (n instanceof Node && n.getName().equals(file))
-                return false;
-        }
-        throw new FileNotFoundException();
+        int c = this.child(parent.id, file);
+        if (c == NONE)
+            throw new FileNotFoundException();
+        return this.server[c] != DIRECTORY;
     }
 
     /** determine whether a directory
@@ -179,13 +1555,7 @@ public class FileTree implements Serializable {
             throw new NullPointerException();
         if (dir.equals(Constant.BACKSLASH_ROOT))
             return true;
-        for (Node n : parent.list) {
-            if (n instanceof Leaf && n.getName().equals(dir))
-                return false;
-            if (n instanceof Branch && n.getName().equals(dir))
-                return true;
-        }
-        throw new FileNotFoundException();
+        return !this.isFile(parent, dir);
     }
 
     /** cd to a directory
@@ -196,41 +1566,37 @@ public class FileTree implements Serializable {
      * @throws FileNotFoundException
      */
     public Branch cd(Branch parent, String dir) throws FileNotFoundException {
-        Branch branch = null;
         if (parent == null || dir == null)
             throw new NullPointerException();
         if (dir.equals(Constant.BACKSLASH_ROOT))
-            return this.root;
-        if (this.isDirectory(parent, dir)) {
-            for (Node n : parent.list) {
-                if (n instanceof Branch && n.getName().equals(dir)) {
-                    branch = (Branch) n;
-                }
-            }
-        } else
+            return new Branch(this, ROOT);
+        if (!this.isDirectory(parent, dir))
+            throw new FileNotFoundException("it is a file");
+        return new Branch(this, this.child(parent.id, dir));
+    }
+
+    public Branch cd(int id) throws FileNotFoundException {
+        if (this.server[id] != DIRECTORY)
             throw new FileNotFoundException("it is a file");
-        return branch;
+        return new Branch(this, id);
+    }
+
+    public boolean isDirectory(int id) {
+        return this.server[id] == DIRECTORY;
     }
 
     public Branch cd(Path path) throws FileNotFoundException {
-        if (path == null)
-            throw new NullPointerException();
-        Iterator<String> files = path.iterator();
-        Branch cur = this.root;
-        while (files.hasNext()) {
-            String f = files.next();
-            cur = this.cd(cur, f);
-        }
-        return cur;
+        int id = this.lookup(path);
+        if (this.server[id] != DIRECTORY)
+            throw new FileNotFoundException("it is a file");
+        return new Branch(this, id);
     }
 
     public Leaf getFile(Path path) throws FileNotFoundException {
-        Branch parent = this.cd(path.parent());
-        for (Node n : parent.list) {
-            if (n instanceof Leaf && n.getName().equals(path.last()))
-                return (Leaf) n;
-        }
-        throw new FileNotFoundException();
+        int id = this.lookup(path);
+        if (this.server[id] == DIRECTORY)
+            throw new FileNotFoundException("it is a directory");
+        return new Leaf(this, id);
     }
 
     /** make directory recursively
@@ -239,22 +1605,14 @@ public class FileTree implements Serializable {
      * @param path
      */
     public void mkdirs(Branch parent, Path path) {
-        Iterator<String> iterator = path.iterator();
-        Branch cur = parent;
-        while (iterator.hasNext()) {
-            String f = iterator.next();
-            try {
-                this.mkdir(cur, f);
-                cur = this.cd(cur, f);
-            } catch (FileAlreadyExistsException e) {
-                try {
-                    cur = this.cd(cur, f);
-                } catch (FileNotFoundException ex) {
-                    throw new IllegalArgumentException("there is a file name in the path");
-                }
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
+        int cur = parent.id;
+        for (String f : path) {
+            int c = this.child(cur, f);
+            if (c == NONE)
+                c = this.allocate(cur, f, DIRECTORY);
+            else if (this.server[c] != DIRECTORY)
+                throw new IllegalArgumentException("there is a file name in the path");
+            cur = c;
         }
     }
 
@@ -263,7 +1621,7 @@ public class FileTree implements Serializable {
      * @param path
      */
     public void mkdirs(Path path) {
-        this.mkdirs(this.root, path);
+        this.mkdirs(new Branch(this, ROOT), path);
     }
 
     /** delete file
@@ -278,15 +1636,12 @@ public class FileTree implements Serializable {
             throw new NullPointerException();
         if (file.equals(Constant.BACKSLASH_ROOT))
             throw new FileNotFoundException("root can not be deleted");
-        if (this.isFile(parent, file))
-            for (int i = 0; i < parent.list.size(); i++) {
-                if (parent.list.get(i).equals(file) && parent.list.get(i) instanceof Leaf) {
-                    parent.list.remove(i);
-                    return true;
-                } else if (parent.list.get(i).equals(file) && parent.list.get(i) instanceof Branch)
-                    throw new FileNotFoundException("can not delete a branch");
-            }
-        return false;
+        if (!this.isFile(parent, file))
+            return false;
+        int c = this.child(parent.id, file);
+        this.unlink(c);
+        this.release(c);
+        return true;
     }
 
     /** delete a file if it's a file or empty directory, delete directly
@@ -301,41 +1656,163 @@ public class FileTree implements Serializable {
             throw new NullPointerException();
         if (path.isRoot())
             return false;
-        Branch parent = this.cd(path.parent());
-        Node child = this.getChild(parent, path.last());
-        /** leaf  */
-        if (child instanceof Leaf) {
-            parent.list.remove(child);
-            return true;
+        int child = this.lookup(path);
+        if (this.server[child] == DIRECTORY && this.firstChild[child] != NONE)
+            throw new IllegalArgumentException("directory has file can not be deleted");
+        this.unlink(child);
+        this.release(child);
+        return true;
+    }
+
+    /** move an object to another directory or name
+     *
+     * <p>The inode is unlinked from its directory and linked into the new one
+     * under the new name; nothing below it is visited, so a directory is
+     * moved in time proportional to the depth of the paths, whatever the size
+     * of its subtree. Quotas and replicas stay with their inodes.
+     *
+     * @param source path of the object
+     * @param target new path of the object
+     * @return inode of the object
+     * @throws FileNotFoundException if the object or the parent of the
+     *         target does not exist, or the parent is a file
+     * @throws FileAlreadyExistsException if the target exists
+     * @throws IllegalArgumentException if either path is the root, or the
+     *         target is below the object
+     */
+    public int rename(Path source, Path target) throws FileNotFoundException, FileAlreadyExistsException {
+        if (source == null || target == null)
+            throw new NullPointerException();
+        if (source.isRoot() || target.isRoot())
+            throw new IllegalArgumentException("the root can not be renamed");
+        int id = this.lookup(source);
+        int dir = this.lookup(target.parent());
+        if (this.server[dir] != DIRECTORY)
+            throw new FileNotFoundException(target.parent() + " is not a directory");
+        if (this.child(dir, target.last()) != NONE)
+            throw new FileAlreadyExistsException(target.toString());
+        for (int d = dir; d != NONE; d = this.parent[d]) {
+            if (d == id)
+                throw new IllegalArgumentException("an object can not be moved below itself");
+        }
+        this.unlink(id);
+        int key = this.names.intern(target.last());
+        this.unchain(id);
+        this.name[id] = key;
+        this.chain(id);
+        this.link(dir, id);
+        if (this.linked != null)
+            this.pathHashes(id, this.linked);
+        return id;
+    }
+
+    /** find a quota that moving an object into a directory would exceed
+     *
+     * <p>Only the directories above the new location and not above the
+     * object are checked, since the usage of the others does not change.
+     *
+     * @param dir directory the object is moved into
+     * @param id inode of the object
+     * @return the nearest directory, from <code>dir</code> up, whose quota is
+     *         exceeded, or NONE
+     */
+    public int overQuotaMoving(int dir, int id) {
+        if (this.quotas.isEmpty())
+            return NONE;
+        List<Integer> above = new ArrayList<>();
+        for (int d = this.parent[id]; d >= 0; d = this.parent[d])
+            above.add(d);
+        long objects = this.fileCount(id) + this.directoryCount(id) + (this.server[id] == DIRECTORY ? 1 : 0);
+        long moved = this.bytes(id);
+        for (int d = dir; d >= 0 && !above.contains(d); d = this.parent[d]) {
+            long[] quota = this.quotas.get(d);
+            if (quota == null)
+                continue;
+            if (quota[0] != NONE && this.fileCount(d) + this.directoryCount(d) + objects > quota[0])
+                return d;
+            if (quota[1] != NONE && this.bytes(d) + moved > quota[1])
+                return d;
         }
-        /** branch */
-        else {
-            Branch ch = (Branch) child;
-            if (ch.list.size() == 0) {
-                parent.list.remove(child);
+        return NONE;
+    }
+
+    /** detach an object from the namespace, leaving its inodes allocated
+     *
+     * <p>The object and everything below it disappear from lookups and
+     * listings at once, whatever the size of the subtree. The inodes are
+     * freed later, a slice at a time, with <code>reclaim</code>.
+     *
+     * @param path path of the object
+     * @return inode of the detached subtree root
+     * @throws FileNotFoundException if the path does not exist
+     * @throws IllegalArgumentException if the path is the root
+     */
+    public int detach(Path path) throws FileNotFoundException {
+        if (path.isRoot())
+            throw new IllegalArgumentException("the root can not be detached");
+        int id = this.lookup(path);
+        this.unlink(id);
+        this.parent[id] = DETACHED;
+        return id;
+    }
+
+    /** free some of the inodes of a detached subtree, deepest first
+     *
+     * @param root inode returned by <code>detach</code>
+     * @param path path the subtree had when it was detached
+     * @param limit maximum number of inodes to free
+     * @param files receives, for each server number, the paths of the freed
+     *        files with a replica on that server
+     * @return true once the whole subtree, root included, is freed
+     */
+    public boolean reclaim(int root, Path path, int limit, Map<Integer, List<Path>> files) {
+        for (int n = 0; n < limit; n++) {
+            int id = root;
+            while (this.firstChild[id] != NONE)
+                id = this.firstChild[id];
+            if (this.server[id] >= 0) {
+                Path file = this.pathBelow(id, root, path);
+                for (int slot : this.replicas(id))
+                    files.computeIfAbsent(slot, key -> new ArrayList<>()).add(file);
+            }
+            if (id == root) {
+                this.release(id);
                 return true;
             }
-            else
-                throw new IllegalArgumentException("directory has file can not be deleted");
+            this.unlink(id);
+            this.release(id);
         }
+        return false;
+    }
 
+    /** path of an inode below another, given a path for the latter
+     *
+     * <p>The inodes between the two are walked, so this also gives the path an
+     * inode of a detached subtree had before it was detached, or the one it
+     * had before its subtree was renamed.
+     *
+     * @param id inode at or below <code>root</code>
+     * @param root inode the path is given for
+     * @param path path for <code>root</code>
+     */
+    public Path pathBelow(int id, int root, Path path) {
+        List<String> components = new ArrayList<>();
+        for (int cur = id; cur != root; cur = this.parent[cur])
+            components.add(this.nameOf(cur));
+        Path result = path;
+        for (int i = components.size() - 1; i >= 0; i--)
+            result = new Path(result, components.get(i));
+        return result;
     }
 
     public boolean isExist(Path path) {
         if (path == null)
             throw new NullPointerException("path can not be null");
-        if (path.isRoot())
-           return true;
         try {
-            Branch parent = this.cd(path.parent());
-            for (Node n : parent.list) {
-                if (n.getName().equals(path.last()))
-                    return true;
-            }
-            return false;
+            this.lookup(path);
+            return true;
         } catch (FileNotFoundException e) {
             return false;
         }
-
     }
 }
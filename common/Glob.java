@@ -0,0 +1,227 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Glob pattern over the paths below a directory.
+
+    <p>
+    A glob is a sequence of components separated by forward slashes, matched
+    against the components of a path relative to the directory searched. A
+    component <code>**</code> matches any number of path components,
+    including none. In other components, <code>*</code> matches any sequence
+    of characters, <code>?</code> any single character, and
+    <code>[...]</code> any character of a set as in a regular expression;
+    <code>\</code> makes the next character literal. Other characters match
+    themselves. For example, <code>**&#47;part-*.parquet</code> matches
+    every <code>part-</code> file with the <code>.parquet</code> extension
+    at any depth.
+
+    <p>
+    The glob is evaluated as a small automaton: a state is the set of
+    components of the glob that the path components seen so far may be
+    followed by, kept as a bit mask. A search therefore descends into a
+    directory only while the state is not empty, and looks children up by
+    name when every live component of the glob is literal.
+ */
+public class Glob
+{
+    /** Maximum number of components of a glob. */
+    public static final int MAX_COMPONENTS = 63;
+
+    private final String source;
+    /** components of the glob, as regular expressions; null for ** */
+    private final Pattern[] patterns;
+    /** literal components, null for components with wildcards */
+    private final String[] literals;
+    /** literal text after the last wildcard of each component */
+    private final String[] suffixes;
+    /** literal text before the wildcard of components with a single * and no
+     *  other wildcard, which are matched without the regular expression;
+     *  null for other components */
+    private final String[] prefixes;
+
+    private Glob(String source, Pattern[] patterns, String[] literals, String[] suffixes, String[] prefixes) {
+        this.source = source;
+        this.patterns = patterns;
+        this.literals = literals;
+        this.suffixes = suffixes;
+        this.prefixes = prefixes;
+    }
+
+    /** compile a glob
+     *
+     * @param glob the glob; a leading slash is ignored
+     * @return the compiled glob
+     * @throws IllegalArgumentException if the glob has no components, too many
+     *         components, a component with a colon, or an unclosed set
+     */
+    public static Glob compile(String glob) {
+        if (glob == null)
+            throw new NullPointerException();
+        List<String> components = new ArrayList<>();
+        for (String component : glob.split(Constant.BACKSLASH_ROOT)) {
+            if (component.isEmpty())
+                continue;
+            if (component.contains(Constant.COLON_RESERVED))
+                throw new IllegalArgumentException("a glob can not contain a colon");
+            components.add(component);
+        }
+        if (components.isEmpty())
+            throw new IllegalArgumentException("empty glob");
+        if (components.size() > MAX_COMPONENTS)
+            throw new IllegalArgumentException("glob has more than " + MAX_COMPONENTS + " components");
+        Pattern[] patterns = new Pattern[components.size()];
+        String[] literals = new String[components.size()];
+        String[] suffixes = new String[components.size()];
+        String[] prefixes = new String[components.size()];
+        for (int j = 0; j < patterns.length; j++) {
+            String component = components.get(j);
+            if (component.equals("**"))
+                continue;
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            StringBuilder suffix = new StringBuilder();
+            String prefix = null;
+            boolean wild = false;
+            boolean simple = true;
+            for (int i = 0; i < component.length(); i++) {
+                char c = component.charAt(i);
+                if (c == '\\' && i + 1 < component.length()) {
+                    c = component.charAt(++i);
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    literal.append(c);
+                    suffix.append(c);
+                } else if (c == '*') {
+                    regex.append(".*");
+                    simple &= !wild;
+                    prefix = suffix.toString();
+                    suffix.setLength(0);
+                    wild = true;
+                } else if (c == '?') {
+                    regex.append('.');
+                    suffix.setLength(0);
+                    wild = true;
+                    simple = false;
+                } else if (c == '[') {
+                    int end = component.indexOf(']', i + 2);
+                    if (end < 0)
+                        throw new IllegalArgumentException("unclosed set in glob " + glob);
+                    String set = component.substring(i + 1, end);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                    suffix.setLength(0);
+                    wild = true;
+                    simple = false;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    literal.append(c);
+                    suffix.append(c);
+                }
+            }
+            patterns[j] = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            literals[j] = wild ? null : literal.toString();
+            suffixes[j] = suffix.toString();
+            prefixes[j] = wild && simple ? prefix : null;
+        }
+        return new Glob(glob, patterns, literals, suffixes, prefixes);
+    }
+
+    /** number of components of the glob */
+    public int components() {
+        return this.patterns.length;
+    }
+
+    /** literal text every name matched by the last component ends with
+     *
+     * @return the suffix, possibly empty, or null if the last component is
+     *         <code>**</code>
+     */
+    public String suffix() {
+        return this.suffixes[this.patterns.length - 1];
+    }
+
+    /** determine whether a name matches the last component of the glob */
+    public boolean matchesLast(String name) {
+        int last = this.patterns.length - 1;
+        return this.patterns[last] == null || this.matches(last, name);
+    }
+
+    /** determine whether a name matches a component other than ** */
+    private boolean matches(int j, String name) {
+        if (this.literals[j] != null)
+            return this.literals[j].equals(name);
+        if (this.prefixes[j] != null)
+            return name.length() >= this.prefixes[j].length() + this.suffixes[j].length()
+                    && name.startsWith(this.prefixes[j]) && name.endsWith(this.suffixes[j]);
+        return this.patterns[j].matcher(name).matches();
+    }
+
+    /** state before any path component */
+    public long start() {
+        return this.closure(1L);
+    }
+
+    /** state after one more path component
+     *
+     * @param state state before the component
+     * @param name the path component
+     * @return the next state, 0 if no path continuing this way matches
+     */
+    public long step(long state, String name) {
+        long next = 0;
+        for (int j = 0; j < this.patterns.length; j++) {
+            if ((state & (1L << j)) == 0)
+                continue;
+            if (this.patterns[j] == null)
+                next |= 1L << j;
+            else if (this.matches(j, name))
+                next |= 1L << (j + 1);
+        }
+        return this.closure(next);
+    }
+
+    /** determine whether the path components seen so far match the glob */
+    public boolean accepts(long state) {
+        return (state & (1L << this.patterns.length)) != 0;
+    }
+
+    /** determine whether some longer path may still match */
+    public boolean live(long state) {
+        return (state & ((1L << this.patterns.length) - 1)) != 0;
+    }
+
+    /** names of the only children that may continue a path in this state
+     *
+     * @param state a live state
+     * @return the literal components the state may be followed by, or null if
+     *         some live component has wildcards
+     */
+    public List<String> literals(long state) {
+        List<String> names = new ArrayList<>();
+        for (int j = 0; j < this.patterns.length; j++) {
+            if ((state & (1L << j)) == 0)
+                continue;
+            if (this.literals[j] == null)
+                return null;
+            if (!names.contains(this.literals[j]))
+                names.add(this.literals[j]);
+        }
+        return names;
+    }
+
+    /** add the states reached by matching a ** with no component */
+    private long closure(long state) {
+        for (int j = 0; j < this.patterns.length; j++) {
+            if ((state & (1L << j)) != 0 && this.patterns[j] == null)
+                state |= 1L << (j + 1);
+        }
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+}
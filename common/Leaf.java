@@ -6,25 +6,36 @@ import storage.Storage;
  * @author Yongbing Hu
  * @version 0.0.0
  * @time 2019-11-05 4:56 p.m.
- * @description
+ * @description handle on a file inode
  */
 public class Leaf extends Node {
-    Storage storage;
 
     public Storage getStorage() {
-        return storage;
+        return this.tree.storageOf(this.id);
     }
 
     public void setStorage(Storage storage) {
-        this.storage = storage;
+        this.tree.setStorage(this.id, storage);
     }
 
-    public Leaf(String name, Storage storage) {
-        super(name);
-        this.storage = storage;
+    /** stubs of all storage servers holding a replica, the first one first */
+    public Storage[] getReplicas() {
+        int[] ids = this.tree.replicas(this.id);
+        Storage[] stubs = new Storage[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            stubs[i] = this.tree.storage(ids[i]);
+        return stubs;
     }
 
-    public Leaf(String name) {
-        this(name, null);
+    public boolean addReplica(Storage storage) {
+        return this.tree.addReplica(this.id, this.tree.storageId(storage));
+    }
+
+    public boolean removeReplica(Storage storage) {
+        return this.tree.removeReplica(this.id, this.tree.storageId(storage));
+    }
+
+    Leaf(FileTree tree, int id) {
+        super(tree, id);
     }
 }
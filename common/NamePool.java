@@ -0,0 +1,271 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** Pool of interned path component names.
+
+    <p>
+    Each distinct component name stored in a <code>FileTree</code> is kept
+    exactly once in the pool and is referred to by a small integer. Names are
+    reference counted: a name is dropped from the pool once the last inode
+    using it is released, and its slot is reused for the next new name. Ids
+    are found from names with an open-addressing table of ids, which costs a
+    few bytes per name rather than a map entry and a boxed id.
+
+    <p>
+    The names ending with a given suffix are found with a range lookup in an
+    array of ids sorted by reversed name, rather than by matching every name.
+    The array is built on the first such lookup, so that a pool never
+    searched by suffix pays nothing for it. Names added after it was built
+    are kept in a short unsorted list, and the array is dropped when a name
+    is released or the list grows long, to be built again on the next
+    lookup.
+ */
+class NamePool implements Serializable
+{
+    /** Value returned by <code>find</code> for names not in the pool. */
+    static final int NONE = -1;
+
+    private String[] strings;
+    /** reference counts of live slots, next free slot for released ones */
+    private int[] references;
+    /** ids by the hash of their name, NONE in empty entries; its length is
+     *  a power of two, and at most three quarters of its entries are used */
+    private int[] index;
+    /** number of distinct names */
+    private int size;
+    /** ids of the names sorted by reversed name, or null until a suffix
+     *  lookup builds it */
+    private transient int[] suffixes;
+    /** ids of the names added since <code>suffixes</code> was built */
+    private transient int[] added;
+    private transient int addedCount;
+    private int used;
+    private int free;
+
+    NamePool() {
+        this.strings = new String[16];
+        this.references = new int[16];
+        this.index = new int[16];
+        Arrays.fill(this.index, NONE);
+        this.used = 0;
+        this.free = NONE;
+    }
+
+    /** intern a name and take a reference on it
+     *
+     * @param name component name
+     * @return id of the name
+     */
+    int intern(String name) {
+        int id = this.find(name);
+        if (id != NONE) {
+            this.references[id]++;
+            return id;
+        }
+        int slot;
+        if (this.free != NONE) {
+            slot = this.free;
+            this.free = this.references[slot];
+        } else {
+            if (this.used == this.strings.length) {
+                int capacity = this.used + (this.used >> 1);
+                this.strings = Arrays.copyOf(this.strings, capacity);
+                this.references = Arrays.copyOf(this.references, capacity);
+            }
+            slot = this.used++;
+        }
+        this.strings[slot] = name;
+        this.references[slot] = 1;
+        this.insert(slot);
+        if (this.suffixes != null) {
+            if (this.addedCount == this.added.length)
+                this.suffixes = null;
+            else
+                this.added[this.addedCount++] = slot;
+        }
+        return slot;
+    }
+
+    /** find the id of a name without taking a reference on it
+     *
+     * @param name component name
+     * @return id of the name, or NONE if no inode uses the name
+     */
+    int find(String name) {
+        int mask = this.index.length - 1;
+        for (int i = hash(name) & mask; this.index[i] != NONE; i = (i + 1) & mask) {
+            if (this.strings[this.index[i]].equals(name))
+                return this.index[i];
+        }
+        return NONE;
+    }
+
+    /** drop a reference on a name
+     *
+     * @param id id of the name
+     */
+    void release(int id) {
+        if (--this.references[id] > 0)
+            return;
+        this.remove(id);
+        this.suffixes = null;
+        this.strings[id] = null;
+        this.references[id] = this.free;
+        this.free = id;
+    }
+
+    /** get the name with the given id */
+    String get(int id) {
+        return this.strings[id];
+    }
+
+    /** number of inodes using a name */
+    int references(int id) {
+        return this.references[id];
+    }
+
+    /** ids of the names ending with a suffix
+     *
+     * <p>Lookups may run concurrently with each other, but not with
+     * <code>intern</code> or <code>release</code>.
+     *
+     * @param suffix the suffix
+     * @param limit maximum number of ids returned
+     * @return ids of at most <code>limit</code> names in the pool ending with
+     *         <code>suffix</code>
+     */
+    synchronized int[] endingWith(String suffix, int limit) {
+        if (this.suffixes == null)
+            this.sortSuffixes();
+        int[] ids = new int[Math.min(limit, 16)];
+        int n = 0;
+        int from = this.firstEndingWith(suffix, false);
+        int to = this.firstEndingWith(suffix, true);
+        for (int i = from; i < to + this.addedCount && n < limit; i++) {
+            int id = i < to ? this.suffixes[i] : this.added[i - to];
+            if (i >= to && !this.strings[id].endsWith(suffix))
+                continue;
+            if (n == ids.length)
+                ids = Arrays.copyOf(ids, Math.min(limit, n * 2));
+            ids[n++] = id;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /** sort the ids of the names by reversed name */
+    private void sortSuffixes() {
+        Integer[] ids = new Integer[this.size];
+        int n = 0;
+        for (int id = 0; id < this.used; id++) {
+            if (this.strings[id] != null)
+                ids[n++] = id;
+        }
+        Arrays.sort(ids, (a, b) -> compareReversed(this.strings[a], this.strings[b], Integer.MAX_VALUE));
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = ids[i];
+        this.added = new int[16 + n / 16];
+        this.addedCount = 0;
+        this.suffixes = sorted;
+    }
+
+    /** index in <code>suffixes</code> of the first name ending with a
+     *  suffix, or of the first name after them
+     *
+     * @param suffix the suffix
+     * @param after whether to find the first name after them
+     */
+    private int firstEndingWith(String suffix, boolean after) {
+        int low = 0;
+        int high = this.suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int order = compareReversed(this.strings[this.suffixes[mid]], suffix, suffix.length());
+            if (order < 0 || (after && order == 0))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** compare the last characters of two names, last character first
+     *
+     * @param a first name
+     * @param b second name
+     * @param length number of characters compared at most
+     * @return the order of the reversed names cut to <code>length</code>
+     *         characters
+     */
+    private static int compareReversed(String a, String b, int length) {
+        int n = Math.min(length, Math.min(a.length(), b.length()));
+        for (int i = 1; i <= n; i++) {
+            char x = a.charAt(a.length() - i);
+            char y = b.charAt(b.length() - i);
+            if (x != y)
+                return x - y;
+        }
+        return Math.min(length, a.length()) - Math.min(length, b.length());
+    }
+
+    /** largest id handed out so far, plus one */
+    int capacity() {
+        return this.used;
+    }
+
+    /** number of distinct names in the pool */
+    int size() {
+        return this.size;
+    }
+
+    /** add the id of a new name to the index */
+    private void insert(int id) {
+        if (++this.size > this.index.length - (this.index.length >> 2)) {
+            int[] old = this.index;
+            this.index = new int[old.length * 2];
+            Arrays.fill(this.index, NONE);
+            for (int entry : old) {
+                if (entry != NONE)
+                    this.place(entry);
+            }
+        }
+        this.place(id);
+    }
+
+    /** put an id in the first empty entry from its name's position */
+    private void place(int id) {
+        int mask = this.index.length - 1;
+        int i = hash(this.strings[id]) & mask;
+        while (this.index[i] != NONE)
+            i = (i + 1) & mask;
+        this.index[i] = id;
+    }
+
+    /** remove the id of a released name from the index, moving back the
+     *  entries after it that would no longer be found */
+    private void remove(int id) {
+        int mask = this.index.length - 1;
+        int i = hash(this.strings[id]) & mask;
+        while (this.index[i] != id)
+            i = (i + 1) & mask;
+        for (int j = (i + 1) & mask; this.index[j] != NONE; j = (j + 1) & mask) {
+            int home = hash(this.strings[this.index[j]]) & mask;
+            // an entry may fill the hole unless its position lies cyclically
+            // after the hole and at or before its own entry
+            boolean stays = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!stays) {
+                this.index[i] = this.index[j];
+                i = j;
+            }
+        }
+        this.index[i] = NONE;
+        this.size--;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
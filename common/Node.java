@@ -4,24 +4,38 @@ import java.io.Serializable;
  * @author Yongbing Hu
  * @version 0.0.0
  * @time 2019-10-31 7:31 p.m.
- * @description
+ * @description handle on an inode of a <code>FileTree</code>
  */
 
 public class Node implements Serializable
 {
-    String name;
+    final FileTree tree;
+    final int id;
+
+    Node(FileTree tree, int id) {
+        this.tree = tree;
+        this.id = id;
+    }
 
     public String getName() {
-        return name;
+        return this.tree.nameOf(this.id);
     }
 
-    public void setName(String name) {
-        this.name = name;
+    /** inode number of the node in its tree */
+    public int getId() {
+        return this.id;
     }
 
-    public Node(String name) {
-        this.name = name;
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Node))
+            return false;
+        Node node = (Node) other;
+        return this.tree == node.tree && this.id == node.id;
     }
-    public Node() {
+
+    @Override
+    public int hashCode() {
+        return this.id;
     }
-}
\ No newline at end of file
+}
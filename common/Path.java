@@ -26,8 +26,13 @@ import java.util.stream.Collectors;
     The colon (<code>:</code>) and forward slash (<code>/</code>) characters are
     not permitted within path components. The forward slash is the delimeter,
     and the colon is reserved as a delimeter for application use.
+
+    <p>
+    Paths are ordered component by component, so that a directory sorts
+    immediately before its contents, and the contents of a directory sort
+    together.
  */
-public class Path implements Iterable<String>, Serializable
+public class Path implements Iterable<String>, Comparable<Path>, Serializable
 {
     private final List<String> components;
 
@@ -251,6 +256,28 @@ public class Path implements Iterable<String>, Serializable
         return this.toString().hashCode();
     }
 
+    /** Compares two paths component by component.
+
+        <p>
+        A path is smaller than any path of which it is a prefix. Otherwise,
+        paths are ordered by their first differing component.
+
+        @param other The other path.
+        @return A negative number, zero, or a positive number as this path is
+                less than, equal to, or greater than <code>other</code>.
+     */
+    @Override
+    public int compareTo(Path other)
+    {
+        int n = Math.min(this.components.size(), other.components.size());
+        for (int i = 1; i < n; i++) {
+            int order = this.components.get(i).compareTo(other.components.get(i));
+            if (order != 0)
+                return order;
+        }
+        return Integer.compare(this.components.size(), other.components.size());
+    }
+
     /** Converts the path to a string.
 
         <p>
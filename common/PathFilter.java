@@ -0,0 +1,162 @@
+package common;
+
+import java.io.Serializable;
+
+/** Bloom filter over the paths of a directory tree.
+
+    <p>
+    A path is reduced to a 64-bit hash computed one component at a time, so
+    that the hash of a child follows from the hash of its parent and the
+    child's name; a directory tree hashes each of its inodes without building
+    its path, and a client hashes a <code>Path</code> from its components. The
+    filter sets <code>HASHES</code> bits per path, in a bit array sized for
+    about <code>BITS_PER_PATH</code> bits per path it was made for, which
+    gives about one percent of false positives at that capacity.
+
+    <p>
+    A filter answers whether a path may be in the tree: a path whose bits are
+    not all set is certainly absent, while a path whose bits are all set is
+    present or, rarely, a false positive. Paths can be added but not removed,
+    so a filter of a changing tree is rebuilt from time to time. The bits are
+    exposed as 64-bit words, so that a copy can be brought up to date by
+    sending the words changed since it was taken. The filter is not
+    thread-safe.
+ */
+public class PathFilter implements Serializable
+{
+    /** Number of bits set per path. */
+    public static final int HASHES = 7;
+    /** Number of bits per path of capacity. */
+    public static final int BITS_PER_PATH = 10;
+    /** Hash of the root directory. */
+    public static final long ROOT = 0x9E3779B97F4A7C15L;
+
+    /** bits of the filter, 64 per word */
+    private final long[] words;
+
+    /** create an empty filter
+     *
+     * @param capacity number of paths the filter is sized for
+     */
+    public PathFilter(int capacity) {
+        long bits = Math.max(1L, (long)capacity) * BITS_PER_PATH;
+        this.words = new long[(int)Math.min(Integer.MAX_VALUE / 64, (bits + 63) / 64)];
+    }
+
+    private PathFilter(long[] words) {
+        this.words = words;
+    }
+
+    /** hash of a path
+     *
+     * @param path the path
+     * @return the hash of the path's components, starting from ROOT
+     */
+    public static long hash(Path path) {
+        long hash = ROOT;
+        for (String component : path)
+            hash = hash(hash, component);
+        return hash;
+    }
+
+    /** hash of a child path
+     *
+     * @param parent hash of the parent directory
+     * @param name name of the child
+     * @return the hash of the child's path
+     */
+    public static long hash(long parent, String name) {
+        long hash = parent ^ 0xCBF29CE484222325L;
+        for (int i = 0; i < name.length(); i++)
+            hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+        return mix(hash ^ name.length());
+    }
+
+    /** finalization step of MurmurHash3, spreading every input bit over the
+     *  whole hash */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /** index of the i-th bit of a path hash, by double hashing */
+    private int bit(long hash, int i) {
+        long step = Long.rotateLeft(hash, 32) | 1;
+        return (int)Long.remainderUnsigned(hash + i * step, (long)this.words.length * 64);
+    }
+
+    /** add a path
+     *
+     * @param hash hash of the path
+     * @param changed array of at least HASHES entries receiving the indexes
+     *        of the words changed, or null
+     * @return the number of words changed; a word changed by two bits is
+     *         counted twice
+     */
+    public int add(long hash, int[] changed) {
+        int count = 0;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = this.bit(hash, i);
+            long mask = 1L << (bit & 63);
+            if ((this.words[bit >>> 6] & mask) != 0)
+                continue;
+            this.words[bit >>> 6] |= mask;
+            if (changed != null)
+                changed[count] = bit >>> 6;
+            count++;
+        }
+        return count;
+    }
+
+    /** test a path hash
+     *
+     * @param hash hash of the path
+     * @return false if the path is certainly not in the filter
+     */
+    public boolean mightContain(long hash) {
+        for (int i = 0; i < HASHES; i++) {
+            int bit = this.bit(hash, i);
+            if ((this.words[bit >>> 6] & (1L << (bit & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** test a path
+     *
+     * @param path the path
+     * @return false if the path is certainly not in the filter
+     */
+    public boolean mightContain(Path path) {
+        return this.mightContain(hash(path));
+    }
+
+    /** number of 64-bit words of the filter */
+    public int words() {
+        return this.words.length;
+    }
+
+    /** word of the filter
+     *
+     * @param index index of the word
+     * @return bits 64 * index to 64 * index + 63 of the filter
+     */
+    public long word(int index) {
+        return this.words[index];
+    }
+
+    /** replace a word of the filter, as read from another copy
+     *
+     * @param index index of the word
+     * @param word the new bits
+     */
+    public void setWord(int index, long word) {
+        this.words[index] = word;
+    }
+
+    /** copy of the filter */
+    public PathFilter copy() {
+        return new PathFilter(this.words.clone());
+    }
+}
@@ -12,6 +12,7 @@ import test.*;
     <li>{@link conformance.rmi.StubTest}</li>
     <li>{@link conformance.rmi.ConnectionTest}</li>
     <li>{@link conformance.rmi.ThreadTest}</li>
+    <li>{@link conformance.rmi.PersistenceTest}</li>
     <li>{@link conformance.storage.RegistrationTest}</li>
     <li>{@link conformance.storage.AccessTest}</li>
     <li>{@link conformance.storage.DirectoryTest}</li>
@@ -39,6 +40,7 @@ public class ConformanceTests
                          conformance.rmi.StubTest.class,
                          conformance.rmi.ConnectionTest.class,
                          conformance.rmi.ThreadTest.class,
+                         conformance.rmi.PersistenceTest.class,
                          conformance.storage.RegistrationTest.class,
                          conformance.storage.AccessTest.class,
                          conformance.storage.DirectoryTest.class,
@@ -186,6 +186,49 @@ class TestStorageServer implements Storage, Command
                                                 "implemented");
     }
 
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public boolean[] createAll(Path[] files)
+    {
+        test.failure(new TestFailed("unexpected call to createAll method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("createAll method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public boolean[] deleteAll(Path[] paths)
+    {
+        test.failure(new TestFailed("unexpected call to deleteAll method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("deleteAll method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public boolean rename(Path source, Path target)
+    {
+        test.failure(new TestFailed("unexpected call to rename method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("rename method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public boolean copy(Path file, Storage source)
+    {
+        test.failure(new TestFailed("unexpected call to copy method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("copy method not implemented");
+    }
+
     /** Client interface skeleton.
 
         <p>
@@ -0,0 +1,400 @@
+package conformance.rmi;
+
+import test.*;
+import rmi.*;
+import java.io.*;
+import java.net.*;
+
+/** Tests the reuse of connections between stubs and skeletons.
+
+    <p>
+    This test starts a skeleton, and checks that:
+    <ul>
+    <li>successive calls, through one stub or through two stubs for the same
+        address, are served over the same connection.</li>
+    <li>a call in progress when the skeleton stops completes, and is run
+        once.</li>
+    <li>after the skeleton closes idle connections by stopping, a call made
+        once it is restarted is sent over a new connection, and is run
+        once.</li>
+    <li>a call whose result is lost, because the connection is closed after
+        the call is read, fails with <code>RMIException</code> and is not sent
+        again.</li>
+    </ul>
+ */
+public class PersistenceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking reuse of connections between stubs and skeletons";
+    /** Prerequisites. */
+    public static final Class[] prerequisites =
+        new Class[] {ConnectionTest.class, ThreadTest.class};
+
+    /** Address at which the test skeleton will run. */
+    private InetSocketAddress   address;
+    /** Server object used in the test. */
+    private CountingServer      server;
+    /** Skeleton object used in the test. */
+    private TestSkeleton        skeleton;
+    /** Socket standing in for a skeleton that loses a result. */
+    private ServerSocket        listener;
+
+    /** Interface counting the calls made to its server. */
+    public interface Counting
+    {
+        /** Returns the name of the thread serving the call.
+
+            @throws RMIException If the call cannot be completed due to a
+                                 network error.
+         */
+        public String thread() throws RMIException;
+
+        /** Counts a call.
+
+            @param delay Milliseconds for which the call runs.
+            @return The number of calls made so far, this one included.
+            @throws RMIException If the call cannot be completed due to a
+                                 network error.
+         */
+        public int count(long delay) throws RMIException;
+    }
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        address = new InetSocketAddress(7001);
+        server = new CountingServer();
+        skeleton = new TestSkeleton();
+
+        try
+        {
+            skeleton.start();
+            listener = new ServerSocket(7002);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Counting        stub;
+        Counting        other_stub;
+
+        try
+        {
+            stub = Stub.create(Counting.class, skeleton);
+            other_stub = Stub.create(Counting.class, address);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        task("reusing a connection for successive calls");
+        testReuse(stub, other_stub);
+        task();
+
+        task("stopping the skeleton while a call is in progress");
+        testStopDuringCall(stub);
+        task();
+
+        task("calling after the skeleton closed an idle connection");
+        testIdleClose(stub);
+        task();
+
+        task("losing the result of a call");
+        testLostResult();
+        task();
+    }
+
+    /** Stops the skeleton and closes the listening socket. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+
+        try
+        {
+            listener.close();
+        }
+        catch(Throwable t) { }
+    }
+
+    /** Checks that successive calls are served over the same connection, and
+        therefore by the same skeleton thread.
+
+        @throws TestFailed If the calls are served by different threads.
+     */
+    private void testReuse(Counting stub, Counting other_stub)
+        throws TestFailed
+    {
+        try
+        {
+            String      first = stub.thread();
+
+            if(!first.equals(stub.thread()))
+                throw new TestFailed("successive calls through one stub " +
+                                     "not served over the same connection");
+
+            if(!first.equals(other_stub.thread()))
+                throw new TestFailed("successive calls through two stubs " +
+                                     "not served over the same connection");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when using stub", t);
+        }
+    }
+
+    /** Stops the skeleton while a call is running, and checks that the call
+        completes and is run once.
+
+        @throws TestFailed If the call fails or is run more than once.
+     */
+    private void testStopDuringCall(final Counting stub) throws TestFailed
+    {
+        final int[]         result = new int[1];
+        final Throwable[]   error = new Throwable[1];
+        int                 before = server.calls();
+
+        Thread              caller = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result[0] = stub.count(500);
+                }
+                catch(Throwable t)
+                {
+                    error[0] = t;
+                }
+            }
+        });
+
+        caller.start();
+        server.awaitCalls(before + 1);
+        skeleton.stop();
+
+        try
+        {
+            caller.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for the call");
+        }
+
+        if(error[0] != null)
+        {
+            throw new TestFailed("call in progress failed when the skeleton " +
+                                 "stopped", error[0]);
+        }
+
+        if(result[0] != before + 1 || server.calls() != before + 1)
+            throw new TestFailed("call in progress run more than once");
+    }
+
+    /** Restarts the skeleton after it closed its idle connections, and checks
+        that a call is then served, and run once.
+
+        @throws TestFailed If the call fails or is run more than once.
+     */
+    private void testIdleClose(Counting stub) throws TestFailed
+    {
+        try
+        {
+            // The connection used by the previous call was closed when the
+            // call completed. Close one more, idle this time.
+            skeleton.start();
+            stub.count(0);
+            skeleton.stop();
+            skeleton.start();
+
+            int         before = server.calls();
+
+            if(stub.count(0) != before + 1 || server.calls() != before + 1)
+                throw new TestFailed("call run more than once");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("call failed after the skeleton closed " +
+                                 "an idle connection", t);
+        }
+    }
+
+    /** Serves a call, then closes the connection after reading a second call,
+        and checks that the second call is not sent again.
+
+        @throws TestFailed If the second call succeeds or is sent again.
+     */
+    private void testLostResult() throws TestFailed
+    {
+        final int[]         calls = new int[1];
+        final boolean[]     resent = new boolean[1];
+
+        Thread              loser = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Socket              socket = listener.accept();
+                    ObjectOutputStream  output =
+                        new ObjectOutputStream(socket.getOutputStream());
+                    output.flush();
+                    ObjectInputStream   input =
+                        new ObjectInputStream(socket.getInputStream());
+
+                    input.readObject();
+                    ++calls[0];
+                    output.writeObject(null);
+                    output.flush();
+
+                    input.readObject();
+                    ++calls[0];
+                    socket.close();
+
+                    listener.setSoTimeout(1000);
+                    listener.accept().close();
+                    resent[0] = true;
+                }
+                catch(Throwable t) { }
+            }
+        });
+
+        loser.start();
+
+        TestInterface       stub;
+
+        try
+        {
+            stub = Stub.create(TestInterface.class,
+                               new InetSocketAddress("127.0.0.1", 7002));
+            stub.method(false);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to make the first call", t);
+        }
+
+        try
+        {
+            stub.method(false);
+            throw new TestFailed("call whose result was lost succeeded");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when the result was " +
+                                 "lost", t);
+        }
+
+        try
+        {
+            loser.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for the socket");
+        }
+
+        if(calls[0] != 2 || resent[0])
+            throw new TestFailed("call whose result was lost sent again");
+    }
+
+    /** Implementation of <code>Counting</code>. */
+    public static class CountingServer implements Counting
+    {
+        /** Number of calls to <code>count</code>. */
+        private int         calls = 0;
+
+        @Override
+        public String thread()
+        {
+            return Thread.currentThread().getName();
+        }
+
+        @Override
+        public int count(long delay)
+        {
+            int             count;
+
+            synchronized(this)
+            {
+                count = ++calls;
+                notifyAll();
+            }
+
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch(InterruptedException e) { }
+
+            return count;
+        }
+
+        /** Returns the number of calls to <code>count</code>. */
+        synchronized int calls()
+        {
+            return calls;
+        }
+
+        /** Waits until <code>count</code> has been called a given number of
+            times. */
+        synchronized void awaitCalls(int count)
+        {
+            while(calls < count)
+            {
+                try
+                {
+                    wait();
+                }
+                catch(InterruptedException e) { }
+            }
+        }
+    }
+
+    /** Test skeleton class that fails the test when an exception is received in
+        one of the skeleton's threads. */
+    private class TestSkeleton extends Skeleton<Counting>
+    {
+        /** Creates a <code>TestSkeleton</code> at the appropriate address. */
+        TestSkeleton()
+        {
+            super(Counting.class, server, address);
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+
+        /** Fails the test upon an error in a service thread. */
+        @Override
+        protected void service_error(RMIException e)
+        {
+            failure(new TestFailed("exception in service thread", e));
+        }
+    }
+}
@@ -133,6 +133,45 @@ class TestNamingServer implements Registration
             return new Path[0];
     }
 
+    /** Fails the test: the storage servers under test hold few enough files
+        to send their whole list to <code>register</code>. */
+    @Override
+    public Path[] registerFiles(Command command_stub, Path[] files)
+        throws RMIException
+    {
+        test.failure(new TestFailed("unexpected call to registerFiles in " +
+                                    "naming server"));
+
+        throw new UnsupportedOperationException("registerFiles not " +
+                                                "implemented");
+    }
+
+    /** Accepts heartbeats from the storage server under test. The reports are
+        not checked. */
+    @Override
+    public void heartbeat(Command command_stub, LoadReport report)
+        throws RMIException
+    {
+    }
+
+    /** Answers that no file has been placed on the storage server under test
+        without being created on it. */
+    @Override
+    public boolean placed(Command command_stub, Path file)
+        throws RMIException
+    {
+        return false;
+    }
+
+    /** Accepts file attribute reports from the storage server under test. The
+        reports are not checked. */
+    @Override
+    public void reportAttributes(Command command_stub, Path[] files,
+                                 long[] sizes, long[] modified)
+        throws RMIException
+    {
+    }
+
     /** Retrieves a registration stub for the test server.
 
         @return The stub.
@@ -0,0 +1,209 @@
+package naming;
+
+import common.Path;
+import common.PathFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** Approximate counts of the lookups of each path over a sliding window.
+
+    <p>
+    Time is cut into buckets of <code>BUCKET</code> milliseconds, and the
+    last <code>BUCKETS</code> buckets are kept in a ring. Each bucket holds a
+    count-min sketch of the lookups made during it: <code>DEPTH</code> rows
+    of <code>WIDTH</code> counters, a lookup incrementing one counter per
+    row chosen by hashing its path. The count of a path is the smallest of
+    its counters, which is never below the true count and exceeds it only by
+    collisions with other paths. Each bucket also keeps as candidates the
+    paths with the highest counts seen during it, about
+    <code>CANDIDATES</code> of them: a lookup whose count exceeds the lowest
+    count kept makes its path a candidate, and candidates are pruned back to
+    the highest <code>CANDIDATES</code> when twice as many accumulate.
+
+    <p>
+    The most looked up paths over a window are found among the candidates
+    of the buckets it covers, counted by adding their counts in each bucket.
+    A path looked up often enough to be among the top
+    <code>CANDIDATES</code> of the window is very likely a candidate of one
+    of its buckets, so the top paths are found without recording every
+    lookup. Recording a lookup takes no lock, and the memory used does not
+    depend on the number of paths looked up.
+ */
+class AccessSketch
+{
+    /** Milliseconds covered by a bucket. */
+    static final long               BUCKET = 5000;
+    /** Number of buckets kept; the longest window is
+        <code>BUCKET * BUCKETS</code> milliseconds. */
+    static final int                BUCKETS = 120;
+    /** Number of rows of each count-min sketch. */
+    static final int                DEPTH = 4;
+    /** Number of counters per row; a power of two. */
+    static final int                WIDTH = 1024;
+    /** Number of candidates kept per bucket after pruning. */
+    static final int                CANDIDATES = 64;
+
+    /** Buckets by epoch: the bucket of epoch <code>e</code>, the number of
+        whole buckets since the Unix epoch, is at index
+        <code>e % BUCKETS</code>. Slots are replaced under the sketch's
+        lock. */
+    private final Bucket[]          buckets;
+
+    AccessSketch()
+    {
+        this.buckets = new Bucket[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            this.buckets[i] = new Bucket(-1);
+    }
+
+    /** Counts a lookup of a path. */
+    void record(Path path)
+    {
+        Bucket bucket = bucket(System.currentTimeMillis() / BUCKET);
+        int count = bucket.add(PathFilter.hash(path));
+        if (count > bucket.floor)
+            bucket.offer(path, count);
+    }
+
+    /** Returns the bucket of an epoch, starting it if the slot holds an
+        older one. */
+    private Bucket bucket(long epoch)
+    {
+        int slot = (int)(epoch % BUCKETS);
+        Bucket bucket = buckets[slot];
+        if (bucket.epoch == epoch)
+            return bucket;
+        synchronized (this) {
+            if (buckets[slot].epoch != epoch)
+                buckets[slot] = new Bucket(epoch);
+            return buckets[slot];
+        }
+    }
+
+    /** Returns the most looked up paths over a window.
+
+        @param window Milliseconds covered, rounded up to whole buckets and
+                      limited to <code>BUCKET * BUCKETS</code>. The current
+                      bucket is only partly elapsed.
+        @param limit Maximum number of paths returned.
+        @return The paths, most looked up first.
+     */
+    HotPaths top(long window, int limit)
+    {
+        long now = System.currentTimeMillis();
+        long current = now / BUCKET;
+        int count = (int)Math.min(BUCKETS, Math.max(1, (window + BUCKET - 1) / BUCKET));
+
+        List<Bucket> covered = new ArrayList<>(count);
+        Set<Path> candidates = new HashSet<>();
+        for (long epoch = current - count + 1; epoch <= current; epoch++) {
+            Bucket bucket = buckets[(int)(epoch % BUCKETS)];
+            if (bucket.epoch != epoch)
+                continue;
+            covered.add(bucket);
+            candidates.addAll(bucket.candidates.keySet());
+        }
+
+        List<Path> paths = new ArrayList<>(candidates);
+        long[] counts = new long[paths.size()];
+        for (int i = 0; i < counts.length; i++) {
+            long hash = PathFilter.hash(paths.get(i));
+            for (Bucket bucket : covered)
+                counts[i] += bucket.count(hash);
+        }
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+
+        int size = Math.min(limit, order.length);
+        Path[] top = new Path[size];
+        long[] topCounts = new long[size];
+        for (int i = 0; i < size; i++) {
+            top[i] = paths.get(order[i]);
+            topCounts[i] = counts[order[i]];
+        }
+        long span = now - (current - count + 1) * BUCKET;
+        return new HotPaths(span, top, topCounts);
+    }
+
+    /** Lookups counted during one bucket. */
+    private static class Bucket
+    {
+        /** Epoch of the bucket, or -1 for an unused slot. */
+        final long                      epoch;
+        /** Counters, row after row. */
+        final AtomicIntegerArray        counters;
+        /** Paths with the highest counts, with their count when last
+            offered. */
+        final Map<Path, Integer>        candidates;
+        /** Lowest count kept by the last pruning; lookups with no higher
+            count are not offered. */
+        volatile int                    floor;
+        /** Set while a thread prunes the candidates. */
+        final AtomicBoolean             pruning;
+
+        Bucket(long epoch)
+        {
+            this.epoch = epoch;
+            this.counters = new AtomicIntegerArray(epoch < 0 ? 0 : DEPTH * WIDTH);
+            this.candidates = new ConcurrentHashMap<>();
+            this.floor = 0;
+            this.pruning = new AtomicBoolean();
+        }
+
+        /** Index of the counter of a path hash in a row, by double
+            hashing. */
+        private static int index(long hash, int row)
+        {
+            long step = Long.rotateLeft(hash, 32) | 1;
+            return row * WIDTH + (int)((hash + row * step) & (WIDTH - 1));
+        }
+
+        /** Counts a lookup and returns the new count of its path. */
+        int add(long hash)
+        {
+            int count = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++)
+                count = Math.min(count, counters.incrementAndGet(index(hash, row)));
+            return count;
+        }
+
+        /** Returns the count of a path. */
+        int count(long hash)
+        {
+            int count = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++)
+                count = Math.min(count, counters.get(index(hash, row)));
+            return count;
+        }
+
+        /** Makes a path a candidate, pruning the candidates if too many
+            accumulated. */
+        void offer(Path path, int count)
+        {
+            candidates.put(path, count);
+            if (candidates.size() <= 2 * CANDIDATES || !pruning.compareAndSet(false, true))
+                return;
+            try {
+                List<Map.Entry<Path, Integer>> entries = new ArrayList<>(candidates.entrySet());
+                if (entries.size() <= CANDIDATES)
+                    return;
+                entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+                for (Map.Entry<Path, Integer> entry : entries.subList(CANDIDATES, entries.size()))
+                    candidates.remove(entry.getKey(), entry.getValue());
+                floor = entries.get(CANDIDATES - 1).getValue();
+            } finally {
+                pruning.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Results of a batched naming server call.
+
+    <p>
+    A batched call applies an operation to each entry of an array of paths and
+    returns one result per entry, in the order of the array. Each result is
+    either the value the single-path operation would have returned, or the
+    exception it would have thrown. A failed entry does not affect the other
+    entries of the batch.
+
+    @param <T> Type of the value of each entry.
+ */
+public class BatchResult<T extends Serializable> implements Serializable
+{
+    /** Values of the entries, <code>null</code> for failed entries. */
+    private final Object[]      values;
+    /** Exceptions of the failed entries, <code>null</code> for the others. */
+    private final Exception[]   errors;
+
+    /** Creates the results of a batch of <code>size</code> entries, none of
+        which have completed. */
+    BatchResult(int size)
+    {
+        this.values = new Object[size];
+        this.errors = new Exception[size];
+    }
+
+    /** Records the value of an entry. */
+    void set(int index, T value)
+    {
+        values[index] = value;
+        errors[index] = null;
+    }
+
+    /** Records the failure of an entry. */
+    void fail(int index, Exception error)
+    {
+        values[index] = null;
+        errors[index] = error;
+    }
+
+    /** Returns the number of entries in the batch. */
+    public int size()
+    {
+        return values.length;
+    }
+
+    /** Indicates whether an entry succeeded.
+
+        @param index Index of the entry in the batch.
+        @return <code>true</code> if the operation returned a value for the
+                entry, <code>false</code> if it threw an exception.
+     */
+    public boolean succeeded(int index)
+    {
+        return errors[index] == null;
+    }
+
+    /** Returns the value of an entry.
+
+        @param index Index of the entry in the batch.
+        @return The value, or <code>null</code> if the entry failed.
+     */
+    @SuppressWarnings("unchecked")
+    public T value(int index)
+    {
+        return (T)values[index];
+    }
+
+    /** Returns the exception of a failed entry.
+
+        @param index Index of the entry in the batch.
+        @return The exception, or <code>null</code> if the entry succeeded.
+     */
+    public Exception error(int index)
+    {
+        return errors[index];
+    }
+}
@@ -0,0 +1,137 @@
+package naming;
+
+import common.Path;
+
+import java.io.Serializable;
+import java.util.List;
+
+/** Consecutive changes below a watched path.
+
+    <p>
+    Each change is a mutation of the naming server's tree, numbered with the
+    sequence number of the mutation, as in <code>Mutations</code>. A batch
+    covers the mutations following <code>after</code> up to and including
+    <code>sequence</code>, and holds those that concern the watched path; the
+    next batch of the same watch follows <code>sequence</code>.
+
+    <p>
+    If the mutations following <code>after</code> are no longer retained by
+    the naming server, or <code>after</code> is ahead of it because it
+    restarted, the batch is a reset: it holds no changes, and the client must
+    read the watched subtree again, for example with <code>list</code>, to
+    learn what it missed.
+ */
+public class Changes implements Serializable
+{
+    /** Kind of a change creating a directory, and any missing parent
+        directories. */
+    public static final int     DIRECTORY = 0;
+    /** Kind of a change creating a file or changing its replicas, length or
+        modification time, including a file added by a storage server when it
+        registers. */
+    public static final int     FILE = 1;
+    /** Kind of a change deleting an object and everything below it. */
+    public static final int     DELETE = 2;
+    /** Kind of a change moving an object and everything below it to a new
+        path. */
+    public static final int     RENAME = 3;
+
+    /** Sequence number the batch follows. */
+    private final long          after;
+    /** Sequence number of the last mutation covered. */
+    private final long          sequence;
+    /** Indicates that mutations following <code>after</code> were missed. */
+    private final boolean       reset;
+    /** The changes, in order. */
+    private final List<Change>  changes;
+
+    Changes(long after, long sequence, boolean reset, List<Change> changes)
+    {
+        this.after = after;
+        this.sequence = sequence;
+        this.reset = reset;
+        this.changes = changes;
+    }
+
+    /** Returns the sequence number of the last mutation delivered before
+        this batch. */
+    public long after()
+    {
+        return after;
+    }
+
+    /** Returns the sequence number of the last mutation covered by this
+        batch, from which the watch resumes. */
+    public long sequence()
+    {
+        return sequence;
+    }
+
+    /** Indicates that mutations following <code>after</code> were missed,
+        and the watched subtree must be read again. */
+    public boolean isReset()
+    {
+        return reset;
+    }
+
+    /** Returns the number of changes. */
+    public int size()
+    {
+        return changes.size();
+    }
+
+    /** Returns a change; change zero is the oldest. */
+    public Change get(int index)
+    {
+        return changes.get(index);
+    }
+
+    /** Change of the directory tree. */
+    public static class Change implements Serializable
+    {
+        /** <code>DIRECTORY</code>, <code>FILE</code>, <code>DELETE</code> or
+            <code>RENAME</code>. */
+        private final int       kind;
+        /** Path of the object, before the move for <code>RENAME</code>. */
+        private final Path      path;
+        /** New path of the object for <code>RENAME</code>, or
+            <code>null</code>. */
+        private final Path      target;
+        /** Sequence number of the mutation. */
+        private final long      sequence;
+
+        Change(int kind, Path path, Path target, long sequence)
+        {
+            this.kind = kind;
+            this.path = path;
+            this.target = target;
+            this.sequence = sequence;
+        }
+
+        /** Returns the kind of the change. */
+        public int kind()
+        {
+            return kind;
+        }
+
+        /** Returns the path of the object, before the move for a
+            <code>RENAME</code>. */
+        public Path path()
+        {
+            return path;
+        }
+
+        /** Returns the new path of the object for a <code>RENAME</code>, or
+            <code>null</code>. */
+        public Path target()
+        {
+            return target;
+        }
+
+        /** Returns the sequence number of the mutation. */
+        public long sequence()
+        {
+            return sequence;
+        }
+    }
+}
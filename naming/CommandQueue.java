@@ -0,0 +1,184 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+import storage.Command;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/** Queue coalescing the commands sent to one storage server.
+
+    <p>
+    Callers add create and delete commands to the queue, and wait for their
+    own result. The first command added to an idle queue starts a sender,
+    which waits <code>WINDOW</code> milliseconds for more commands and then
+    sends the queued commands in order: consecutive creations with one
+    <code>Command.createAll</code> call and consecutive deletions with one
+    <code>Command.deleteAll</code> call, of up to <code>BATCH</code> paths
+    each. Commands added while a call is in progress are sent by the same
+    sender after it, so that a burst of commands costs a few calls rather
+    than one per command. A command sent alone is sent with
+    <code>create</code> or <code>delete</code>.
+
+    <p>
+    A creation sent with <code>createAll</code> succeeds when the storage
+    server already holds a file at the path, where <code>create</code> would
+    fail.
+ */
+class CommandQueue
+{
+    /** Milliseconds the sender waits for more commands before its first
+        call. */
+    static final long                   WINDOW = 2;
+    /** Maximum number of paths per call. */
+    static final int                    BATCH = 4096;
+    /** Kind of a command creating a file. */
+    private static final int            CREATE = 0;
+    /** Kind of a command deleting a file or directory. */
+    private static final int            DELETE = 1;
+
+    /** Command stub of the storage server. */
+    private final Command               command;
+    /** Runs the sender. */
+    private final Executor              executor;
+    /** Commands not sent yet, oldest first. Guarded by the queue object. */
+    private final Deque<Request>        queued;
+    /** Indicates that a sender is running. Guarded by the queue object. */
+    private boolean                     sending;
+
+    CommandQueue(Command command, Executor executor)
+    {
+        this.command = command;
+        this.executor = executor;
+        this.queued = new ArrayDeque<>();
+    }
+
+    /** Queues the creation of a file, as by <code>Command.create</code>. */
+    Request create(Path file)
+    {
+        return add(new Request(CREATE, file));
+    }
+
+    /** Queues the deletion of a file or directory, as by
+        <code>Command.delete</code>. */
+    Request delete(Path path)
+    {
+        return add(new Request(DELETE, path));
+    }
+
+    private Request add(Request request)
+    {
+        boolean start;
+        synchronized (this) {
+            queued.add(request);
+            start = !sending;
+            sending = true;
+        }
+        if (start)
+            executor.execute(this::send);
+        return request;
+    }
+
+    /** Sends the queued commands until the queue is empty. */
+    private void send()
+    {
+        try {
+            Thread.sleep(WINDOW);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (true) {
+            List<Request> batch = new ArrayList<>();
+            synchronized (this) {
+                if (queued.isEmpty()) {
+                    sending = false;
+                    return;
+                }
+                int kind = queued.peek().kind;
+                while (!queued.isEmpty() && queued.peek().kind == kind && batch.size() < BATCH)
+                    batch.add(queued.poll());
+            }
+            send(batch);
+        }
+    }
+
+    /** Sends commands of one kind with one call, and completes them. */
+    private void send(List<Request> batch)
+    {
+        try {
+            Request first = batch.get(0);
+            if (batch.size() == 1) {
+                first.complete(first.kind == CREATE ? command.create(first.path)
+                                                    : command.delete(first.path), null);
+                return;
+            }
+            Path[] paths = new Path[batch.size()];
+            for (int i = 0; i < paths.length; i++)
+                paths[i] = batch.get(i).path;
+            boolean[] done = first.kind == CREATE ? command.createAll(paths)
+                                                  : command.deleteAll(paths);
+            for (int i = 0; i < paths.length; i++)
+                batch.get(i).complete(done[i], null);
+        } catch (RMIException | RuntimeException e) {
+            for (Request request : batch)
+                request.complete(false, e);
+        }
+    }
+
+    /** Command added to the queue, and its result once sent. */
+    static class Request
+    {
+        /** <code>CREATE</code> or <code>DELETE</code>. */
+        final int               kind;
+        /** Path the command applies to. */
+        final Path              path;
+        /** Indicates that the command has been sent. */
+        private boolean         done;
+        /** Result of the command. */
+        private boolean         result;
+        /** Exception thrown by the call, or <code>null</code>. */
+        private Exception       failure;
+
+        Request(int kind, Path path)
+        {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        private synchronized void complete(boolean result, Exception failure)
+        {
+            this.result = result;
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        /** Waits until the command has been sent and returns its result.
+
+            @return What <code>Command.create</code> or
+                    <code>Command.delete</code> returned for the path.
+            @throws RMIException If the storage server could not be
+                                 contacted, or the wait was interrupted.
+         */
+        synchronized boolean get() throws RMIException
+        {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RMIException("interrupted while waiting for the storage server", e);
+                }
+            }
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            if (failure != null)
+                throw (RMIException)failure;
+            return result;
+        }
+    }
+}
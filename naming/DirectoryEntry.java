@@ -0,0 +1,90 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Entry of a directory listing with attributes.
+
+    <p>
+    Entries are returned by <code>Service.listEntries</code>. Each entry
+    carries what a client would otherwise need one call per entry to learn:
+    whether the entry is a directory, and for files, the length and the
+    storage server holding the first replica.
+ */
+public class DirectoryEntry implements Serializable
+{
+    /** Value of <code>size</code> and <code>server</code> when they are not
+        known or do not apply. */
+    public static final int     UNKNOWN = -1;
+
+    /** Name of the entry within its directory. */
+    private final String        name;
+    /** Indicates that the entry is a directory. */
+    private final boolean       directory;
+    /** Length of the file in bytes, or <code>UNKNOWN</code>. */
+    private final long          size;
+    /** Server number of the storage server holding the file's first replica,
+        or <code>UNKNOWN</code>. */
+    private final int           server;
+
+    /** Creates an entry.
+
+        @param name Name of the entry within its directory.
+        @param directory <code>true</code> if the entry is a directory.
+        @param size Length of the file in bytes, or <code>UNKNOWN</code>.
+        @param server Server number of the storage server holding the file,
+                      or <code>UNKNOWN</code>.
+     */
+    DirectoryEntry(String name, boolean directory, long size, int server)
+    {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.server = server;
+    }
+
+    /** Returns the name of the entry within its directory. */
+    public String name()
+    {
+        return name;
+    }
+
+    /** Returns <code>true</code> if the entry is a directory and
+        <code>false</code> if it is a file. */
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    /** Returns the length of the file in bytes, as last reported by its
+        storage servers, or <code>UNKNOWN</code> for directories and for files
+        whose length has not been reported yet. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the server number of the storage server holding the file's
+        first replica, or <code>UNKNOWN</code> for directories.
+
+        <p>
+        Server numbers are assigned by the naming server, one per registered
+        storage server, and are the same across all entries and listings.
+        They let a client group files by storage server; the stub for a
+        number is found in <code>Service.getStorageTable</code>.
+     */
+    public int server()
+    {
+        return server;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DirectoryEntry{" +
+                "name=" + name +
+                ", directory=" + directory +
+                ", size=" + size +
+                ", server=" + server +
+                '}';
+    }
+}
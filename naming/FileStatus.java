@@ -0,0 +1,95 @@
+package naming;
+
+import storage.Storage;
+
+import java.io.Serializable;
+
+/** Attributes of a filesystem object, returned by <code>Service.stat</code>.
+
+    <p>
+    The length and modification time of a file are those last reported by
+    the storage servers holding it, or by the client that last finished
+    writing it, see <code>Service.written</code>. Storage servers report them
+    shortly after each modification, so they may lag behind a write in
+    progress by a fraction of a second, but not behind a writer that closed
+    the file. A new file is empty. They are <code>UNKNOWN</code> until first
+    reported for a file added by a storage server, and for directories.
+ */
+public class FileStatus implements Serializable
+{
+    /** Value of the length and modification time when they are not known or
+        do not apply. */
+    public static final long    UNKNOWN = -1;
+
+    /** Indicates that the object is a directory. */
+    private final boolean       directory;
+    /** Length of the file in bytes, or <code>UNKNOWN</code>. */
+    private final long          size;
+    /** Modification time of the file, or <code>UNKNOWN</code>. */
+    private final long          modified;
+    /** Version of the file, or zero for a directory. */
+    private final long          version;
+    /** Replica of the file to read, or <code>null</code>. */
+    private final Storage       storage;
+
+    /** Creates the attributes of an object.
+
+        @param directory <code>true</code> if the object is a directory.
+        @param size Length of the file in bytes, or <code>UNKNOWN</code>.
+        @param modified Modification time of the file in milliseconds since
+                        the epoch, or <code>UNKNOWN</code>.
+        @param version Version of the file, or zero for a directory.
+        @param storage Replica of the file to read, or <code>null</code>.
+     */
+    FileStatus(boolean directory, long size, long modified, long version,
+               Storage storage)
+    {
+        this.directory = directory;
+        this.size = size;
+        this.modified = modified;
+        this.version = version;
+        this.storage = storage;
+    }
+
+    /** Returns <code>true</code> if the object is a directory and
+        <code>false</code> if it is a file. */
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    /** Returns the length of the file in bytes, or <code>UNKNOWN</code>. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the modification time of the file in milliseconds since the
+        epoch, or <code>UNKNOWN</code>. */
+    public long modified()
+    {
+        return modified;
+    }
+
+    /** Returns the version of the file, or zero for a directory.
+
+        <p>
+        The version is the sequence number of the last mutation of the
+        naming server's tree that changed the replicas, length or
+        modification time of the file. It grows with every such change, so
+        that a client holding data read at one version knows the data may be
+        stale once the version differs.
+     */
+    public long version()
+    {
+        return version;
+    }
+
+    /** Returns a stub for the storage server from which to read the file,
+        chosen as by <code>Service.getStorage</code>, or <code>null</code> for
+        a directory. */
+    public Storage storage()
+    {
+        return storage;
+    }
+}
@@ -0,0 +1,106 @@
+package naming;
+
+import rmi.RMIException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Client-side router sending lookups to follower naming servers.
+
+    <p>
+    The lookup calls listed in <code>LOOKUPS</code> are sent to the followers
+    in turn. When a follower refuses a lookup because it lags too far behind
+    the primary, or cannot be contacted, the lookup is sent to the next
+    follower, and finally to the primary. All other calls are sent to the
+    primary.
+
+    <p>
+    Lookups answered by a follower may not reflect the most recent
+    modifications: a file just created through the primary may not be
+    visible yet. Each follower bounds how far behind it may be.
+
+    <p>
+    Routers are created by <code>NamingStubs.withFollowers</code>.
+ */
+class FollowerRouter implements InvocationHandler
+{
+    /** Names of the <code>Service</code> methods followers answer. */
+    private static final Set<String>    LOOKUPS = new HashSet<>(Arrays.asList(
+        "isDirectory", "list", "listEntries", "find", "getStorage",
+        "getReplicas", "stat", "open", "usage", "isDirectoryBatch",
+        "getStorageBatch"));
+
+    /** Primary naming server. */
+    private final Service               primary;
+    /** Follower naming servers. */
+    private final Service[]             followers;
+    /** Index of the follower the next lookup is sent to first. */
+    private final AtomicInteger         next;
+
+    private FollowerRouter(Service primary, Service[] followers)
+    {
+        this.primary = primary;
+        this.followers = followers;
+        this.next = new AtomicInteger();
+    }
+
+    /** Returns a <code>Service</code> implementation sending lookups to
+        followers.
+
+        @param primary Stub for the primary naming server.
+        @param followers Stubs for its followers.
+     */
+    static Service create(Service primary, Service[] followers)
+    {
+        return (Service)Proxy.newProxyInstance(Service.class.getClassLoader(),
+                                               new Class<?>[] {Service.class},
+                                               new FollowerRouter(primary,
+                                                                  followers.clone()));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "FollowerRouter[" + primary + "]";
+            }
+        }
+
+        if (LOOKUPS.contains(method.getName()) && followers.length > 0) {
+            int first = Math.floorMod(next.getAndIncrement(), followers.length);
+            for (int n = 0; n < followers.length; n++) {
+                try {
+                    return call(followers[(first + n) % followers.length], method, args);
+                } catch (IllegalStateException | RMIException e) {
+                    // stale or unreachable: try the next one
+                }
+            }
+        }
+        return call(primary, method, args);
+    }
+
+    /** Invokes a method on a naming server stub, throwing what the call
+        throws. */
+    private static Object call(Service server, Method method, Object[] args)
+        throws Throwable
+    {
+        try {
+            return method.invoke(server, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package naming;
+
+import common.Path;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Background task deleting the files of deleted subtrees from the storage
+    servers.
+
+    <p>
+    <code>NamingServer.delete</code> only detaches the deleted object from the
+    directory tree and leaves a tombstone: the inode of the detached subtree
+    and the path it had. The collector frees the inodes of each tombstone a
+    slice at a time, so that the tree lock is never held for long, and
+    gathers the paths of the freed files by storage server. The paths are
+    deleted on each storage server with <code>Command.deleteAll</code>, in
+    batches of up to <code>BATCH</code> paths, with at most
+    <code>PARALLELISM</code> batches in progress at once.
+
+    <p>
+    Before each batch is sent, paths that have been created again on the same
+    storage server since the delete are dropped from it, so that the
+    collector never deletes a live file.
+ */
+class GarbageCollector implements Runnable
+{
+    /** Number of inodes freed per acquisition of the tree lock. */
+    private static final int            SLICE = 4096;
+    /** Number of paths per <code>deleteAll</code> call. */
+    private static final int            BATCH = 1024;
+    /** Maximum number of <code>deleteAll</code> calls in progress. */
+    private static final int            PARALLELISM = 4;
+
+    /** Naming server whose deleted files are collected. */
+    private final NamingServer          server;
+    /** Subtrees detached and not yet freed, oldest first. */
+    private final Queue<Tombstone>      tombstones;
+    /** Threads sending the batches. */
+    private final ExecutorService       senders;
+    /** Indicates that a collection is in progress. */
+    private final AtomicBoolean         running;
+
+    GarbageCollector(NamingServer server)
+    {
+        this.server = server;
+        this.tombstones = new ConcurrentLinkedQueue<>();
+        this.senders = Executors.newFixedThreadPool(PARALLELISM);
+        this.running = new AtomicBoolean();
+    }
+
+    /** Adds the tombstone of a detached subtree.
+
+        @param id Inode of the detached subtree.
+        @param path Path the subtree had.
+     */
+    void add(int id, Path path)
+    {
+        tombstones.add(new Tombstone(id, path));
+    }
+
+    /** Indicates whether tombstones remain to be collected. */
+    boolean pending()
+    {
+        return !tombstones.isEmpty();
+    }
+
+    /** Stops the threads sending batches. */
+    void shutdown()
+    {
+        senders.shutdownNow();
+    }
+
+    /** Collects all tombstones, unless a collection is in progress. */
+    @Override
+    public void run()
+    {
+        while (pending() && running.compareAndSet(false, true)) {
+            try {
+                collect();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    /** Frees the queued tombstones and deletes their files. */
+    private void collect() throws InterruptedException
+    {
+        Map<Integer, List<Path>> files = new HashMap<>();
+        Tombstone tombstone;
+        while ((tombstone = tombstones.peek()) != null) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (server.reclaim(tombstone.id, tombstone.path, SLICE, files))
+                tombstones.poll();
+            send(files, false);
+        }
+        send(files, true);
+    }
+
+    /** Sends the full batches of paths, or all of them.
+
+        @param files Paths to delete by server number. Sent paths are removed.
+        @param all Whether partial batches are sent too.
+     */
+    private void send(Map<Integer, List<Path>> files, boolean all)
+        throws InterruptedException
+    {
+        List<Callable<Void>> batches = new ArrayList<>();
+        Iterator<Map.Entry<Integer, List<Path>>> entries =
+            files.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, List<Path>> entry = entries.next();
+            List<Path> paths = entry.getValue();
+            int sent = 0;
+            while (paths.size() - sent >= BATCH || (all && sent < paths.size())) {
+                int end = Math.min(paths.size(), sent + BATCH);
+                Path[] batch = paths.subList(sent, end).toArray(new Path[end - sent]);
+                int slot = entry.getKey();
+                batches.add(() -> {
+                    server.deleteOn(slot, batch);
+                    return null;
+                });
+                sent = end;
+            }
+            paths.subList(0, sent).clear();
+            if (paths.isEmpty())
+                entries.remove();
+        }
+        if (!batches.isEmpty())
+            senders.invokeAll(batches);
+    }
+
+    /** Subtree detached from the directory tree. */
+    private static class Tombstone
+    {
+        /** Inode of the subtree root. */
+        final int   id;
+        /** Path of the subtree root before it was detached. */
+        final Path  path;
+
+        Tombstone(int id, Path path)
+        {
+            this.id = id;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Background task adding replicas to files that are read heavily.
+
+    <p>
+    The naming server reports every <code>getStorage</code> lookup to the
+    replicator. Once per period, the replicator turns the lookups counted
+    during the period into a smoothed read rate for each file. A file is hot
+    while its rate exceeds <code>threshold</code> reads per second per replica.
+    Each period, every hot file gains one replica on the least loaded storage
+    server that does not hold it yet, until the file has enough replicas to
+    bring the rate per replica under the threshold or every server holds it.
+
+    <p>
+    When a file cools down, replicas added by the replicator are retired one
+    per period. A retired replica is first removed from the file's replica set,
+    so that it is no longer handed out, and deleted from its storage server one
+    period later, once readers that were handed it have had time to finish.
+    Replicas placed when the file was created are never retired.
+
+    <p>
+    Writers apply writes to the replicas they obtained when opening the file,
+    so a replica added while a file is open for writing misses those writes.
+    Hot replication is meant for files that are read far more than they are
+    written.
+ */
+class HotFileReplicator implements Runnable
+{
+    /** Period between rate updates, in milliseconds. */
+    static final long               PERIOD = 1000;
+    /** Weight of the latest period in the smoothed read rate. */
+    private static final double     SMOOTHING = 0.5;
+    /** Rate below which an untracked file is forgotten. */
+    private static final double     FORGET_RATE = 0.01;
+
+    /** Naming server whose files are replicated. */
+    private final NamingServer      server;
+    /** Reads per second per replica above which a file is hot. */
+    private final double            threshold;
+    /** Lookups counted during the current period. */
+    private volatile Map<Path, AtomicInteger> window;
+    /** Smoothed read rate of each recently read file. */
+    private final Map<Path, Double> rates;
+    /** Replicas added by the replicator, by file. */
+    private final Map<Path, List<StorageRecord>> added;
+    /** Replicas retired during the previous period, to be deleted from their
+        storage servers. */
+    private Map<Path, StorageRecord> retired;
+
+    HotFileReplicator(NamingServer server, double threshold)
+    {
+        this.server = server;
+        this.threshold = threshold;
+        this.window = new ConcurrentHashMap<>();
+        this.rates = new HashMap<>();
+        this.added = new HashMap<>();
+        this.retired = new HashMap<>();
+    }
+
+    /** Counts a lookup of a file. Called by the naming server for each
+        <code>getStorage</code> call. */
+    void read(Path file)
+    {
+        window.computeIfAbsent(file, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /** Updates read rates and adds or retires replicas. */
+    @Override
+    public void run()
+    {
+        Map<Path, AtomicInteger> counts = window;
+        window = new ConcurrentHashMap<>();
+
+        deleteRetired();
+
+        Set<Path> files = new HashSet<>(rates.keySet());
+        files.addAll(counts.keySet());
+        for (Path file : files) {
+            AtomicInteger count = counts.get(file);
+            double latest = count == null ? 0 : count.get() * 1000.0 / PERIOD;
+            Double previous = rates.get(file);
+            double rate = previous == null ? latest :
+                    SMOOTHING * latest + (1 - SMOOTHING) * previous;
+            if (rate < FORGET_RATE && !added.containsKey(file))
+                rates.remove(file);
+            else
+                rates.put(file, rate);
+        }
+
+        Iterator<Map.Entry<Path, Double>> entries = rates.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Double> entry = entries.next();
+            try {
+                adjust(entry.getKey(), entry.getValue());
+            } catch (FileNotFoundException e) {
+                entries.remove();
+                added.remove(entry.getKey());
+            } catch (Exception e) {
+                // the copy failed; the file is tried again next period
+            }
+        }
+    }
+
+    /** Adds or retires one replica of a file according to its read rate.
+
+        @throws FileNotFoundException If the file no longer exists.
+        @throws Exception If a replica cannot be copied.
+     */
+    private void adjust(Path file, double rate) throws Exception
+    {
+        List<StorageRecord> holders = server.replicaRecords(file);
+        List<StorageRecord> candidates = server.liveServers();
+        int wanted = (int)Math.ceil(rate / threshold);
+        wanted = Math.max(wanted, 1);
+        wanted = Math.min(wanted, candidates.size());
+
+        if (holders.size() < wanted) {
+            candidates.removeAll(holders);
+            StorageRecord lightest = null;
+            for (StorageRecord record : candidates) {
+                if (lightest == null || record.load() < lightest.load() ||
+                        (record.load() == lightest.load() && record.bytes() < lightest.bytes()))
+                    lightest = record;
+            }
+            if (lightest != null && server.replicate(file, lightest))
+                added.computeIfAbsent(file, key -> new ArrayList<>()).add(lightest);
+            return;
+        }
+
+        List<StorageRecord> extra = added.get(file);
+        if (holders.size() > wanted && extra != null) {
+            StorageRecord record = extra.remove(extra.size() - 1);
+            if (extra.isEmpty())
+                added.remove(file);
+            if (server.retire(file, record))
+                retired.put(file, record);
+        }
+    }
+
+    /** Deletes replicas retired during the previous period from their storage
+        servers, unless they have been added back since. */
+    private void deleteRetired()
+    {
+        Map<Path, StorageRecord> pending = retired;
+        retired = new HashMap<>();
+        List<CommandQueue.Request> deletions = new ArrayList<>();
+        for (Map.Entry<Path, StorageRecord> entry : pending.entrySet()) {
+            boolean held;
+            try {
+                held = server.replicaRecords(entry.getKey()).contains(entry.getValue());
+            } catch (FileNotFoundException e) {
+                held = false;
+            }
+            if (!held)
+                deletions.add(entry.getValue().commands.delete(entry.getKey()));
+        }
+        for (CommandQueue.Request deletion : deletions) {
+            try {
+                deletion.get();
+            } catch (RMIException e) {
+                // the storage server is unreachable; the copy is left behind
+            }
+        }
+    }
+}
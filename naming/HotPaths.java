@@ -0,0 +1,55 @@
+package naming;
+
+import common.Path;
+
+import java.io.Serializable;
+
+/** Most looked up paths of a naming server over a recent window.
+
+    <p>
+    Returned by <code>Service.hotPaths</code>. The counts are estimates: a
+    count is never below the number of lookups of its path during the window,
+    and exceeds it only when other paths were counted with it.
+ */
+public class HotPaths implements Serializable
+{
+    /** Milliseconds covered by the counts. */
+    private final long          window;
+    /** Paths, most looked up first. */
+    private final Path[]        paths;
+    /** Estimated number of lookups of each path. */
+    private final long[]        counts;
+
+    HotPaths(long window, Path[] paths, long[] counts)
+    {
+        this.window = window;
+        this.paths = paths;
+        this.counts = counts;
+    }
+
+    /** Returns the number of milliseconds covered by the counts, which may
+        differ from the window asked for. */
+    public long window()
+    {
+        return window;
+    }
+
+    /** Returns the number of paths. */
+    public int size()
+    {
+        return paths.length;
+    }
+
+    /** Returns a path; path zero is the most looked up. */
+    public Path path(int index)
+    {
+        return paths[index];
+    }
+
+    /** Returns the estimated number of lookups of a path during the
+        window. */
+    public long count(int index)
+    {
+        return counts[index];
+    }
+}
@@ -0,0 +1,126 @@
+package naming;
+
+import common.Path;
+import storage.Storage;
+
+import java.io.Serializable;
+
+/** Metadata of an object, which a client may cache for the term of the
+    lease.
+
+    <p>
+    Leases are granted by <code>Service.lease</code>. Until the term has
+    elapsed, counted from the time the request was sent, the metadata remains
+    valid unless the naming server revokes the lease through the client's
+    <code>LeaseHolder</code>.
+ */
+public class Lease implements Serializable
+{
+    /** Path of the object. */
+    private final Path          path;
+    /** Attributes of the object. */
+    private final FileStatus    status;
+    /** Replicas of a file, or <code>null</code> for a directory. */
+    private final Storage[]     replicas;
+    /** Names of the entries of a directory, or <code>null</code> for a file
+        or a directory too large to be listed in a lease. */
+    private final String[]      children;
+    /** Milliseconds for which the lease is valid. */
+    private final long          term;
+    /** Sequence number of the naming server's tree when the lease was
+        granted. */
+    private final long          sequence;
+
+    /** Creates a lease.
+
+        @param path Path of the object.
+        @param status Attributes of the object.
+        @param replicas Replicas of a file, or <code>null</code>.
+        @param children Entries of a directory, or <code>null</code>.
+        @param term Milliseconds for which the lease is valid.
+        @param sequence Sequence number of the tree at the time of the grant.
+     */
+    Lease(Path path, FileStatus status, Storage[] replicas, String[] children,
+          long term, long sequence)
+    {
+        this.path = path;
+        this.status = status;
+        this.replicas = replicas;
+        this.children = children;
+        this.term = term;
+        this.sequence = sequence;
+    }
+
+    /** Returns the path of the object. */
+    public Path path()
+    {
+        return path;
+    }
+
+    /** Returns <code>true</code> if the object is a directory and
+        <code>false</code> if it is a file. */
+    public boolean isDirectory()
+    {
+        return status.isDirectory();
+    }
+
+    /** Returns the attributes of the object, as returned by
+        <code>Service.stat</code>. */
+    public FileStatus status()
+    {
+        return status;
+    }
+
+    /** Returns the replica of a file chosen for reading as by
+        <code>Service.getStorage</code>, or <code>null</code> for a
+        directory. */
+    public Storage storage()
+    {
+        return status.storage();
+    }
+
+    /** Returns the replicas of a file, the first replica first, or
+        <code>null</code> for a directory. */
+    public Storage[] replicas()
+    {
+        return replicas == null ? null : replicas.clone();
+    }
+
+    /** Returns the object opened in a mode, as <code>Service.open</code>
+        would when the lease was granted.
+
+        @param mode <code>OpenFile.READ</code> or <code>OpenFile.WRITE</code>.
+        @throws IllegalArgumentException If the mode is not one of these.
+     */
+    public OpenFile open(int mode)
+    {
+        if (mode != OpenFile.READ && mode != OpenFile.WRITE)
+            throw new IllegalArgumentException("unknown mode " + mode);
+        if (status.isDirectory())
+            return new OpenFile(true, FileStatus.UNKNOWN, 0, new Storage[0]);
+        return new OpenFile(false, status.size(), status.version(),
+                            mode == OpenFile.WRITE ? replicas.clone()
+                                                   : new Storage[] {status.storage()});
+    }
+
+    /** Returns the entries of a directory, or <code>null</code> for a file or
+        for a directory with more than <code>NamingServer.LEASE_LIST_LIMIT</code>
+        entries. */
+    public String[] children()
+    {
+        return children == null ? null : children.clone();
+    }
+
+    /** Returns the number of milliseconds for which the lease is valid. */
+    public long term()
+    {
+        return term;
+    }
+
+    /** Returns the sequence number of the naming server's tree when the
+        lease was granted. */
+    public long sequence()
+    {
+        return sequence;
+    }
+}
@@ -0,0 +1,32 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+
+/** Client interface through which the naming server revokes leases.
+
+    <p>
+    A client caching the results of <code>Service.lease</code> exports this
+    interface and passes a stub for it with each lease request. When the
+    naming server modifies an object on which the client holds a lease that
+    has not expired, it calls <code>revoke</code> before the modifying call
+    returns. If the client cannot be reached within
+    <code>NamingServer.REVOKE_TIMEOUT</code> milliseconds, the modifying call
+    returns anyway, and the client may serve what it cached until the lease
+    expires.
+ */
+public interface LeaseHolder
+{
+    /** Revokes the leases on some paths.
+
+        @param paths Paths whose leases are revoked. The client must drop
+                     everything it caches about them.
+        @param sequence Sequence number of the naming server's tree once the
+                        modifications causing the revocation are applied. A
+                        lease granted at an earlier sequence number, whose
+                        reply is still on its way, must not be cached.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void revoke(Path[] paths, long sequence) throws RMIException;
+}
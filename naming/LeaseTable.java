@@ -0,0 +1,139 @@
+package naming;
+
+import common.Path;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Leases granted by a naming server and not yet expired or revoked.
+
+    <p>
+    The table is synchronized on itself, and never calls out while holding its
+    lock, so that it may be used while holding the naming server's tree lock.
+ */
+class LeaseTable
+{
+    /** Expiry times of the leases, by path and holder. */
+    private final TreeMap<Path, Map<LeaseHolder, Long>>     leases;
+    /** Sequence number of the last mutation whose leases were revoked. */
+    private long                                            revoked;
+    /** Number of leased paths at which expired leases are next swept. */
+    private int                                             sweepAt;
+
+    /** Smallest number of leased paths at which expired leases are swept. */
+    private static final int                                SWEEP_MIN = 1024;
+
+    LeaseTable()
+    {
+        this.leases = new TreeMap<>();
+        this.revoked = 0;
+        this.sweepAt = SWEEP_MIN;
+    }
+
+    /** Records a lease.
+
+        <p>
+        Leases on objects that are never modified are only dropped once they
+        expire, when the table has doubled in size since it was last swept.
+
+        @param path Path of the leased object.
+        @param holder Holder of the lease.
+        @param now Current time.
+        @param expiry Time at which the lease expires.
+     */
+    synchronized void grant(Path path, LeaseHolder holder, long now, long expiry)
+    {
+        leases.computeIfAbsent(path, key -> new HashMap<>()).merge(holder, expiry, Math::max);
+        if (leases.size() >= sweepAt) {
+            Iterator<Map<LeaseHolder, Long>> paths = leases.values().iterator();
+            while (paths.hasNext()) {
+                Map<LeaseHolder, Long> holders = paths.next();
+                holders.values().removeIf(time -> time <= now);
+                if (holders.isEmpty())
+                    paths.remove();
+            }
+            sweepAt = Math.max(SWEEP_MIN, 2 * leases.size());
+        }
+    }
+
+    /** Indicates whether no lease is recorded. */
+    synchronized boolean isEmpty()
+    {
+        return leases.isEmpty();
+    }
+
+    /** Returns the sequence number of the last mutation whose leases were
+        revoked. */
+    synchronized long revoked()
+    {
+        return revoked;
+    }
+
+    /** Removes the leases affected by mutations.
+
+        <p>
+        A mutation affects the leases on its path, on the parent of its path,
+        whose listing changes, and, for a deletion or a move, on everything
+        below its path. A move also affects the leases on its new path and
+        the parent of the new path.
+
+        @param mutations The mutations, or <code>null</code> to remove all
+                         leases.
+        @param sequence Sequence number of the last of the mutations.
+        @param now Current time. Expired leases are dropped.
+        @return Paths whose leases are revoked, by holder.
+     */
+    synchronized Map<LeaseHolder, List<Path>> take(List<Mutations.Entry> mutations,
+                                                   long sequence, long now)
+    {
+        revoked = Math.max(revoked, sequence);
+        Map<LeaseHolder, List<Path>> revocations = new HashMap<>();
+        if (leases.isEmpty())
+            return revocations;
+        if (mutations == null) {
+            while (!leases.isEmpty())
+                take(leases.firstKey(), now, revocations);
+            return revocations;
+        }
+        for (Mutations.Entry mutation : mutations) {
+            take(mutation.path, now, revocations);
+            if (!mutation.path.isRoot())
+                take(mutation.path.parent(), now, revocations);
+            if (mutation.target != null) {
+                take(mutation.target, now, revocations);
+                take(mutation.target.parent(), now, revocations);
+            }
+            if (mutation.kind == Mutations.DELETE || mutation.kind == Mutations.RENAME) {
+                Iterator<Path> below = leases.tailMap(mutation.path, false).keySet().iterator();
+                List<Path> subtree = new ArrayList<>();
+                while (below.hasNext()) {
+                    Path path = below.next();
+                    if (!MountTable.within(path, mutation.path))
+                        break;
+                    subtree.add(path);
+                }
+                for (Path path : subtree)
+                    take(path, now, revocations);
+            }
+        }
+        return revocations;
+    }
+
+    /** Removes the leases on one path, adding the live ones to the
+        revocations. */
+    private void take(Path path, long now, Map<LeaseHolder, List<Path>> revocations)
+    {
+        Map<LeaseHolder, Long> holders = leases.remove(path);
+        if (holders == null)
+            return;
+        for (Map.Entry<LeaseHolder, Long> lease : holders.entrySet()) {
+            if (lease.getValue() <= now)
+                continue;
+            revocations.computeIfAbsent(lease.getKey(), holder -> new ArrayList<>()).add(path);
+        }
+    }
+}
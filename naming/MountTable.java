@@ -0,0 +1,149 @@
+package naming;
+
+import common.Path;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Table of the naming servers sharing a filesystem namespace.
+
+    <p>
+    The namespace can be partitioned by subtree across several naming servers,
+    called shards. Each entry of the table mounts the subtree at a path on the
+    shard whose client service interface is at a given address. A path is
+    owned by the shard of the longest mount point that is a prefix of it. The
+    root directory must be mounted, so that every path has an owner.
+
+    <p>
+    All shards are configured with the same table. A shard answers calls on
+    the paths it owns and throws <code>WrongShardException</code> for the
+    others. A shard also holds an empty directory at each mount point directly
+    below its own subtree, so that listings of its directories show the
+    subtrees mounted on other shards. Clients route calls with the stub
+    returned by <code>NamingStubs.sharded</code>.
+
+    <p>
+    The version of the table is increased by each <code>mount</code>, so that
+    a client can tell a newer table from the one it has cached.
+ */
+public class MountTable implements Serializable
+{
+    /** Shard addresses by mount point, in path order. */
+    private final TreeMap<Path, InetSocketAddress>  mounts;
+    /** Version of the table. */
+    private long                                    version;
+
+    /** Creates an empty mount table. */
+    public MountTable()
+    {
+        this.mounts = new TreeMap<>();
+        this.version = 0;
+    }
+
+    /** Mounts a subtree on a shard, replacing any previous mount at the same
+        path.
+
+        @param prefix Mount point: the root of the subtree.
+        @param shard Address of the client service interface of the shard.
+        @throws NullPointerException If either argument is <code>null</code>.
+     */
+    public synchronized void mount(Path prefix, InetSocketAddress shard)
+    {
+        if (prefix == null || shard == null)
+            throw new NullPointerException();
+        mounts.put(prefix, shard);
+        version++;
+    }
+
+    /** Returns the version of the table. */
+    public synchronized long version()
+    {
+        return version;
+    }
+
+    /** Indicates whether the root directory is mounted. */
+    public synchronized boolean isComplete()
+    {
+        return mounts.containsKey(new Path());
+    }
+
+    /** Returns the shard owning a path.
+
+        @param path The path.
+        @return The address of the shard, or <code>null</code> if the root
+                directory is not mounted.
+     */
+    public synchronized InetSocketAddress owner(Path path)
+    {
+        Path mount = mountPoint(path);
+        return mount == null ? null : mounts.get(mount);
+    }
+
+    /** Returns the mount point of the subtree containing a path.
+
+        @param path The path.
+        @return The longest mount point that is a prefix of <code>path</code>,
+                or <code>null</code> if there is none.
+     */
+    public synchronized Path mountPoint(Path path)
+    {
+        for (Path prefix = path; ; prefix = prefix.parent()) {
+            if (mounts.containsKey(prefix))
+                return prefix;
+            if (prefix.isRoot())
+                return null;
+        }
+    }
+
+    /** Returns the mount points in path order. */
+    public synchronized Path[] mountPoints()
+    {
+        return mounts.keySet().toArray(new Path[mounts.size()]);
+    }
+
+    /** Indicates whether a path is a mount point or contains one.
+
+        @param path The path.
+        @return <code>true</code> if deleting <code>path</code> would delete
+                the root of a mounted subtree.
+     */
+    public synchronized boolean containsMount(Path path)
+    {
+        Iterator<Path> after = mounts.tailMap(path, true).keySet().iterator();
+        return after.hasNext() && within(after.next(), path);
+    }
+
+    /** Returns the shard addresses, without duplicates. */
+    public synchronized InetSocketAddress[] shards()
+    {
+        return mounts.values().stream().distinct().toArray(InetSocketAddress[]::new);
+    }
+
+    /** Tells whether a path is equal to or below another, component by
+        component.
+
+        @param path The path tested.
+        @param prefix The possible ancestor.
+     */
+    static boolean within(Path path, Path prefix)
+    {
+        Iterator<String> components = path.iterator();
+        for (String component : prefix) {
+            if (!components.hasNext() || !components.next().equals(component))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder text = new StringBuilder("MountTable{version=" + version);
+        for (Map.Entry<Path, InetSocketAddress> entry : mounts.entrySet())
+            text.append(", ").append(entry.getKey()).append('@').append(entry.getValue());
+        return text.append('}').toString();
+    }
+}
@@ -0,0 +1,103 @@
+package naming;
+
+import common.Path;
+import storage.Storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Recent mutations of the directory tree of a naming server.
+
+    <p>
+    The log keeps the last <code>CAPACITY</code> mutations in a ring, so that
+    followers which fall behind by less than that can catch up without a
+    snapshot. The log is not synchronized: mutations are recorded while
+    holding the write lock of the naming server's tree, and read while
+    holding its read lock.
+ */
+class MutationLog
+{
+    /** Number of mutations retained. */
+    static final int                CAPACITY = 1 << 16;
+
+    /** Retained mutations: mutation <code>n</code> is at index
+        <code>(n - 1) % CAPACITY</code>. */
+    private final Mutations.Entry[] ring;
+    /** Sequence number of the last mutation recorded. */
+    private long                    sequence;
+
+    MutationLog()
+    {
+        this.ring = new Mutations.Entry[CAPACITY];
+        this.sequence = 0;
+    }
+
+    /** Returns the sequence number of the last mutation recorded. */
+    long sequence()
+    {
+        return sequence;
+    }
+
+    /** Records the creation of a directory. */
+    void directory(Path path)
+    {
+        add(new Mutations.Entry(Mutations.DIRECTORY, path));
+    }
+
+    /** Records the creation of a file or a change of its replicas or
+        attributes.
+
+        @param path Path of the file.
+        @param replicas All the replicas of the file, the first replica first.
+        @param size Length of the file, or <code>FileStatus.UNKNOWN</code>.
+        @param modified Modification time of the file, or
+                        <code>FileStatus.UNKNOWN</code>.
+     */
+    void file(Path path, Storage[] replicas, long size, long modified)
+    {
+        add(new Mutations.Entry(Mutations.FILE, path, replicas, size, modified));
+    }
+
+    /** Records a change of the quotas of a directory. */
+    void quota(Path path, long objects, long bytes)
+    {
+        add(new Mutations.Entry(Mutations.QUOTA, path, null, objects, bytes));
+    }
+
+    /** Records the move of an object to a new path. */
+    void rename(Path source, Path target)
+    {
+        add(new Mutations.Entry(Mutations.RENAME, source, target));
+    }
+
+    /** Records the deletion of an object. */
+    void delete(Path path)
+    {
+        add(new Mutations.Entry(Mutations.DELETE, path));
+    }
+
+    /** Returns the mutations following a sequence number.
+
+        @param after Sequence number of the last mutation already applied.
+        @param limit Maximum number of mutations returned.
+        @return Up to <code>limit</code> mutations, or <code>null</code> if the
+                mutations following <code>after</code> are no longer retained
+                or <code>after</code> is ahead of the log.
+     */
+    Mutations since(long after, int limit)
+    {
+        if (after > sequence || after < sequence - CAPACITY)
+            return null;
+        long last = Math.min(sequence, after + limit);
+        List<Mutations.Entry> entries = new ArrayList<>((int)(last - after));
+        for (long n = after + 1; n <= last; n++)
+            entries.add(ring[(int)((n - 1) % CAPACITY)]);
+        return new Mutations(last, false, entries);
+    }
+
+    private void add(Mutations.Entry entry)
+    {
+        ring[(int)(sequence % CAPACITY)] = entry;
+        sequence++;
+    }
+}
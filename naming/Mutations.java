@@ -0,0 +1,132 @@
+package naming;
+
+import common.Path;
+import storage.Storage;
+
+import java.io.Serializable;
+import java.util.List;
+
+/** Consecutive mutations of the directory tree of a naming server.
+
+    <p>
+    The naming server numbers the mutations of its tree from one, in the order
+    they are made. <code>Service.tail</code> returns the mutations following a
+    given sequence number, so that a follower naming server can apply them to
+    its own copy of the tree. A mutation creates a directory, sets the
+    replicas, length and modification time of a file, creating it if needed,
+    deletes an object, moves an object to a new path, or sets the quotas of a
+    directory.
+
+    <p>
+    When the requested mutations are no longer retained, the naming server
+    returns a snapshot instead: mutations which, applied to an empty tree,
+    rebuild its whole tree as of the sequence number of the snapshot.
+ */
+public class Mutations implements Serializable
+{
+    /** Kind of a mutation making a directory and its parents. */
+    static final int            DIRECTORY = 0;
+    /** Kind of a mutation setting the replicas of a file. */
+    static final int            FILE = 1;
+    /** Kind of a mutation deleting an object. */
+    static final int            DELETE = 2;
+    /** Kind of a mutation setting the quotas of a directory. */
+    static final int            QUOTA = 3;
+    /** Kind of a mutation moving an object to a new path. */
+    static final int            RENAME = 4;
+
+    /** Sequence number of the last mutation included. */
+    private final long          sequence;
+    /** Indicates that the mutations rebuild the tree from scratch. */
+    private final boolean       snapshot;
+    /** The mutations, in order. */
+    private final List<Entry>   entries;
+
+    /** Creates a list of mutations.
+
+        @param sequence Sequence number of the last mutation included.
+        @param snapshot <code>true</code> if the mutations rebuild the tree
+                        from scratch.
+        @param entries The mutations, in order.
+     */
+    Mutations(long sequence, boolean snapshot, List<Entry> entries)
+    {
+        this.sequence = sequence;
+        this.snapshot = snapshot;
+        this.entries = entries;
+    }
+
+    /** Returns the sequence number of the naming server's tree once these
+        mutations are applied. */
+    public long sequence()
+    {
+        return sequence;
+    }
+
+    /** Indicates whether the mutations rebuild the tree from scratch, rather
+        than follow the sequence number given to <code>tail</code>. */
+    public boolean isSnapshot()
+    {
+        return snapshot;
+    }
+
+    /** Returns the number of mutations. */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /** Returns the mutations, in order. */
+    List<Entry> entries()
+    {
+        return entries;
+    }
+
+    /** Mutation of the directory tree. */
+    static class Entry implements Serializable
+    {
+        /** <code>DIRECTORY</code>, <code>FILE</code>, <code>DELETE</code>,
+            <code>QUOTA</code> or <code>RENAME</code>. */
+        final int           kind;
+        /** Path of the object, before the move for <code>RENAME</code>. */
+        final Path          path;
+        /** New path of the object for <code>RENAME</code>, or
+            <code>null</code> for other kinds. */
+        final Path          target;
+        /** Replicas of a file, the first replica first, or <code>null</code>
+            for other kinds. */
+        final Storage[]     replicas;
+        /** Length of a file, or <code>FileStatus.UNKNOWN</code>; the object
+            quota of a directory for <code>QUOTA</code>. */
+        final long          size;
+        /** Modification time of a file, or <code>FileStatus.UNKNOWN</code>;
+            the byte quota of a directory for <code>QUOTA</code>. */
+        final long          modified;
+
+        Entry(int kind, Path path)
+        {
+            this(kind, path, null, FileStatus.UNKNOWN, FileStatus.UNKNOWN);
+        }
+
+        Entry(int kind, Path path, Path target)
+        {
+            this(kind, path, target, null, FileStatus.UNKNOWN, FileStatus.UNKNOWN);
+        }
+
+        Entry(int kind, Path path, Storage[] replicas, long size, long modified)
+        {
+            this(kind, path, null, replicas, size, modified);
+        }
+
+        private Entry(int kind, Path path, Path target, Storage[] replicas,
+                      long size, long modified)
+        {
+            this.kind = kind;
+            this.path = path;
+            this.target = target;
+            this.replicas = replicas;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -2,19 +2,33 @@ package naming;
 
 import common.Branch;
 import common.FileTree;
+import common.Glob;
 import common.Leaf;
 import common.Path;
 import rmi.RMIException;
 import rmi.Skeleton;
+import rmi.Stub;
 import storage.Command;
+import storage.LoadReport;
 import storage.Storage;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.FileAlreadyExistsException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /** Naming server.
 
@@ -37,16 +51,115 @@ import java.util.concurrent.Executors;
     Stubs for accessing the naming server must typically be created by directly
     specifying the remote network address. To make this possible, the client and
     registration interfaces are available at well-known ports defined in
-    <code>NamingStubs</code>.
+    <code>NamingStubs</code>, unless other ports are set with
+    <code>setPorts</code>.
  */
 public class NamingServer implements Service, Registration
 {
     private ExecutorService executorService;
     private FileTree fileTree;
-    private List<Command> servers;
+    private List<StorageRecord> servers;
     private Skeleton<Service> serviceSkeleton;
     private Skeleton<Registration> registrationSkeleton;
-    private  Map<Command, Storage> storageMap;
+    private  Map<Command, StorageRecord> storageMap;
+    /** Chooses the storage server for each new file. */
+    private volatile PlacementPolicy placement;
+    /** Number of storage servers each new file is placed on. */
+    private volatile int replication;
+    /** Breaks ties between equally loaded replicas. */
+    private final Random random;
+    /** Reads per second per replica above which files gain replicas, or zero
+        if hot files are not replicated. */
+    private volatile double hotThreshold;
+    /** Replicates hot files, or <code>null</code> if disabled. */
+    private HotFileReplicator hotFiles;
+    /** Bytes per second the rebalancer may copy, or zero if storage servers
+        are not rebalanced. */
+    private volatile long rebalanceBandwidth;
+    /** Moves files to under-full storage servers, or <code>null</code> if
+        disabled. */
+    private Rebalancer rebalancer;
+    /** Runs the rebalancer, whose copies are throttled, apart from the other
+        background tasks, or <code>null</code> if disabled. */
+    private ScheduledExecutorService rebalancing;
+    /** Indicates that new files are created on the storage servers in the
+        background rather than before <code>createFile</code> returns. */
+    private volatile boolean deferCreation;
+    /** Number of heartbeats a storage server may miss before it is
+        considered dead. */
+    private static final int        HEARTBEAT_MISSES = 3;
+    /** Deletes the files of deleted subtrees from the storage servers. */
+    private final GarbageCollector  collector;
+    /** Runs background tasks while the server is started. */
+    private ScheduledExecutorService scheduler;
+    /** Guards the directory tree: lookups share it, mutations own it. */
+    private final ReadWriteLock lock;
+    /** Port of the client service interface. */
+    private int servicePort;
+    /** Port of the registration interface. */
+    private int registrationPort;
+    /** Naming servers sharing the namespace, or <code>null</code> if this
+        server holds all of it. */
+    private volatile MountTable mounts;
+    /** Address of this server in the mount table. */
+    private InetSocketAddress self;
+    /** Recent mutations of the directory tree, for followers. */
+    private final MutationLog log;
+    /** Filter of the paths of the tree, for clients; <code>null</code> on a
+        follower or before the server is started. */
+    private PathFilterLog filters;
+    /** Primary naming server this server follows, or <code>null</code> if
+        this server is a primary. */
+    private Service primary;
+    /** Milliseconds a follower may lag behind its primary and still answer
+        reads. */
+    private long maxStaleness;
+    /** Sequence number of the last mutation of the primary applied. */
+    private long applied;
+    /** Time at which a follower last started a pass that caught up with
+        its primary. */
+    private volatile long caughtUp;
+    /** Leases granted to clients. */
+    private final LeaseTable leases;
+    /** Counts of recent lookups, by path. */
+    private final AccessSketch accesses;
+    /** Watches of clients on parts of the tree. */
+    private final WatchTable watches;
+    /** Held while the leases affected by mutations are taken from the
+        lease table and their revocations started. */
+    private final Object revoking;
+    /** Revocations started and possibly not yet delivered, with the time
+        until which modifying calls wait for each. Guarded by
+        <code>revoking</code>. */
+    private final Map<Future<?>, Long> delivering;
+    /** Copies storage servers kept at the old paths of renames they missed,
+        by server number, until they are deleted from the servers. */
+    private final Map<Integer, Set<Path>> stale;
+    /** Server numbers whose stale copies are being deleted. */
+    private final Set<Integer> deletingStale;
+    /** Milliseconds for which leases are granted. */
+    static final long               LEASE_TERM = 10000;
+    /** Milliseconds for which a modifying call waits for its revocations to
+        be delivered. */
+    public static final long        REVOKE_TIMEOUT = 1000;
+    /** Largest directory whose entries are included in its lease. */
+    public static final int         LEASE_LIST_LIMIT = 4096;
+    /** Milliseconds between two passes of a follower over its primary's
+        log. */
+    private static final long       FOLLOW_PERIOD = 100;
+    /** Number of mutations a follower asks for per call. */
+    private static final int        FOLLOW_BATCH = 4096;
+    /** Milliseconds between two passes sending deferred creations to the
+        storage servers. */
+    private static final long       CREATE_PERIOD = 50;
+    /** Number of deferred creations sent per call. */
+    private static final int        CREATE_BATCH = 4096;
+    /** Milliseconds between two checks of whether the path filter must be
+        rebuilt. */
+    private static final long       FILTER_PERIOD = 1000;
+    /** Milliseconds between two checks for changes to deliver to watches,
+        besides those made after each modifying call. */
+    private static final long       WATCH_PERIOD = 100;
 
     /** Creates the naming server object.
 
@@ -60,6 +173,223 @@ public class NamingServer implements Service, Registration
         this.fileTree = new FileTree();
         this.servers = new ArrayList<>();
         this.storageMap = new HashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.placement = Placements.random();
+        this.replication = 1;
+        this.random = new Random();
+        this.collector = new GarbageCollector(this);
+        this.servicePort = NamingStubs.SERVICE_PORT;
+        this.registrationPort = NamingStubs.REGISTRATION_PORT;
+        this.log = new MutationLog();
+        this.leases = new LeaseTable();
+        this.accesses = new AccessSketch();
+        this.watches = new WatchTable(this, this.executorService);
+        this.revoking = new Object();
+        this.delivering = new HashMap<>();
+        this.stale = new ConcurrentHashMap<>();
+        this.deletingStale = ConcurrentHashMap.newKeySet();
+    }
+
+    /** Makes this naming server a read-only follower of a primary.
+
+        <p>
+        A follower keeps a copy of the primary's directory tree by applying
+        the mutations returned by the primary's <code>tail</code> method, every
+        <code>FOLLOW_PERIOD</code> milliseconds. It answers the lookup calls -
+        <code>isDirectory</code>, the listing calls, <code>getStorage</code>,
+        <code>getReplicas</code>, <code>stat</code> and the batched lookups -
+        as long as its
+        last complete pass over the primary's log started less than
+        <code>maxStaleness</code> milliseconds ago, and otherwise throws
+        <code>IllegalStateException</code>. Calls that modify the tree, and
+        registrations of storage servers, always throw
+        <code>IllegalStateException</code>: they must be sent to the primary.
+        The primary must be set before the server is started.
+
+        @param primary Address of the client service interface of the
+                       primary.
+        @param maxStaleness Milliseconds the follower's answers may lag
+                            behind the primary.
+        @throws IllegalArgumentException If <code>maxStaleness</code> is not
+                                         positive.
+        @throws NullPointerException If <code>primary</code> is
+                                     <code>null</code>.
+     */
+    public void setFollowing(InetSocketAddress primary, long maxStaleness)
+    {
+        if (primary == null)
+            throw new NullPointerException();
+        if (maxStaleness <= 0)
+            throw new IllegalArgumentException("maximum staleness must be positive");
+        this.primary = Stub.create(Service.class, primary);
+        this.maxStaleness = maxStaleness;
+    }
+
+    /** Sets the ports of the client service and registration interfaces.
+
+        <p>
+        The defaults are the well-known ports defined in
+        <code>NamingStubs</code>. Other ports allow several naming servers,
+        such as the shards of a namespace, to run on the same host. The ports
+        must be set before the server is started.
+
+        @param service Port of the client service interface.
+        @param registration Port of the registration interface.
+        @throws IllegalArgumentException If either port is out of range, or
+                                         if both are the same.
+     */
+    public void setPorts(int service, int registration)
+    {
+        if (service < 0 || service > 0xFFFF || registration < 0 || registration > 0xFFFF)
+            throw new IllegalArgumentException("port out of range");
+        if (service == registration)
+            throw new IllegalArgumentException("service and registration ports must differ");
+        this.servicePort = service;
+        this.registrationPort = registration;
+    }
+
+    /** Makes this naming server a shard of a partitioned namespace.
+
+        <p>
+        The server then holds only the subtrees the table mounts on
+        <code>self</code>. Calls on other paths throw
+        <code>WrongShardException</code>, files of other subtrees offered by
+        registering storage servers are ignored, and mount points can not be
+        deleted. The server creates the roots of its own subtrees, and an
+        empty directory at each mount point of another shard whose parent it
+        owns, so that its listings show the mounted subtrees. The mount table
+        must be set before the server is started.
+
+        @param table Mount table shared by all the shards.
+        @param self Address of the client service interface of this server,
+                    as it appears in the table.
+        @throws IllegalArgumentException If the root directory is not
+                                         mounted, or if no subtree is mounted
+                                         on <code>self</code>.
+        @throws NullPointerException If either argument is <code>null</code>.
+     */
+    public void setMountTable(MountTable table, InetSocketAddress self)
+    {
+        if (table == null || self == null)
+            throw new NullPointerException();
+        if (!table.isComplete())
+            throw new IllegalArgumentException("the root directory is not mounted");
+        if (!Arrays.asList(table.shards()).contains(self))
+            throw new IllegalArgumentException("no subtree is mounted on " + self);
+        this.lock.writeLock().lock();
+        try {
+            for (Path mount : table.mountPoints()) {
+                if (mount.isRoot())
+                    continue;
+                if (self.equals(table.owner(mount)) || self.equals(table.owner(mount.parent()))) {
+                    this.fileTree.mkdirs(mount);
+                    this.log.directory(mount);
+                }
+            }
+            this.mounts = table;
+            this.self = self;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** Sets the number of storage servers each new file is placed on.
+
+        <p>
+        The default is one. If fewer storage servers are registered than the
+        replication factor, files are placed on all of them.
+
+        @param replication The replication factor.
+        @throws IllegalArgumentException If <code>replication</code> is less
+                                         than one.
+     */
+    public void setReplication(int replication)
+    {
+        if (replication < 1)
+            throw new IllegalArgumentException("replication factor must be at least one");
+        this.replication = replication;
+    }
+
+    /** Enables replication of heavily read files.
+
+        <p>
+        While a file is read more than <code>threshold</code> times per second
+        per replica, as counted by <code>getStorage</code> calls, the naming
+        server copies it to additional lightly loaded storage servers. The
+        extra replicas are removed when the file cools down. See
+        <code>HotFileReplicator</code>. Hot replication is disabled by default.
+        It must be enabled before the server is started.
+
+        @param threshold Reads per second per replica above which a file is
+                         replicated further, or zero to disable.
+        @throws IllegalArgumentException If <code>threshold</code> is
+                                         negative.
+     */
+    public void setHotReplication(double threshold)
+    {
+        if (threshold < 0)
+            throw new IllegalArgumentException("hot replication threshold can not be negative");
+        this.hotThreshold = threshold;
+    }
+
+    /** Enables rebalancing of files across storage servers.
+
+        <p>
+        When enabled, the naming server periodically moves files from the most
+        to the least used storage servers, and does so as soon as a new storage
+        server registers. Moves are throttled to <code>bandwidth</code> bytes
+        per second. See <code>Rebalancer</code>. Rebalancing is disabled by
+        default. It must be enabled before the server is started.
+
+        @param bandwidth Bytes per second that may be copied between storage
+                         servers, or zero to disable.
+        @throws IllegalArgumentException If <code>bandwidth</code> is
+                                         negative.
+     */
+    public void setRebalancing(long bandwidth)
+    {
+        if (bandwidth < 0)
+            throw new IllegalArgumentException("rebalancing bandwidth can not be negative");
+        this.rebalanceBandwidth = bandwidth;
+    }
+
+    /** Defers the creation of new files on the storage servers.
+
+        <p>
+        When enabled, <code>createFile</code> and <code>createFileBatch</code>
+        only add the file to the directory tree and choose its storage
+        servers, and return without contacting them. The naming server sends
+        the creations to each storage server in batches every
+        <code>CREATE_PERIOD</code> milliseconds, and a storage server asked to
+        write a file placed on it earlier creates the file on the spot, after
+        checking with <code>Registration.placed</code>. A read reaching a
+        storage server before either may find no file. Replicas that cannot
+        be created are removed from the tree when the batch is sent. Deferred
+        creation is disabled by default. It must be enabled before the server
+        is started.
+
+        @param deferred <code>true</code> to defer creations.
+     */
+    public void setDeferredCreation(boolean deferred)
+    {
+        this.deferCreation = deferred;
+    }
+
+    /** Sets the policy choosing the storage server for each new file.
+
+        <p>
+        The default policy places files on a random storage server. The policy
+        is normally set before the server is started.
+
+        @param placement The placement policy.
+        @throws NullPointerException If <code>placement</code> is
+                                     <code>null</code>.
+     */
+    public void setPlacementPolicy(PlacementPolicy placement)
+    {
+        if (placement == null)
+            throw new NullPointerException("placement policy can not be null");
+        this.placement = placement;
     }
 
     /** Starts the naming server.
@@ -76,10 +406,47 @@ public class NamingServer implements Service, Registration
     public synchronized void start() throws RMIException
     {
         /**throw new UnsupportedOperationException("not implemented");*/
-        this.serviceSkeleton = new Skeleton<>(Service.class, this,new InetSocketAddress(NamingStubs.SERVICE_PORT));
+        if (this.primary == null) {
+            this.filters = new PathFilterLog(this.fileTree);
+            this.fileTree.onLink(this.filters::add);
+        }
+        this.serviceSkeleton = new Skeleton<>(Service.class, this,new InetSocketAddress(this.servicePort));
         this.serviceSkeleton.start();
-        this.registrationSkeleton = new Skeleton<>(Registration.class,this,new InetSocketAddress(NamingStubs.REGISTRATION_PORT));
+        this.registrationSkeleton = new Skeleton<>(Registration.class,this,new InetSocketAddress(this.registrationPort));
         this.registrationSkeleton.start();
+        this.scheduler = Executors.newScheduledThreadPool(2);
+        if (this.primary != null) {
+            this.scheduler.scheduleWithFixedDelay(this::follow, 0, FOLLOW_PERIOD, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (this.hotThreshold > 0) {
+            this.hotFiles = new HotFileReplicator(this, this.hotThreshold);
+            this.scheduler.scheduleWithFixedDelay(this.hotFiles, HotFileReplicator.PERIOD,
+                    HotFileReplicator.PERIOD, TimeUnit.MILLISECONDS);
+        }
+        this.scheduler.scheduleWithFixedDelay(this::checkHeartbeats, Registration.HEARTBEAT_PERIOD,
+                Registration.HEARTBEAT_PERIOD, TimeUnit.MILLISECONDS);
+        if (this.collector.pending())
+            this.scheduler.execute(this.collector);
+        if (this.rebalanceBandwidth > 0) {
+            this.lock.writeLock().lock();
+            try {
+                this.fileTree.indexServers();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.rebalancer = new Rebalancer(this, this.rebalanceBandwidth);
+            this.rebalancing = Executors.newSingleThreadScheduledExecutor();
+            this.rebalancing.scheduleWithFixedDelay(this.rebalancer, Rebalancer.PERIOD,
+                    Rebalancer.PERIOD, TimeUnit.MILLISECONDS);
+        }
+        if (this.deferCreation)
+            this.scheduler.scheduleWithFixedDelay(this::flushCreations, CREATE_PERIOD,
+                    CREATE_PERIOD, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this::rebuildFilter, FILTER_PERIOD,
+                FILTER_PERIOD, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this.watches::poke, WATCH_PERIOD,
+                WATCH_PERIOD, TimeUnit.MILLISECONDS);
     }
 
     /** Stops the naming server.
@@ -96,6 +463,13 @@ public class NamingServer implements Service, Registration
        /** throw new UnsupportedOperationException("not implemented");*/
        this.serviceSkeleton.stop();
        this.registrationSkeleton.stop();
+       if (this.scheduler != null)
+           this.scheduler.shutdownNow();
+       if (this.rebalancing != null)
+           this.rebalancing.shutdownNow();
+       if (this.deferCreation && this.primary == null)
+           this.flushCreations();
+       this.collector.shutdown();
        this.stopped(null);
 
     }
@@ -118,7 +492,15 @@ public class NamingServer implements Service, Registration
     public boolean isDirectory(Path path) throws FileNotFoundException
     {
         /**throw new UnsupportedOperationException("not implemented");*/
-        return this.fileTree.isDirectory(path);
+        this.checkOwner(path);
+        this.checkFresh();
+        this.accesses.record(path);
+        this.lock.readLock().lock();
+        try {
+            return this.fileTree.isDirectory(path);
+        } finally {
+            this.lock.readLock().unlock();
+        }
 
     }
     /** Lists the contents of a directory.
@@ -135,11 +517,84 @@ public class NamingServer implements Service, Registration
     public String[] list(Path directory) throws FileNotFoundException
     {
         /**throw new UnsupportedOperationException("not implemented");*/
-        Branch dir = this.fileTree.cd(directory);
-        String[] res = new String[dir.list.size()];
-        for (int i = 0; i < res.length; i++)
-            res[i] = dir.list.get(i).getName();
-        return res;
+        this.checkOwner(directory);
+        this.checkFresh();
+        this.accesses.record(directory);
+        this.lock.readLock().lock();
+        try {
+            return this.fileTree.cd(directory).list();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String[] list(Path directory, String startAfter, int limit) throws FileNotFoundException
+    {
+        if (directory == null)
+            throw new NullPointerException();
+        this.checkOwner(directory);
+        this.checkFresh();
+        if (startAfter == null)
+            this.accesses.record(directory);
+        this.lock.readLock().lock();
+        try {
+            return this.fileTree.cd(directory).list(startAfter, limit);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public DirectoryEntry[] listEntries(Path directory, String startAfter, int limit)
+            throws FileNotFoundException
+    {
+        if (directory == null)
+            throw new NullPointerException();
+        this.checkOwner(directory);
+        this.checkFresh();
+        if (startAfter == null)
+            this.accesses.record(directory);
+        this.lock.readLock().lock();
+        try {
+            int[] children = this.fileTree.children(this.fileTree.cd(directory).getId(), startAfter, limit);
+            DirectoryEntry[] entries = new DirectoryEntry[children.length];
+            for (int i = 0; i < children.length; i++)
+                entries[i] = this.entry(children[i]);
+            return entries;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Path[] find(Path root, String glob, Path startAfter, int limit) throws FileNotFoundException
+    {
+        if (root == null || glob == null)
+            throw new NullPointerException();
+        Glob pattern = Glob.compile(glob);
+        this.checkOwner(root);
+        this.checkFresh();
+        this.lock.readLock().lock();
+        try {
+            return this.fileTree.find(root, pattern, startAfter, limit);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** describe an inode for a listing, holding the tree lock
+     *
+     * @param id inode
+     * @return the entry
+     */
+    private DirectoryEntry entry(int id) {
+        String name = this.fileTree.nameOf(id);
+        if (this.fileTree.isDirectory(id))
+            return new DirectoryEntry(name, true, DirectoryEntry.UNKNOWN, DirectoryEntry.UNKNOWN);
+        int[] replicas = this.fileTree.replicas(id);
+        return new DirectoryEntry(name, false, this.fileTree.size(id),
+                replicas.length == 0 ? DirectoryEntry.UNKNOWN : replicas[0]);
     }
     /** Creates the given file, if it does not exist.
 
@@ -159,134 +614,1977 @@ public class NamingServer implements Service, Registration
         /**throw new UnsupportedOperationException("not implemented");**/
         if (file == null)
             throw new NullPointerException();
+        this.checkOwner(file);
+        this.checkWritable();
         if (file.isRoot())
             return false;
-        if(!this.isDirectory(file.parent()))
-            throw new FileNotFoundException("parent directory dose not exist");
-        if (this.fileTree.isExist(file))
-            return false;
-        else if (this.servers.size() == 0)
-            throw new IllegalArgumentException("no storage servers are connected to the naming server");
-        else
-        {
+        List<StorageRecord> targets;
+        this.lock.writeLock().lock();
+        try {
+            if (!this.fileTree.isDirectory(file.parent()))
+                throw new FileNotFoundException("parent directory dose not exist");
+            targets = this.admit(file, this.fileTree.lookup(file.parent()));
+            if (targets == null)
+                return false;
+            this.countFiles();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        try {
+            return this.deferCreation ? this.defer(file, targets) : this.createOn(file, targets);
+        } finally {
+            this.revokeLeases();
+        }
+    }
+
+    /** queue the creation of a file admitted to the tree on its storage
+     *  servers, for <code>flushCreations</code>
+     *
+     * @param file path of the file
+     * @param targets servers chosen by <code>admit</code>
+     * @return true
+     */
+    private boolean defer(Path file, List<StorageRecord> targets) {
+        for (StorageRecord target : targets)
+            target.pending.add(file);
+        return true;
+    }
+
+    /** send the deferred creations to the storage servers, in batches of
+     *  <code>CREATE_BATCH</code> files. A batch stays queued while it is
+     *  sent, so that a file renamed meanwhile is moved in the queue, and is
+     *  removed once the server answered. Creations for a server that can not
+     *  be contacted stay queued for the next pass. */
+    private void flushCreations() {
+        List<StorageRecord> servers;
+        this.lock.readLock().lock();
+        try {
+            servers = new ArrayList<>(this.servers);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        for (StorageRecord server : servers) {
+            while (!server.pending.isEmpty()) {
+                List<Path> batch = new ArrayList<>();
+                Iterator<Path> next = server.pending.iterator();
+                while (next.hasNext() && batch.size() < CREATE_BATCH)
+                    batch.add(next.next());
+                if (!this.createAllOn(server, batch))
+                    break;
+                server.pending.removeAll(batch);
+            }
+        }
+    }
+
+    /** create files on a storage server, dropping the replicas that could not
+     *  be created
+     *
+     * <p>The files still placed on the server are taken under the read lock,
+     * and created without it. The files are then checked again: a file
+     * deleted meanwhile is deleted from the server, and a file moved
+     * meanwhile is moved there too, unless a new file took its path.
+     *
+     * @param server the storage server
+     * @param files paths of the files
+     * @return false if the server could not be contacted
+     */
+    private boolean createAllOn(StorageRecord server, List<Path> files) {
+        List<Path> live = new ArrayList<>(files.size());
+        List<Integer> ids = new ArrayList<>(files.size());
+        this.claim(server, files);
+        try {
+            this.lock.readLock().lock();
+            try {
+                for (Path file : files) {
+                    int id = this.heldId(file, server.id());
+                    if (id != FileTree.NONE) {
+                        live.add(file);
+                        ids.add(id);
+                    }
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            if (live.isEmpty())
+                return true;
+
+            boolean[] created;
+            server.in_flight.incrementAndGet();
+            try {
+                created = server.command().createAll(live.toArray(new Path[live.size()]));
+            } catch (RMIException e) {
+                return false;
+            } finally {
+                server.in_flight.decrementAndGet();
+            }
 
-            Random random = new Random();
-            Command server = this.servers.get(random.nextInt(this.servers.size()));
-            Storage client_stub = this.storageMap.get(server);
+            List<Path> failed = new ArrayList<>();
+            List<Path> dead = new ArrayList<>();
+            Map<Path, Path> moved = new HashMap<>();
+            this.lock.readLock().lock();
             try {
-                this.fileTree.touch(file, client_stub);
-            } catch (FileAlreadyExistsException e) {
-                e.printStackTrace();
+                for (int i = 0; i < created.length; i++) {
+                    Path file = live.get(i);
+                    if (!created[i]) {
+                        failed.add(file);
+                        continue;
+                    }
+                    // still placed there, or placed there again
+                    if (this.holds(file, server.id()))
+                        continue;
+                    int id = ids.get(i);
+                    Path now = this.fileTree.path(id);
+                    if (now != null && this.heldId(now, server.id()) == id)
+                        moved.put(file, now);
+                    else
+                        dead.add(file);
+                }
+            } finally {
+                this.lock.readLock().unlock();
             }
             try {
-                return server.create(file);
+                if (!dead.isEmpty())
+                    server.command().deleteAll(dead.toArray(new Path[dead.size()]));
             } catch (RMIException e) {
-                throw new RMIException("can not contact the storage server");
+                // the copies are left behind on the unreachable server
             }
+            for (Map.Entry<Path, Path> move : moved.entrySet()) {
+                try {
+                    server.command().rename(move.getKey(), move.getValue());
+                } catch (RMIException e) {
+                    this.renameFailed(server, ids.get(live.indexOf(move.getKey())), move.getKey());
+                }
+            }
+            for (Path file : failed)
+                this.dropReplicas(file, Collections.singletonList(server));
+            return true;
+        } finally {
+            this.release(server, files);
         }
     }
 
-    /** Creates the given directory, if it does not exist.
+    /** wait until no batch creation or deletion of some paths is in flight
+     *  on a server, and mark them in flight, without holding the tree lock */
+    private void claim(StorageRecord server, Collection<Path> paths) {
+        boolean interrupted = false;
+        synchronized (server.busy) {
+            while (!Collections.disjoint(server.busy, paths)) {
+                try {
+                    server.busy.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            server.busy.addAll(paths);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
 
-     @param directory Path at which the directory is to be created.
-     @return <code>true</code> if the directory is created successfully,
-     <code>false</code> otherwise. The directory is not created if
-     a file or directory with the given name already exists.
-     @throws FileNotFoundException If the parent directory does not exist.
-     @throws RMIException If the call cannot be completed due to a network
-     error.
+    /** mark paths claimed with <code>claim</code> as no longer in flight */
+    private void release(StorageRecord server, Collection<Path> paths) {
+        synchronized (server.busy) {
+            server.busy.removeAll(paths);
+            server.busy.notifyAll();
+        }
+    }
+
+    /** wait until no batch creation or deletion of a path is in flight on a
+     *  server, without holding the tree lock, so that a creation is not
+     *  overtaken by the deletion of an earlier file at the same path */
+    private void awaitIdle(StorageRecord server, Path path) {
+        this.claim(server, Collections.singletonList(path));
+        this.release(server, Collections.singletonList(path));
+    }
+
+    /** move the deferred creations of the objects below a path to a new
+     *  path, holding the tree lock
+     *
+     * @param source old path of the object
+     * @param target new path of the object
      */
-    @Override
-    public boolean createDirectory(Path directory) throws FileNotFoundException
-    {
-        /**throw new UnsupportedOperationException("not implemented");*/
-        if (directory.isRoot())
-            return false;
-        Branch parent = this.fileTree.cd(directory.parent());
+    private void movePending(Path source, Path target) {
+        List<String> prefix = source.getComponents();
+        for (StorageRecord server : this.servers) {
+            for (Path file : server.pending) {
+                List<String> components = file.getComponents();
+                if (components.size() < prefix.size() || !components.subList(0, prefix.size()).equals(prefix))
+                    continue;
+                Path moved = target;
+                for (String component : components.subList(prefix.size(), components.size()))
+                    moved = new Path(moved, component);
+                if (server.pending.remove(file))
+                    server.pending.add(moved);
+            }
+        }
+    }
+
+    /** add a new file to the tree and choose its storage servers, holding the
+     *  tree lock
+     *
+     * @param file path of the new file
+     * @param dir inode of the parent directory
+     * @return servers to create the file on, the first replica first, or null
+     *         if the file exists
+     * @throws IllegalArgumentException if no storage server can take the file
+     * @throws QuotaExceededException if the file would exceed a quota
+     */
+    private List<StorageRecord> admit(Path file, int dir) throws FileNotFoundException {
+        if (this.fileTree.find(dir, file.last()) != FileTree.NONE)
+            return null;
+        this.checkQuota(dir, 1);
+        List<StorageRecord> candidates = this.placeable();
+        if (candidates.size() == 0)
+            throw new IllegalArgumentException("no storage servers are connected to the naming server");
+        List<StorageRecord> targets = this.place(file, dir, candidates,
+                Math.min(this.replication, candidates.size()));
         try {
-            this.fileTree.mkdir(parent, directory.last());
-            return true;
+            this.fileTree.touch(file.last(), this.fileTree.cd(dir), targets.get(0).client());
         } catch (FileAlreadyExistsException e) {
-            return false;
+            return null;
         }
+        int id = this.fileTree.find(dir, file.last());
+        for (StorageRecord target : targets.subList(1, targets.size()))
+            this.fileTree.addReplica(id, target.id());
+        // a new file is empty, so its writer's report gives its length
+        this.fileTree.setAttributes(id, 0, FileStatus.UNKNOWN);
+        this.logFile(file, id);
+        return targets;
+    }
 
+    /** create a file admitted to the tree on its storage servers, dropping
+     *  the replicas that could not be created
+     *
+     * @param file path of the file
+     * @param targets servers chosen by <code>admit</code>
+     * @return true if at least one replica was created
+     * @throws RMIException if no replica was created and a server could not
+     *         be contacted
+     */
+    private boolean createOn(Path file, List<StorageRecord> targets) throws RMIException {
+        return this.created(file, targets, this.queueCreations(file, targets));
     }
-    @Override
-    public boolean delete(Path path) throws FileNotFoundException
-    {
-        /**throw new UnsupportedOperationException("not implemented");*/
 
-        return fileTree.delete(path);
+    /** queue the creation of a file admitted to the tree on its storage
+     *  servers, without waiting for the results
+     *
+     * @param file path of the file
+     * @param targets servers chosen by <code>admit</code>
+     * @return the queued commands, in the order of the servers
+     */
+    private List<CommandQueue.Request> queueCreations(Path file, List<StorageRecord> targets) {
+        List<CommandQueue.Request> requests = new ArrayList<>(targets.size());
+        for (StorageRecord target : targets) {
+            this.awaitIdle(target, file);
+            target.in_flight.incrementAndGet();
+            requests.add(target.commands.create(file));
+        }
+        return requests;
+    }
 
+    /** wait for the creation of a file on its storage servers, dropping the
+     *  replicas that could not be created
+     *
+     * @param file path of the file
+     * @param targets servers chosen by <code>admit</code>
+     * @param requests commands returned by <code>queueCreations</code>
+     * @return true if at least one replica was created
+     * @throws RMIException if no replica was created and a server could not
+     *         be contacted
+     */
+    private boolean created(Path file, List<StorageRecord> targets, List<CommandQueue.Request> requests)
+            throws RMIException {
+        boolean created = false;
+        RMIException failure = null;
+        List<StorageRecord> failed = new ArrayList<>();
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                try {
+                    if (requests.get(i).get())
+                        created = true;
+                    else
+                        failed.add(targets.get(i));
+                } catch (RMIException e) {
+                    failure = e;
+                    failed.add(targets.get(i));
+                }
+            }
+        } finally {
+            for (StorageRecord target : targets)
+                target.in_flight.decrementAndGet();
+        }
+        if (!created && failure != null)
+            throw new RMIException("can not contact the storage server");
+        if (created && !failed.isEmpty())
+            this.dropReplicas(file, failed);
+        return created;
     }
-    /** Returns a stub for the storage server hosting a file.
 
-     @param file Path to the file.
-     @return A stub for communicating with the storage server.
-     @throws FileNotFoundException If the file does not exist.
+    /** choose the storage servers for a new file, holding the tree lock
+     *
+     * @param file path of the new file
+     * @param dir inode of the parent directory
+     * @param candidates servers that may be chosen; the list is consumed
+     * @param count number of servers to choose
+     * @return distinct servers, the one for the first replica first
      */
-    @Override
-    public Storage getStorage(Path file) throws FileNotFoundException
-    {
-        /**throw new UnsupportedOperationException("not implemented");*/
-        Leaf f = this.fileTree.getFile(file);
-        return f.getStorage();
+    private List<StorageRecord> place(Path file, int dir, List<StorageRecord> candidates, int count) {
+        StorageRecord sibling = this.record(this.fileTree.siblingServer(dir));
+        List<StorageRecord> chosen = new ArrayList<>();
+        while (chosen.size() < count) {
+            StorageRecord server = this.placement.choose(file, sibling, Collections.unmodifiableList(candidates));
+            candidates.remove(server);
+            chosen.add(server);
+        }
+        return chosen;
     }
-    //The following method is documented in Registration.java
-    /** Registers a storage server with the naming server.
 
-     <p>
-     The storage server notifies the naming server of the files that it is
-     hosting. Note that the storage server does not notify the naming server
-     of any directories. The naming server attempts to add as many of these
-     files as possible to its directory tree. The naming server then replies
-     to the storage server with a subset of these files that the storage
-     server must delete from its local storage.
+    /** servers new files may be placed on: the live ones with disk space
+     *  left, holding the tree lock */
+    private List<StorageRecord> placeable() {
+        List<StorageRecord> candidates = new ArrayList<>();
+        for (StorageRecord record : this.servers) {
+            if (record.isLive() && record.free() > 0)
+                candidates.add(record);
+        }
+        return candidates;
+    }
 
-     <p>
-     After the storage server has deleted the files as commanded, it must
-     prune its directory tree by removing all directories under which no
-     files can be found. This includes, for example, directories which
-     contain only empty directories.
+    /** remove replicas that could not be created from a file
+     *
+     * @param file path of the file
+     * @param servers servers whose replicas are removed
+     */
+    private void dropReplicas(Path file, List<StorageRecord> servers) {
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.lookup(file);
+            for (StorageRecord server : servers)
+                this.fileTree.removeReplica(id, server.id());
+            this.logFile(file, id);
+            this.countFiles();
+        } catch (FileNotFoundException e) {
+            // deleted in the meantime
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+    }
 
-     @param client_stub Storage server client service stub. This will be
-     given to clients when operations need to be performed
-     on a file on the storage server.
-     @param command_stub Storage server command service stub. This will be
-     used by the naming server to issue commands that
-     modify the directory tree on the storage server.
-     @param files The list of files stored on the storage server. This list
-     is merged with the directory tree already present on the
-     naming server. Duplicate filenames are dropped.
-     @return A list of duplicate files to delete on the local storage of the
-     registering storage server.
-     @throws IllegalStateException If the storage server is already
-     registered.
-     @throws NullPointerException If any of the arguments is
-     <code>null</code>.
-     @throws RMIException If the call cannot be completed due to a network
-     error.
+    /** choose the replica to hand out to a reader: a live one, the least
+     *  loaded, then the one with the lowest latency, with ties broken at
+     *  random. If every replica is dead, one is handed out all the same.
+     *
+     * @param ids server numbers of the replicas
+     * @return stub of the chosen replica
      */
-    @Override
-    public Path[] register(Storage client_stub, Command command_stub, Path[] files)
-    {
-        /**throw new UnsupportedOperationException("not implemented");*/
-        if (client_stub == null || command_stub == null || files == null)
-            throw new NullPointerException();
-        if (this.servers.contains(command_stub))
-            throw new IllegalStateException("the storage server is already registered");
-        List<Path> extra = new ArrayList<>();
-        this.servers.add(command_stub);
-        this.storageMap.put(command_stub, client_stub);
-        for (Path path : files) {
-            if (path.isRoot())
+    private Storage pickReplica(int[] ids) {
+        return this.fileTree.storage(this.pickReplicaNumber(ids));
+    }
+
+    /** choose the replica to hand out to a reader, as by
+     *  <code>pickReplica</code>
+     *
+     * @param ids server numbers of the replicas
+     * @return server number of the chosen replica, NONE if there is none
+     */
+    private int pickReplicaNumber(int[] ids) {
+        if (ids.length == 0)
+            return FileTree.NONE;
+        if (ids.length == 1)
+            return ids[0];
+        StorageRecord best = null;
+        int ties = 0;
+        for (int id : ids) {
+            StorageRecord record = this.record(id);
+            if (record == null)
                 continue;
-            try {
-                this.fileTree.touch(path, client_stub);
-            }  catch (FileAlreadyExistsException | FileNotFoundException e) {
-                extra.add(path);
+            int order = best == null ? -1 : compareReplicas(record, best);
+            if (order < 0) {
+                best = record;
+                ties = 1;
+            } else if (order == 0 && this.random.nextInt(++ties) == 0) {
+                best = record;
             }
         }
-        return extra.toArray(new Path[extra.size()]);
+        return best == null ? ids[0] : best.id();
+    }
+
+    /** find the record of a server number
+     *
+     * @param id server number in the file tree
+     * @return the record, or null if no registered server has the number
+     */
+    private StorageRecord record(int id) {
+        for (StorageRecord record : this.servers) {
+            if (record.id() == id)
+                return record;
+        }
+        return null;
+    }
+
+    /** order replicas by preference to readers */
+    private static int compareReplicas(StorageRecord a, StorageRecord b) {
+        if (a.isLive() != b.isLive())
+            return a.isLive() ? -1 : 1;
+        if (a.load() != b.load())
+            return Integer.compare(a.load(), b.load());
+        return Long.compare(a.latency(), b.latency());
+    }
+
+    /** records of the storage servers holding replicas of a file
+     *
+     * @param file path of the file
+     * @return records, the first replica first
+     * @throws FileNotFoundException if the file does not exist
+     */
+    List<StorageRecord> replicaRecords(Path file) throws FileNotFoundException {
+        this.lock.readLock().lock();
+        try {
+            List<StorageRecord> records = new ArrayList<>();
+            for (int id : this.fileTree.replicas(this.fileTree.getFile(file).getId())) {
+                StorageRecord record = this.record(id);
+                if (record != null)
+                    records.add(record);
+            }
+            return records;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** records of the storage servers that may receive new replicas */
+    List<StorageRecord> liveServers() {
+        this.lock.readLock().lock();
+        try {
+            List<StorageRecord> live = new ArrayList<>();
+            for (StorageRecord record : this.servers) {
+                if (record.isLive())
+                    live.add(record);
+            }
+            return live;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** mark the storage servers that missed too many heartbeats dead; run
+     *  every heartbeat period once the server is started */
+    void checkHeartbeats() {
+        long deadline = System.currentTimeMillis() - HEARTBEAT_MISSES * Registration.HEARTBEAT_PERIOD;
+        for (StorageRecord record : this.liveServers()) {
+            if (record.report != null && record.heartbeat < deadline)
+                record.dead = true;
+        }
+    }
+
+    /** copy a file to another storage server and add the copy to the file's
+     *  replicas
+     *
+     * @param file path of the file
+     * @param target server receiving the copy
+     * @return true if the replica was added, false if the server already holds
+     *         one, the copy is incomplete, or the file was deleted meanwhile
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the copy fails
+     * @throws RMIException if the target server cannot be contacted
+     */
+    boolean replicate(Path file, StorageRecord target) throws RMIException, IOException {
+        Storage source;
+        this.lock.readLock().lock();
+        try {
+            int[] ids = this.fileTree.replicas(this.fileTree.getFile(file).getId());
+            for (int id : ids) {
+                if (id == target.id())
+                    return false;
+            }
+            source = this.pickReplica(ids);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        target.in_flight.incrementAndGet();
+        try {
+            if (!target.command().copy(file, source))
+                return false;
+        } finally {
+            target.in_flight.decrementAndGet();
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.getFile(file).getId();
+            this.fileTree.addReplica(id, target.id());
+            this.logFile(file, id);
+            this.countFiles();
+            return true;
+        } catch (FileNotFoundException e) {
+            // deleted while it was copied
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        target.commands.delete(file).get();
+        return false;
+    }
+
+    /** remove a replica from a file's replica set, leaving the copy on the
+     *  storage server
+     *
+     * @param file path of the file
+     * @param server server holding the replica
+     * @return true if removed, false if it is the file's only replica or the
+     *         server holds none
+     */
+    boolean retire(Path file, StorageRecord server) throws FileNotFoundException {
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.getFile(file).getId();
+            if (this.fileTree.replicas(id).length < 2)
+                return false;
+            boolean removed = this.fileTree.removeReplica(id, server.id());
+            if (removed)
+                this.logFile(file, id);
+            this.countFiles();
+            return removed;
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+    }
+
+    /** files the rebalancer may move from one storage server to another
+     *
+     * @param from over-full server
+     * @param to under-full server
+     * @param limit maximum number of files
+     * @return files with a replica on <code>from</code> and none on
+     *         <code>to</code>
+     */
+    Path[] filesToMove(StorageRecord from, StorageRecord to, int limit) {
+        this.lock.readLock().lock();
+        try {
+            List<Path> files = new ArrayList<>();
+            for (int id : this.fileTree.filesOn(from.id(), to.id(), limit)) {
+                Path file = this.fileTree.path(id);
+                if (file != null)
+                    files.add(file);
+            }
+            return files.toArray(new Path[files.size()]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** move a replica of a file to another storage server, once the copy on
+     *  that server is complete
+     *
+     * @param file path of the file
+     * @param from server holding the replica
+     * @param to server holding the copy
+     * @return true if moved, false if the file was deleted meanwhile or the
+     *         replicas changed
+     */
+    boolean moveReplica(Path file, StorageRecord from, StorageRecord to) {
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.getFile(file).getId();
+            boolean moved = this.fileTree.moveReplica(id, from.id(), to.id());
+            if (moved)
+                this.logFile(file, id);
+            this.countFiles();
+            return moved;
+        } catch (FileNotFoundException e) {
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+    }
+
+    /** free a slice of a detached subtree
+     *
+     * @param id inode of the detached subtree
+     * @param path path the subtree had
+     * @param limit maximum number of inodes to free
+     * @param files receives the paths of the freed files by server number
+     * @return true once the subtree is freed
+     */
+    boolean reclaim(int id, Path path, int limit, Map<Integer, List<Path>> files) {
+        this.lock.writeLock().lock();
+        try {
+            boolean done = this.fileTree.reclaim(id, path, limit, files);
+            this.countFiles();
+            return done;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** delete files of deleted subtrees from a storage server
+     *
+     * <p>The paths no longer placed on the server are taken under the read
+     * lock, and deleted without it. A file admitted at one of the paths
+     * meanwhile waits for the deletion before it is created on the server.
+     *
+     * @param slot server number of the storage server
+     * @param paths paths of the deleted files
+     * @return false if the server could not be contacted
+     */
+    boolean deleteOn(int slot, Path[] paths) {
+        StorageRecord server;
+        this.lock.readLock().lock();
+        try {
+            server = this.record(slot);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (server == null)
+            return false;
+        List<Path> claimed = Arrays.asList(paths);
+        this.claim(server, claimed);
+        try {
+            List<Path> dead = new ArrayList<>(paths.length);
+            this.lock.readLock().lock();
+            try {
+                for (Path path : paths) {
+                    if (!this.holds(path, slot))
+                        dead.add(path);
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            if (dead.isEmpty())
+                return true;
+            server.in_flight.incrementAndGet();
+            try {
+                server.command().deleteAll(dead.toArray(new Path[dead.size()]));
+            } finally {
+                server.in_flight.decrementAndGet();
+            }
+            return true;
+        } catch (RMIException e) {
+            // the storage server is unreachable; its copies are left behind
+            return false;
+        } finally {
+            this.release(server, claimed);
+        }
+    }
+
+    /** inode of the file at a path in the live tree if it has a replica on a
+     *  server, holding the tree lock
+     *
+     * @return the inode, or NONE
+     */
+    private int heldId(Path path, int slot) {
+        try {
+            int id = this.fileTree.getFile(path).getId();
+            for (int held : this.fileTree.replicas(id)) {
+                if (held == slot)
+                    return id;
+            }
+        } catch (FileNotFoundException e) {
+            // not in the live tree
+        }
+        return FileTree.NONE;
+    }
+
+    /** whether the live tree has a file at a path with a replica on a server,
+     *  holding the tree lock */
+    private boolean holds(Path path, int slot) {
+        return this.heldId(path, slot) != FileTree.NONE;
+    }
+
+    /** refresh the file counts of all records, holding the tree lock */
+    private void countFiles() {
+        for (StorageRecord record : this.servers)
+            record.files = this.fileTree.files(record.id());
+    }
+
+    /** record the replicas of a file in the mutation log, holding the tree
+     *  lock
+     *
+     * @param file path of the file
+     * @param id inode of the file
+     */
+    private void logFile(Path file, int id) {
+        this.log.file(file, this.storages(id), this.fileTree.size(id), this.fileTree.modified(id));
+        this.fileTree.setVersion(id, this.log.sequence());
+    }
+
+    /** stubs of the replicas of a file, the first replica first, holding the
+     *  tree lock
+     *
+     * @param id inode of the file
+     * @return the stubs
+     */
+    private Storage[] storages(int id) {
+        int[] slots = this.fileTree.replicas(id);
+        Storage[] replicas = new Storage[slots.length];
+        for (int i = 0; i < slots.length; i++)
+            replicas[i] = this.fileTree.storage(slots[i]);
+        return replicas;
+    }
+
+    /** deliver the revocations of the leases affected by the mutations
+     *  logged so far, without holding the tree lock
+     *
+     * <p>The revocations are delivered on the executor. Each is waited for
+     * until <code>REVOKE_TIMEOUT</code> milliseconds after it started, by
+     * this call and by those made meanwhile, whose mutations it may cover,
+     * so that once a modifying call returns, no client that can be reached
+     * caches what it modified. A holder that cannot be reached keeps its
+     * leases until they expire.
+     */
+    private void revokeLeases() {
+        this.watches.poke();
+        Map<Future<?>, Long> started;
+        synchronized (this.revoking) {
+            long sequence;
+            Mutations mutations = null;
+            this.lock.readLock().lock();
+            try {
+                sequence = this.log.sequence();
+                if (this.leases.revoked() != sequence && !this.leases.isEmpty())
+                    mutations = this.log.since(this.leases.revoked(), Integer.MAX_VALUE);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            if (this.leases.revoked() != sequence) {
+                long now = System.currentTimeMillis();
+                Map<LeaseHolder, List<Path>> revocations = this.leases.take(
+                        mutations == null ? null : mutations.entries(), sequence, now);
+                for (Map.Entry<LeaseHolder, List<Path>> entry : revocations.entrySet()) {
+                    LeaseHolder holder = entry.getKey();
+                    Path[] paths = entry.getValue().toArray(new Path[entry.getValue().size()]);
+                    this.delivering.put(this.executorService.submit(() -> {
+                        try {
+                            holder.revoke(paths, sequence);
+                        } catch (RMIException | RuntimeException e) {
+                            // the holder's leases expire on their own
+                        }
+                    }), now + REVOKE_TIMEOUT);
+                }
+            }
+            long now = System.currentTimeMillis();
+            this.delivering.entrySet().removeIf(entry -> entry.getKey().isDone() || entry.getValue() <= now);
+            started = new HashMap<>(this.delivering);
+        }
+
+        for (Map.Entry<Future<?>, Long> delivery : started.entrySet()) {
+            try {
+                delivery.getKey().get(Math.max(0, delivery.getValue() - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // the holder is slow or unreachable
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /** record the files a storage server added in the mutation log, holding
+     *  the tree lock
+     *
+     * @param files files offered by the server
+     * @param duplicates files that were not added
+     * @param storage the server
+     */
+    private void logMerged(Path[] files, List<Path> duplicates, Storage storage) {
+        Map<Path, Integer> dropped = new HashMap<>();
+        for (Path duplicate : duplicates)
+            dropped.merge(duplicate, 1, Integer::sum);
+        for (Path file : files) {
+            if (file.isRoot())
+                continue;
+            Integer left = dropped.get(file);
+            if (left == null)
+                this.log.file(file, new Storage[] {storage}, FileStatus.UNKNOWN, FileStatus.UNKNOWN);
+            else if (left == 1)
+                dropped.remove(file);
+            else
+                dropped.put(file, left - 1);
+        }
+    }
+
+    /** Creates the given directory, if it does not exist.
+
+     @param directory Path at which the directory is to be created.
+     @return <code>true</code> if the directory is created successfully,
+     <code>false</code> otherwise. The directory is not created if
+     a file or directory with the given name already exists.
+     @throws FileNotFoundException If the parent directory does not exist.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public boolean createDirectory(Path directory) throws FileNotFoundException
+    {
+        /**throw new UnsupportedOperationException("not implemented");*/
+        this.checkOwner(directory);
+        this.checkWritable();
+        if (directory.isRoot())
+            return false;
+        this.lock.writeLock().lock();
+        try {
+            Branch parent = this.fileTree.cd(directory.parent());
+            if (this.fileTree.find(parent.getId(), directory.last()) == FileTree.NONE)
+                this.checkQuota(parent.getId(), 1);
+            this.fileTree.mkdir(parent, directory.last());
+            this.log.directory(directory);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+
+    }
+    @Override
+    public boolean delete(Path path) throws FileNotFoundException
+    {
+        /**throw new UnsupportedOperationException("not implemented");*/
+        if (path == null)
+            throw new NullPointerException();
+        this.checkOwner(path);
+        this.checkWritable();
+        MountTable mounts = this.mounts;
+        if (path.isRoot() || (mounts != null && mounts.containsMount(path)))
+            return false;
+        this.lock.writeLock().lock();
+        try {
+            this.collector.add(this.fileTree.detach(path), path);
+            this.log.delete(path);
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        if (this.scheduler != null)
+            this.scheduler.execute(this.collector);
+        return true;
+    }
+    @Override
+    public boolean rename(Path source, Path target) throws FileNotFoundException
+    {
+        if (source == null || target == null)
+            throw new NullPointerException();
+        this.checkOwner(source);
+        this.checkWritable();
+        MountTable mounts = this.mounts;
+        if (mounts != null && (!this.self.equals(mounts.owner(target)) || mounts.containsMount(source)))
+            throw new IllegalArgumentException("objects can not be moved between naming server shards");
+        int id;
+        this.lock.writeLock().lock();
+        try {
+            id = this.fileTree.lookup(source);
+            if (this.fileTree.isExist(target))
+                return false;
+            int over = this.fileTree.overQuotaMoving(this.fileTree.cd(target.parent()).getId(), id);
+            if (over != FileTree.NONE)
+                throw new QuotaExceededException(this.fileTree.path(over));
+            this.fileTree.rename(source, target);
+            this.log.rename(source, target);
+            this.movePending(source, target);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        List<StorageRecord> holders = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            // the subtree is walked without blocking readers; an object moved
+            // or deleted again meanwhile has sent its own commands
+            if (target.equals(this.fileTree.path(id))) {
+                for (int slot : this.fileTree.serversBelow(id)) {
+                    StorageRecord record = this.record(slot);
+                    if (record != null)
+                        holders.add(record);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < holders.size(); i++)
+            indices.add(i);
+        this.inParallel(indices, i -> {
+            try {
+                holders.get(i).command().rename(source, target);
+            } catch (RMIException e) {
+                this.renameFailed(holders.get(i), id, source);
+            }
+        });
+        return true;
+    }
+
+    /** drop the replicas a storage server kept at the old path of a rename
+     *
+     * <p>The server still holds the moved files at their old paths, so reads
+     * sent to it at the new paths would fail. Its replicas of the files are
+     * removed from the tree, and its copies at the old paths are recorded as
+     * stale: they are deleted from the server once it can be contacted, and
+     * dropped if it registers them again before that.
+     *
+     * @param server the storage server
+     * @param id inode of the moved file or directory
+     * @param source path the object had before the rename
+     */
+    private void renameFailed(StorageRecord server, int id, Path source) {
+        this.lock.writeLock().lock();
+        try {
+            Path now = this.fileTree.path(id);
+            if (now == null)
+                return;
+            Set<Path> copies = this.stale.computeIfAbsent(server.id(), slot -> ConcurrentHashMap.newKeySet());
+            for (int file : this.fileTree.filesBelow(id, server.id())) {
+                copies.add(this.fileTree.pathBelow(file, id, source));
+                // a file whose creation is still queued is created at its
+                // new path
+                Path path = this.fileTree.pathBelow(file, id, now);
+                if (server.pending.contains(path))
+                    continue;
+                this.fileTree.removeReplica(file, server.id());
+                this.logFile(path, file);
+            }
+            this.countFiles();
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        this.executorService.execute(() -> this.deleteStale(server.id()));
+    }
+
+    /** delete from a storage server the copies it kept at the old paths of
+     *  renames it missed
+     *
+     * @param slot server number of the storage server
+     */
+    private void deleteStale(int slot) {
+        Set<Path> copies = this.stale.get(slot);
+        if (copies == null || copies.isEmpty() || !this.deletingStale.add(slot))
+            return;
+        try {
+            Path[] paths = copies.toArray(new Path[0]);
+            if (this.deleteOn(slot, paths))
+                copies.removeAll(Arrays.asList(paths));
+        } finally {
+            this.deletingStale.remove(slot);
+        }
+    }
+
+    /** drop the files a registering storage server offers at the old paths of
+     *  renames it missed, holding the tree lock
+     *
+     * @param slot server number of the storage server
+     * @param files files offered by the storage server
+     * @param extra receives the dropped files, for the server to delete
+     * @return the other files
+     */
+    private Path[] current(int slot, Path[] files, List<Path> extra) {
+        Set<Path> copies = this.stale.get(slot);
+        if (copies == null || copies.isEmpty())
+            return files;
+        List<Path> current = new ArrayList<>(files.length);
+        for (Path file : files) {
+            if (file != null && copies.remove(file) && !this.holds(file, slot))
+                extra.add(file);
+            else
+                current.add(file);
+        }
+        return current.toArray(new Path[current.size()]);
+    }
+
+    /** Returns a stub for the storage server hosting a file.
+
+     @param file Path to the file.
+     @return A stub for communicating with the storage server.
+     @throws FileNotFoundException If the file does not exist.
+     */
+    @Override
+    public Storage getStorage(Path file) throws FileNotFoundException
+    {
+        /**throw new UnsupportedOperationException("not implemented");*/
+        this.checkOwner(file);
+        this.checkFresh();
+        this.accesses.record(file);
+        this.lock.readLock().lock();
+        try {
+            Leaf f = this.fileTree.getFile(file);
+            if (this.hotFiles != null)
+                this.hotFiles.read(file);
+            return this.pickReplica(this.fileTree.replicas(f.getId()));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Storage[] getReplicas(Path file) throws FileNotFoundException
+    {
+        this.checkOwner(file);
+        this.checkFresh();
+        this.lock.readLock().lock();
+        try {
+            return this.fileTree.getFile(file).getReplicas();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getStorageNumber(Path file) throws FileNotFoundException
+    {
+        this.checkOwner(file);
+        this.checkFresh();
+        this.accesses.record(file);
+        this.lock.readLock().lock();
+        try {
+            Leaf f = this.fileTree.getFile(file);
+            if (this.hotFiles != null)
+                this.hotFiles.read(file);
+            return this.pickReplicaNumber(this.fileTree.replicas(f.getId()));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public StorageTable getStorageTable()
+    {
+        this.lock.readLock().lock();
+        try {
+            Storage[] servers = new Storage[this.fileTree.storageCount()];
+            for (int i = 0; i < servers.length; i++)
+                servers[i] = this.fileTree.storage(i);
+            return new StorageTable(servers);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    // The batched methods are documented in Service.java.
+    @Override
+    public BatchResult<Boolean> isDirectoryBatch(Path[] paths)
+    {
+        checkBatch(paths);
+        this.checkFresh();
+        for (Path path : paths)
+            this.accesses.record(path);
+        BatchResult<Boolean> result = new BatchResult<>(paths.length);
+        this.lock.readLock().lock();
+        try {
+            int[] ids = this.fileTree.lookup(paths);
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == FileTree.NONE)
+                    result.fail(i, new FileNotFoundException(paths[i].toString()));
+                else
+                    result.set(i, this.fileTree.isDirectory(ids[i]));
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public BatchResult<Storage> getStorageBatch(Path[] files)
+    {
+        checkBatch(files);
+        this.checkFresh();
+        for (Path file : files)
+            this.accesses.record(file);
+        BatchResult<Storage> result = new BatchResult<>(files.length);
+        this.lock.readLock().lock();
+        try {
+            int[] ids = this.fileTree.lookup(files);
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == FileTree.NONE || this.fileTree.isDirectory(ids[i])) {
+                    result.fail(i, new FileNotFoundException(files[i].toString()));
+                    continue;
+                }
+                if (this.hotFiles != null)
+                    this.hotFiles.read(files[i]);
+                result.set(i, this.pickReplica(this.fileTree.replicas(ids[i])));
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public BatchResult<Boolean> createDirectoryBatch(Path[] directories)
+    {
+        checkBatch(directories);
+        this.checkWritable();
+        BatchResult<Boolean> result = new BatchResult<>(directories.length);
+        Integer[] order = sorted(directories);
+        this.lock.writeLock().lock();
+        try {
+            Path lastParent = null;
+            int lastDir = FileTree.NONE;
+            for (int i : order) {
+                Path directory = directories[i];
+                if (directory.isRoot()) {
+                    result.set(i, false);
+                    continue;
+                }
+                try {
+                    Path parent = directory.parent();
+                    if (lastParent == null || !lastParent.equals(parent)) {
+                        lastParent = null;
+                        lastDir = this.fileTree.cd(parent).getId();
+                        lastParent = parent;
+                    }
+                    if (this.fileTree.find(lastDir, directory.last()) == FileTree.NONE)
+                        this.checkQuota(lastDir, 1);
+                    this.fileTree.mkdir(this.fileTree.cd(lastDir), directory.last());
+                    this.log.directory(directory);
+                    result.set(i, true);
+                } catch (FileAlreadyExistsException e) {
+                    result.set(i, false);
+                } catch (FileNotFoundException | QuotaExceededException e) {
+                    result.fail(i, e);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        return result;
+    }
+
+    @Override
+    public BatchResult<Boolean> createFileBatch(Path[] files)
+    {
+        checkBatch(files);
+        this.checkWritable();
+        BatchResult<Boolean> result = new BatchResult<>(files.length);
+        List<List<StorageRecord>> targets = new ArrayList<>(Collections.nCopies(files.length, null));
+        this.lock.writeLock().lock();
+        try {
+            Path[] parents = new Path[files.length];
+            for (int i = 0; i < files.length; i++)
+                parents[i] = files[i].isRoot() ? files[i] : files[i].parent();
+            int[] dirs = this.fileTree.lookup(parents);
+            for (int i : sorted(files)) {
+                if (files[i].isRoot()) {
+                    result.set(i, false);
+                } else if (dirs[i] == FileTree.NONE || !this.fileTree.isDirectory(dirs[i])) {
+                    result.fail(i, new FileNotFoundException("parent directory dose not exist"));
+                } else {
+                    try {
+                        targets.set(i, this.admit(files[i], dirs[i]));
+                        if (targets.get(i) == null)
+                            result.set(i, false);
+                    } catch (FileNotFoundException | IllegalArgumentException | QuotaExceededException e) {
+                        result.fail(i, e);
+                    }
+                }
+            }
+            this.countFiles();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        List<Integer> admitted = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            if (targets.get(i) != null)
+                admitted.add(i);
+        }
+        if (this.deferCreation) {
+            for (int i : admitted)
+                result.set(i, this.defer(files[i], targets.get(i)));
+            this.revokeLeases();
+            return result;
+        }
+        // every creation is queued before any is waited for, so that the
+        // queues send the whole batch with a few calls per server
+        List<List<CommandQueue.Request>> requests = new ArrayList<>(Collections.nCopies(files.length, null));
+        for (int i : admitted)
+            requests.set(i, this.queueCreations(files[i], targets.get(i)));
+        for (int i : admitted) {
+            try {
+                result.set(i, this.created(files[i], targets.get(i), requests.get(i)));
+            } catch (RMIException e) {
+                result.fail(i, e);
+            }
+        }
+        this.revokeLeases();
+        return result;
+    }
+
+    /** check the paths of a batched call
+     *
+     * @param paths paths of the batch
+     * @throws NullPointerException if the array or any path is null
+     * @throws WrongShardException if another shard owns any path
+     */
+    private void checkBatch(Path[] paths) {
+        if (paths == null)
+            throw new NullPointerException();
+        for (Path path : paths) {
+            if (path == null)
+                throw new NullPointerException();
+            this.checkOwner(path);
+        }
+    }
+
+    @Override
+    public MountTable getMountTable()
+    {
+        return this.mounts;
+    }
+
+    @Override
+    public FileStatus stat(Path path) throws FileNotFoundException
+    {
+        if (path == null)
+            throw new NullPointerException();
+        this.checkOwner(path);
+        this.checkFresh();
+        this.lock.readLock().lock();
+        try {
+            return this.status(path, this.fileTree.lookup(path));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public OpenFile open(Path path, int mode) throws FileNotFoundException
+    {
+        if (path == null)
+            throw new NullPointerException();
+        if (mode != OpenFile.READ && mode != OpenFile.WRITE)
+            throw new IllegalArgumentException("unknown mode " + mode);
+        this.checkOwner(path);
+        this.checkFresh();
+        this.accesses.record(path);
+        this.lock.readLock().lock();
+        try {
+            int id = this.fileTree.lookup(path);
+            if (this.fileTree.isDirectory(id))
+                return new OpenFile(true, FileStatus.UNKNOWN, 0, new Storage[0]);
+            Storage[] storage;
+            if (mode == OpenFile.WRITE) {
+                storage = this.storages(id);
+            } else {
+                if (this.hotFiles != null)
+                    this.hotFiles.read(path);
+                storage = new Storage[] {this.pickReplica(this.fileTree.replicas(id))};
+            }
+            return new OpenFile(false, this.fileTree.size(id), this.fileTree.version(id), storage);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void written(Path file, long end) throws FileNotFoundException
+    {
+        if (file == null)
+            throw new NullPointerException();
+        if (end < 0)
+            throw new IllegalArgumentException("negative end offset");
+        this.checkOwner(file);
+        this.checkWritable();
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.lookup(file);
+            if (this.fileTree.isDirectory(id))
+                throw new FileNotFoundException(file + " is a directory");
+            long size = this.fileTree.size(id);
+            if (size == FileStatus.UNKNOWN)
+                return;
+            // stamped with this server's clock, so that a report the storage
+            // servers made before the write, and deliver after, is ignored
+            this.fileTree.setAttributes(id, Math.max(size, end), System.currentTimeMillis());
+            this.logFile(file, id);
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+    }
+
+    @Override
+    public void writeFailed(Path file, Storage[] replicas) throws FileNotFoundException
+    {
+        if (file == null || replicas == null)
+            throw new NullPointerException();
+        this.checkOwner(file);
+        this.checkWritable();
+        List<Storage> failed = Arrays.asList(replicas);
+        List<Integer> dropped = new ArrayList<>();
+        this.lock.writeLock().lock();
+        try {
+            int id = this.fileTree.lookup(file);
+            if (this.fileTree.isDirectory(id))
+                throw new FileNotFoundException(file + " is a directory");
+            for (int slot : this.fileTree.replicas(id)) {
+                if (this.fileTree.replicas(id).length > 1 && failed.contains(this.fileTree.storage(slot))) {
+                    this.fileTree.removeReplica(id, slot);
+                    dropped.add(slot);
+                }
+            }
+            if (!dropped.isEmpty()) {
+                this.logFile(file, id);
+                this.countFiles();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        for (int slot : dropped)
+            this.executorService.execute(() -> this.deleteOn(slot, new Path[] {file}));
+    }
+
+    @Override
+    public Usage usage(Path path) throws FileNotFoundException
+    {
+        if (path == null)
+            throw new NullPointerException();
+        this.checkOwner(path);
+        this.checkFresh();
+        this.lock.readLock().lock();
+        try {
+            int id = this.fileTree.lookup(path);
+            long[] quota = this.fileTree.quota(id);
+            return new Usage(this.fileTree.fileCount(id), this.fileTree.directoryCount(id),
+                    this.fileTree.bytes(id), quota == null ? Usage.UNLIMITED : quota[0],
+                    quota == null ? Usage.UNLIMITED : quota[1]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setQuota(Path directory, long objects, long bytes) throws FileNotFoundException
+    {
+        if (directory == null)
+            throw new NullPointerException();
+        this.checkOwner(directory);
+        this.checkWritable();
+        this.lock.writeLock().lock();
+        try {
+            this.fileTree.setQuota(this.fileTree.cd(directory).getId(), objects, bytes);
+            this.log.quota(directory, objects, bytes);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** check that new objects in a directory stay within the quotas of the
+     *  directories above them, holding the tree lock
+     *
+     * @param dir directory inode
+     * @param objects number of new files and directories
+     * @throws QuotaExceededException if a quota would be exceeded
+     */
+    private void checkQuota(int dir, int objects) {
+        int over = this.fileTree.overQuota(dir, objects);
+        if (over != FileTree.NONE)
+            throw new QuotaExceededException(this.fileTree.path(over));
+    }
+
+    /** attributes of an object, counting a read of a file, holding the tree
+     *  lock
+     *
+     * @param path path of the object
+     * @param id inode of the object
+     * @return the attributes, with the replica a reader should use
+     */
+    private FileStatus status(Path path, int id) {
+        if (this.fileTree.isDirectory(id))
+            return new FileStatus(true, FileStatus.UNKNOWN, FileStatus.UNKNOWN, 0, null);
+        if (this.hotFiles != null)
+            this.hotFiles.read(path);
+        return new FileStatus(false, this.fileTree.size(id), this.fileTree.modified(id),
+                this.fileTree.version(id), this.pickReplica(this.fileTree.replicas(id)));
+    }
+
+    @Override
+    public Lease lease(Path path, LeaseHolder holder) throws FileNotFoundException
+    {
+        if (path == null || holder == null)
+            throw new NullPointerException();
+        this.checkOwner(path);
+        this.checkWritable();
+        this.accesses.record(path);
+        long now = System.currentTimeMillis();
+        this.lock.readLock().lock();
+        try {
+            int id = this.fileTree.lookup(path);
+            Lease lease;
+            if (this.fileTree.isDirectory(id)) {
+                int[] children = this.fileTree.children(id, null, LEASE_LIST_LIMIT + 1);
+                String[] names = null;
+                if (children.length <= LEASE_LIST_LIMIT) {
+                    names = new String[children.length];
+                    for (int i = 0; i < children.length; i++)
+                        names[i] = this.fileTree.nameOf(children[i]);
+                }
+                lease = new Lease(path, this.status(path, id), null, names, LEASE_TERM,
+                        this.log.sequence());
+            } else {
+                lease = new Lease(path, this.status(path, id), this.storages(id), null,
+                        LEASE_TERM, this.log.sequence());
+            }
+            this.leases.grant(path, holder, now, now + LEASE_TERM);
+            return lease;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Mutations tail(long after, int limit)
+    {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        if (this.primary != null)
+            throw new IllegalStateException("a follower keeps no mutation log");
+        this.lock.readLock().lock();
+        try {
+            Mutations mutations = this.log.since(after, limit);
+            return mutations != null ? mutations : this.snapshot();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public PathFilterUpdate pathFilter(long generation, long version)
+    {
+        if (this.primary != null)
+            throw new IllegalStateException("a follower keeps no path filter");
+        if (this.mounts != null)
+            throw new IllegalStateException("a shard holds only part of the namespace");
+        return this.filters.since(generation, version);
+    }
+
+    @Override
+    public HotPaths hotPaths(long window, int limit)
+    {
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive");
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        return this.accesses.top(window, limit);
+    }
+
+    @Override
+    public long watch(Path prefix, long after, Watcher watcher)
+    {
+        if (prefix == null || watcher == null)
+            throw new NullPointerException();
+        if (this.primary != null)
+            throw new IllegalStateException("a follower keeps no mutation log");
+        this.checkOwner(prefix);
+        return this.watches.watch(prefix, after < 0 ? this.sequence() : after, watcher,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void unwatch(Watcher watcher)
+    {
+        if (watcher == null)
+            throw new NullPointerException();
+        this.watches.unwatch(watcher);
+    }
+
+    /** sequence number of the last mutation logged, holding the tree lock */
+    long sequence() {
+        this.lock.readLock().lock();
+        try {
+            return this.log.sequence();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** changes below a path following a sequence number, holding the tree
+     *  lock
+     *
+     * <p>A mutation concerns the path if it creates, changes, deletes or
+     * moves an object at or below it, or deletes or moves the path itself
+     * or one of its ancestors.
+     *
+     * @param prefix the watched path
+     * @param after sequence number of the last mutation delivered
+     * @return the changes among the next WatchTable.BATCH mutations, a reset
+     *         if the mutations following after are no longer retained, or
+     *         null if after is the last mutation logged
+     */
+    Changes changes(Path prefix, long after) {
+        this.lock.readLock().lock();
+        try {
+            long sequence = this.log.sequence();
+            if (after == sequence)
+                return null;
+            Mutations mutations = this.log.since(after, WatchTable.BATCH);
+            if (mutations == null)
+                return new Changes(after, sequence, true, Collections.emptyList());
+            List<Changes.Change> changes = new ArrayList<>();
+            long n = after;
+            for (Mutations.Entry entry : mutations.entries()) {
+                n++;
+                boolean moved = entry.kind == Mutations.DELETE || entry.kind == Mutations.RENAME;
+                if (entry.kind == Mutations.QUOTA)
+                    continue;
+                if (!MountTable.within(entry.path, prefix)
+                        && !(moved && MountTable.within(prefix, entry.path))
+                        && !(entry.target != null && (MountTable.within(entry.target, prefix)
+                                || MountTable.within(prefix, entry.target))))
+                    continue;
+                int kind = entry.kind == Mutations.DIRECTORY ? Changes.DIRECTORY
+                        : entry.kind == Mutations.FILE ? Changes.FILE
+                        : entry.kind == Mutations.DELETE ? Changes.DELETE : Changes.RENAME;
+                changes.add(new Changes.Change(kind, entry.path, entry.target, n));
+            }
+            return new Changes(after, mutations.sequence(), false, changes);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** rebuild the path filter once more paths were added to it than it was
+     *  sized for, holding the tree's read lock */
+    private void rebuildFilter() {
+        if (!this.filters.full())
+            return;
+        this.lock.readLock().lock();
+        try {
+            this.filters.rebuild(this.fileTree);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** mutations rebuilding the whole tree, holding the tree lock
+     *
+     * @return a snapshot as of the last mutation logged
+     */
+    private Mutations snapshot() {
+        List<Mutations.Entry> entries = new ArrayList<>();
+        Deque<Integer> dirs = new ArrayDeque<>();
+        dirs.push(FileTree.ROOT);
+        while (!dirs.isEmpty()) {
+            int dir = dirs.pop();
+            Path path = this.fileTree.path(dir);
+            long[] quota = this.fileTree.quota(dir);
+            if (quota != null)
+                entries.add(new Mutations.Entry(Mutations.QUOTA, path, null, quota[0], quota[1]));
+            for (int id : this.fileTree.children(dir, null, Integer.MAX_VALUE)) {
+                Path child = new Path(path, this.fileTree.nameOf(id));
+                if (this.fileTree.isDirectory(id)) {
+                    entries.add(new Mutations.Entry(Mutations.DIRECTORY, child));
+                    dirs.push(id);
+                } else {
+                    entries.add(new Mutations.Entry(Mutations.FILE, child, this.storages(id),
+                            this.fileTree.size(id), this.fileTree.modified(id)));
+                }
+            }
+        }
+        return new Mutations(this.log.sequence(), true, entries);
+    }
+
+    /** check that this server may modify its tree
+     *
+     * @throws IllegalStateException if this server is a follower
+     */
+    private void checkWritable() {
+        if (this.primary != null)
+            throw new IllegalStateException("naming server is a read-only follower");
+    }
+
+    /** check that a follower is recent enough to answer lookups
+     *
+     * @throws IllegalStateException if the follower lags behind its primary
+     *         by more than the maximum staleness
+     */
+    private void checkFresh() {
+        if (this.primary != null && System.currentTimeMillis() - this.caughtUp > this.maxStaleness)
+            throw new IllegalStateException("follower is more than " + this.maxStaleness
+                    + " ms behind its primary");
+    }
+
+    /** apply the mutations of the primary until caught up with it */
+    private void follow() {
+        long started = System.currentTimeMillis();
+        try {
+            Mutations mutations;
+            do {
+                mutations = this.primary.tail(this.applied, FOLLOW_BATCH);
+                this.apply(mutations);
+            } while (mutations.isSnapshot() || mutations.size() == FOLLOW_BATCH);
+            this.caughtUp = started;
+        } catch (RMIException e) {
+            // primary unreachable: lookups are refused once too stale
+        }
+    }
+
+    /** apply mutations of the primary to the tree of a follower
+     *
+     * @param mutations mutations following the last one applied, or a
+     *        snapshot
+     */
+    private void apply(Mutations mutations) {
+        this.lock.writeLock().lock();
+        try {
+            if (mutations.isSnapshot())
+                this.fileTree = new FileTree();
+            // sequence number of each entry; a snapshot has only its own
+            long sequence = mutations.isSnapshot() ? mutations.sequence()
+                    : mutations.sequence() - mutations.size();
+            for (Mutations.Entry entry : mutations.entries()) {
+                if (!mutations.isSnapshot())
+                    sequence++;
+                try {
+                    switch (entry.kind) {
+                    case Mutations.DIRECTORY:
+                        this.fileTree.mkdirs(entry.path);
+                        break;
+                    case Mutations.FILE:
+                        this.applyFile(entry.path, entry.replicas, entry.size, entry.modified, sequence);
+                        break;
+                    case Mutations.RENAME:
+                        this.fileTree.rename(entry.path, entry.target);
+                        break;
+                    case Mutations.QUOTA:
+                        this.fileTree.setQuota(this.fileTree.lookup(entry.path), entry.size, entry.modified);
+                        break;
+                    default:
+                        int id = this.fileTree.detach(entry.path);
+                        while (!this.fileTree.reclaim(id, entry.path, Integer.MAX_VALUE, new HashMap<>()))
+                            ;
+                    }
+                } catch (FileNotFoundException | FileAlreadyExistsException | IllegalArgumentException e) {
+                    // the primary's tree never holds such a mutation
+                }
+            }
+            this.applied = mutations.sequence();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** set the replicas and attributes of a file in the tree of a follower,
+     *  making the file if needed, holding the tree lock
+     *
+     * @param file path of the file
+     * @param replicas replicas of the file, the first replica first
+     * @param size length of the file
+     * @param modified modification time of the file
+     * @param version sequence number of the mutation on the primary
+     */
+    private void applyFile(Path file, Storage[] replicas, long size, long modified, long version)
+            throws FileNotFoundException, FileAlreadyExistsException {
+        if (!this.fileTree.isExist(file))
+            this.fileTree.touch(file, null);
+        int id = this.fileTree.lookup(file);
+        for (int slot : this.fileTree.replicas(id))
+            this.fileTree.removeReplica(id, slot);
+        for (Storage replica : replicas)
+            this.fileTree.addReplica(id, this.fileTree.storageId(replica));
+        this.fileTree.setAttributes(id, size, modified);
+        this.fileTree.setVersion(id, version);
+    }
+
+    /** check that this server owns a path, when the namespace is sharded
+     *
+     * @param path path named by a call
+     * @throws WrongShardException if another shard owns the path
+     */
+    private void checkOwner(Path path) {
+        MountTable mounts = this.mounts;
+        if (mounts == null)
+            return;
+        InetSocketAddress owner = mounts.owner(path);
+        if (!this.self.equals(owner))
+            throw new WrongShardException(owner, mounts.version());
+    }
+
+    /** drop the files of other shards from a storage server's file list
+     *
+     * @param files files offered by the storage server
+     * @return the files this server owns
+     */
+    private Path[] owned(Path[] files) {
+        MountTable mounts = this.mounts;
+        if (mounts == null)
+            return files;
+        List<Path> owned = new ArrayList<>(files.length);
+        for (Path file : files) {
+            if (file == null || this.self.equals(mounts.owner(file)))
+                owned.add(file);
+        }
+        return owned.toArray(new Path[owned.size()]);
+    }
+
+    /** indices of paths in path order, parents before their contents
+     *
+     * @param paths paths
+     * @return indices into <code>paths</code>
+     */
+    private static Integer[] sorted(Path[] paths) {
+        Integer[] order = new Integer[paths.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> paths[a].compareTo(paths[b]));
+        return order;
+    }
+
+    /** run a task for each entry of a batch, with up to one thread per live
+     *  storage server, and wait for all of them
+     *
+     * @param entries indices of the entries
+     * @param task task run for each entry
+     */
+    private void inParallel(List<Integer> entries, IntConsumer task) {
+        int threads = Math.min(entries.size(), Math.max(1, this.liveServers().size()));
+        if (threads <= 1) {
+            for (int i : entries)
+                task.accept(i);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            running.add(this.executorService.submit(() -> {
+                for (int n = next.getAndIncrement(); n < entries.size(); n = next.getAndIncrement())
+                    task.accept(entries.get(n));
+            }));
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+    //The following method is documented in Registration.java
+    /** Registers a storage server with the naming server.
+
+     <p>
+     The storage server notifies the naming server of the files that it is
+     hosting. Note that the storage server does not notify the naming server
+     of any directories. The naming server attempts to add as many of these
+     files as possible to its directory tree. The naming server then replies
+     to the storage server with a subset of these files that the storage
+     server must delete from its local storage.
+
+     <p>
+     After the storage server has deleted the files as commanded, it must
+     prune its directory tree by removing all directories under which no
+     files can be found. This includes, for example, directories which
+     contain only empty directories.
+
+     @param client_stub Storage server client service stub. This will be
+     given to clients when operations need to be performed
+     on a file on the storage server.
+     @param command_stub Storage server command service stub. This will be
+     used by the naming server to issue commands that
+     modify the directory tree on the storage server.
+     @param files The list of files stored on the storage server. This list
+     is merged with the directory tree already present on the
+     naming server. Duplicate filenames are dropped.
+     @return A list of duplicate files to delete on the local storage of the
+     registering storage server.
+     @throws IllegalStateException If the storage server is already
+     registered.
+     @throws NullPointerException If any of the arguments is
+     <code>null</code>.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public Path[] register(Storage client_stub, Command command_stub, Path[] files)
+    {
+        /**throw new UnsupportedOperationException("not implemented");*/
+        if (client_stub == null || command_stub == null || files == null)
+            throw new NullPointerException();
+        this.checkWritable();
+        List<Path> extra;
+        this.lock.writeLock().lock();
+        try {
+            if (this.storageMap.containsKey(command_stub))
+                throw new IllegalStateException("the storage server is already registered");
+            StorageRecord server = new StorageRecord(client_stub, command_stub,
+                    this.fileTree.storageId(client_stub), this.executorService);
+            this.servers.add(server);
+            this.storageMap.put(command_stub, server);
+            List<Path> dropped = new ArrayList<>();
+            Path[] owned = this.current(server.id(), this.owned(files), dropped);
+            extra = this.fileTree.merge(owned, client_stub);
+            this.logMerged(owned, extra, client_stub);
+            extra.addAll(dropped);
+            server.files = this.fileTree.files(server.id());
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        if (this.rebalancer != null)
+            this.rebalancing.execute(this.rebalancer);
+        return extra.toArray(new Path[extra.size()]);
+    }
+
+    /** Adds more of a registered storage server's files to the directory
+        tree.
+
+     @param command_stub Command stub the storage server registered with.
+     @param files A chunk of the list of files stored on the storage server.
+     @return A list of duplicate files to delete on the local storage of the
+     storage server.
+     @throws IllegalStateException If the storage server is not registered.
+     @throws NullPointerException If any of the arguments is
+     <code>null</code>.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public Path[] registerFiles(Command command_stub, Path[] files)
+    {
+        if (command_stub == null || files == null)
+            throw new NullPointerException();
+        this.checkWritable();
+        List<Path> extra;
+        this.lock.writeLock().lock();
+        try {
+            StorageRecord server = this.storageMap.get(command_stub);
+            if (server == null)
+                throw new IllegalStateException("the storage server is not registered");
+            List<Path> dropped = new ArrayList<>();
+            Path[] owned = this.current(server.id(), this.owned(files), dropped);
+            extra = this.fileTree.merge(owned, server.client());
+            this.logMerged(owned, extra, server.client());
+            extra.addAll(dropped);
+            server.files = this.fileTree.files(server.id());
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
+        return extra.toArray(new Path[extra.size()]);
+    }
+
+    /** Reports that a registered storage server is alive.
+
+     @param command_stub Command stub the storage server registered with.
+     @param report Load and capacity of the storage server.
+     @throws IllegalStateException If the storage server is not registered.
+     @throws NullPointerException If any of the arguments is
+     <code>null</code>.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public void heartbeat(Command command_stub, LoadReport report)
+    {
+        if (command_stub == null || report == null)
+            throw new NullPointerException();
+        this.checkWritable();
+        StorageRecord server;
+        this.lock.readLock().lock();
+        try {
+            server = this.storageMap.get(command_stub);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (server == null)
+            throw new IllegalStateException("the storage server is not registered");
+        server.report = report;
+        server.bytes = report.bytes();
+        server.heartbeat = System.currentTimeMillis();
+        server.dead = false;
+        Set<Path> copies = this.stale.get(server.id());
+        if (copies != null && !copies.isEmpty())
+            this.executorService.execute(() -> this.deleteStale(server.id()));
+    }
+
+    /** Answers whether a file missing on a storage server has been placed on
+        it.
+
+     @param command_stub Command stub the storage server registered with.
+     @param file Path of the missing file.
+     @return <code>true</code> if the directory tree lists the file with a
+     replica on the storage server.
+     @throws IllegalStateException If the storage server is not registered.
+     @throws NullPointerException If any of the arguments is
+     <code>null</code>.
+     */
+    @Override
+    public boolean placed(Command command_stub, Path file)
+    {
+        if (command_stub == null || file == null)
+            throw new NullPointerException();
+        this.checkWritable();
+        this.lock.readLock().lock();
+        try {
+            StorageRecord server = this.storageMap.get(command_stub);
+            if (server == null)
+                throw new IllegalStateException("the storage server is not registered");
+            return this.holds(file, server.id());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** Records the length and modification time of files of a storage
+        server.
+
+     @param command_stub Command stub the storage server registered with.
+     @param files Paths of the files.
+     @param sizes Length of each file.
+     @param modified Modification time of each file.
+     @throws IllegalArgumentException If the arrays differ in length.
+     @throws IllegalStateException If the storage server is not registered.
+     @throws NullPointerException If any of the arguments is
+     <code>null</code>.
+     */
+    @Override
+    public void reportAttributes(Command command_stub, Path[] files, long[] sizes, long[] modified)
+    {
+        if (command_stub == null || files == null || sizes == null || modified == null)
+            throw new NullPointerException();
+        if (sizes.length != files.length || modified.length != files.length)
+            throw new IllegalArgumentException("one length and time per file expected");
+        this.checkWritable();
+        this.lock.writeLock().lock();
+        try {
+            StorageRecord server = this.storageMap.get(command_stub);
+            if (server == null)
+                throw new IllegalStateException("the storage server is not registered");
+            for (int i = 0; i < files.length; i++) {
+                int id;
+                try {
+                    id = this.fileTree.lookup(files[i]);
+                } catch (FileNotFoundException e) {
+                    continue;
+                }
+                if (this.fileTree.isDirectory(id) || modified[i] < this.fileTree.modified(id)
+                        || (modified[i] == this.fileTree.modified(id) && sizes[i] == this.fileTree.size(id)))
+                    continue;
+                boolean holds = false;
+                for (int slot : this.fileTree.replicas(id))
+                    holds |= slot == server.id();
+                if (holds) {
+                    this.fileTree.setAttributes(id, sizes[i], modified[i]);
+                    this.logFile(files[i], id);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+            this.revokeLeases();
+        }
     }
 }
@@ -35,6 +35,42 @@ public abstract class NamingStubs
         return service(hostname, SERVICE_PORT);
     }
 
+    /** Returns a client service interface for a sharded namespace.
+
+        <p>
+        The returned object fetches the <code>MountTable</code> from the given
+        naming server, and sends each call to the shard owning the paths it
+        names. It can be used for unsharded naming servers too, and then sends
+        every call to the given server. See <code>ShardRouter</code>.
+
+        @param hostname Hostname of any of the shards.
+        @param port Client service interface port of the shard.
+     */
+    public static Service sharded(String hostname, int port)
+    {
+        return ShardRouter.create(new InetSocketAddress(hostname, port));
+    }
+
+    /** Returns a client service interface that sends lookups to follower
+        naming servers.
+
+        <p>
+        Lookups - <code>isDirectory</code>, the listing calls,
+        <code>find</code>, <code>getStorage</code>, <code>getReplicas</code>,
+        <code>stat</code>, <code>open</code>, <code>usage</code> and the
+        batched lookups - are spread over the followers, and sent to the
+        primary only when no follower is recent enough. Other calls are sent to the primary.
+        Lookups may therefore not see the latest modifications. See
+        <code>FollowerRouter</code>.
+
+        @param primary Stub for the primary naming server.
+        @param followers Stubs for the followers of the primary.
+     */
+    public static Service withFollowers(Service primary, Service... followers)
+    {
+        return FollowerRouter.create(primary, followers);
+    }
+
     /** Returns a stub for a naming server registration interface.
 
         @param hostname Naming server hostname.
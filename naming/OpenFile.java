@@ -0,0 +1,88 @@
+package naming;
+
+import storage.Storage;
+
+import java.io.Serializable;
+
+/** Metadata needed to start reading or writing a file, returned by
+    <code>Service.open</code>.
+
+    <p>
+    An open file carries in one reply what a client would otherwise gather
+    with <code>getStorage</code> or <code>getReplicas</code> and
+    <code>Storage.size</code>: whether the object is a directory, the storage
+    servers to send reads or writes to, and the length and version of the
+    file. The length is the one known to the naming server, as for
+    <code>Service.stat</code>: it covers every write made through a stream
+    that was closed, and is <code>FileStatus.UNKNOWN</code> only until the
+    storage servers first report it.
+ */
+public class OpenFile implements Serializable
+{
+    /** Mode opening a file for reading: one replica is returned, chosen as by
+        <code>Service.getStorage</code>. */
+    public static final int     READ = 0;
+    /** Mode opening a file for writing: all replicas are returned, the first
+        replica first, as by <code>Service.getReplicas</code>. */
+    public static final int     WRITE = 1;
+
+    /** Indicates that the object is a directory. */
+    private final boolean       directory;
+    /** Length of the file in bytes, or <code>FileStatus.UNKNOWN</code>. */
+    private final long          size;
+    /** Version of the file, see <code>FileStatus.version</code>. */
+    private final long          version;
+    /** Storage servers to direct the reads or writes to. */
+    private final Storage[]     storage;
+
+    /** Creates an open file.
+
+        @param directory <code>true</code> if the object is a directory.
+        @param size Length of the file, or <code>FileStatus.UNKNOWN</code>.
+        @param version Version of the file, or zero for a directory.
+        @param storage Storage servers for the mode; empty for a directory.
+     */
+    OpenFile(boolean directory, long size, long version, Storage[] storage)
+    {
+        this.directory = directory;
+        this.size = size;
+        this.version = version;
+        this.storage = storage;
+    }
+
+    /** Returns <code>true</code> if the object is a directory and
+        <code>false</code> if it is a file. */
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    /** Returns the length of the file in bytes, as known to the naming
+        server, or <code>FileStatus.UNKNOWN</code>. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the version of the file, or zero for a directory. */
+    public long version()
+    {
+        return version;
+    }
+
+    /** Returns the storage server to read the file from, or the first
+        replica when opened for writing, or <code>null</code> for a
+        directory. */
+    public Storage storage()
+    {
+        return storage.length == 0 ? null : storage[0];
+    }
+
+    /** Returns the storage servers to direct reads or writes to: one server
+        when opened for reading, every replica when opened for writing, and
+        none for a directory. */
+    public Storage[] replicas()
+    {
+        return storage.clone();
+    }
+}
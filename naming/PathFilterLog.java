@@ -0,0 +1,128 @@
+package naming;
+
+import common.FileTree;
+import common.PathFilter;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Path filter of a naming server, with the recent changes to its words.
+
+    <p>
+    The filter holds the path of every object created in the tree since it
+    was built. Paths of deleted objects are not removed, so the filter is
+    rebuilt from the tree, with a new generation, once the number of paths
+    added to it exceeds the number it was sized for: a filter is sized for
+    twice the size of the tree, at least <code>MIN_CAPACITY</code> paths,
+    when it is built. Each word changed by an addition is recorded in a ring
+    of the last <code>CHANGES</code> changes, and the version of the filter
+    is the number of changes recorded in its generation, so that a client
+    copy is brought up to date with the words changed since its version.
+
+    <p>
+    The log is synchronized, since paths are added while holding the write
+    lock of the naming server's tree but updates are read without the tree
+    lock. The filter is rebuilt while holding the read lock of the tree, so
+    that no path is added while the tree is walked.
+ */
+class PathFilterLog
+{
+    /** Number of word changes retained. */
+    static final int                CHANGES = 1 << 16;
+    /** Smallest number of paths a filter is sized for. */
+    static final int                MIN_CAPACITY = 1 << 16;
+
+    /** Current filter. */
+    private PathFilter              filter;
+    /** Generation of the filter. */
+    private long                    generation;
+    /** Number of word changes recorded in this generation: change
+        <code>n</code> is at index <code>(n - 1) % CHANGES</code>. */
+    private long                    version;
+    /** Indexes of the words changed, by change. */
+    private final int[]             ring;
+    /** Number of paths the filter was sized for. */
+    private int                     capacity;
+    /** Number of paths added to the filter, including those it was built
+        with. */
+    private long                    added;
+    /** Scratch array receiving the words changed by one addition. */
+    private final int[]             changed;
+
+    /** Creates the log with the filter of a tree. */
+    PathFilterLog(FileTree tree)
+    {
+        this.ring = new int[CHANGES];
+        this.changed = new int[PathFilter.HASHES];
+        this.generation = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        rebuild(tree);
+    }
+
+    /** Adds a path to the filter.
+
+        @param hash <code>PathFilter</code> hash of the path.
+     */
+    synchronized void add(long hash)
+    {
+        added++;
+        int count = filter.add(hash, changed);
+        for (int i = 0; i < count; i++)
+            ring[(int)(version++ % CHANGES)] = changed[i];
+    }
+
+    /** Indicates that more paths were added than the filter was sized
+        for. */
+    synchronized boolean full()
+    {
+        return added > capacity;
+    }
+
+    /** Rebuilds the filter from a tree, starting a new generation. The
+        caller holds the tree's read lock. */
+    void rebuild(FileTree tree)
+    {
+        int capacity = (int)Math.min(Integer.MAX_VALUE / PathFilter.BITS_PER_PATH,
+                                     Math.max(MIN_CAPACITY, 2L * tree.size()));
+        PathFilter filter = new PathFilter(capacity);
+        tree.pathHashes(FileTree.ROOT, hash -> filter.add(hash, null));
+        synchronized (this) {
+            this.filter = filter;
+            this.capacity = capacity;
+            this.added = tree.size();
+            this.generation++;
+            this.version = 0;
+        }
+    }
+
+    /** Returns the filter, or the words changed since a version of it.
+
+        @param generation Generation of the caller's copy.
+        @param version Version of the caller's copy.
+        @return The changed words if <code>generation</code> is current and
+                the changes since <code>version</code> are retained and
+                touch less than an eighth of the filter; otherwise a copy of
+                the whole filter.
+     */
+    synchronized PathFilterUpdate since(long generation, long version)
+    {
+        if (generation != this.generation || version > this.version ||
+            version < this.version - CHANGES ||
+            this.version - version > filter.words() / 8)
+            return new PathFilterUpdate(this.generation, this.version, filter.copy());
+
+        int[] words = new int[(int)(this.version - version)];
+        for (long n = version; n < this.version; n++)
+            words[(int)(n - version)] = ring[(int)(n % CHANGES)];
+        Arrays.sort(words);
+        int distinct = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (distinct == 0 || words[i] != words[distinct - 1])
+                words[distinct++] = words[i];
+        }
+        words = Arrays.copyOf(words, distinct);
+        long[] values = new long[distinct];
+        for (int i = 0; i < distinct; i++)
+            values[i] = filter.word(words[i]);
+        return new PathFilterUpdate(this.generation, this.version, words, values);
+    }
+}
@@ -0,0 +1,91 @@
+package naming;
+
+import common.PathFilter;
+
+import java.io.Serializable;
+
+/** Path filter of a naming server, or the changes to it since a version.
+
+    <p>
+    Returned by <code>Service.pathFilter</code>. An update either carries the
+    whole filter, or the words of the filter changed since the version the
+    client asked from, with their new values. The client applies the update
+    to its copy with <code>apply</code>, and keeps its
+    <code>generation</code> and <code>version</code> for the next call.
+ */
+public class PathFilterUpdate implements Serializable
+{
+    /** Generation of the filter. */
+    private final long          generation;
+    /** Version of the filter after the update. */
+    private final long          version;
+    /** The whole filter, or <code>null</code> for changed words only. */
+    private final PathFilter    filter;
+    /** Indexes of the changed words, in increasing order. */
+    private final int[]         words;
+    /** New values of the changed words. */
+    private final long[]        values;
+
+    /** Creates an update carrying the whole filter. */
+    PathFilterUpdate(long generation, long version, PathFilter filter)
+    {
+        this(generation, version, filter, null, null);
+    }
+
+    /** Creates an update carrying changed words. */
+    PathFilterUpdate(long generation, long version, int[] words, long[] values)
+    {
+        this(generation, version, null, words, values);
+    }
+
+    private PathFilterUpdate(long generation, long version, PathFilter filter,
+                             int[] words, long[] values)
+    {
+        this.generation = generation;
+        this.version = version;
+        this.filter = filter;
+        this.words = words;
+        this.values = values;
+    }
+
+    /** Returns the generation of the filter. A naming server starts a new
+        generation whenever it rebuilds its filter, and each time it
+        starts. */
+    public long generation()
+    {
+        return generation;
+    }
+
+    /** Returns the version of the filter once the update is applied. */
+    public long version()
+    {
+        return version;
+    }
+
+    /** Indicates that the update carries the whole filter rather than
+        changed words. */
+    public boolean isComplete()
+    {
+        return filter != null;
+    }
+
+    /** Applies the update to a copy of the filter.
+
+        @param copy The filter of the generation of the update, as of the
+                    version the update was asked from; ignored, and may be
+                    <code>null</code>, if the update carries the whole
+                    filter.
+        @return The updated filter: <code>copy</code>, updated in place, or
+                the filter carried by the update.
+        @throws NullPointerException If the update carries changed words and
+                                     <code>copy</code> is <code>null</code>.
+     */
+    public PathFilter apply(PathFilter copy)
+    {
+        if (filter != null)
+            return filter;
+        for (int i = 0; i < words.length; i++)
+            copy.setWord(words[i], values[i]);
+        return copy;
+    }
+}
@@ -0,0 +1,29 @@
+package naming;
+
+import common.Path;
+
+import java.util.List;
+
+/** Policy choosing the storage server on which a new file is placed.
+
+    <p>
+    The naming server consults its placement policy each time a file is
+    created. Built-in policies are available from {@link Placements}. The
+    naming server calls the policy while holding its directory tree lock, so
+    implementations must return quickly and must not make remote calls.
+ */
+public interface PlacementPolicy
+{
+    /** Chooses a storage server for a new file.
+
+        @param file Path of the file being created.
+        @param sibling Storage server hosting another file in the same
+                       directory, or <code>null</code> if the directory holds
+                       no other file.
+        @param candidates Storage servers the file may be placed on. The list is
+                          never empty.
+        @return One of the candidates.
+     */
+    StorageRecord choose(Path file, StorageRecord sibling,
+                         List<StorageRecord> candidates);
+}
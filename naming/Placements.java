@@ -0,0 +1,125 @@
+package naming;
+
+
+import java.util.List;
+import java.util.Random;
+
+/** Built-in file placement policies.
+
+    <p>
+    Policies are identified on the naming server command line by the names
+    returned by <code>forName</code>:
+    <ul>
+    <li><code>random</code>: a uniformly random server.</li>
+    <li><code>least-bytes</code>: the server storing the fewest bytes. Servers
+        that have not reported their usage count as empty; ties go to the
+        server with the fewest files.</li>
+    <li><code>least-files</code>: the server hosting the fewest files.</li>
+    <li><code>two-choices</code>: the less loaded of two servers drawn at
+        random (power of two choices). This avoids the herd behavior of always
+        sending new files to the single least-used server when many files are
+        created at once.</li>
+    <li><code>siblings</code>: the server hosting the other files in the same
+        directory, keeping directories together. New directories are placed
+        with <code>least-files</code>.</li>
+    </ul>
+ */
+public abstract class Placements
+{
+    /** Source of randomness shared by the random policies. */
+    private static final Random random = new Random();
+
+    /** Returns the policy placing files on a random server. */
+    public static PlacementPolicy random()
+    {
+        return (file, sibling, candidates) ->
+            candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /** Returns the policy placing files on the server storing the fewest
+        bytes. */
+    public static PlacementPolicy leastBytes()
+    {
+        return (file, sibling, candidates) -> {
+            StorageRecord best = candidates.get(0);
+            for (StorageRecord record : candidates) {
+                if (record.bytes() < best.bytes() ||
+                        (record.bytes() == best.bytes() && record.files() < best.files()))
+                    best = record;
+            }
+            return best;
+        };
+    }
+
+    /** Returns the policy placing files on the server hosting the fewest
+        files. */
+    public static PlacementPolicy leastFiles()
+    {
+        return (file, sibling, candidates) -> {
+            StorageRecord best = candidates.get(0);
+            for (StorageRecord record : candidates) {
+                if (record.files() < best.files())
+                    best = record;
+            }
+            return best;
+        };
+    }
+
+    /** Returns the policy placing files on the less loaded of two randomly
+        drawn servers. */
+    public static PlacementPolicy twoChoices()
+    {
+        return (file, sibling, candidates) -> {
+            if (candidates.size() == 1)
+                return candidates.get(0);
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first)
+                second++;
+            StorageRecord a = candidates.get(first);
+            StorageRecord b = candidates.get(second);
+            if (a.load() != b.load())
+                return a.load() < b.load() ? a : b;
+            return a.files() <= b.files() ? a : b;
+        };
+    }
+
+    /** Returns the policy keeping files of a directory on one server.
+
+        @param fallback Policy used when the directory holds no other file, or
+                        when the server holding them is not a candidate.
+     */
+    public static PlacementPolicy siblings(PlacementPolicy fallback)
+    {
+        return (file, sibling, candidates) -> {
+            if (sibling != null && candidates.contains(sibling))
+                return sibling;
+            return fallback.choose(file, sibling, candidates);
+        };
+    }
+
+    /** Returns a built-in policy by name.
+
+        @param name Policy name, as listed in the class description.
+        @return The policy.
+        @throws IllegalArgumentException If there is no policy with the given
+                                         name.
+     */
+    public static PlacementPolicy forName(String name)
+    {
+        switch (name) {
+            case "random":
+                return random();
+            case "least-bytes":
+                return leastBytes();
+            case "least-files":
+                return leastFiles();
+            case "two-choices":
+                return twoChoices();
+            case "siblings":
+                return siblings(leastFiles());
+            default:
+                throw new IllegalArgumentException("unknown placement policy " + name);
+        }
+    }
+}
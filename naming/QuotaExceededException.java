@@ -0,0 +1,33 @@
+package naming;
+
+import common.Path;
+
+/** Thrown by a naming server when creating an object would exceed the quota
+    of a directory above it.
+
+    <p>
+    The exception carries the path of the directory whose quota is exceeded.
+    Objects may be created again once enough objects below that directory are
+    deleted, or its quota is raised with <code>Service.setQuota</code>.
+ */
+public class QuotaExceededException extends IllegalStateException
+{
+    /** Directory whose quota is exceeded. */
+    private final Path          directory;
+
+    /** Creates the exception.
+
+        @param directory Path of the directory whose quota is exceeded.
+     */
+    QuotaExceededException(Path directory)
+    {
+        super("quota of " + directory + " exceeded");
+        this.directory = directory;
+    }
+
+    /** Returns the path of the directory whose quota is exceeded. */
+    public Path directory()
+    {
+        return directory;
+    }
+}
@@ -0,0 +1,208 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+
+import java.io.FileNotFoundException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Background task moving files from over-full to under-full storage
+    servers.
+
+    <p>
+    The usage of a storage server is the number of bytes it stores, if every
+    server has reported its usage, and the number of files it hosts otherwise.
+    Each run, the rebalancer repeatedly takes the most used and the least used
+    server and moves a file from the former to the latter, until both are
+    within <code>TOLERANCE</code> of the mean usage or <code>BATCH</code> files
+    have been moved. A newly registered server, which starts empty, is
+    therefore filled up over a few runs. The naming server also starts a run
+    as soon as a storage server registers.
+
+    <p>
+    A file is moved by having the under-full server copy it from the over-full
+    one with <code>Command.copy</code>. The copy is verified by comparing the
+    file size on both servers. Only then is the replica moved in the directory
+    tree, in place and under the tree lock, so that the file is never without
+    a replica. The source copy is deleted at the start of the next run, once
+    readers that were handed the old replica have had time to finish.
+
+    <p>
+    Copies are throttled so that the data moved by the rebalancer does not
+    exceed <code>bandwidth</code> bytes per second on average. The naming
+    server runs the rebalancer on a thread of its own, since it sleeps between
+    copies, and indexes the files of each storage server, so that candidates
+    are found without scanning the whole directory tree.
+ */
+class Rebalancer implements Runnable
+{
+    /** Period between runs, in milliseconds. */
+    static final long               PERIOD = 30000;
+    /** Relative distance from the mean usage within which a server is
+        considered balanced. */
+    private static final double     TOLERANCE = 0.1;
+    /** Maximum number of files moved per run. */
+    private static final int        BATCH = 256;
+
+    /** Naming server whose files are moved. */
+    private final NamingServer      server;
+    /** Bytes per second the rebalancer may copy. */
+    private final long              bandwidth;
+    /** Time before which the next copy may not start, in milliseconds. */
+    private long                    next_copy;
+    /** Indicates that a run is in progress. */
+    private final AtomicBoolean     running;
+    /** Source replicas moved during the previous run, to be deleted. */
+    private List<Move>              moved;
+
+    Rebalancer(NamingServer server, long bandwidth)
+    {
+        this.server = server;
+        this.bandwidth = bandwidth;
+        this.next_copy = 0;
+        this.running = new AtomicBoolean();
+        this.moved = new ArrayList<>();
+    }
+
+    /** Runs one rebalancing pass, unless another one is in progress. */
+    @Override
+    public void run()
+    {
+        if (!running.compareAndSet(false, true))
+            return;
+        try {
+            deleteMoved();
+            rebalance();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /** Moves files until the servers are balanced or a batch is done. */
+    private void rebalance() throws InterruptedException
+    {
+        int files = 0;
+        while (files < BATCH) {
+            List<StorageRecord> servers = server.liveServers();
+            if (servers.size() < 2)
+                return;
+
+            boolean by_bytes = true;
+            for (StorageRecord record : servers)
+                by_bytes &= record.bytes() > 0;
+
+            double mean = 0;
+            StorageRecord fullest = null;
+            StorageRecord emptiest = null;
+            for (StorageRecord record : servers) {
+                mean += usage(record, by_bytes);
+                if (fullest == null || usage(record, by_bytes) > usage(fullest, by_bytes))
+                    fullest = record;
+                if (emptiest == null || usage(record, by_bytes) < usage(emptiest, by_bytes))
+                    emptiest = record;
+            }
+            mean /= servers.size();
+            if (usage(fullest, by_bytes) <= mean * (1 + TOLERANCE) &&
+                    usage(emptiest, by_bytes) >= mean * (1 - TOLERANCE))
+                return;
+
+            Path[] candidates = server.filesToMove(fullest, emptiest, BATCH - files);
+            if (candidates.length == 0)
+                return;
+            for (Path file : candidates) {
+                if (usage(fullest, by_bytes) <= mean || usage(emptiest, by_bytes) >= mean)
+                    break;
+                move(file, fullest, emptiest);
+                files++;
+            }
+        }
+    }
+
+    private static double usage(StorageRecord record, boolean by_bytes)
+    {
+        return by_bytes ? record.bytes() : record.files();
+    }
+
+    /** Copies a file from one server to another and moves the replica once
+        the copy is verified. Failures leave the file where it was. */
+    private void move(Path file, StorageRecord from, StorageRecord to)
+        throws InterruptedException
+    {
+        try {
+            long size = from.client().size(file);
+            throttle(size);
+            if (!to.command().copy(file, from.client()))
+                return;
+            if (to.client().size(file) != size || from.client().size(file) != size) {
+                to.commands.delete(file).get();
+                return;
+            }
+            if (server.moveReplica(file, from, to)) {
+                if (to.bytes() > 0) {
+                    to.bytes += size;
+                    from.bytes -= size;
+                }
+                moved.add(new Move(file, from));
+            } else if (!server.replicaRecords(file).contains(to)) {
+                to.commands.delete(file).get();
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // the file changed or a server is unreachable; it stays in place
+        }
+    }
+
+    /** Waits until copying <code>size</code> more bytes keeps the rebalancer
+        within its bandwidth. */
+    private void throttle(long size) throws InterruptedException
+    {
+        long now = System.currentTimeMillis();
+        if (next_copy > now)
+            Thread.sleep(next_copy - now);
+        next_copy = Math.max(now, next_copy) + size * 1000 / bandwidth;
+    }
+
+    /** Deletes the source copies of files moved by the previous run, unless
+        the source server holds a replica again. */
+    private void deleteMoved()
+    {
+        List<Move> pending = moved;
+        moved = new ArrayList<>();
+        List<CommandQueue.Request> deletions = new ArrayList<>();
+        for (Move move : pending) {
+            try {
+                if (server.replicaRecords(move.file).contains(move.from))
+                    continue;
+            } catch (FileNotFoundException e) {
+                // deleted since; the copy is removed all the same
+            }
+            deletions.add(move.from.commands.delete(move.file));
+        }
+        for (CommandQueue.Request deletion : deletions) {
+            try {
+                deletion.get();
+            } catch (RMIException e) {
+                // the storage server is unreachable; the copy is left behind
+            }
+        }
+    }
+
+    /** File moved away from a server. */
+    private static class Move
+    {
+        final Path          file;
+        final StorageRecord from;
+
+        Move(Path file, StorageRecord from)
+        {
+            this.file = file;
+            this.from = from;
+        }
+    }
+}
@@ -3,15 +3,24 @@ package naming;
 import common.Path;
 import rmi.RMIException;
 import storage.Command;
+import storage.LoadReport;
 import storage.Storage;
 
 /** Naming server registration interface.
 
     <p>
-    This interface is used once, on startup, by each storage server.
+    This interface is used on startup by each storage server to register,
+    and then periodically to report that the server is alive.
  */
 public interface Registration
 {
+    /** Interval between heartbeats sent by a storage server, in
+        milliseconds. */
+    long HEARTBEAT_PERIOD = 1000;
+    /** Longest interval between a modification of a file on a storage server
+        and its report with <code>reportAttributes</code>, in milliseconds. */
+    long REPORT_PERIOD = 200;
+
     /** Registers a storage server with the naming server.
 
         <p>
@@ -22,6 +31,11 @@ public interface Registration
         to the storage server with a subset of these files that the storage
         server must delete from its local storage.
 
+        <p>
+        A storage server with many files may send only the first part of its
+        file list with this call, and the rest in chunks with
+        <code>registerFiles</code>.
+
         <p>
         After the storage server has deleted the files as commanded, it must
         prune its directory tree by removing all directories under which no
@@ -47,4 +61,100 @@ public interface Registration
                              error.
      */
     Path[] register(Storage client_stub, Command command_stub, Path[] files) throws RMIException;
+
+    /** Adds more of a registered storage server's files to the directory
+        tree.
+
+        <p>
+        Storage servers with many files call this method after
+        <code>register</code>, once for each further chunk of their file list,
+        so that neither side needs to hold the whole list at once. Each chunk
+        is merged into the directory tree exactly as the list given to
+        <code>register</code>, and the duplicate files are returned for the
+        storage server to delete.
+
+        @param command_stub Command stub the storage server registered with.
+        @param files A chunk of the list of files stored on the storage
+                     server.
+        @return A list of duplicate files to delete on the local storage of the
+                storage server.
+        @throws IllegalStateException If the storage server is not
+                                      registered.
+        @throws NullPointerException If any of the arguments is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Path[] registerFiles(Command command_stub, Path[] files) throws RMIException;
+
+    /** Reports that a registered storage server is alive.
+
+        <p>
+        Storage servers call this method every <code>HEARTBEAT_PERIOD</code>
+        milliseconds. The naming server considers a storage server that has
+        sent heartbeats and then missed several of them dead: it no longer
+        places new files on it or hands it out to clients, until the server
+        sends a heartbeat again. The report is used to place new files and to
+        choose among replicas.
+
+        @param command_stub Command stub the storage server registered with.
+        @param report Load and capacity of the storage server.
+        @throws IllegalStateException If the storage server is not
+                                      registered.
+        @throws NullPointerException If any of the arguments is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void heartbeat(Command command_stub, LoadReport report) throws RMIException;
+
+    /** Asks whether a file missing on a registered storage server has been
+        placed on it.
+
+        <p>
+        A naming server may defer the creation of new files on the storage
+        servers, and send the creations in batches later. A storage server
+        asked to write a file it does not have calls this method, and creates
+        the file if it returns <code>true</code>.
+
+        @param command_stub Command stub the storage server registered with.
+        @param file Path of the missing file.
+        @return <code>true</code> if the directory tree lists the file with a
+                replica on the storage server; <code>false</code> otherwise.
+        @throws IllegalStateException If the storage server is not
+                                      registered.
+        @throws NullPointerException If any of the arguments is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean placed(Command command_stub, Path file) throws RMIException;
+
+    /** Reports the length and modification time of files that changed on a
+        registered storage server.
+
+        <p>
+        Storage servers report the files they have created, written or copied
+        within <code>REPORT_PERIOD</code> milliseconds, in batches, and report
+        all their files once after registering. The naming server keeps the
+        attributes of each file and returns them from
+        <code>Service.stat</code>. Reports for files that the naming server
+        does not list on the reporting server are ignored, as are reports
+        older than the attributes already known.
+
+        @param command_stub Command stub the storage server registered with.
+        @param files Paths of the files.
+        @param sizes Length of each file in bytes.
+        @param modified Modification time of each file, in milliseconds since
+                        the epoch.
+        @throws IllegalArgumentException If the arrays differ in length.
+        @throws IllegalStateException If the storage server is not
+                                      registered.
+        @throws NullPointerException If any of the arguments is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void reportAttributes(Command command_stub, Path[] files, long[] sizes, long[] modified)
+        throws RMIException;
 }
@@ -13,6 +13,33 @@ import storage.Storage;
     <p>
     The term <em>object</em> in the documentation below refers to any filesystem
     object: either a file or a directory.
+
+    <p>
+    The lookup and creation operations also come in batched variants, named
+    after the single-path operation with a <code>Batch</code> suffix and
+    taking an array of paths. A batched call performs the operation on every path in
+    a single round trip to the naming server, and reports the outcome of each
+    path separately in a <code>BatchResult</code>: the value the single-path
+    call would have returned, or the exception it would have thrown.
+
+    <p>
+    When the namespace is sharded across several naming servers, each server
+    answers only the calls on the paths it owns according to its
+    <code>MountTable</code>, and throws <code>WrongShardException</code> for
+    the others. A batched call must then name only paths owned by the same
+    server. The stub returned by <code>NamingStubs.sharded</code> routes each
+    call to the right server.
+
+    <p>
+    A naming server may also be a read-only follower of another, see
+    <code>NamingServer.setFollowing</code>. A follower answers the lookup
+    calls and throws <code>IllegalStateException</code> for the others. The
+    stub returned by <code>NamingStubs.withFollowers</code> sends lookups to
+    followers and everything else to the primary.
+
+    <p>
+    Clients may cache lookups under leases granted by <code>lease</code>, see
+    <code>client.MetadataCache</code>.
  */
 public interface Service
 {
@@ -40,6 +67,97 @@ public interface Service
      */
     String[] list(Path directory) throws RMIException, FileNotFoundException;
 
+    /** Lists one page of the contents of a directory.
+
+        <p>
+        Entries are returned in sorted order, so that a directory can be read
+        page by page: the first page is requested with <code>startAfter</code>
+        set to <code>null</code>, and each following page with the last entry
+        of the previous one. Entries created or deleted between two calls may
+        or may not be listed. The cost of a call grows with the page size, not
+        with the size of the directory, which makes this method preferable to
+        <code>list(Path)</code> for large directories.
+
+        @param directory The directory to be listed.
+        @param startAfter The entry after which the page starts, or
+                          <code>null</code> for the first page. The entry
+                          need not exist.
+        @param limit The maximum number of entries to return.
+        @return The entries following <code>startAfter</code>, in sorted
+                order. Fewer than <code>limit</code> entries are returned only
+                when the end of the directory is reached.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    String[] list(Path directory, String startAfter, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists one page of the contents of a directory with their attributes.
+
+        <p>
+        This method pages through a directory exactly as
+        <code>list(Path, String, int)</code> does, but returns for each entry
+        whether it is a directory, and for files the length if known and the
+        storage server holding the file. Walking a tree or listing a directory
+        in detail then takes one call per page rather than several calls per
+        entry.
+
+        @param directory The directory to be listed.
+        @param startAfter The name after which the page starts, or
+                          <code>null</code> for the first page.
+        @param limit The maximum number of entries to return.
+        @return The entries named after <code>startAfter</code>, in name
+                order. Fewer than <code>limit</code> entries are returned only
+                when the end of the directory is reached.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    DirectoryEntry[] listEntries(Path directory, String startAfter, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Finds one page of the files and directories below a directory whose
+        paths match a glob.
+
+        <p>
+        The glob is matched against the path of each object relative to
+        <code>root</code>, as described in <code>common.Glob</code>: for
+        example, <code>**&#47;part-*.parquet</code> finds every
+        <code>part-</code> file with the <code>.parquet</code> extension at
+        any depth. The search runs in the naming server, so that it takes one
+        call per page rather than a call for each directory walked. Each page
+        starts after the last path of the previous page.
+
+        <p>
+        Objects below a mount point served by another naming server are not
+        searched.
+
+        @param root The directory to be searched.
+        @param glob The glob.
+        @param startAfter The path after which the page starts, or
+                          <code>null</code> for the first page. The path need
+                          not exist.
+        @param limit The maximum number of paths to return.
+        @return The matching paths following <code>startAfter</code>, in
+                sorted order. Fewer than <code>limit</code> paths are returned
+                only when the search is complete.
+        @throws FileNotFoundException If <code>root</code> does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If the glob is malformed or
+                                         <code>limit</code> is not positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Path[] find(Path root, String glob, Path startAfter, int limit)
+        throws RMIException, FileNotFoundException;
+
     /** Creates the given file, if it does not exist.
 
         @param file Path at which the file is to be created.
@@ -49,6 +167,8 @@ public interface Service
         @throws FileNotFoundException If the parent directory does not exist.
         @throws IllegalStateException If no storage servers are connected to the
                                       naming server.
+        @throws QuotaExceededException If the file would exceed the quota of a
+                                       directory above it.
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
@@ -61,6 +181,8 @@ public interface Service
                 <code>false</code> otherwise. The directory is not created if
                 a file or directory with the given name already exists.
         @throws FileNotFoundException If the parent directory does not exist.
+        @throws QuotaExceededException If the directory would exceed the quota
+                                       of a directory above it.
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
@@ -68,6 +190,12 @@ public interface Service
 
     /** Deletes a file or directory.
 
+        <p>
+        A directory is deleted together with everything below it. The object
+        disappears from the directory tree before the call returns, whatever
+        its size. The files are then deleted from the storage servers in the
+        background.
+
         @param path Path to the file or directory to be deleted.
         @return <code>true</code> if the file or directory is deleted;
                 <code>false</code> otherwise. The root directory cannot be
@@ -79,8 +207,45 @@ public interface Service
      */
     boolean delete(Path path) throws RMIException, FileNotFoundException;
 
+    /** Moves a file or directory to a new path.
+
+        <p>
+        The object keeps its contents, replicas and quotas: a directory is
+        moved with everything below it. The naming server relinks the object
+        in its directory tree in one step, whatever the size of the subtree,
+        and the storage servers rename their copies locally, so no data is
+        copied. The object is visible at its new path, and no longer at the
+        old one, when the call returns.
+
+        <p>
+        A storage server that cannot be contacted keeps its copies under the
+        old path. They are registered again at the old path when the server
+        restarts.
+
+        @param source Path to the object to be moved.
+        @param target New path of the object. Its parent directory must exist.
+        @return <code>true</code> if the object is moved; <code>false</code>
+                if an object already exists at <code>target</code>.
+        @throws FileNotFoundException If the object or the parent directory of
+                                      <code>target</code> does not exist.
+        @throws IllegalArgumentException If either path is the root,
+                                         <code>target</code> is below
+                                         <code>source</code>, or the move
+                                         would cross naming server shards.
+        @throws QuotaExceededException If the object would exceed the quota of
+                                       a directory above <code>target</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean rename(Path source, Path target)
+        throws RMIException, FileNotFoundException;
+
     /** Returns a stub for the storage server hosting a file.
 
+        <p>
+        If the file has several replicas, the naming server hands out the
+        replica on the least loaded storage server.
+
         @param file Path to the file.
         @return A stub for communicating with the storage server.
         @throws FileNotFoundException If the file does not exist.
@@ -88,4 +253,401 @@ public interface Service
                              error.
      */
     Storage getStorage(Path file) throws RMIException, FileNotFoundException;
+
+    /** Returns stubs for all storage servers holding a replica of a file.
+
+        <p>
+        Readers need only one replica, and should use <code>getStorage</code>.
+        Writers must apply each write to every replica returned by this
+        method, so that the replicas stay identical.
+
+        @param file Path to the file.
+        @return Stubs for the storage servers holding the file. The array is
+                not empty.
+        @throws FileNotFoundException If the file does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Storage[] getReplicas(Path file) throws RMIException, FileNotFoundException;
+
+    /** Returns the server number of the storage server hosting a file.
+
+        <p>
+        The replica is chosen as by <code>getStorage</code>. The stub for the
+        number is found in the table returned by <code>getStorageTable</code>,
+        which a client fetches once, so that each lookup carries a number
+        rather than a stub. Numbers are those of the naming server called, and
+        must be resolved with its own table.
+
+        @param file Path to the file.
+        @return The server number.
+        @throws FileNotFoundException If the file does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    int getStorageNumber(Path file) throws RMIException, FileNotFoundException;
+
+    /** Returns the storage servers known to the naming server, by server
+        number.
+
+        <p>
+        The table includes every number the naming server has assigned so
+        far. Numbers are never reassigned, so a client may keep the table and
+        fetch it again only when a lookup returns a number it does not have.
+
+        @return The table.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    StorageTable getStorageTable() throws RMIException;
+
+    /** Determines whether each of several paths refers to a directory.
+
+        @param paths The objects to be checked.
+        @return For each path, <code>true</code> if the object is a directory
+                and <code>false</code> if it is a file, or a
+                <code>FileNotFoundException</code> if it cannot be found.
+        @throws NullPointerException If <code>paths</code> or any of its
+                                     elements is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    BatchResult<Boolean> isDirectoryBatch(Path[] paths) throws RMIException;
+
+    /** Creates each of several files, if it does not exist.
+
+        <p>
+        The parent directory of each file must exist before the call.
+        Directories can be created in bulk with
+        <code>createDirectoryBatch</code>.
+
+        @param files Paths at which the files are to be created.
+        @return For each path, whether the file was created, or the exception
+                the single-path <code>createFile</code> would have thrown.
+        @throws NullPointerException If <code>files</code> or any of its
+                                     elements is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    BatchResult<Boolean> createFileBatch(Path[] files) throws RMIException;
+
+    /** Creates each of several directories, if it does not exist.
+
+        <p>
+        Directories are created parents first, so a batch may contain both a
+        directory and directories inside it.
+
+        @param directories Paths at which the directories are to be created.
+        @return For each path, whether the directory was created, or a
+                <code>FileNotFoundException</code> if its parent directory
+                does not exist, or a <code>QuotaExceededException</code>.
+        @throws NullPointerException If <code>directories</code> or any of its
+                                     elements is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    BatchResult<Boolean> createDirectoryBatch(Path[] directories) throws RMIException;
+
+    /** Returns the attributes of an object.
+
+        <p>
+        For a file, the attributes include the storage server to read it from,
+        so that a client can open a file with this one call instead of
+        <code>getStorage</code> followed by <code>Storage.size</code>. The
+        length is the one last reported by the storage servers, see
+        <code>FileStatus</code>.
+
+        @param path The object.
+        @return The attributes of the object.
+        @throws FileNotFoundException If the object does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    FileStatus stat(Path path) throws RMIException, FileNotFoundException;
+
+    /** Returns what a client needs to start reading or writing a file.
+
+        <p>
+        A client opening a file with this one call can send its first read or
+        write straight to a storage server. For <code>OpenFile.READ</code>,
+        the replica to read is chosen as by <code>getStorage</code>; for
+        <code>OpenFile.WRITE</code>, all replicas are returned. Opening a
+        directory is not an error: the result says that it is one.
+
+        @param path Path to the object.
+        @param mode <code>OpenFile.READ</code> or <code>OpenFile.WRITE</code>.
+        @return The storage servers, length and version of the file.
+        @throws FileNotFoundException If the object does not exist.
+        @throws IllegalArgumentException If the mode is not one of the above.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    OpenFile open(Path path, int mode) throws RMIException, FileNotFoundException;
+
+    /** Reports that a client has finished writing a file.
+
+        <p>
+        <code>DFSOutputStream.close</code> calls this before returning, so
+        that the length returned by <code>open</code> and <code>stat</code>
+        covers the data written as soon as the writer has closed the file,
+        rather than once the storage servers report it. The length of the
+        file becomes the larger of its known length and <code>end</code>, and
+        its version changes. A file whose length has not been reported yet
+        keeps an unknown length, and readers ask the storage server for it.
+
+        @param file The file written.
+        @param end Offset following the last byte written.
+        @throws FileNotFoundException If the file does not exist or the path
+                                      refers to a directory.
+        @throws IllegalArgumentException If <code>end</code> is negative.
+        @throws IllegalStateException If this naming server is a follower.
+        @throws NullPointerException If <code>file</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void written(Path file, long end) throws RMIException, FileNotFoundException;
+
+    /** Reports replicas of a file that a client failed to write.
+
+        <p>
+        <code>DFSOutputStream</code> calls this when a write reached some of
+        the replicas of a file but not the others. The replicas listed no
+        longer have the same contents as the others, so they are removed from
+        the file and deleted from their storage servers, and readers are no
+        longer sent to them. The last replica of a file is never removed.
+
+        @param file The file written.
+        @param replicas Client interface stubs of the storage servers the write
+                        failed on.
+        @throws FileNotFoundException If the file does not exist or the path
+                                      refers to a directory.
+        @throws IllegalStateException If this naming server is a follower.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void writeFailed(Path file, Storage[] replicas)
+        throws RMIException, FileNotFoundException;
+
+    /** Returns the number of objects and bytes below a directory.
+
+        <p>
+        The naming server keeps these numbers up to date for every directory,
+        so the call costs the same whatever the size of the subtree. For a
+        file, the usage is the file itself.
+
+        @param path The object.
+        @return The usage of the object, with the quotas of a directory.
+        @throws FileNotFoundException If the object does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Usage usage(Path path) throws RMIException, FileNotFoundException;
+
+    /** Sets or clears the quotas of a directory.
+
+        <p>
+        Once the number of files and directories below a directory would
+        exceed its object quota, or the total length of the files below it
+        has reached its byte quota, creating files and directories anywhere
+        below it fails with <code>QuotaExceededException</code>. File lengths
+        are reported after data is written, so writes to existing files are
+        not limited and the byte quota may be overrun by the files being
+        written when it is reached. A quota lower than the current usage is
+        accepted, and prevents further creation until objects are deleted.
+
+        @param directory The directory.
+        @param objects The object quota, or <code>Usage.UNLIMITED</code>.
+        @param bytes The byte quota, or <code>Usage.UNLIMITED</code>.
+        @throws FileNotFoundException If the path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If a quota is negative and not
+                                         <code>Usage.UNLIMITED</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void setQuota(Path directory, long objects, long bytes)
+        throws RMIException, FileNotFoundException;
+
+    /** Returns stubs for the storage servers hosting each of several files.
+
+        @param files Paths to the files.
+        @return For each path, a stub chosen as by <code>getStorage</code>, or
+                a <code>FileNotFoundException</code> if the file does not
+                exist.
+        @throws NullPointerException If <code>files</code> or any of its
+                                     elements is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    BatchResult<Storage> getStorageBatch(Path[] files) throws RMIException;
+
+    /** Returns the mount table of a sharded namespace.
+
+        @return The table of the naming servers sharing the namespace, or
+                <code>null</code> if this naming server holds the whole
+                namespace.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    MountTable getMountTable() throws RMIException;
+
+    /** Returns the mutations of the directory tree following a sequence
+        number.
+
+        <p>
+        This is the call through which follower naming servers keep their copy
+        of the tree up to date. A follower starts from sequence number zero,
+        applies the returned mutations in order, and asks again from their
+        <code>sequence</code>. If the mutations following <code>after</code>
+        are no longer retained, a snapshot of the whole tree is returned
+        instead.
+
+        @param after Sequence number of the last mutation already applied.
+        @param limit Maximum number of mutations returned, unless a snapshot
+                     is returned.
+        @return The mutations, fewer than <code>limit</code> once the caller is
+                caught up.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws IllegalStateException If this naming server is itself a
+                                      follower.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Mutations tail(long after, int limit) throws RMIException;
+
+    /** Looks up an object and grants a lease on the result.
+
+        <p>
+        The lease tells whether the object is a directory, and holds the
+        entries of a directory or the replicas of a file. The client may answer
+        <code>isDirectory</code>, <code>list</code>, <code>getStorage</code>
+        and <code>getReplicas</code> for the object from the lease until it
+        expires, or until the naming server revokes it through
+        <code>holder</code> because the object, the entries of a directory or
+        the attributes of a file were modified. The lease also holds the
+        attributes returned by <code>stat</code>.
+
+        @param path The object.
+        @param holder Stub through which the naming server revokes the lease.
+        @return The lease.
+        @throws FileNotFoundException If the object does not exist.
+        @throws IllegalStateException If this naming server is a follower.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    Lease lease(Path path, LeaseHolder holder) throws RMIException, FileNotFoundException;
+
+    /** Returns the path filter of the naming server, or the changes to it
+        since a version.
+
+        <p>
+        The filter is a <code>PathFilter</code> holding the path of every
+        file and directory in the tree, so that a client may answer a lookup
+        of a path the filter does not contain with
+        <code>FileNotFoundException</code> without calling the naming server.
+        The naming server adds each new path to its filter when the object is
+        created, and rebuilds the filter, starting a new generation, once
+        enough objects were created and deleted since it was built. A client
+        keeps the last update applied, and asks again with its generation and
+        version: if the generation is still current and the changes since
+        that version are retained, only the words of the filter changed since
+        are returned.
+
+        <p>
+        A filter obtained some time ago may not contain paths created since,
+        so a client answering lookups from it must refresh it often enough
+        for the staleness it can accept.
+
+        @param generation Generation of the client's filter, or a negative
+                          number if it has none.
+        @param version Version of the client's filter.
+        @return The whole filter, or the words changed since
+                <code>version</code>.
+        @throws IllegalStateException If this naming server is a follower,
+                                      or holds only a shard of the
+                                      namespace.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    PathFilterUpdate pathFilter(long generation, long version) throws RMIException;
+
+    /** Returns the paths looked up most often through this naming server
+        over a recent window.
+
+        <p>
+        The naming server counts the paths given to <code>isDirectory</code>,
+        <code>list</code>, <code>listEntries</code>, <code>getStorage</code>,
+        <code>getStorageNumber</code>, <code>open</code> and
+        <code>lease</code>, and to the batched lookups, whether or not they
+        exist; a paged listing is counted once, on its first page. Counts are
+        kept in a fixed-size sketch over buckets of a few seconds, so they are
+        estimates, never below the true counts, and the window is rounded to
+        whole buckets and limited to about ten minutes. Only lookups answered
+        by this server are counted: lookups sent to followers or other shards
+        are counted there.
+
+        @param window Milliseconds before the call over which lookups are
+                      counted.
+        @param limit Maximum number of paths returned.
+        @return The most looked up paths, most looked up first.
+        @throws IllegalArgumentException If <code>window</code> or
+                                         <code>limit</code> is not positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    HotPaths hotPaths(long window, int limit) throws RMIException;
+
+    /** Registers or renews a watch on the changes below a path.
+
+        <p>
+        Once registered, the naming server pushes the changes below
+        <code>prefix</code> to <code>watcher</code>, in order: creations of
+        files and directories, including files added by storage servers as
+        they register, changes to the replicas or attributes of files,
+        deletions, and moves into, out of or within the subtree, as well as
+        the deletion or move of <code>prefix</code> itself or of one of its
+        ancestors. Each change carries the sequence number of its mutation,
+        so that a client that lost its watch, because its watcher could not
+        be reached or the watch was not renewed within
+        <code>Watcher.TERM</code> milliseconds, resumes it by calling this
+        method with the sequence number of the last change it received. If
+        the naming server no longer retains the mutations following that
+        number, the first batch pushed is a reset. Calling this method for a
+        registered watch renews it, keeping its position.
+
+        <p>
+        The watched path need not exist. Changes are pushed by the naming
+        server holding <code>prefix</code>; subtrees mounted on other shards
+        must be watched there.
+
+        @param prefix Path below which changes are watched.
+        @param after Sequence number of the last change already received, or
+                     a negative number to watch the changes made from now on.
+        @param watcher Stub through which the changes are pushed.
+        @return The sequence number from which changes are pushed:
+                <code>after</code>, the current sequence number if
+                <code>after</code> is negative, or the position of the watch
+                if it was already registered.
+        @throws IllegalStateException If this naming server is a follower.
+        @throws NullPointerException If <code>prefix</code> or
+                                     <code>watcher</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    long watch(Path prefix, long after, Watcher watcher) throws RMIException;
+
+    /** Drops every watch registered through a watcher.
+
+        @param watcher Stub given to <code>watch</code>.
+        @throws NullPointerException If <code>watcher</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void unwatch(Watcher watcher) throws RMIException;
 }
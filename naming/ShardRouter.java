@@ -0,0 +1,203 @@
+package naming;
+
+import common.Path;
+import rmi.Stub;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Client-side router of <code>Service</code> calls to the shards of a
+    namespace.
+
+    <p>
+    The router fetches the <code>MountTable</code> from an entry naming server
+    on first use and caches it. Each call naming a path is sent to the shard
+    owning the path. A batched call is split into one call per owning shard,
+    and the results are merged back in the order of the batch. When a shard
+    answers with <code>WrongShardException</code>, because the cached table is
+    out of date, the router fetches the table again and resends the call, up
+    to <code>MAX_REDIRECTS</code> times. Calls are sent to the entry server
+    when the namespace is not sharded.
+
+    <p>
+    Routers are created by <code>NamingStubs.sharded</code>.
+ */
+class ShardRouter implements InvocationHandler
+{
+    /** Number of times a call is resent after a redirect. */
+    private static final int                                MAX_REDIRECTS = 3;
+
+    /** Address of the naming server the mount table is fetched from. */
+    private final InetSocketAddress                         entry;
+    /** Stubs for the shards, by address. */
+    private final Map<InetSocketAddress, Service>           stubs;
+    /** Cached mount table, <code>null</code> if the namespace is not sharded. */
+    private volatile MountTable                             table;
+    /** Indicates that the mount table has been fetched. */
+    private volatile boolean                                fetched;
+
+    /** Creates a router fetching the mount table from <code>entry</code>. */
+    private ShardRouter(InetSocketAddress entry)
+    {
+        this.entry = entry;
+        this.stubs = new ConcurrentHashMap<>();
+    }
+
+    /** Returns a <code>Service</code> implementation routing its calls to the
+        shards of the namespace of a naming server.
+
+        @param entry Address of the client service interface of any of the
+                     shards.
+     */
+    static Service create(InetSocketAddress entry)
+    {
+        return (Service)Proxy.newProxyInstance(Service.class.getClassLoader(),
+                                               new Class<?>[] {Service.class},
+                                               new ShardRouter(entry));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "ShardRouter[" + entry + "]";
+            }
+        }
+        if (method.getName().equals("getMountTable"))
+            return table();
+
+        Object target = args == null || args.length == 0 ? null : args[0];
+        if (target instanceof Path[] && table() != null)
+            return batch(method, args);
+
+        for (int redirects = 0; ; redirects++) {
+            try {
+                return call(owner(target), method, args);
+            } catch (WrongShardException e) {
+                if (redirects == MAX_REDIRECTS)
+                    throw e;
+                refresh();
+            }
+        }
+    }
+
+    /** Sends a batched call to the shards owning its paths and merges the
+        results.
+
+        @param method The batched method.
+        @param args Arguments of the call, the paths first.
+        @return The merged <code>BatchResult</code>.
+     */
+    @SuppressWarnings("unchecked")
+    private Object batch(Method method, Object[] args) throws Throwable
+    {
+        Path[] paths = (Path[])args[0];
+        for (Path path : paths) {
+            if (path == null)
+                return call(entry, method, args);
+        }
+
+        BatchResult<Serializable> result = new BatchResult<>(paths.length);
+        List<Integer> pending = new ArrayList<>(paths.length);
+        for (int i = 0; i < paths.length; i++)
+            pending.add(i);
+        for (int redirects = 0; ; redirects++) {
+            Map<InetSocketAddress, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i : pending)
+                groups.computeIfAbsent(owner(paths[i]), shard -> new ArrayList<>()).add(i);
+
+            List<Integer> redirected = new ArrayList<>();
+            WrongShardException redirect = null;
+            for (Map.Entry<InetSocketAddress, List<Integer>> group : groups.entrySet()) {
+                List<Integer> indices = group.getValue();
+                Path[] part = new Path[indices.size()];
+                for (int j = 0; j < part.length; j++)
+                    part[j] = paths[indices.get(j)];
+                Object[] partArgs = args.clone();
+                partArgs[0] = part;
+                try {
+                    BatchResult<Serializable> partResult =
+                        (BatchResult<Serializable>)call(group.getKey(), method, partArgs);
+                    for (int j = 0; j < part.length; j++) {
+                        if (partResult.succeeded(j))
+                            result.set(indices.get(j), partResult.value(j));
+                        else
+                            result.fail(indices.get(j), partResult.error(j));
+                    }
+                } catch (WrongShardException e) {
+                    redirect = e;
+                    redirected.addAll(indices);
+                }
+            }
+            if (redirect == null)
+                return result;
+            if (redirects == MAX_REDIRECTS)
+                throw redirect;
+            refresh();
+            pending = redirected;
+        }
+    }
+
+    /** Returns the address of the shard owning the path a call names, or of
+        the entry server if the call names no path or the namespace is not
+        sharded. */
+    private InetSocketAddress owner(Object target) throws Throwable
+    {
+        MountTable table = table();
+        if (table == null || !(target instanceof Path))
+            return entry;
+        InetSocketAddress owner = table.owner((Path)target);
+        return owner == null ? entry : owner;
+    }
+
+    /** Returns the cached mount table, fetching it on first use. */
+    private MountTable table() throws Throwable
+    {
+        if (!fetched)
+            refresh();
+        return table;
+    }
+
+    /** Fetches the mount table from the entry server. */
+    private synchronized void refresh() throws Throwable
+    {
+        table = (MountTable)call(entry, Service.class.getMethod("getMountTable"), null);
+        fetched = true;
+    }
+
+    /** Invokes a method on the stub for a shard.
+
+        @param shard Address of the shard.
+        @param method Method invoked.
+        @param args Arguments of the call.
+        @return The value returned by the shard.
+        @throws Throwable The exception thrown by the shard or the stub.
+     */
+    private Object call(InetSocketAddress shard, Method method, Object[] args)
+        throws Throwable
+    {
+        Service stub = stubs.computeIfAbsent(shard,
+            address -> Stub.create(Service.class, address));
+        try {
+            return method.invoke(stub, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package naming;
+
+import storage.Command;
+import storage.LoadReport;
+import storage.Storage;
+
+import common.Path;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Naming server record of a registered storage server.
+
+    <p>
+    The record carries the stubs given at registration together with the usage
+    figures that placement policies base their decisions on. Figures are
+    maintained by the naming server from its own bookkeeping and from the
+    reports sent with the storage server's heartbeats; policies should treat
+    records as read-only.
+ */
+public class StorageRecord
+{
+    /** Storage server client interface stub. */
+    private final Storage       client_stub;
+    /** Storage server command interface stub. */
+    private final Command       command_stub;
+    /** Server number of the storage server in the directory tree. */
+    private final int           id;
+    /** Coalesces the create and delete commands sent to the server. */
+    final CommandQueue          commands;
+    /** Number of files hosted, as known to the naming server. */
+    volatile int                files;
+    /** Bytes stored, as last reported by the storage server. Zero until the
+        server reports its usage. */
+    volatile long               bytes;
+    /** Requests from the naming server that are in progress on the
+        server. */
+    final AtomicInteger         in_flight = new AtomicInteger();
+    /** Files placed on the server whose creation the server has not
+        answered yet, when the naming server defers creations. */
+    final Set<Path>             pending = ConcurrentHashMap.newKeySet();
+    /** Paths with a batch creation or a deletion in flight on the server,
+        which other creations and deletions of the same paths wait for.
+        Guarded by itself. */
+    final Set<Path>             busy = new HashSet<>();
+    /** Last load report received, or <code>null</code> if the server has not
+        sent a heartbeat. */
+    volatile LoadReport         report;
+    /** Time the last heartbeat was received, in milliseconds. */
+    volatile long               heartbeat;
+    /** Indicates that the server missed too many heartbeats. */
+    volatile boolean            dead;
+
+    StorageRecord(Storage client_stub, Command command_stub, int id,
+                  Executor executor)
+    {
+        this.client_stub = client_stub;
+        this.command_stub = command_stub;
+        this.id = id;
+        this.commands = new CommandQueue(command_stub, executor);
+    }
+
+    /** Returns the storage server client interface stub. */
+    public Storage client()
+    {
+        return client_stub;
+    }
+
+    /** Returns the storage server command interface stub. */
+    public Command command()
+    {
+        return command_stub;
+    }
+
+    /** Returns the server number of the storage server in the directory
+        tree. */
+    public int id()
+    {
+        return id;
+    }
+
+    /** Returns the number of files hosted by the storage server. */
+    public int files()
+    {
+        return files;
+    }
+
+    /** Returns the number of bytes stored on the storage server, or zero if
+        the server has not reported its usage. */
+    public long bytes()
+    {
+        return bytes;
+    }
+
+    /** Returns the live load on the storage server: the number of requests
+        known to be in progress on it. These are the naming server's own
+        requests, and the client requests reported in the last heartbeat. */
+    public int load()
+    {
+        LoadReport last = report;
+        return in_flight.get() + (last == null ? 0 : last.inFlight());
+    }
+
+    /** Returns the usable disk space left on the storage server, or
+        <code>Long.MAX_VALUE</code> if the server has not reported it. */
+    public long free()
+    {
+        LoadReport last = report;
+        return last == null ? Long.MAX_VALUE : last.free();
+    }
+
+    /** Returns the mean latency of client requests on the storage server, in
+        microseconds, as last reported, or zero if unknown. */
+    public long latency()
+    {
+        LoadReport last = report;
+        return last == null ? 0 : last.latency();
+    }
+
+    /** Indicates whether the storage server is considered alive. Servers that
+        have never sent a heartbeat are assumed to be alive. */
+    public boolean isLive()
+    {
+        return !dead;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StorageRecord{" +
+                "id=" + id +
+                ", files=" + files +
+                ", bytes=" + bytes +
+                ", load=" + load() +
+                ", live=" + isLive() +
+                ", client=" + client_stub +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+package naming;
+
+import storage.Storage;
+
+import java.io.Serializable;
+
+/** Storage servers known to a naming server, by server number.
+
+    <p>
+    The naming server gives each storage server a small server number when it
+    first learns of it, and keeps the number for as long as it runs. Lookups
+    such as <code>Service.getStorageNumber</code> and
+    <code>Service.listEntries</code> return server numbers rather than stubs,
+    so that a client fetches the stub of each storage server once, with
+    <code>Service.getStorageTable</code>, and fetches the table again only
+    when it meets a number the table does not have yet.
+ */
+public class StorageTable implements Serializable
+{
+    /** Client interface stubs, indexed by server number. */
+    private final Storage[]     servers;
+
+    /** Creates a table.
+
+        @param servers Client interface stubs, indexed by server number.
+     */
+    StorageTable(Storage[] servers)
+    {
+        this.servers = servers;
+    }
+
+    /** Returns the number of server numbers assigned when the table was
+        made. Numbers run from zero to one less than this. */
+    public int size()
+    {
+        return servers.length;
+    }
+
+    /** Returns the client interface stub of a storage server.
+
+        @param server Server number.
+        @return The stub, or <code>null</code> if the number was not assigned
+                when the table was made.
+     */
+    public Storage get(int server)
+    {
+        return server >= 0 && server < servers.length ? servers[server] : null;
+    }
+}
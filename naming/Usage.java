@@ -0,0 +1,85 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Space used below a directory, returned by <code>Service.usage</code>.
+
+    <p>
+    The naming server keeps these numbers for every directory and updates
+    them as objects are created and deleted and as file lengths are reported,
+    so that they are read without walking the subtree. The number of bytes is
+    the total length of the files, counted once whatever their number of
+    replicas; lengths not yet reported by the storage servers count as zero.
+    Objects below a mount point served by another naming server are not
+    counted.
+ */
+public class Usage implements Serializable
+{
+    /** Value of a quota that does not limit usage. */
+    public static final long    UNLIMITED = -1;
+
+    /** Number of files below the directory. */
+    private final long          files;
+    /** Number of directories below the directory. */
+    private final long          directories;
+    /** Total length of the files below the directory. */
+    private final long          bytes;
+    /** Largest number of files and directories below the directory. */
+    private final long          objectQuota;
+    /** Largest total length of the files below the directory. */
+    private final long          byteQuota;
+
+    /** Creates the usage of an object.
+
+        @param files Number of files below the directory, or 1 for a file.
+        @param directories Number of directories below the directory.
+        @param bytes Total length of the files, or the length of a file.
+        @param objectQuota Object quota of the directory, or
+                           <code>UNLIMITED</code>.
+        @param byteQuota Byte quota of the directory, or
+                         <code>UNLIMITED</code>.
+     */
+    Usage(long files, long directories, long bytes, long objectQuota,
+          long byteQuota)
+    {
+        this.files = files;
+        this.directories = directories;
+        this.bytes = bytes;
+        this.objectQuota = objectQuota;
+        this.byteQuota = byteQuota;
+    }
+
+    /** Returns the number of files below the directory, or 1 for a file. */
+    public long files()
+    {
+        return files;
+    }
+
+    /** Returns the number of directories below the directory, not counting
+        the directory itself. */
+    public long directories()
+    {
+        return directories;
+    }
+
+    /** Returns the total length in bytes of the files below the directory,
+        or the length of a file. */
+    public long bytes()
+    {
+        return bytes;
+    }
+
+    /** Returns the largest number of files and directories the directory may
+        hold at any depth, or <code>UNLIMITED</code>. */
+    public long objectQuota()
+    {
+        return objectQuota;
+    }
+
+    /** Returns the total length of files beyond which no more objects may be
+        created below the directory, or <code>UNLIMITED</code>. */
+    public long byteQuota()
+    {
+        return byteQuota;
+    }
+}
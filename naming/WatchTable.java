@@ -0,0 +1,182 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/** Watches registered with a naming server, and the delivery of their
+    changes.
+
+    <p>
+    Each watch remembers the sequence number of the last mutation delivered
+    to its watcher. When poked, the table starts a delivery on the executor
+    for each watch not already being delivered to. A delivery reads the
+    mutations following that sequence number from the naming server's
+    mutation log, up to <code>BATCH</code> at a time, keeps those concerning
+    the watched path, pushes them to the watcher, and repeats until the watch
+    has caught up with the log. Mutations concerning no watched path advance
+    the watch without a call. A watch whose watcher cannot be reached is
+    dropped, as is a watch not renewed within <code>Watcher.TERM</code>
+    milliseconds.
+
+    <p>
+    The table is synchronized on itself, and never calls out or takes the
+    tree lock while holding its lock.
+ */
+class WatchTable
+{
+    /** Maximum number of mutations read from the log per delivery call. */
+    static final int                            BATCH = 4096;
+
+    /** Naming server whose log is delivered. */
+    private final NamingServer                  server;
+    /** Runs the deliveries. */
+    private final Executor                      executor;
+    /** Watches by watcher and watched path. */
+    private final Map<Watcher, Map<Path, Watch>> watches;
+
+    WatchTable(NamingServer server, Executor executor)
+    {
+        this.server = server;
+        this.executor = executor;
+        this.watches = new HashMap<>();
+    }
+
+    /** Registers or renews a watch.
+
+        @param prefix The watched path.
+        @param after Sequence number of the last mutation already seen by
+                     the watcher.
+        @param watcher The watcher.
+        @param now Current time.
+        @return The sequence number of the last mutation delivered: that of
+                the existing watch if there is one, and otherwise
+                <code>after</code>.
+     */
+    long watch(Path prefix, long after, Watcher watcher, long now)
+    {
+        long delivered;
+        synchronized (this) {
+            Watch watch = watches.computeIfAbsent(watcher, key -> new HashMap<>())
+                    .computeIfAbsent(prefix, key -> new Watch(watcher, prefix, after));
+            watch.expiry = now + Watcher.TERM;
+            delivered = watch.delivered;
+        }
+        poke();
+        return delivered;
+    }
+
+    /** Drops every watch of a watcher. */
+    synchronized void unwatch(Watcher watcher)
+    {
+        Map<Path, Watch> dropped = watches.remove(watcher);
+        if (dropped != null) {
+            for (Watch watch : dropped.values())
+                watch.dropped = true;
+        }
+    }
+
+    /** Drops expired watches and starts a delivery for every other watch not
+        already being delivered to. */
+    void poke()
+    {
+        List<Watch> started = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map<Path, Watch> prefixes : watches.values()) {
+                Iterator<Watch> iterator = prefixes.values().iterator();
+                while (iterator.hasNext()) {
+                    Watch watch = iterator.next();
+                    if (watch.expiry <= now) {
+                        watch.dropped = true;
+                        iterator.remove();
+                    } else if (!watch.busy) {
+                        watch.busy = true;
+                        started.add(watch);
+                    }
+                }
+            }
+            watches.values().removeIf(Map::isEmpty);
+        }
+        for (Watch watch : started)
+            executor.execute(() -> deliver(watch));
+    }
+
+    /** Delivers the changes of a watch until it has caught up with the
+        log. */
+    private void deliver(Watch watch)
+    {
+        while (true) {
+            Changes changes;
+            while (!watch.dropped && (changes = server.changes(watch.prefix, watch.delivered)) != null) {
+                if (changes.size() > 0 || changes.isReset()) {
+                    try {
+                        watch.watcher.changed(watch.prefix, changes);
+                    } catch (RMIException | RuntimeException e) {
+                        drop(watch);
+                        return;
+                    }
+                }
+                watch.delivered = changes.sequence();
+            }
+            synchronized (this) {
+                watch.busy = false;
+            }
+            // a mutation logged before the watch was marked idle did not
+            // start a delivery
+            if (watch.dropped || server.sequence() == watch.delivered)
+                return;
+            synchronized (this) {
+                if (watch.busy)
+                    return;
+                watch.busy = true;
+            }
+        }
+    }
+
+    /** Drops a watch whose watcher could not be reached. */
+    private synchronized void drop(Watch watch)
+    {
+        watch.dropped = true;
+        watch.busy = false;
+        Map<Path, Watch> prefixes = watches.get(watch.watcher);
+        if (prefixes != null && prefixes.get(watch.prefix) == watch) {
+            prefixes.remove(watch.prefix);
+            if (prefixes.isEmpty())
+                watches.remove(watch.watcher);
+        }
+    }
+
+    /** Watch of one path by one watcher. */
+    private static class Watch
+    {
+        /** The watcher. */
+        final Watcher           watcher;
+        /** The watched path. */
+        final Path              prefix;
+        /** Sequence number of the last mutation delivered. Written only by
+            the delivery in progress. */
+        volatile long           delivered;
+        /** Time at which the watch expires unless renewed. Guarded by the
+            table. */
+        long                    expiry;
+        /** Indicates that a delivery is in progress. Guarded by the
+            table. */
+        boolean                 busy;
+        /** Indicates that the watch was dropped. */
+        volatile boolean        dropped;
+
+        Watch(Watcher watcher, Path prefix, long delivered)
+        {
+            this.watcher = watcher;
+            this.prefix = prefix;
+            this.delivered = delivered;
+        }
+    }
+}
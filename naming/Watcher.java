@@ -0,0 +1,33 @@
+package naming;
+
+import common.Path;
+import rmi.RMIException;
+
+/** Client interface through which the naming server pushes the changes
+    below a watched path.
+
+    <p>
+    A client watching a path exports this interface and registers a stub for
+    it with <code>Service.watch</code>. The naming server then calls
+    <code>changed</code> with the changes below the path, in the order of the
+    mutations of its tree, one call at a time per watch. If a call fails, the
+    naming server drops the watch; the client resumes it by calling
+    <code>Service.watch</code> again with the sequence number of the last
+    change it received. A watch that is not renewed within <code>TERM</code>
+    milliseconds is dropped as well.
+ */
+public interface Watcher
+{
+    /** Milliseconds within which a watch must be renewed. */
+    long TERM = 30000;
+
+    /** Delivers changes below a watched path.
+
+        @param prefix The watched path.
+        @param changes The changes, following the last changes delivered for
+                       the same watch.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    void changed(Path prefix, Changes changes) throws RMIException;
+}
@@ -0,0 +1,44 @@
+package naming;
+
+import java.net.InetSocketAddress;
+
+/** Thrown by a naming server shard when a call names a path owned by another
+    shard.
+
+    <p>
+    The exception carries the address of the owning shard and the version of
+    the mount table the shard holds. A client that receives it should refresh
+    its cached <code>MountTable</code> and send the call to the owner.
+ */
+public class WrongShardException extends RuntimeException
+{
+    /** Address of the client service interface of the owning shard. */
+    private final InetSocketAddress     owner;
+    /** Version of the mount table of the shard that threw the exception. */
+    private final long                  version;
+
+    /** Creates the exception.
+
+        @param owner Address of the shard owning the path.
+        @param version Version of the mount table of the throwing shard.
+     */
+    WrongShardException(InetSocketAddress owner, long version)
+    {
+        super("path is owned by the naming server at " + owner);
+        this.owner = owner;
+        this.version = version;
+    }
+
+    /** Returns the address of the shard owning the path. */
+    public InetSocketAddress owner()
+    {
+        return owner;
+    }
+
+    /** Returns the version of the mount table of the shard that threw the
+        exception. */
+    public long version()
+    {
+        return version;
+    }
+}
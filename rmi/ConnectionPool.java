@@ -0,0 +1,184 @@
+package rmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Idle connections from stubs to skeletons.
+
+ <p>
+ A connection serves one call at a time, and is kept after the call so that
+ the next call to the same address, from any stub in the process, is sent
+ without opening a new connection. At most <code>MAX_IDLE</code> connections
+ are kept per address, for at most <code>IDLE_TIMEOUT</code> milliseconds.
+ Skeletons close connections left idle for longer than
+ <code>SKELETON_IDLE_TIMEOUT</code>, which is well above
+ <code>IDLE_TIMEOUT</code>, and close all idle connections when they stop.
+
+ <p>
+ A skeleton closing a connection without serving a call sends
+ <code>Closing</code> first, in place of the next result. A stub taking an
+ idle connection discards it if <code>Closing</code> has already arrived, and
+ a stub reading <code>Closing</code> after sending a call knows that the call
+ was not run, so it may send it again. Any other failure may happen after the
+ call was run, and is not retried.
+ */
+class ConnectionPool {
+    /** Maximum number of idle connections kept per address. */
+    static final int MAX_IDLE = 16;
+    /** Milliseconds an idle connection is kept by the stubs. */
+    static final long IDLE_TIMEOUT = 10000;
+    /** Milliseconds a skeleton waits for the next call on a connection. */
+    static final int SKELETON_IDLE_TIMEOUT = 60000;
+
+    /** idle connections by address, most recently used last */
+    private static final Map<InetSocketAddress, Deque<Connection>> idle = new HashMap<>();
+
+    private ConnectionPool() {
+    }
+
+    /** take an idle connection to an address
+     *
+     * @param address address of the skeleton
+     * @return the most recently used connection, or null if none is idle
+     */
+    static Connection take(InetSocketAddress address) {
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            Deque<Connection> connections = idle.get(address);
+            while (connections != null && !connections.isEmpty()) {
+                Connection connection = connections.pollLast();
+                if (now - connection.idleSince < IDLE_TIMEOUT && !connection.closing())
+                    return connection;
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    /** return a connection after a completed call, closing it if enough
+     *  connections to its address are idle */
+    static void give(Connection connection) {
+        connection.idleSince = System.currentTimeMillis();
+        synchronized (idle) {
+            Deque<Connection> connections = idle.computeIfAbsent(connection.address, a -> new ArrayDeque<>());
+            if (connections.size() < MAX_IDLE) {
+                connections.addLast(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /** open a new connection
+     *
+     * @param address address of the skeleton
+     * @return the connection
+     * @throws IOException if the skeleton can not be reached
+     */
+    static Connection open(InetSocketAddress address) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.flush();
+            BufferedInputStream buffered = new BufferedInputStream(socket.getInputStream());
+            ObjectInputStream input = new ObjectInputStream(buffered);
+            return new Connection(address, socket, output, buffered, input);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** sent by a skeleton in place of a result when it closes a connection
+     *  without serving the call */
+    static final class Closing implements Serializable {
+    }
+
+    /** thrown when a skeleton closed a connection without running the call
+     *  sent over it, which may then be sent again */
+    static class Unsent extends IOException {
+        Unsent() {
+            super("connection closed by the skeleton");
+        }
+    }
+
+    /** connection from a stub to a skeleton */
+    static class Connection {
+        final InetSocketAddress address;
+        final Socket socket;
+        final ObjectOutputStream output;
+        /** the stream under input, to find bytes sent while idle */
+        final BufferedInputStream buffered;
+        final ObjectInputStream input;
+        /** time the connection was last returned to the pool */
+        long idleSince;
+
+        Connection(InetSocketAddress address, Socket socket, ObjectOutputStream output,
+                   BufferedInputStream buffered, ObjectInputStream input) {
+            this.address = address;
+            this.socket = socket;
+            this.output = output;
+            this.buffered = buffered;
+            this.input = input;
+        }
+
+        /** whether the skeleton sent something while the connection was
+         *  idle, which can only be <code>Closing</code> */
+        boolean closing() {
+            try {
+                return this.buffered.available() > 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /** send a call and read its result
+         *
+         * <p>The connection is returned to the pool once the result is read,
+         * and closed if the exchange fails.
+         *
+         * @param request the call
+         * @return the object sent back by the skeleton
+         * @throws Unsent if the skeleton closed the connection without
+         *                running the call
+         */
+        Object exchange(Object request) throws IOException, ClassNotFoundException {
+            boolean done = false;
+            try {
+                this.output.writeObject(request);
+                this.output.reset();
+                this.output.flush();
+                Object result = this.input.readObject();
+                if (result instanceof Closing)
+                    throw new Unsent();
+                done = true;
+                return result;
+            } finally {
+                if (done)
+                    give(this);
+                else
+                    this.close();
+            }
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
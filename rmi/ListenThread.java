@@ -2,6 +2,8 @@ package rmi;
 
 import common.Info;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -9,12 +11,25 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** RMI Skeleton's Listening Thread
 
  <p>
  Upon receiving a client request, this thread creates multiple
  client threads to communicate with the client stubs.
+
+ <p>
+ A client thread serves the calls sent over its connection one after the
+ other, so that stubs can keep connections open between calls. It closes the
+ connection when the stub does, when no call arrives for
+ <code>ConnectionPool.SKELETON_IDLE_TIMEOUT</code> milliseconds, or when the
+ skeleton stops: at once if the connection is idle, or after the call in
+ progress otherwise. A connection closed without serving a call is sent
+ <code>ConnectionPool.Closing</code> first, so that the stub knows the call it
+ may have sent was not run.
  */
 public class ListenThread<T> implements Runnable {
     private Class<T> tClass;
@@ -22,6 +37,8 @@ public class ListenThread<T> implements Runnable {
     private Skeleton<T> skeleton;
     private ServerSocket serverSocket;      // the socket waiting for client request
     private volatile boolean isCancelled;   // make the flag volatile to ensure thread safety
+    /** connections being served */
+    private final Set<ClientThread> connections = ConcurrentHashMap.newKeySet();
 
     public ListenThread(Class<T> tClass, T server, Skeleton<T> skeleton, ServerSocket serverSocket)
     {
@@ -42,11 +59,12 @@ public class ListenThread<T> implements Runnable {
         try {
             while (!isCancelled) {
                 Socket clientSocket = serverSocket.accept();
-                new Thread(new ClientThread(clientSocket)).start();
+                ClientThread connection = new ClientThread(clientSocket);
+                connections.add(connection);
+                new Thread(connection).start();
             }
         }
         catch (IOException ioe) {
-//             ioe.printStackTrace();
             cancel();
         }
     }
@@ -65,12 +83,22 @@ public class ListenThread<T> implements Runnable {
                 ioe.printStackTrace();
             }
 
+        for (ClientThread connection : connections)
+            connection.closeIfIdle();
     }
 
     private class ClientThread implements Runnable
     {
         /**The socket to communicate with client stubs*/
         private Socket clientSocket;
+        /** guards busy and closed */
+        private final Object state = new Object();
+        /** whether a call is being served */
+        private boolean busy;
+        /** whether the connection was closed by the skeleton */
+        private boolean closed;
+        /** stream to the stub, once its header is sent */
+        private ObjectOutputStream output;
 
         public ClientThread(Socket clientSocket)
         {
@@ -80,38 +108,105 @@ public class ListenThread<T> implements Runnable {
             this.clientSocket = clientSocket;
         }
 
+        /** close the connection unless a call is being served, telling the
+         *  stub that no call sent from now on will be run */
+        void closeIfIdle()
+        {
+            synchronized (state) {
+                if (busy || closed)
+                    return;
+                closed = true;
+                if (output != null) {
+                    try {
+                        output.writeObject(new ConnectionPool.Closing());
+                        output.flush();
+                    }
+                    catch (IOException ioe) {
+                        // closed by the stub
+                    }
+                }
+            }
+            try {
+                clientSocket.close();
+            }
+            catch (IOException ioe) {
+                // already closed
+            }
+        }
+
         @Override
-        public synchronized void run()
+        public void run()
         {
             ObjectInputStream input = null;
-            ObjectOutputStream output = null;
             Object resultObj;
 
             try {
                 if (clientSocket == null || clientSocket.isClosed())
                     return;
 
-                input = new ObjectInputStream(clientSocket.getInputStream());
-                output = new ObjectOutputStream(clientSocket.getOutputStream());
-                output.flush();
-                Info info = (Info) input.readObject();
+                clientSocket.setTcpNoDelay(true);
+                input = new ObjectInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+                synchronized (state) {
+                    if (closed)
+                        return;
+                    output = new ObjectOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+                    output.flush();
+                }
 
-                try {
-                    Class<?>[] argsTypes = info.getArgsTypes();
-                    Method invokedMethod = tClass.getMethod(info.getMethodName(), argsTypes);
-                    Object[] args = info.getArgs();
-                    if (args.length == 1 && args[0] == null) {
-                        args[0] = argsTypes[0].cast(null);
+                for (int served = 0; !isCancelled; served++) {
+                    Info info;
+                    if (served > 0)
+                        clientSocket.setSoTimeout(ConnectionPool.SKELETON_IDLE_TIMEOUT);
+                    try {
+                        info = (Info) input.readObject();
+                    }
+                    catch (SocketTimeoutException e) {
+                        closeIfIdle();
+                        return;
+                    }
+                    catch (IOException e) {
+                        // the stub may close a connection between calls, and
+                        // the skeleton may close it when it stops
+                        synchronized (state) {
+                            if (served > 0 || closed)
+                                return;
+                        }
+                        throw e;
+                    }
+
+                    synchronized (state) {
+                        if (closed)
+                            return;
+                        busy = true;
+                    }
+
+                    try {
+                        Class<?>[] argsTypes = info.getArgsTypes();
+                        Method invokedMethod = tClass.getMethod(info.getMethodName(), argsTypes);
+                        Object[] args = info.getArgs();
+                        if (args != null && args.length == 1 && args[0] == null) {
+                            args[0] = argsTypes[0].cast(null);
+                        }
+                        resultObj = invokedMethod.invoke(server, args);
+                    }
+                    catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
+                            NullPointerException | SecurityException | IllegalArgumentException e) {
+                        /** Transmit remote exceptions back to the client*/
+                        resultObj = e;
                     }
-                    resultObj = invokedMethod.invoke(server, args);
-                }
-                catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
-                        NullPointerException | SecurityException | IllegalArgumentException e) {
-                    /** Transmit remote exceptions back to the client*/
-                    resultObj = e;
-                }
 
-                output.writeObject(resultObj);
+                    // reset first, so that nothing follows the result that
+                    // the stub could take for Closing
+                    output.reset();
+                    output.writeObject(resultObj);
+                    output.flush();
+
+                    synchronized (state) {
+                        busy = false;
+                    }
+                }
+                // stopped while a call was being served
+                closeIfIdle();
             }
             /** This exception is caused by readObject()*/
             catch (ClassNotFoundException | IOException e) {
@@ -119,20 +214,21 @@ public class ListenThread<T> implements Runnable {
 
                 try {
                     /** Transmit exceptions back to the client*/
-                    output = new ObjectOutputStream(clientSocket.getOutputStream());
-                    output.writeObject(e);
+                    ObjectOutputStream error = new ObjectOutputStream(clientSocket.getOutputStream());
+                    error.writeObject(e);
                 }
                 catch (IOException ioe) {
-//                     ioe.printStackTrace();
+                    // closed by the stub
                 }
             } finally {
+                connections.remove(this);
                 try {
                     if (input != null) input.close();
                     if (output != null) output.close();
                     if (clientSocket != null) clientSocket.close();
                 }
                 catch (IOException ioe) {
-//                     ioe.printStackTrace();
+                    // already closed
                 }
             }
         }
@@ -7,7 +7,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.Arrays;
 import static java.lang.reflect.Proxy.isProxyClass;
 
@@ -63,19 +62,9 @@ public class ProxyHandler<T> implements InvocationHandler, Serializable {
 
     public Object run(Method method, Object[] args) throws Throwable {
         Object result;
-        ObjectInputStream inputStream = null;
-        ObjectOutputStream outputStream = null;
-        Socket socket = null;
         try {
-
-            socket = new Socket();
-            socket.connect(this.sockAddr);
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            outputStream.flush();
-            inputStream = new ObjectInputStream(socket.getInputStream());
             Info info = new Info(method.getName(), args, method.getParameterTypes());
-            outputStream.writeObject(info);
-            Object resultObj = inputStream.readObject();
+            Object resultObj = this.call(info);
             if (resultObj instanceof InvocationTargetException
                     || resultObj instanceof ClassNotFoundException || resultObj instanceof IllegalAccessException
                     || resultObj instanceof IllegalArgumentException || resultObj instanceof SecurityException)
@@ -90,16 +79,29 @@ public class ProxyHandler<T> implements InvocationHandler, Serializable {
                 throw new RMIException(e.getMessage());
             else
                 throw e;
-        } finally {
+        }
+        return result;
+    }
+
+    /** send a call over a pooled connection, or a new one
+     *
+     * <p>If the skeleton closed a pooled connection without running the
+     * call, the call is sent again over a new connection. Any other failure
+     * may happen after the call was run, and is passed on.
+     *
+     * @param info the call
+     * @return the object sent back by the skeleton
+     */
+    private Object call(Info info) throws IOException, ClassNotFoundException {
+        ConnectionPool.Connection connection = ConnectionPool.take(this.sockAddr);
+        if (connection != null) {
             try {
-                if (inputStream != null) inputStream.close();
-                if (outputStream != null) outputStream.close();
-                if (socket != null) socket.close();
-            } catch (IOException ioe) {
-                 ioe.printStackTrace();
+                return connection.exchange(info);
+            } catch (ConnectionPool.Unsent e) {
+                // closed by the skeleton before the call was run
             }
         }
-        return result;
+        return ConnectionPool.open(this.sockAddr).exchange(info);
     }
 }
 
@@ -70,5 +70,11 @@
     client. To avoid this, the RMI library allows the client to create an
     initial stub by directly providing a network address to a version of
     <code>create</code>.
+
+    <p>
+    Stubs keep the connection of each call open once the call completes, and
+    later calls from any stub to the same address reuse it, so that a call
+    costs a connection only when the calls to an address overlap. Skeletons
+    serve successive calls over each connection.
  */
 package rmi;
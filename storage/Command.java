@@ -3,6 +3,8 @@ package storage;
 import common.Path;
 import rmi.RMIException;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.Serializable;
 
 /** Storage server command interface.
@@ -30,6 +32,23 @@ public interface Command extends Serializable
      */
     boolean create(Path file) throws RMIException;
 
+    /** Creates many files on the storage server.
+
+        <p>
+        The naming server sends this command for files whose creation it
+        deferred. Each file is created as by <code>create</code>, except that
+        a file already present is left as it is: a client may have written it
+        first, which creates it.
+
+        @param files Paths to the files to be created. These paths may not be
+                     the root directory.
+        @return For each path, <code>true</code> if a file exists at the path
+                after the call; <code>false</code> if it cannot be created.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean[] createAll(Path[] files) throws RMIException;
+
     /** Deletes a file or directory on the storage server.
 
         <p>
@@ -44,4 +63,67 @@ public interface Command extends Serializable
                              error.
      */
     boolean delete(Path path) throws RMIException;
+
+    /** Deletes many files or directories on the storage server.
+
+        <p>
+        Each path is deleted as by <code>delete</code>. Directories left
+        without files by the deletions are then pruned, as after
+        registration.
+
+        @param paths Paths to the files or directories to be deleted. The root
+                     directory cannot be deleted.
+        @return For each path, <code>true</code> if it was deleted and
+                <code>false</code> otherwise.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean[] deleteAll(Path[] paths) throws RMIException;
+
+    /** Moves a file or directory to a new path on the storage server.
+
+        <p>
+        The naming server sends this command after moving the object in its
+        directory tree. The object is renamed in the local filesystem, so that
+        no data is copied. If a directory already exists at
+        <code>target</code>, the contents of <code>source</code> are moved
+        into it. Directories left empty at the old path are pruned.
+
+        @param source Path to the file or directory to be moved. This path may
+                      not be the root directory.
+        @param target New path of the object. Parent directories are created
+                      if they do not exist.
+        @return <code>true</code> if the object was moved; <code>false</code>
+                if the server holds nothing at <code>source</code> or the
+                object cannot be moved.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean rename(Path source, Path target) throws RMIException;
+
+    /** Copies a file from another storage server.
+
+        <p>
+        The storage server reads the file from <code>source</code> and stores
+        it under the same path, replacing any local file of that name. The
+        parent directory is created if it does not exist. Storage servers use
+        this call to create replicas of files without routing data through the
+        naming server. The local file is replaced only once the whole file has
+        been received, so a failed copy leaves it unchanged.
+
+        @param file Path to the file to be copied. This path may not be the root
+                    directory.
+        @param source Client interface stub of the storage server currently
+                      holding the file.
+        @return <code>true</code> if the local copy has the same length as the
+                file on <code>source</code>; <code>false</code> otherwise.
+        @throws FileNotFoundException If the file cannot be found on
+                                      <code>source</code>.
+        @throws IOException If the file cannot be read from
+                            <code>source</code> or written locally.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    boolean copy(Path file, Storage source)
+        throws RMIException, FileNotFoundException, IOException;
 }
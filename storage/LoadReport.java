@@ -0,0 +1,89 @@
+package storage;
+
+import java.io.Serializable;
+
+/** Load and capacity report sent by a storage server with each heartbeat.
+
+    <p>
+    Reports are snapshots taken by the storage server when the heartbeat is
+    sent. The latency figure covers only the client requests served since the
+    previous report.
+ */
+public class LoadReport implements Serializable
+{
+    /** Usable space left on the disk holding the storage directory, in
+        bytes. */
+    private final long      free;
+    /** Total size of the files stored, in bytes. */
+    private final long      bytes;
+    /** Number of files stored. */
+    private final int       files;
+    /** Client requests in progress or waiting to be served. */
+    private final int       in_flight;
+    /** Mean time taken by client reads and writes, in microseconds. */
+    private final long      latency;
+
+    /** Creates a report.
+
+        @param free Usable disk space left, in bytes.
+        @param bytes Total size of the files stored, in bytes.
+        @param files Number of files stored.
+        @param in_flight Client requests in progress or waiting to be served.
+        @param latency Mean time taken by client reads and writes since the
+                       previous report, in microseconds, or zero if none were
+                       served.
+     */
+    public LoadReport(long free, long bytes, int files, int in_flight,
+                      long latency)
+    {
+        this.free = free;
+        this.bytes = bytes;
+        this.files = files;
+        this.in_flight = in_flight;
+        this.latency = latency;
+    }
+
+    /** Returns the usable disk space left, in bytes. */
+    public long free()
+    {
+        return free;
+    }
+
+    /** Returns the total size of the files stored, in bytes. */
+    public long bytes()
+    {
+        return bytes;
+    }
+
+    /** Returns the number of files stored. */
+    public int files()
+    {
+        return files;
+    }
+
+    /** Returns the number of client requests in progress or waiting to be
+        served. */
+    public int inFlight()
+    {
+        return in_flight;
+    }
+
+    /** Returns the mean time taken by client reads and writes since the
+        previous report, in microseconds, or zero if none were served. */
+    public long latency()
+    {
+        return latency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadReport{" +
+                "free=" + free +
+                ", bytes=" + bytes +
+                ", files=" + files +
+                ", in_flight=" + in_flight +
+                ", latency=" + latency +
+                '}';
+    }
+}
@@ -9,6 +9,23 @@ import java.io.*;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Storage server.
 
@@ -16,11 +33,59 @@ import java.nio.file.NoSuchFileException;
     Storage servers respond to client file access requests. The files accessible
     through a storage server are those accessible under a given directory of the
     local filesystem.
+
+    <p>
+    Once registered, the storage server sends a heartbeat to the naming server
+    every <code>Registration.HEARTBEAT_PERIOD</code> milliseconds, reporting
+    its free disk space, the size and number of the files it stores, the
+    client requests in progress and their recent latency. The stored size and
+    file count are kept up to date as files change rather than recomputed for
+    each report.
+
+    <p>
+    The storage server also reports the length and modification time of the
+    files it creates, writes or copies to the naming server, every
+    <code>Registration.REPORT_PERIOD</code> milliseconds, in batches of up to
+    <code>REPORT_BATCH</code> files. All files kept at registration are
+    reported once after it.
  */
 public class StorageServer implements Storage, Command
 {
+    /** Number of bytes requested from the source server per read when copying
+        a file. */
+    private static final int COPY_CHUNK = 1 << 20;
+    /** Separates the name of a file from the suffix of its copy in progress.
+        Path components cannot contain it, so copies never clash with files. */
+    private static final String COPY_MARK = ":";
+    /** Number of paths sent to the naming server per registration call. */
+    private static final int REGISTRATION_CHUNK = 1 << 16;
+    /** Number of files per attribute report. */
+    private static final int REPORT_BATCH = 4096;
+
     private File root;
     private volatile boolean cancel;
+    /** Sends heartbeats, once the server is registered. */
+    private ScheduledExecutorService heartbeats;
+    /** Sends attribute reports, once the server is registered, apart from
+        the heartbeats so that a long report does not delay them. */
+    private ScheduledExecutorService reports;
+    /** Total size of the files stored, in bytes. */
+    private final AtomicLong bytes = new AtomicLong();
+    /** Number of files stored. */
+    private final AtomicInteger files = new AtomicInteger();
+    /** Client reads and writes in progress or waiting for the lock. */
+    private final AtomicInteger in_flight = new AtomicInteger();
+    /** Client reads and writes completed since the last heartbeat, and the
+        time they took, in nanoseconds. */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong request_time = new AtomicLong();
+    /** Files whose length or modification time has not been reported to the
+        naming server since they last changed. */
+    private final Set<Path> changed = ConcurrentHashMap.newKeySet();
+    /** Naming server the server registered with, and the command stub it
+        registered, once registered. */
+    private volatile Registration naming_server;
+    private volatile Command command_stub;
 
     /** Creates a storage server, given a directory on the local filesystem.
 
@@ -70,31 +135,190 @@ public class StorageServer implements Storage, Command
         storageSkeleton.start();
         Storage client_stub = StorageServerStubs.storage(hostname, storageSkeleton.getSocketAddr().getPort());
         Command command_stub = StorageServerStubs.command(hostname, commandSkeleton.getSocketAddr().getPort());
-        Path[] PathReg = Path.list(this.root);
-        Path[] badPaths = naming_server.register(client_stub, command_stub, PathReg);
-        if (badPaths != null && badPaths.length != 0) {
-            for (Path p : badPaths) {
-                File file = p.toFile(this.root);
-                file.delete();
-                deleteBlankDirectory(p.parent());
+        this.register(naming_server, client_stub, command_stub);
+        this.command_stub = command_stub;
+        this.naming_server = naming_server;
+        this.heartbeats = daemon("storage server heartbeat");
+        this.heartbeats.scheduleAtFixedRate(() -> this.heartbeat(naming_server, command_stub),
+                Registration.HEARTBEAT_PERIOD, Registration.HEARTBEAT_PERIOD, TimeUnit.MILLISECONDS);
+        this.reports = daemon("storage server reports");
+        this.reports.scheduleWithFixedDelay(() -> this.reportChanges(naming_server, command_stub),
+                Registration.REPORT_PERIOD, Registration.REPORT_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /** create a scheduled executor running on one daemon thread */
+    private static ScheduledExecutorService daemon(String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** report the attributes of the changed files to the naming server
+     *
+     * @param naming_server registration stub of the naming server
+     * @param command_stub command stub the server registered with
+     */
+    private void reportChanges(Registration naming_server, Command command_stub) {
+        while (!this.changed.isEmpty()) {
+            List<Path> batch = new ArrayList<>();
+            Iterator<Path> next = this.changed.iterator();
+            while (next.hasNext() && batch.size() < REPORT_BATCH) {
+                batch.add(next.next());
+                next.remove();
+            }
+            List<Path> files = new ArrayList<>(batch.size());
+            long[] sizes = new long[batch.size()];
+            long[] modified = new long[batch.size()];
+            for (Path path : batch) {
+                File file = path.toFile(this.root);
+                if (!file.isFile())
+                    continue;
+                sizes[files.size()] = file.length();
+                modified[files.size()] = file.lastModified();
+                files.add(path);
             }
+            try {
+                naming_server.reportAttributes(command_stub, files.toArray(new Path[files.size()]),
+                        Arrays.copyOf(sizes, files.size()), Arrays.copyOf(modified, files.size()));
+            } catch (RMIException | RuntimeException e) {
+                // the naming server is unreachable; the next report tries again
+                this.changed.addAll(batch);
+                return;
+            }
+        }
+    }
 
+    /** send a load report to the naming server
+     *
+     * @param naming_server registration stub of the naming server
+     * @param command_stub command stub the server registered with
+     */
+    private void heartbeat(Registration naming_server, Command command_stub) {
+        long served = this.requests.getAndSet(0);
+        long time = this.request_time.getAndSet(0);
+        LoadReport report = new LoadReport(this.root.getUsableSpace(), this.bytes.get(),
+                this.files.get(), this.in_flight.get(), served == 0 ? 0 : time / served / 1000);
+        try {
+            naming_server.heartbeat(command_stub, report);
+        } catch (RMIException | RuntimeException e) {
+            // the naming server is unreachable; the next heartbeat tries again
         }
     }
 
-    /** delete the blank directory
+    /** register with the naming server, sending the file list in chunks
      *
+     * <p>The storage directory is walked once. The first chunk of files is
+     * sent with <code>register</code>, the following ones with
+     * <code>registerFiles</code>, so that the whole list is never held in
+     * memory. The duplicates returned for each chunk are deleted as they
+     * arrive, and the attributes of the other files of the chunk are then
+     * reported. The directories left empty are pruned once at the end. The
+     * walk also counts the files and bytes stored.
      *
-     * @param path
+     * @param naming_server registration stub of the naming server
+     * @param client_stub client stub of this server
+     * @param command_stub command stub of this server
+     * @throws FileNotFoundException if the storage directory does not exist
      */
-    private void deleteBlankDirectory(Path path) {
-        if (path.isRoot())
-            return;
-        File file = path.toFile(this.root);
-        if (file.isDirectory() && file.list().length == 0) {
-            file.delete();
+    private void register(Registration naming_server, Storage client_stub, Command command_stub)
+            throws RMIException, FileNotFoundException {
+        if (!this.root.isDirectory())
+            throw new FileNotFoundException("the root directory does not exist");
+        List<Path> chunk = new ArrayList<>();
+        long[] sizes = new long[REGISTRATION_CHUNK];
+        long[] modified = new long[REGISTRATION_CHUNK];
+        TreeSet<Path> emptied = new TreeSet<>();
+        boolean registered = false;
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(new Path());
+        while (!directories.isEmpty()) {
+            Path directory = directories.pop();
+            File[] children = directory.toFile(this.root).listFiles();
+            if (children == null)
+                continue;
+            for (File child : children) {
+                if (child.getName().contains(COPY_MARK)) {
+                    // a copy interrupted when the server stopped
+                    child.delete();
+                    continue;
+                }
+                Path path = new Path(directory, child.getName());
+                if (child.isDirectory()) {
+                    directories.push(path);
+                    continue;
+                }
+                long length = child.length();
+                this.files.incrementAndGet();
+                this.bytes.addAndGet(length);
+                sizes[chunk.size()] = length;
+                modified[chunk.size()] = child.lastModified();
+                chunk.add(path);
+                if (chunk.size() == REGISTRATION_CHUNK) {
+                    this.sendChunk(naming_server, client_stub, command_stub, chunk, sizes, modified,
+                            registered, emptied);
+                    registered = true;
+                    chunk.clear();
+                }
+            }
+        }
+        if (!registered || !chunk.isEmpty())
+            this.sendChunk(naming_server, client_stub, command_stub, chunk, sizes, modified,
+                    registered, emptied);
+        this.prune(emptied);
+    }
+
+    /** send one chunk of the file list, delete the duplicates returned and
+     *  report the attributes of the files kept
+     *
+     * @param sizes length of each file of the chunk
+     * @param modified modification time of each file of the chunk
+     * @param registered whether <code>register</code> was already called
+     * @param emptied collects the directories of the deleted files
+     */
+    private void sendChunk(Registration naming_server, Storage client_stub, Command command_stub,
+                           List<Path> chunk, long[] sizes, long[] modified, boolean registered,
+                           Set<Path> emptied) throws RMIException {
+        Path[] files = chunk.toArray(new Path[chunk.size()]);
+        Path[] duplicates = registered ? naming_server.registerFiles(command_stub, files)
+                : naming_server.register(client_stub, command_stub, files);
+        Set<Path> deleted = new HashSet<>();
+        if (duplicates != null) {
+            for (Path duplicate : duplicates) {
+                deleted.add(duplicate);
+                this.delete(duplicate.toFile(this.root));
+                emptied.add(duplicate.parent());
+            }
+        }
+        int kept = 0;
+        long[] keptSizes = new long[files.length - deleted.size()];
+        long[] keptModified = new long[keptSizes.length];
+        for (int i = 0; i < files.length; i++) {
+            if (deleted.contains(files[i]))
+                continue;
+            files[kept] = files[i];
+            keptSizes[kept] = sizes[i];
+            keptModified[kept] = modified[i];
+            kept++;
+        }
+        naming_server.reportAttributes(command_stub, Arrays.copyOf(files, kept), keptSizes, keptModified);
+    }
+
+    /** delete the directories that no longer hold any file, deepest first
+     *
+     * @param directories directories that may have become empty
+     */
+    private void prune(TreeSet<Path> directories) {
+        while (!directories.isEmpty()) {
+            Path directory = directories.pollLast();
+            if (directory.isRoot())
+                continue;
+            File file = directory.toFile(this.root);
+            String[] children = file.list();
+            if (children != null && children.length == 0 && file.delete())
+                directories.add(directory.parent());
         }
-        deleteBlankDirectory(path.parent());
     }
 
 
@@ -107,6 +331,10 @@ public class StorageServer implements Storage, Command
     {
         /**throw new UnsupportedOperationException("not implemented");*/
         this.cancel = true;
+        if (this.heartbeats != null)
+            this.heartbeats.shutdownNow();
+        if (this.reports != null)
+            this.reports.shutdownNow();
         this.stopped(null);
 
     }
@@ -161,7 +389,17 @@ public class StorageServer implements Storage, Command
      error.
      */
     @Override
-    public synchronized byte[] read(Path file, long offset, int length) throws FileNotFoundException, IOException
+    public byte[] read(Path file, long offset, int length) throws FileNotFoundException, IOException
+    {
+        long start = this.begin();
+        try {
+            return this.readFile(file, offset, length);
+        } finally {
+            this.end(start);
+        }
+    }
+
+    private synchronized byte[] readFile(Path file, long offset, int length) throws FileNotFoundException, IOException
     {
         /**throw new UnsupportedOperationException("not implemented");*/
         if (offset < 0l || length < 0)
@@ -199,7 +437,19 @@ public class StorageServer implements Storage, Command
      error.
      */
     @Override
-    public synchronized void write(Path file, long offset, byte[] data) throws FileNotFoundException, IOException
+    public void write(Path file, long offset, byte[] data) throws FileNotFoundException, IOException
+    {
+        long start = this.begin();
+        try {
+            this.createPlaced(file);
+            this.writeFile(file, offset, data);
+            this.changed.add(file);
+        } finally {
+            this.end(start);
+        }
+    }
+
+    private synchronized void writeFile(Path file, long offset, byte[] data) throws FileNotFoundException, IOException
     {
         /**throw new UnsupportedOperationException("not implemented");*/
         if (offset < 0)
@@ -208,10 +458,52 @@ public class StorageServer implements Storage, Command
         if (f.isDirectory() || !f.exists()) {
             throw new FileNotFoundException();
         }
-        FileOutputStream fileOutputStream = new FileOutputStream(f);
-        fileOutputStream.getChannel().position(offset);
-        fileOutputStream.write(data);
-        fileOutputStream.close();
+        long before = f.length();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw")) {
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(data);
+        }
+        this.bytes.addAndGet(f.length() - before);
+    }
+
+    /** create a missing file that the naming server placed on this server
+     *  without creating it yet
+     *
+     * <p>The naming server is asked without holding the server lock, which
+     * its deferred creations may be waiting for.
+     *
+     * @param file path of the file to be written
+     */
+    private void createPlaced(Path file) {
+        Registration naming_server = this.naming_server;
+        if (naming_server == null || file.isRoot() || file.toFile(this.root).exists())
+            return;
+        try {
+            if (naming_server.placed(this.command_stub, file))
+                this.create(file);
+        } catch (RMIException | RuntimeException e) {
+            // not known to be placed here: the write fails as for any other
+            // missing file
+        }
+    }
+
+    /** count a client request as in flight
+     *
+     * @return start time of the request
+     */
+    private long begin() {
+        this.in_flight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /** count a client request as served
+     *
+     * @param start start time returned by <code>begin</code>
+     */
+    private void end(long start) {
+        this.request_time.addAndGet(System.nanoTime() - start);
+        this.requests.incrementAndGet();
+        this.in_flight.decrementAndGet();
     }
 
     /** The following methods are documented in Command.java.*/
@@ -247,6 +539,8 @@ public class StorageServer implements Storage, Command
 
         try {
             Files.createFile(file.toFile(this.root).toPath());
+            this.files.incrementAndGet();
+            this.changed.add(file);
             return true;
         } catch (IOException e) {
 //            e.printStackTrace();
@@ -255,6 +549,29 @@ public class StorageServer implements Storage, Command
 
     }
 
+    /** Creates many files on the storage server, leaving files already
+     present as they are.
+
+     @param files Paths to the files to be created.
+     @return For each path, <code>true</code> if a file exists at the path
+     after the call; <code>false</code> if it cannot be created.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public boolean[] createAll(Path[] files)
+    {
+        if (files == null)
+            throw new NullPointerException();
+        boolean[] created = new boolean[files.length];
+        for (int i = 0; i < files.length; i++) {
+            synchronized (this) {
+                created[i] = this.create(files[i]) || files[i].toFile(this.root).isFile();
+            }
+        }
+        return created;
+    }
+
     /** Deletes a file or directory on the storage server.
 
      <p>
@@ -277,19 +594,173 @@ public class StorageServer implements Storage, Command
         File file = path.toFile(this.root);
         return delete(file);
     }
+    /** Deletes many files or directories on the storage server.
+
+     @param paths Paths to the files or directories to be deleted. The root
+     directory cannot be deleted.
+     @return For each path, <code>true</code> if it was deleted and
+     <code>false</code> otherwise.
+     @throws RMIException If the call cannot be completed due to a network
+     error.
+     */
+    @Override
+    public boolean[] deleteAll(Path[] paths)
+    {
+        if (paths == null)
+            throw new NullPointerException();
+        boolean[] deleted = new boolean[paths.length];
+        TreeSet<Path> emptied = new TreeSet<>();
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].isRoot())
+                continue;
+            synchronized (this) {
+                deleted[i] = delete(paths[i].toFile(this.root));
+            }
+            if (deleted[i])
+                emptied.add(paths[i].parent());
+        }
+        synchronized (this) {
+            this.prune(emptied);
+        }
+        return deleted;
+    }
+
     private boolean delete(File file) {
         if (file == null || !file.exists())
             return false;
-        if (file.isFile())
+        if (file.isFile()) {
+            long length = file.length();
+            if (!file.delete())
+                return false;
+            this.files.decrementAndGet();
+            this.bytes.addAndGet(-length);
+            return true;
+        } else {
+            for (File f : file.listFiles())
+                delete(f);
             return file.delete();
-        else {
-            for (File f : file.listFiles()) {
-                if (f.isFile())
-                    f.delete();
+        }
+    }
+
+    /** Moves a file or directory to a new path on the storage server.
+
+     <p>
+     The object is renamed in the local filesystem, which moves no data. A
+     directory is merged into a directory already at the target, which a file
+     created at the new path while the command was on its way may have made.
+     Changes not yet reported to the naming server are reported under the new
+     paths.
+
+     @param source Path to the file or directory to be moved.
+     @param target New path of the object.
+     @return <code>true</code> if the object was moved.
+     */
+    @Override
+    public synchronized boolean rename(Path source, Path target)
+    {
+        if (source == null || target == null)
+            throw new NullPointerException();
+        if (source.isRoot() || target.isRoot())
+            return false;
+        File from = source.toFile(this.root);
+        if (!from.exists())
+            return false;
+        try {
+            Files.createDirectories(target.parent().toFile(this.root).toPath());
+            this.move(from, target.toFile(this.root));
+        } catch (IOException e) {
+            return false;
+        }
+        List<String> prefix = source.getComponents();
+        for (Path file : this.changed) {
+            List<String> components = file.getComponents();
+            if (components.size() < prefix.size() || !components.subList(0, prefix.size()).equals(prefix))
+                continue;
+            Path moved = target;
+            for (String component : components.subList(prefix.size(), components.size()))
+                moved = new Path(moved, component);
+            this.changed.remove(file);
+            this.changed.add(moved);
+        }
+        this.prune(new TreeSet<>(Collections.singleton(source.parent())));
+        return true;
+    }
+
+    /** rename a file or directory, merging a directory into an existing one
+     *
+     * @param from the object
+     * @param to its new location
+     * @throws IOException if an object can not be moved
+     */
+    private void move(File from, File to) throws IOException {
+        if (from.isDirectory() && to.isDirectory()) {
+            for (File child : from.listFiles())
+                this.move(child, new File(to, child.getName()));
+            if (!from.delete())
+                throw new IOException("could not remove " + from);
+            return;
+        }
+        if (to.isFile()) {
+            this.files.decrementAndGet();
+            this.bytes.addAndGet(-to.length());
+        }
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Copies a file from another storage server.
+
+     <p>
+     The data is copied into a temporary file next to the target, which is
+     then moved over the target in one step, so that readers of the file on
+     this server never see a partial copy. The copy does not hold the storage
+     server lock while it waits for data from the source, so that two servers
+     copying from each other cannot deadlock. The file and byte counts are
+     updated once the copy is in place.
+
+     @param file Path to the file to be copied.
+     @param source Client interface stub of the storage server holding the file.
+     @return <code>true</code> if the local copy has the same length as the
+     file on <code>source</code>.
+     @throws FileNotFoundException If the file cannot be found on
+     <code>source</code>.
+     @throws IOException If the file cannot be read or written.
+     @throws RMIException If the source server cannot be contacted.
+     */
+    @Override
+    public boolean copy(Path file, Storage source) throws RMIException, FileNotFoundException, IOException
+    {
+        if (file == null || source == null)
+            throw new NullPointerException();
+        if (file.isRoot())
+            return false;
+        long size = source.size(file);
+        File f = file.toFile(this.root);
+        File copy;
+        synchronized (this) {
+            Files.createDirectories(f.getParentFile().toPath());
+            copy = Files.createTempFile(f.getParentFile().toPath(), f.getName() + COPY_MARK, null).toFile();
+        }
+        try {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(copy, "rw")) {
+                for (long offset = 0; offset < size; offset += COPY_CHUNK)
+                    randomAccessFile.write(source.read(file, offset, (int) Math.min(COPY_CHUNK, size - offset)));
+            }
+            if (copy.length() != size)
+                return false;
+            synchronized (this) {
+                long before = f.isFile() ? f.length() : -1;
+                Files.move(copy.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                if (before < 0)
+                    this.files.incrementAndGet();
                 else
-                    delete(f);
+                    this.bytes.addAndGet(-before);
+                this.bytes.addAndGet(size);
             }
-            return file.delete();
+        } finally {
+            Files.deleteIfExists(copy.toPath());
         }
+        this.changed.add(file);
+        return true;
     }
 }
@@ -8,6 +8,19 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link unit.common.SampleUnitTest}</li>
+    <li>{@link unit.common.FileTreeTest}</li>
+    <li>{@link naming.PlacementsTest}</li>
+    <li>{@link naming.HotFileReplicatorTest}</li>
+    <li>{@link naming.HeartbeatTest}</li>
+    <li>{@link naming.ShardRouterTest}</li>
+    <li>{@link naming.CommandQueueTest}</li>
+    <li>{@link naming.AccessSketchTest}</li>
+    <li>{@link naming.ChangeFeedTest}</li>
+    <li>{@link naming.RenameTest}</li>
+    <li>{@link naming.DeferredCreationTest}</li>
+    <li>{@link naming.FollowerTest}</li>
+    <li>{@link client.DFSOutputStreamTest}</li>
+    <li>{@link client.MetadataCacheTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +34,20 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {unit.common.SampleUnitTest.class};
+            new Class[] {unit.common.SampleUnitTest.class,
+                         unit.common.FileTreeTest.class,
+                         naming.PlacementsTest.class,
+                         naming.HotFileReplicatorTest.class,
+                         naming.HeartbeatTest.class,
+                         naming.ShardRouterTest.class,
+                         naming.CommandQueueTest.class,
+                         naming.AccessSketchTest.class,
+                         naming.ChangeFeedTest.class,
+                         naming.RenameTest.class,
+                         naming.DeferredCreationTest.class,
+                         naming.FollowerTest.class,
+                         client.DFSOutputStreamTest.class,
+                         client.MetadataCacheTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,245 @@
+package client;
+
+import common.*;
+import naming.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for writes through <code>DFSOutputStream</code> to replicated
+    files.
+
+    <p>
+    A file is created with two replicas on a naming server that is not
+    started, with storage servers kept in memory, and the stream is given the
+    naming server object itself. Items checked are:
+    <ul>
+    <li>A write that reaches one replica but not the other, unreachable one
+        succeeds, and the unreachable replica is removed from the file, so
+        that readers are only sent to the replica holding the data.</li>
+    <li>Later writes of the stream go to the remaining replica only, and
+        closing the stream reports the length written.</li>
+    <li>A write that reaches no replica fails, and leaves the replicas of the
+        file in place.</li>
+    </ul>
+ */
+public class DFSOutputStreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking writes to replicas that cannot be reached";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer    server = new NamingServer();
+        MemoryStorage   reachable = new MemoryStorage();
+        MemoryStorage   unreachable = new MemoryStorage();
+        Path            file = new Path("/f");
+        Path            other = new Path("/g");
+
+        server.setReplication(2);
+        server.register(reachable, reachable, new Path[0]);
+        server.register(unreachable, unreachable, new Path[0]);
+
+        try
+        {
+            server.createFile(file);
+            server.createFile(other);
+            expectReplicas(server, file, reachable, unreachable);
+
+            unreachable.down = true;
+
+            DFSOutputStream     stream = new DFSOutputStream(server, file);
+            stream.write(new byte[] {1, 2, 3});
+            expectReplicas(server, file, reachable);
+
+            stream.write(new byte[] {4, 5});
+            if(unreachable.writes != 1)
+            {
+                throw new TestFailed("write sent to a replica dropped " +
+                                     "earlier");
+            }
+
+            stream.close();
+            if(!Arrays.equals(reachable.data(file),
+                              new byte[] {1, 2, 3, 4, 5}))
+                throw new TestFailed("data written to the replica incorrect");
+
+            if(server.open(file, OpenFile.READ).size() != 5)
+                throw new TestFailed("length written not reported on close");
+
+            // No replica can be written.
+            reachable.down = true;
+            DFSOutputStream     failing = new DFSOutputStream(server, other);
+
+            try
+            {
+                failing.write(new byte[] {1});
+                throw new TestFailed("write reaching no replica succeeded");
+            }
+            catch(IOException e) { }
+
+            expectReplicas(server, other, reachable, unreachable);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when writing", t);
+        }
+    }
+
+    /** Checks the storage servers holding replicas of a file.
+
+        @param expected The servers, in any order.
+        @throws TestFailed If the replicas differ.
+     */
+    private static void expectReplicas(NamingServer server, Path file,
+                                       Storage... expected)
+        throws TestFailed, RMIException, FileNotFoundException
+    {
+        List<Storage>   replicas =
+            Arrays.asList(server.open(file, OpenFile.WRITE).replicas());
+
+        if(replicas.size() != expected.length ||
+           !replicas.containsAll(Arrays.asList(expected)))
+        {
+            throw new TestFailed("file " + file + " has " + replicas.size() +
+                                 " replicas, expected " + expected.length);
+        }
+    }
+
+    /** Storage server keeping its files in memory, whose client interface
+        can be made to fail as if it could not be contacted. */
+    private static class MemoryStorage implements Storage, Command
+    {
+        /** Paths of the files created. */
+        private final List<Path>    paths = new ArrayList<>();
+        /** Contents of the files, in the order of <code>paths</code>. */
+        private final List<byte[]>  contents = new ArrayList<>();
+        /** Number of write requests received. */
+        volatile int                writes;
+        /** Indicates that every client request fails. */
+        volatile boolean            down;
+
+        /** Returns the contents of a file. */
+        synchronized byte[] data(Path file) throws FileNotFoundException
+        {
+            int     index = paths.indexOf(file);
+
+            if(index < 0)
+                throw new FileNotFoundException(file.toString());
+
+            return contents.get(index);
+        }
+
+        @Override
+        public synchronized long size(Path file)
+            throws RMIException, FileNotFoundException
+        {
+            if(down)
+                throw new RMIException("storage server unreachable");
+
+            return data(file).length;
+        }
+
+        @Override
+        public synchronized byte[] read(Path file, long offset, int length)
+            throws RMIException, FileNotFoundException
+        {
+            if(down)
+                throw new RMIException("storage server unreachable");
+
+            return Arrays.copyOfRange(data(file), (int)offset,
+                                      (int)offset + length);
+        }
+
+        @Override
+        public synchronized void write(Path file, long offset, byte[] data)
+            throws RMIException, FileNotFoundException
+        {
+            ++writes;
+            if(down)
+                throw new RMIException("storage server unreachable");
+
+            byte[]  old = data(file);
+            byte[]  updated = Arrays.copyOf(old, Math.max(old.length,
+                                            (int)offset + data.length));
+
+            System.arraycopy(data, 0, updated, (int)offset, data.length);
+            contents.set(paths.indexOf(file), updated);
+        }
+
+        @Override
+        public synchronized boolean create(Path file)
+        {
+            if(paths.contains(file))
+                return false;
+
+            paths.add(file);
+            contents.add(new byte[0]);
+            return true;
+        }
+
+        @Override
+        public boolean[] createAll(Path[] files)
+        {
+            boolean[]   created = new boolean[files.length];
+
+            // A file already held counts as created, as on a real server.
+            for(int i = 0; i < files.length; ++i)
+            {
+                create(files[i]);
+                created[i] = true;
+            }
+
+            return created;
+        }
+
+        @Override
+        public synchronized boolean delete(Path path)
+        {
+            int     index = paths.indexOf(path);
+
+            if(index < 0)
+                return false;
+
+            paths.remove(index);
+            contents.remove(index);
+            return true;
+        }
+
+        @Override
+        public boolean[] deleteAll(Path[] paths)
+        {
+            boolean[]   deleted = new boolean[paths.length];
+
+            for(int i = 0; i < paths.length; ++i)
+                deleted[i] = delete(paths[i]);
+
+            return deleted;
+        }
+
+        @Override
+        public boolean rename(Path source, Path target)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package client;
+
+import common.*;
+import naming.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/** Unit test for lookups cached under leases by <code>MetadataCache</code>.
+
+    <p>
+    The cache is given a naming server that is not started, which counts the
+    leases it grants, and receives revocations through its skeleton. Items
+    checked are:
+    <ul>
+    <li>Repeated lookups of an object are answered from one lease.</li>
+    <li>A modification of a leased directory revokes its lease before the
+        modifying call returns, so that the next lookup sees the
+        modification.</li>
+    <li>A lease revoked while it is being granted is not cached: the lookup
+        requesting it may return it, but the next lookup asks the naming
+        server again.</li>
+    </ul>
+ */
+public class MetadataCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the client metadata cache";
+
+    /** The cache. */
+    private MetadataCache       cache;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        CountingNamingServer    server = new CountingNamingServer();
+
+        server.register(Stub.create(Storage.class,
+                                    new InetSocketAddress("127.0.0.1", 1)),
+                        new AcceptingCommand(),
+                        new Path[] {new Path("/d/a")});
+
+        try
+        {
+            cache = new MetadataCache(server, "127.0.0.1");
+
+            Path        directory = new Path("/d");
+            Path        file = new Path("/d/a");
+
+            cache.isDirectory(directory);
+            cache.list(directory);
+            if(server.leases != 1)
+            {
+                throw new TestFailed("repeated lookups requested " +
+                                     server.leases + " leases");
+            }
+
+            // Creating a file in the directory revokes its lease.
+            server.createFile(new Path("/d/b"));
+            if(!Arrays.asList(cache.list(directory)).contains("b"))
+                throw new TestFailed("lookup answered from a revoked lease");
+            if(server.leases != 2)
+                throw new TestFailed("revoked lease not requested again");
+
+            // The file is renamed after its lease is granted, but before the
+            // lease reaches the cache.
+            server.hook = () -> server.rename(file, new Path("/d/c"));
+            cache.isDirectory(file);
+            server.hook = null;
+
+            try
+            {
+                cache.isDirectory(file);
+                throw new TestFailed("lease revoked while it was granted " +
+                                     "cached");
+            }
+            catch(FileNotFoundException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when looking up " +
+                                 "objects", t);
+        }
+    }
+
+    /** Closes the cache. */
+    @Override
+    protected void clean()
+    {
+        if(cache != null)
+        {
+            cache.close();
+            cache = null;
+        }
+    }
+
+    /** Modification run by the naming server between granting a lease and
+        returning it. */
+    private interface Hook
+    {
+        void run() throws Exception;
+    }
+
+    /** Naming server counting the leases it grants. */
+    private static class CountingNamingServer extends NamingServer
+    {
+        /** Number of leases granted. */
+        volatile int            leases;
+        /** Modification run before the next lease is returned, or
+            <code>null</code>. */
+        volatile Hook           hook;
+
+        @Override
+        public Lease lease(Path path, LeaseHolder holder)
+            throws FileNotFoundException
+        {
+            Lease       lease = super.lease(path, holder);
+
+            ++leases;
+
+            try
+            {
+                if(hook != null)
+                    hook.run();
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+
+            return lease;
+        }
+    }
+
+    /** Command interface accepting every call. */
+    private static class AcceptingCommand implements Command
+    {
+        @Override
+        public boolean create(Path file)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean[] createAll(Path[] files)
+        {
+            boolean[]   created = new boolean[files.length];
+            Arrays.fill(created, true);
+            return created;
+        }
+
+        @Override
+        public boolean delete(Path path)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean[] deleteAll(Path[] paths)
+        {
+            boolean[]   deleted = new boolean[paths.length];
+            Arrays.fill(deleted, true);
+            return deleted;
+        }
+
+        @Override
+        public boolean rename(Path source, Path target)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source)
+        {
+            return false;
+        }
+    }
+}
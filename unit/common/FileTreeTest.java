@@ -0,0 +1,554 @@
+package unit.common;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Unit test for the inode table behind <code>FileTree</code>.
+
+    <p>
+    Items checked are:
+    <ul>
+    <li>Files and directories created with <code>touch</code> and
+        <code>mkdirs</code> are found again by path.</li>
+    <li>Deleted inodes and names are recycled, so that the table does not
+        grow when the same names are created and deleted repeatedly.</li>
+    <li>A file in the way of a parent directory is reported as a conflict.</li>
+    <li>A batched lookup resolves each path, in any order, as single lookups
+        do.</li>
+    <li>Paged listings return every entry once, in sorted order, both for
+        small directories and for directories large enough to be
+        indexed.</li>
+    <li>A detached subtree disappears from lookups at once, and reclaiming
+        it reports every file it held and frees all of its inodes.</li>
+    <li>A glob search returns every matching path once, in sorted order,
+        page by page, whether it starts from the inodes with matching names
+        or walks the tree.</li>
+    <li>The usage of each directory follows creations, size changes,
+        deletions and detached subtrees, and a quota refuses objects beyond
+        its limit.</li>
+    <li>A renamed subtree is found at its new path only, keeps its inodes,
+        and moves its usage to its new ancestors.</li>
+    <li>Every path created or moved is reported with the hash a
+        <code>PathFilter</code> computes from the path, and a filter of those
+        hashes contains them.</li>
+    <li>Once servers are indexed, the files found on a server follow added,
+        moved and removed replicas and deleted files, as a scan of the table
+        would.</li>
+    </ul>
+ */
+public class FileTreeTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking file tree inode table";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        FileTree    tree = new FileTree();
+
+        try
+        {
+            tree.touch(new Path("/a/b/part-0"), null);
+            tree.touch(new Path("/a/c/part-0"), null);
+            tree.mkdirs(new Path("/a/d"));
+
+            if(!tree.isDirectory(new Path("/a/b")))
+                throw new TestFailed("/a/b not reported as a directory");
+            if(tree.isDirectory(new Path("/a/c/part-0")))
+                throw new TestFailed("/a/c/part-0 reported as a directory");
+            if(!TestUtil.sameElements(tree.cd(new Path("/a")).list(),
+                                      new String[] {"b", "c", "d"}))
+                throw new TestFailed("/a listed incorrectly");
+            if(tree.size() != 7)
+                throw new TestFailed("tree has " + tree.size() + " inodes");
+            if(tree.distinctNames() != 6)
+                throw new TestFailed("names are not shared");
+
+            Path[]  batch = new Path[] {new Path("/a/c/part-0"),
+                                        new Path("/a/x"),
+                                        new Path("/"),
+                                        new Path("/a/b/part-0"),
+                                        new Path("/a/c/part-0/x"),
+                                        new Path("/a/b")};
+            int[]   ids = tree.lookup(batch);
+            for(int i = 0; i < batch.length; ++i)
+            {
+                int expected = tree.isExist(batch[i]) ?
+                    tree.lookup(batch[i]) : FileTree.NONE;
+                if(ids[i] != expected)
+                    throw new TestFailed("batched lookup of " + batch[i] +
+                                         " incorrect");
+            }
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to build tree", e);
+        }
+
+        try
+        {
+            tree.touch(new Path("/a/b/part-0/x"), null);
+            throw new TestFailed("file accepted under a file");
+        }
+        catch(FileAlreadyExistsException e) { }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("wrong exception for conflicting path", e);
+        }
+
+        try
+        {
+            for(int round = 0; round < 100; ++round)
+            {
+                tree.touch(new Path("/a/d/tmp-" + round), null);
+                tree.delete(new Path("/a/d/tmp-" + round));
+            }
+
+            if(tree.size() != 7 || tree.distinctNames() != 6)
+                throw new TestFailed("deleted inodes or names not released");
+            if(tree.isExist(new Path("/a/d/tmp-0")))
+                throw new TestFailed("deleted file still exists");
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to create and delete files", e);
+        }
+
+        checkPages(tree, "/small", 5, 2);
+        checkPages(tree, "/large", 500, 64);
+        checkReclaim(tree);
+
+        try
+        {
+            tree.touch(new Path("/a/b/x/part-1.parquet"), null);
+            tree.touch(new Path("/a/part-2.parquet"), null);
+            tree.touch(new Path("/part-3.parquet"), null);
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to create files", e);
+        }
+
+        checkFind(tree, "/", "**/part-*.parquet", "/a/b/x/part-1.parquet",
+                  "/a/part-2.parquet", "/part-3.parquet");
+        checkFind(tree, "/a", "**/part-*", "/a/b/part-0",
+                  "/a/b/x/part-1.parquet", "/a/c/part-0", "/a/part-2.parquet");
+        checkFind(tree, "/a", "*/**", "/a/b", "/a/b/part-0", "/a/b/x",
+                  "/a/b/x/part-1.parquet", "/a/c", "/a/c/part-0", "/a/d",
+                  "/a/part-2.parquet");
+        checkFind(tree, "/", "a/[bc]/part-?", "/a/b/part-0", "/a/c/part-0");
+        checkUsage();
+        checkRename();
+        checkPathFilter();
+        checkServerIndex();
+    }
+
+    /** Checks the files found on a server once servers are indexed.
+
+        @throws TestFailed If the files found differ from those holding a
+                           replica on the server and none on the other.
+     */
+    private void checkServerIndex() throws TestFailed
+    {
+        FileTree    tree = new FileTree();
+        Storage     first = Stub.create(Storage.class,
+                                        new InetSocketAddress("127.0.0.1", 1));
+        Storage     second = Stub.create(Storage.class,
+                                         new InetSocketAddress("127.0.0.1", 2));
+        int         a = tree.storageId(first);
+        int         b = tree.storageId(second);
+
+        try
+        {
+            for(int i = 0; i < 300; ++i)
+            {
+                tree.touch(new Path("/s/f" + i), first);
+                if(i % 3 == 0)
+                    tree.addReplica(tree.lookup(new Path("/s/f" + i)), b);
+            }
+
+            tree.indexServers();
+
+            for(int i = 0; i < 300; i += 5)
+                tree.moveReplica(tree.lookup(new Path("/s/f" + i)), a, b);
+            for(int i = 1; i < 300; i += 7)
+                tree.removeReplica(tree.lookup(new Path("/s/f" + i)), a);
+            for(int i = 2; i < 300; i += 11)
+                tree.delete(new Path("/s/f" + i));
+            // Files lose the replica and get it back, and freed inodes are
+            // reused, until the lists are compacted.
+            for(int i = 3; i < 300; i += 6)
+            {
+                if(i % 11 == 2)
+                    continue;
+                int id = tree.lookup(new Path("/s/f" + i));
+                tree.removeReplica(id, a);
+                tree.addReplica(id, a);
+            }
+            for(int i = 300; i < 2000; ++i)
+                tree.touch(new Path("/t/f" + i), i % 2 == 0 ? first : second);
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to build tree", e);
+        }
+
+        for(int[] pair : new int[][] {{a, b}, {b, a}, {a, FileTree.NONE}})
+        {
+            List<Integer>   expected = new ArrayList<>();
+            for(Path file : new Path[] {new Path("/s"), new Path("/t")})
+            {
+                try
+                {
+                    for(String name : tree.cd(file).list())
+                    {
+                        int     id = tree.lookup(new Path(file, name));
+                        int[]   held = tree.replicas(id);
+                        boolean on = false;
+                        boolean excluded = false;
+                        for(int slot : held)
+                        {
+                            on |= slot == pair[0];
+                            excluded |= slot == pair[1];
+                        }
+                        if(on && !excluded)
+                            expected.add(id);
+                    }
+                }
+                catch(FileNotFoundException e)
+                {
+                    throw new TestFailed("unable to list " + file, e);
+                }
+            }
+            Collections.sort(expected);
+
+            int[]           found = tree.filesOn(pair[0], pair[1],
+                                                 Integer.MAX_VALUE);
+            List<Integer>   actual = new ArrayList<>();
+            for(int id : found)
+                actual.add(id);
+            Collections.sort(actual);
+
+            if(!actual.equals(expected))
+            {
+                throw new TestFailed("files found on server " + pair[0] +
+                                     " and not on " + pair[1] +
+                                     " incorrect");
+            }
+        }
+    }
+
+    /** Checks the path hashes reported for new paths against a filter.
+
+        @throws TestFailed If a new path is not reported, or a filter of the
+                           reported hashes does not contain it.
+     */
+    private void checkPathFilter() throws TestFailed
+    {
+        FileTree    tree = new FileTree();
+        List<Long>  linked = new ArrayList<>();
+        PathFilter  filter = new PathFilter(1024);
+
+        tree.onLink(hash -> { linked.add(hash); filter.add(hash, null); });
+
+        String[]    created = {"/p", "/p/a", "/p/a/f1", "/p/a/x", "/p/a/x/f2"};
+        String[]    moved = {"/p/b", "/p/b/f1", "/p/b/x", "/p/b/x/f2"};
+
+        try
+        {
+            tree.touch(new Path("/p/a/f1"), null);
+            tree.touch(new Path("/p/a/x/f2"), null);
+            if(linked.size() != created.length)
+                throw new TestFailed("created paths not all reported");
+            for(String path : created)
+            {
+                if(tree.pathHash(tree.lookup(new Path(path))) !=
+                   PathFilter.hash(new Path(path)))
+                    throw new TestFailed("hash of " + path + " differs");
+            }
+
+            tree.rename(new Path("/p/a"), new Path("/p/b"));
+            if(linked.size() != created.length + moved.length)
+                throw new TestFailed("moved paths not all reported");
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to create objects", e);
+        }
+
+        for(String path : created)
+        {
+            if(!filter.mightContain(new Path(path)))
+                throw new TestFailed(path + " missing from filter");
+        }
+        for(String path : moved)
+        {
+            if(!linked.contains(PathFilter.hash(new Path(path))) ||
+               !filter.mightContain(new Path(path)))
+                throw new TestFailed(path + " missing from filter");
+        }
+
+        int         misses = 0;
+
+        for(int i = 0; i < 1000; i++)
+        {
+            if(!filter.mightContain(new Path("/p/b/marker-" + i)))
+                misses++;
+        }
+        if(misses < 990)
+            throw new TestFailed("filter reports absent paths as present");
+    }
+
+    /** Moves a directory and a file, and checks the tree afterwards.
+
+        @throws TestFailed If an object is found at its old path, is missing
+                           at its new path, or the usage is not moved.
+     */
+    private void checkRename() throws TestFailed
+    {
+        FileTree    tree = new FileTree();
+
+        try
+        {
+            tree.touch(new Path("/r/a/x/f1"), null);
+            tree.mkdirs(new Path("/r/b"));
+            int     file = tree.lookup(new Path("/r/a/x/f1"));
+            tree.setAttributes(file, 7, 1);
+            int     names = tree.distinctNames();
+
+            tree.rename(new Path("/r/a"), new Path("/r/b/a2"));
+            if(tree.isExist(new Path("/r/a")) ||
+               tree.lookup(new Path("/r/b/a2/x/f1")) != file)
+                throw new TestFailed("directory not moved");
+            if(tree.bytes(tree.lookup(new Path("/r/b"))) != 7 ||
+               tree.bytes(tree.lookup(new Path("/r"))) != 7)
+                throw new TestFailed("usage not moved");
+            if(tree.distinctNames() != names)
+                throw new TestFailed("names not released");
+            if(tree.find(new Path("/"), Glob.compile("**/f1"), null,
+                         10).length != 1)
+                throw new TestFailed("moved file not found by name");
+
+            tree.rename(new Path("/r/b/a2/x/f1"), new Path("/r/f2"));
+            if(tree.lookup(new Path("/r/f2")) != file ||
+               tree.isExist(new Path("/r/b/a2/x/f1")))
+                throw new TestFailed("file not moved");
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to move objects", e);
+        }
+
+        try
+        {
+            tree.rename(new Path("/r/b"), new Path("/r/b/a2/y"));
+            throw new TestFailed("directory moved below itself");
+        }
+        catch(IllegalArgumentException e) { }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("wrong exception for a move below itself",
+                                 e);
+        }
+
+        try
+        {
+            tree.rename(new Path("/r/f2"), new Path("/r/b"));
+            throw new TestFailed("existing object replaced");
+        }
+        catch(FileAlreadyExistsException e) { }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("wrong exception for an existing target",
+                                 e);
+        }
+    }
+
+    /** Checks the usage kept for directories and their quotas.
+
+        @throws TestFailed If the usage of a directory is incorrect or a quota
+                           is not applied.
+     */
+    private void checkUsage() throws TestFailed
+    {
+        FileTree    tree = new FileTree();
+
+        try
+        {
+            tree.touch(new Path("/u/a/f1"), null);
+            tree.touch(new Path("/u/a/f2"), null);
+            tree.touch(new Path("/u/b/f3"), null);
+            tree.setAttributes(tree.lookup(new Path("/u/a/f1")), 10, 1);
+            tree.setAttributes(tree.lookup(new Path("/u/a/f2")), 20, 1);
+            tree.setAttributes(tree.lookup(new Path("/u/b/f3")), 5, 1);
+            tree.setAttributes(tree.lookup(new Path("/u/a/f1")), 15, 2);
+
+            int     u = tree.lookup(new Path("/u"));
+            if(tree.fileCount(u) != 3 || tree.directoryCount(u) != 2 ||
+               tree.bytes(u) != 40)
+                throw new TestFailed("usage of /u incorrect");
+            if(tree.bytes(tree.lookup(new Path("/u/a"))) != 35)
+                throw new TestFailed("usage of /u/a incorrect");
+
+            tree.delete(new Path("/u/b/f3"));
+            tree.detach(new Path("/u/a"));
+            if(tree.fileCount(u) != 0 || tree.directoryCount(u) != 1 ||
+               tree.bytes(u) != 0)
+                throw new TestFailed("usage of /u incorrect after deletion");
+            if(tree.directoryCount(FileTree.ROOT) != 2)
+                throw new TestFailed("usage of / incorrect after deletion");
+
+            int     b = tree.lookup(new Path("/u/b"));
+            tree.setQuota(u, 3, FileTree.NONE);
+            if(tree.overQuota(b, 2) != FileTree.NONE)
+                throw new TestFailed("objects within quota refused");
+            if(tree.overQuota(b, 3) != u)
+                throw new TestFailed("objects beyond quota accepted");
+            tree.setQuota(u, FileTree.NONE, FileTree.NONE);
+            if(tree.quota(u) != null || tree.overQuota(b, 3) != FileTree.NONE)
+                throw new TestFailed("quota not cleared");
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to build tree", e);
+        }
+    }
+
+    /** Searches a directory two paths at a time.
+
+        @param tree The tree.
+        @param root Path of the directory to search.
+        @param glob The glob.
+        @param expected The matching paths, in sorted order.
+        @throws TestFailed If the pages are not the expected paths.
+     */
+    private void checkFind(FileTree tree, String root, String glob,
+                           String... expected) throws TestFailed
+    {
+        List<String>    found = new ArrayList<>();
+        Path            last = null;
+        Path[]          page;
+
+        try
+        {
+            do
+            {
+                page = tree.find(new Path(root), Glob.compile(glob), last, 2);
+                for(Path path : page)
+                    found.add(path.toString());
+                if(page.length > 0)
+                    last = page[page.length - 1];
+            }
+            while(page.length == 2);
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("unable to search " + root, e);
+        }
+
+        if(!found.equals(Arrays.asList(expected)))
+            throw new TestFailed("search for " + glob + " in " + root +
+                                 " found " + found);
+    }
+
+    /** Detaches the large directory and reclaims it in slices.
+
+        @param tree The tree, holding the directories made by
+                    <code>checkPages</code>.
+        @throws TestFailed If the subtree is still visible, files are missed,
+                           or inodes are not freed.
+     */
+    private void checkReclaim(FileTree tree) throws TestFailed
+    {
+        int         size = tree.size();
+        Path        large = new Path("/large");
+
+        try
+        {
+            int                         root = tree.detach(large);
+            Map<Integer, List<Path>>    files = new HashMap<>();
+
+            if(tree.isExist(new Path("/large/f0001")))
+                throw new TestFailed("detached file still exists");
+            while(!tree.reclaim(root, large, 64, files))
+                ;
+
+            if(!files.isEmpty())
+                throw new TestFailed("files without storage reported");
+            if(tree.size() != size - 500)
+                throw new TestFailed("detached inodes not freed");
+            if(tree.isExist(large) || !tree.isExist(new Path("/small")))
+                throw new TestFailed("wrong subtree reclaimed");
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("unable to detach directory", e);
+        }
+    }
+
+    /** Creates a directory of files and lists it page by page.
+
+        @param tree The tree.
+        @param directory Path of the directory to create.
+        @param files Number of files to create in the directory.
+        @param limit Page size.
+        @throws TestFailed If the pages are not the sorted list of files.
+     */
+    private void checkPages(FileTree tree, String directory, int files,
+                            int limit) throws TestFailed
+    {
+        String[]    expected = new String[files];
+
+        try
+        {
+            for(int file = 0; file < files; ++file)
+            {
+                expected[file] = String.format("f%04d", (file * 7919) % files);
+                tree.touch(new Path(directory + "/" + expected[file]), null);
+            }
+            tree.delete(new Path(directory + "/" + expected[0]));
+            expected[0] = null;
+
+            List<String>    listed = new ArrayList<>();
+            String[]        page;
+            do
+            {
+                page = tree.cd(new Path(directory)).list(
+                    listed.isEmpty() ? null : listed.get(listed.size() - 1),
+                    limit);
+                listed.addAll(Arrays.asList(page));
+            }
+            while(page.length == limit);
+
+            List<String>    sorted = new ArrayList<>();
+            for(String name : expected)
+            {
+                if(name != null)
+                    sorted.add(name);
+            }
+            Collections.sort(sorted);
+            if(!listed.equals(sorted))
+                throw new TestFailed(directory + " paged incorrectly");
+        }
+        catch(FileNotFoundException | FileAlreadyExistsException e)
+        {
+            throw new TestFailed("unable to list " + directory, e);
+        }
+    }
+}
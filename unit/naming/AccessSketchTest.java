@@ -0,0 +1,104 @@
+package naming;
+
+import common.*;
+import test.*;
+
+/** Unit test for <code>AccessSketch</code>.
+
+    <p>
+    Items checked are:
+    <ul>
+    <li>An empty sketch reports no paths.</li>
+    <li>The most looked up paths are reported first, among many paths looked
+        up once, with counts never below their true counts and close to
+        them.</li>
+    <li>No more paths than requested are reported, and the window reported
+        covers the whole buckets counted.</li>
+    </ul>
+
+    <p>
+    Lookups are counted over two buckets, so that the check holds when they
+    are recorded across a bucket boundary.
+ */
+public class AccessSketchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking path lookup counts";
+
+    /** Lookups of the most looked up path. */
+    private static final int    FIRST = 1000;
+    /** Lookups of the second most looked up path. */
+    private static final int    SECOND = 500;
+    /** Number of other paths, each looked up once. */
+    private static final int    OTHERS = 2000;
+    /** Largest excess of a count over the true count allowed, due to
+        collisions with the other paths. */
+    private static final int    SLACK = 50;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        AccessSketch    sketch = new AccessSketch();
+        long            window = 2 * AccessSketch.BUCKET;
+
+        if(sketch.top(window, 3).size() != 0)
+            throw new TestFailed("empty sketch reported paths");
+
+        Path            first = new Path("/hot/first");
+        Path            second = new Path("/hot/second");
+
+        // Interleave the lookups so that the hot paths must survive the
+        // pruning of candidates.
+        for(int i = 0; i < OTHERS; ++i)
+        {
+            if(i < FIRST)
+                sketch.record(first);
+            if(i < SECOND)
+                sketch.record(second);
+            sketch.record(new Path("/cold/" + i));
+        }
+
+        HotPaths        top = sketch.top(window, 3);
+
+        if(top.size() != 3)
+            throw new TestFailed("sketch reported " + top.size() +
+                                 " paths, expected 3");
+        if(!top.path(0).equals(first) || !top.path(1).equals(second))
+            throw new TestFailed("most looked up paths reported in the " +
+                                 "wrong order");
+
+        checkCount(top, 0, FIRST);
+        checkCount(top, 1, SECOND);
+        checkCount(top, 2, 1);
+
+        if(top.window() < AccessSketch.BUCKET ||
+           top.window() > window)
+            throw new TestFailed("window reported incorrectly");
+
+        if(sketch.top(window, 1).size() != 1)
+            throw new TestFailed("limit on the number of paths ignored");
+    }
+
+    /** Checks the count of a reported path.
+
+        @param index Index of the path in the report.
+        @param expected True count of the path.
+        @throws TestFailed If the count is below the true count, or too far
+                           above it.
+     */
+    private void checkCount(HotPaths top, int index, int expected)
+        throws TestFailed
+    {
+        long    count = top.count(index);
+
+        if(count < expected || count > expected + SLACK)
+        {
+            throw new TestFailed("count of " + top.path(index) + " is " +
+                                 count + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package naming;
+
+import client.*;
+import common.*;
+import rmi.*;
+import test.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for <code>WatchTable</code> and <code>client.ChangeFeed</code>.
+
+    <p>
+    A naming server is started without storage servers, and directories are
+    created inside and outside a watched path. Items checked are:
+    <ul>
+    <li>Only the changes below the watched path are received, in the order
+        they were made, and none made before the feed was created.</li>
+    <li>Batches follow each other, with increasing sequence numbers, and the
+        feed reports the sequence number of the last batch received.</li>
+    <li>Once a feed is closed, it receives no more changes, and a feed
+        resumed from its sequence number receives the changes made in
+        between.</li>
+    </ul>
+ */
+public class ChangeFeedTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking change feeds";
+
+    /** Port of the naming server's client service interface. */
+    private static final int    SERVICE_PORT = 7214;
+    /** Port of the naming server's registration interface. */
+    private static final int    REGISTRATION_PORT = 7215;
+    /** Milliseconds to wait for changes to arrive. */
+    private static final long   TIMEOUT = 1500;
+
+    /** The watched path. */
+    private final Path          prefix = new Path("/w");
+    /** The naming server. */
+    private NamingServer        server;
+    /** Feeds created, closed when the test ends. */
+    private final List<ChangeFeed> feeds = new ArrayList<>();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        server = new NamingServer();
+        server.setPorts(SERVICE_PORT, REGISTRATION_PORT);
+
+        try
+        {
+            server.start();
+            Service     service = NamingStubs.service("127.0.0.1",
+                                                      SERVICE_PORT);
+
+            server.createDirectory(prefix);
+
+            Recorder    first = new Recorder();
+            ChangeFeed  feed = feed(service, -1, first);
+
+            server.createDirectory(new Path("/w/a"));
+            server.createDirectory(new Path("/x"));
+            server.createDirectory(new Path("/w/a/b"));
+            server.createDirectory(new Path("/x/w"));
+
+            first.await(2);
+            first.expect("/w/a", "/w/a/b");
+            if(feed.sequence() != first.last)
+                throw new TestFailed("feed reports the wrong sequence number");
+
+            feed.close();
+            long        resumed = feed.sequence();
+
+            server.createDirectory(new Path("/w/c"));
+
+            Recorder    second = new Recorder();
+            feed(service, resumed, second);
+            second.await(1);
+            second.expect("/w/c");
+
+            synchronized(first)
+            {
+                if(first.paths.size() != 2)
+                    throw new TestFailed("closed feed received changes");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when watching changes",
+                                 t);
+        }
+    }
+
+    /** Closes the feeds and stops the naming server. */
+    @Override
+    protected void clean()
+    {
+        for(ChangeFeed feed : feeds)
+            feed.close();
+
+        if(server != null)
+            server.stop();
+    }
+
+    /** Creates a feed on the watched path.
+
+        @param after Sequence number from which the feed resumes, or a
+                     negative number.
+        @param listener Receiver of the changes.
+     */
+    private ChangeFeed feed(Service service, long after, Recorder listener)
+        throws RMIException
+    {
+        ChangeFeed  feed = new ChangeFeed(service, "127.0.0.1", prefix, after,
+                                          listener);
+
+        feeds.add(feed);
+        return feed;
+    }
+
+    /** Listener recording the paths of the changes received, and checking
+        each batch against the previous one. */
+    private static class Recorder implements ChangeFeed.Listener
+    {
+        /** Paths of the changes received, in order. */
+        final List<String>      paths = new ArrayList<>();
+        /** Sequence number of the last batch, or -1. */
+        long                    last = -1;
+        /** Description of the first inconsistency found, or
+            <code>null</code>. */
+        String                  error;
+
+        @Override
+        public synchronized void changed(Changes changes)
+        {
+            if(changes.isReset())
+                error = "reset received";
+            else if(last >= 0 && changes.after() != last)
+                error = "batches do not follow each other";
+            else if(changes.sequence() <= changes.after())
+                error = "batch sequence numbers decrease";
+
+            for(int i = 0; i < changes.size(); ++i)
+            {
+                Changes.Change  change = changes.get(i);
+
+                if(change.kind() != Changes.DIRECTORY)
+                    error = "change of the wrong kind received";
+                if(change.sequence() <= changes.after() ||
+                   change.sequence() > changes.sequence())
+                    error = "change numbered outside its batch";
+
+                paths.add(change.path().toString());
+            }
+
+            last = changes.sequence();
+            notifyAll();
+        }
+
+        /** Waits until a number of changes have been received.
+
+            @throws TestFailed If they are not received in time.
+         */
+        synchronized void await(int count) throws TestFailed
+        {
+            long    deadline = System.currentTimeMillis() + TIMEOUT;
+
+            while(paths.size() < count)
+            {
+                long    remaining = deadline - System.currentTimeMillis();
+
+                if(remaining <= 0)
+                    throw new TestFailed("changes not received: " + paths);
+
+                try
+                {
+                    wait(remaining);
+                }
+                catch(InterruptedException e)
+                {
+                    throw new TestFailed("interrupted while waiting for " +
+                                         "changes");
+                }
+            }
+        }
+
+        /** Checks the changes received.
+
+            @param expected Paths of the changes, in order.
+            @throws TestFailed If other changes were received, or a batch was
+                               inconsistent.
+         */
+        synchronized void expect(String... expected) throws TestFailed
+        {
+            if(error != null)
+                throw new TestFailed(error);
+
+            List<String>    wanted = Arrays.asList(expected);
+            if(!paths.equals(wanted))
+            {
+                throw new TestFailed("changes to " + paths + " received, " +
+                                     "expected " + wanted);
+            }
+        }
+    }
+}
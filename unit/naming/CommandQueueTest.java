@@ -0,0 +1,280 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Unit test for <code>CommandQueue</code>.
+
+    <p>
+    Commands are sent to a command stub that records its calls. Items checked
+    are:
+    <ul>
+    <li>A command sent alone is sent with <code>create</code> or
+        <code>delete</code>.</li>
+    <li>Commands added together are sent in order, consecutive commands of
+        one kind in a single call, and each caller gets its own result.</li>
+    <li>Commands added while a call is in progress are sent together after
+        it.</li>
+    <li>A failed call fails every command it carried.</li>
+    </ul>
+ */
+public class CommandQueueTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking coalescing of commands";
+
+    /** Calls received by the command stub, as the method name followed by
+        the paths. Guarded by the list. */
+    private final List<String>  calls = new ArrayList<>();
+    /** Runs the senders. */
+    private ExecutorService     executor;
+    /** Milliseconds each call takes. */
+    private volatile long       delay;
+    /** Indicates that calls fail. */
+    private volatile boolean    failing;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        executor = Executors.newCachedThreadPool();
+
+        try
+        {
+            checkSingle();
+            checkCoalesced();
+            checkInProgress();
+            checkFailure();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception from a command", e);
+        }
+    }
+
+    /** Stops the senders. */
+    @Override
+    protected void clean()
+    {
+        if(executor != null)
+            executor.shutdownNow();
+    }
+
+    /** Checks that a command sent alone uses the single-path call.
+
+        @throws TestFailed If another call is made or the result is lost.
+     */
+    private void checkSingle() throws TestFailed, RMIException
+    {
+        CommandQueue    queue = new CommandQueue(new RecordingCommand(),
+                                                 executor);
+
+        if(!queue.create(new Path("/a")).get())
+            throw new TestFailed("result of a single creation lost");
+        if(queue.delete(new Path("/missing")).get())
+            throw new TestFailed("result of a single deletion lost");
+
+        expect("create /a", "delete /missing");
+    }
+
+    /** Checks that commands added together are coalesced by kind, in order.
+
+        @throws TestFailed If the calls or results differ.
+     */
+    private void checkCoalesced() throws TestFailed, RMIException
+    {
+        CommandQueue            queue = new CommandQueue(new RecordingCommand(),
+                                                         executor);
+        CommandQueue.Request[]  requests = new CommandQueue.Request[] {
+            queue.create(new Path("/a")),
+            queue.create(new Path("/b")),
+            queue.delete(new Path("/c")),
+            queue.delete(new Path("/missing")),
+            queue.create(new Path("/d"))};
+        boolean[]               expected = {true, true, true, false, true};
+
+        for(int i = 0; i < requests.length; ++i)
+        {
+            if(requests[i].get() != expected[i])
+                throw new TestFailed("result of command " + i + " incorrect");
+        }
+
+        expect("createAll /a /b", "deleteAll /c /missing", "create /d");
+    }
+
+    /** Checks that commands added during a call are sent together after it.
+
+        @throws TestFailed If the calls differ.
+     */
+    private void checkInProgress() throws TestFailed, RMIException
+    {
+        CommandQueue            queue = new CommandQueue(new RecordingCommand(),
+                                                         executor);
+
+        delay = 200;
+        CommandQueue.Request    first = queue.create(new Path("/a"));
+        awaitCalls(1);
+
+        List<CommandQueue.Request> later = new ArrayList<>();
+        for(int i = 0; i < 10; ++i)
+            later.add(queue.create(new Path("/b" + i)));
+        delay = 0;
+
+        first.get();
+        for(CommandQueue.Request request : later)
+            request.get();
+
+        expect("create /a", "createAll /b0 /b1 /b2 /b3 /b4 /b5 /b6 /b7 /b8 /b9");
+    }
+
+    /** Checks that a failed call fails every command it carried.
+
+        @throws TestFailed If a command does not fail.
+     */
+    private void checkFailure() throws TestFailed
+    {
+        CommandQueue            queue = new CommandQueue(new RecordingCommand(),
+                                                         executor);
+
+        failing = true;
+        CommandQueue.Request[]  requests = new CommandQueue.Request[] {
+            queue.delete(new Path("/a")),
+            queue.delete(new Path("/b"))};
+
+        for(CommandQueue.Request request : requests)
+        {
+            try
+            {
+                request.get();
+                throw new TestFailed("command of a failed call succeeded");
+            }
+            catch(RMIException e) { }
+        }
+    }
+
+    /** Waits until the stub has received a number of calls. */
+    private void awaitCalls(int count) throws TestFailed
+    {
+        synchronized(calls)
+        {
+            while(calls.size() < count)
+            {
+                try
+                {
+                    calls.wait();
+                }
+                catch(InterruptedException e)
+                {
+                    throw new TestFailed("interrupted while waiting for a " +
+                                         "call");
+                }
+            }
+        }
+    }
+
+    /** Checks the calls received since the last check, and forgets them.
+
+        @param expected The calls, in order.
+        @throws TestFailed If the calls differ.
+     */
+    private void expect(String... expected) throws TestFailed
+    {
+        synchronized(calls)
+        {
+            if(!calls.equals(Arrays.asList(expected)))
+            {
+                throw new TestFailed("calls " + calls + ", expected " +
+                                     Arrays.asList(expected));
+            }
+
+            calls.clear();
+        }
+    }
+
+    /** Command stub recording its calls. Files named <code>missing</code>
+        are never deleted. */
+    private class RecordingCommand implements Command
+    {
+        @Override
+        public boolean create(Path file) throws RMIException
+        {
+            record("create", file);
+            return true;
+        }
+
+        @Override
+        public boolean[] createAll(Path[] files) throws RMIException
+        {
+            record("createAll", files);
+            boolean[]   created = new boolean[files.length];
+            Arrays.fill(created, true);
+            return created;
+        }
+
+        @Override
+        public boolean delete(Path path) throws RMIException
+        {
+            record("delete", path);
+            return !path.last().equals("missing");
+        }
+
+        @Override
+        public boolean[] deleteAll(Path[] paths) throws RMIException
+        {
+            record("deleteAll", paths);
+            boolean[]   deleted = new boolean[paths.length];
+            for(int i = 0; i < paths.length; ++i)
+                deleted[i] = !paths[i].last().equals("missing");
+            return deleted;
+        }
+
+        @Override
+        public boolean rename(Path source, Path target)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source)
+        {
+            return false;
+        }
+
+        /** Records a call, then waits for <code>delay</code> milliseconds.
+
+            @throws RMIException If calls fail.
+         */
+        private void record(String method, Path... paths) throws RMIException
+        {
+            if(failing)
+                throw new RMIException("storage server unreachable");
+
+            StringBuilder   call = new StringBuilder(method);
+            for(Path path : paths)
+                call.append(' ').append(path);
+
+            synchronized(calls)
+            {
+                calls.add(call.toString());
+                calls.notifyAll();
+            }
+
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Unit test for deferred file creation and <code>Registration.placed</code>.
+
+    <p>
+    A naming server deferring creations is started, and a storage server
+    whose commands are recorded is registered with it by a direct call.
+    Items checked are:
+    <ul>
+    <li>A new file is listed and reported as placed on its server as soon as
+        <code>createFile</code> returns, and is not reported as placed on
+        another server.</li>
+    <li>A batch of creations reaches the storage server in one or two
+        <code>createAll</code> calls.</li>
+    <li>A replica the storage server fails to create is removed from the
+        file.</li>
+    <li>Creations for a server that cannot be contacted stay queued: a file
+        deleted meanwhile is never created, and a file moved meanwhile is
+        created at its new path.</li>
+    <li><code>placed</code> rejects servers that are not registered.</li>
+    </ul>
+ */
+public class DeferredCreationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking deferred file creation";
+
+    /** Port of the naming server's client service interface. */
+    private static final int    SERVICE_PORT = 7216;
+    /** Port of the naming server's registration interface. */
+    private static final int    REGISTRATION_PORT = 7217;
+    /** Milliseconds to wait for creations to be sent. */
+    private static final long   TIMEOUT = 1500;
+
+    /** The naming server. */
+    private NamingServer        server;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        server = new NamingServer();
+        server.setPorts(SERVICE_PORT, REGISTRATION_PORT);
+        server.setDeferredCreation(true);
+
+        RecordingCommand    command = new RecordingCommand();
+        RecordingCommand    other = new RecordingCommand();
+
+        // New files are all placed on the first server.
+        server.setPlacementPolicy((file, sibling, servers) ->
+        {
+            for(StorageRecord record : servers)
+            {
+                if(record.command() == command)
+                    return record;
+            }
+
+            return null;
+        });
+
+        try
+        {
+            server.start();
+            server.register(storage(1), command, new Path[0]);
+
+            Path            file = new Path("/a");
+
+            if(!server.createFile(file))
+                throw new TestFailed("deferred creation failed");
+            if(server.isDirectory(file))
+                throw new TestFailed("new file listed as a directory");
+            if(!server.placed(command, file))
+                throw new TestFailed("new file not reported as placed");
+
+            server.register(storage(2), other, new Path[0]);
+            if(server.placed(other, file))
+                throw new TestFailed("file reported as placed on another " +
+                                     "server");
+
+            command.await("/a");
+
+            // A batch of creations is sent in a few calls.
+            Path[]          batch = new Path[20];
+            for(int i = 0; i < batch.length; ++i)
+                batch[i] = new Path("/b" + i);
+
+            int             calls = command.calls();
+            createAll(batch, command);
+            command.await(strings(batch));
+            if(command.calls() - calls > 2)
+            {
+                throw new TestFailed("batch of creations sent in " +
+                                     (command.calls() - calls) + " calls");
+            }
+
+            // A replica that cannot be created is dropped.
+            command.reject("/c");
+            createAll(new Path[] {new Path("/c")}, command);
+            command.awaitCalls(command.calls() + 1);
+            awaitDropped(new Path("/c"));
+
+            // Creations for an unreachable server stay queued.
+            command.unreachable = true;
+            createAll(new Path[] {new Path("/d"), new Path("/e")}, command);
+            server.delete(new Path("/d"));
+            server.createDirectory(new Path("/f"));
+            server.rename(new Path("/e"), new Path("/f/e"));
+            command.unreachable = false;
+
+            command.await("/f/e");
+            if(command.created("/d") || command.created("/e"))
+                throw new TestFailed("creation sent for a deleted or moved " +
+                                     "file");
+
+            try
+            {
+                server.placed(new RecordingCommand(), file);
+                throw new TestFailed("placed answered for an unregistered " +
+                                     "server");
+            }
+            catch(IllegalStateException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when creating files",
+                                 t);
+        }
+    }
+
+    /** Stops the naming server. */
+    @Override
+    protected void clean()
+    {
+        if(server != null)
+        {
+            server.stop();
+            server = null;
+        }
+    }
+
+    /** Creates files, all placed on one storage server.
+
+        @throws TestFailed If a file is not created.
+     */
+    private void createAll(Path[] files, RecordingCommand command)
+        throws TestFailed, RMIException
+    {
+        BatchResult<Boolean>    result = server.createFileBatch(files);
+
+        for(int i = 0; i < files.length; ++i)
+        {
+            if(!result.succeeded(i) || !result.value(i))
+                throw new TestFailed("deferred creation of " + files[i] +
+                                     " failed");
+            if(!server.placed(command, files[i]))
+                throw new TestFailed(files[i] + " placed on the wrong server");
+        }
+    }
+
+    /** Waits until a file has no replica left.
+
+        @throws TestFailed If the replica is not dropped in time.
+     */
+    private void awaitDropped(Path file)
+        throws TestFailed, FileNotFoundException, InterruptedException
+    {
+        long        deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while(!server.replicaRecords(file).isEmpty())
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("replica that could not be created kept");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /** Returns a client stub for a storage server at a made-up address. */
+    private static Storage storage(int port)
+    {
+        return Stub.create(Storage.class,
+                           new InetSocketAddress("127.0.0.1", port));
+    }
+
+    /** Converts paths to strings. */
+    private static String[] strings(Path[] paths)
+    {
+        String[]    strings = new String[paths.length];
+
+        for(int i = 0; i < paths.length; ++i)
+            strings[i] = paths[i].toString();
+
+        return strings;
+    }
+
+    /** Command interface recording the files created, which can be made to
+        fail some creations, or every call as if it could not be
+        contacted. */
+    private static class RecordingCommand implements Command
+    {
+        /** Paths of the files created. */
+        private final List<String>  created = new ArrayList<>();
+        /** Paths whose creation fails. */
+        private final Set<String>   rejected = new HashSet<>();
+        /** Number of <code>createAll</code> calls received. */
+        private int                 calls;
+        /** Indicates that every call fails. */
+        volatile boolean            unreachable;
+
+        /** Fails if the server is made unreachable. */
+        private void contact() throws RMIException
+        {
+            if(unreachable)
+                throw new RMIException("storage server unreachable");
+        }
+
+        synchronized void reject(String path)
+        {
+            rejected.add(path);
+        }
+
+        synchronized int calls()
+        {
+            return calls;
+        }
+
+        synchronized boolean created(String path)
+        {
+            return created.contains(path);
+        }
+
+        @Override
+        public boolean create(Path file) throws RMIException
+        {
+            return createAll(new Path[] {file})[0];
+        }
+
+        @Override
+        public synchronized boolean[] createAll(Path[] files)
+            throws RMIException
+        {
+            contact();
+            ++calls;
+
+            boolean[]   done = new boolean[files.length];
+            for(int i = 0; i < files.length; ++i)
+            {
+                done[i] = !rejected.contains(files[i].toString());
+                if(done[i])
+                    created.add(files[i].toString());
+            }
+
+            notifyAll();
+            return done;
+        }
+
+        @Override
+        public boolean delete(Path path) throws RMIException
+        {
+            contact();
+            return true;
+        }
+
+        @Override
+        public boolean[] deleteAll(Path[] paths) throws RMIException
+        {
+            contact();
+            boolean[]   done = new boolean[paths.length];
+            Arrays.fill(done, true);
+            return done;
+        }
+
+        @Override
+        public boolean rename(Path source, Path target) throws RMIException
+        {
+            contact();
+            return false;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source) throws RMIException
+        {
+            contact();
+            return false;
+        }
+
+        /** Waits until some files are created.
+
+            @throws TestFailed If they are not created in time.
+         */
+        synchronized void await(String... paths)
+            throws TestFailed, InterruptedException
+        {
+            long        deadline = System.currentTimeMillis() + TIMEOUT;
+
+            while(!created.containsAll(Arrays.asList(paths)))
+            {
+                long    left = deadline - System.currentTimeMillis();
+
+                if(left <= 0)
+                {
+                    throw new TestFailed("files " + Arrays.toString(paths) +
+                                         " not created, created " + created);
+                }
+
+                wait(left);
+            }
+        }
+
+        /** Waits until a number of <code>createAll</code> calls is reached.
+
+            @throws TestFailed If the calls are not received in time.
+         */
+        synchronized void awaitCalls(int count)
+            throws TestFailed, InterruptedException
+        {
+            long        deadline = System.currentTimeMillis() + TIMEOUT;
+
+            while(calls < count)
+            {
+                long    left = deadline - System.currentTimeMillis();
+
+                if(left <= 0)
+                    throw new TestFailed("creations not sent");
+
+                wait(left);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/** Unit test for read-only followers of a primary naming server.
+
+    <p>
+    A primary and a follower are started, and a storage server is registered
+    with the primary by a direct call. Items checked are:
+    <ul>
+    <li>The follower applies the primary's mutations: files registered or
+        created, lengths written, directories created, renames and
+        deletions.</li>
+    <li>The follower answers lookups with the replicas of the primary.</li>
+    <li>The follower refuses calls modifying the tree.</li>
+    <li>Once the primary cannot be contacted, the follower keeps answering
+        lookups until it has lagged behind for longer than its maximum
+        staleness, and then refuses them.</li>
+    </ul>
+ */
+public class FollowerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking naming server followers";
+
+    /** Port of the primary's client service interface. */
+    private static final int    PRIMARY_SERVICE_PORT = 7218;
+    /** Port of the primary's registration interface. */
+    private static final int    PRIMARY_REGISTRATION_PORT = 7219;
+    /** Port of the follower's client service interface. */
+    private static final int    FOLLOWER_SERVICE_PORT = 7220;
+    /** Port of the follower's registration interface. */
+    private static final int    FOLLOWER_REGISTRATION_PORT = 7221;
+    /** Milliseconds the follower may lag behind the primary. */
+    private static final long   MAX_STALENESS = 300;
+    /** Milliseconds to wait for the follower to catch up. */
+    private static final long   TIMEOUT = 1000;
+
+    /** The primary naming server. */
+    private NamingServer        primary;
+    /** The follower. */
+    private NamingServer        follower;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Storage     storage = Stub.create(Storage.class,
+                                          new InetSocketAddress("127.0.0.1",
+                                                                1));
+        Path        file = new Path("/d/a");
+        Path        created = new Path("/d/b");
+
+        try
+        {
+            primary = new NamingServer();
+            primary.setPorts(PRIMARY_SERVICE_PORT, PRIMARY_REGISTRATION_PORT);
+            primary.start();
+            primary.register(storage, new AcceptingCommand(),
+                             new Path[] {file});
+            primary.createFile(created);
+            primary.written(created, 5);
+
+            follower = new NamingServer();
+            follower.setPorts(FOLLOWER_SERVICE_PORT,
+                              FOLLOWER_REGISTRATION_PORT);
+            follower.setFollowing(new InetSocketAddress("127.0.0.1",
+                                                        PRIMARY_SERVICE_PORT),
+                                  MAX_STALENESS);
+            follower.start();
+
+            // The files are copied with their replicas and lengths.
+            await(() -> !follower.isDirectory(file) &&
+                        follower.stat(created).size() == 5,
+                  "files of the primary not applied");
+
+            if(!storage.equals(follower.getStorage(file)))
+                throw new TestFailed("follower returned the wrong replica");
+
+            // Later mutations are applied.
+            primary.createDirectory(new Path("/e"));
+            primary.rename(new Path("/d"), new Path("/e/d"));
+            primary.delete(new Path("/e/d/a"));
+            primary.delete(new Path("/e/d/b"));
+
+            await(() -> follower.isDirectory(new Path("/e/d")) &&
+                        follower.list(new Path("/e/d")).length == 0,
+                  "rename or deletion not applied");
+
+            try
+            {
+                follower.isDirectory(new Path("/d"));
+                throw new TestFailed("renamed directory left at its old path");
+            }
+            catch(FileNotFoundException e) { }
+
+            try
+            {
+                follower.createFile(new Path("/f"));
+                throw new TestFailed("follower modified its tree");
+            }
+            catch(IllegalStateException e) { }
+
+            // Without its primary, the follower refuses lookups once stale.
+            primary.stop();
+            primary = null;
+
+            if(!follower.isDirectory(new Path("/e")))
+                throw new TestFailed("follower lookup failed");
+
+            await(() ->
+            {
+                try
+                {
+                    follower.isDirectory(new Path("/e"));
+                    return false;
+                }
+                catch(IllegalStateException e)
+                {
+                    return true;
+                }
+            }, "stale follower answered lookups");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when following", t);
+        }
+    }
+
+    /** Stops the servers. */
+    @Override
+    protected void clean()
+    {
+        if(follower != null)
+        {
+            follower.stop();
+            follower = null;
+        }
+
+        if(primary != null)
+        {
+            primary.stop();
+            primary = null;
+        }
+    }
+
+    /** Condition checked against the follower. */
+    private interface Condition
+    {
+        boolean holds() throws Exception;
+    }
+
+    /** Waits until a condition holds. Lookups refused because the follower
+        has not caught up yet count as the condition not holding.
+
+        @param message Failure message.
+        @throws TestFailed If the condition does not hold in time.
+     */
+    private static void await(Condition condition, String message)
+        throws Exception
+    {
+        long        deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while(true)
+        {
+            try
+            {
+                if(condition.holds())
+                    return;
+            }
+            catch(IllegalStateException | FileNotFoundException e) { }
+
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed(message);
+
+            Thread.sleep(10);
+        }
+    }
+
+    /** Command interface accepting every call. */
+    private static class AcceptingCommand implements Command
+    {
+        @Override
+        public boolean create(Path file)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean[] createAll(Path[] files)
+        {
+            boolean[]   created = new boolean[files.length];
+            Arrays.fill(created, true);
+            return created;
+        }
+
+        @Override
+        public boolean delete(Path path)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean[] deleteAll(Path[] paths)
+        {
+            boolean[]   deleted = new boolean[paths.length];
+            Arrays.fill(deleted, true);
+            return deleted;
+        }
+
+        @Override
+        public boolean rename(Path source, Path target)
+        {
+            return true;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/** Unit test for the handling of storage server heartbeats by the naming
+    server.
+
+    <p>
+    Two storage servers are registered with a naming server that is not
+    started, and heartbeats are delivered by direct calls. Items checked are:
+    <ul>
+    <li>Before its first heartbeat, a server counts as live, with no load,
+        unlimited free space and no latency.</li>
+    <li>A heartbeat's <code>LoadReport</code> sets the bytes stored, the
+        load, the free space and the latency of the server's record, and the
+        bytes reported guide placement.</li>
+    <li>A server whose last heartbeat is older than the allowed misses is
+        declared dead and no longer offered for new replicas, while a server
+        that never sent a heartbeat is not; a new heartbeat revives it.</li>
+    <li>Heartbeats from unregistered servers and null arguments are
+        rejected.</li>
+    </ul>
+ */
+public class HeartbeatTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking storage server heartbeats";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer    server = new NamingServer();
+        Command[]       commands = new Command[2];
+
+        for(int i = 0; i < commands.length; ++i)
+        {
+            InetSocketAddress   address =
+                new InetSocketAddress("127.0.0.1", i + 1);
+            commands[i] = Stub.create(Command.class, address);
+            server.register(Stub.create(Storage.class, address), commands[i],
+                            new Path[0]);
+        }
+
+        StorageRecord   first = record(server, commands[0]);
+        StorageRecord   second = record(server, commands[1]);
+
+        if(!first.isLive() || first.load() != 0 || first.latency() != 0 ||
+           first.free() != Long.MAX_VALUE)
+        {
+            throw new TestFailed("figures of a server without heartbeats " +
+                                 "incorrect");
+        }
+
+        first.in_flight.set(1);
+        server.heartbeat(commands[0], new LoadReport(1000, 500, 3, 4, 250));
+
+        if(first.bytes() != 500 || first.load() != 5 || first.free() != 1000 ||
+           first.latency() != 250)
+            throw new TestFailed("figures of a heartbeat not recorded");
+
+        List<StorageRecord> live = server.liveServers();
+        if(Placements.leastBytes().choose(new Path("/f"), null, live) !=
+           second)
+            throw new TestFailed("reported bytes not used for placement");
+
+        first.heartbeat = System.currentTimeMillis() -
+            10 * Registration.HEARTBEAT_PERIOD;
+        server.checkHeartbeats();
+
+        if(first.isLive())
+            throw new TestFailed("server missing heartbeats not declared dead");
+        if(!second.isLive())
+            throw new TestFailed("server that never sent a heartbeat " +
+                                 "declared dead");
+        if(server.liveServers().contains(first))
+            throw new TestFailed("dead server offered for new replicas");
+
+        server.heartbeat(commands[0], new LoadReport(1000, 600, 3, 0, 0));
+        server.checkHeartbeats();
+
+        if(!first.isLive() || !server.liveServers().contains(first))
+            throw new TestFailed("heartbeat did not revive a dead server");
+
+        try
+        {
+            Command     unknown = Stub.create(Command.class,
+                new InetSocketAddress("127.0.0.1", 3));
+            server.heartbeat(unknown, new LoadReport(0, 0, 0, 0, 0));
+            throw new TestFailed("heartbeat from an unregistered server " +
+                                 "accepted");
+        }
+        catch(IllegalStateException e) { }
+
+        try
+        {
+            server.heartbeat(commands[0], null);
+            throw new TestFailed("heartbeat without a report accepted");
+        }
+        catch(NullPointerException e) { }
+    }
+
+    /** Returns the record of a registered storage server.
+
+        @throws TestFailed If the server has no record.
+     */
+    private static StorageRecord record(NamingServer server, Command command)
+        throws TestFailed
+    {
+        for(StorageRecord record : server.liveServers())
+        {
+            if(record.command().equals(command))
+                return record;
+        }
+
+        throw new TestFailed("registered server has no record");
+    }
+}
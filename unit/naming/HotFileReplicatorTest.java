@@ -0,0 +1,268 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Unit test for <code>HotFileReplicator</code>.
+
+    <p>
+    The replicator is run period by period against a naming server whose
+    replica bookkeeping is kept in memory. Items checked are:
+    <ul>
+    <li>A file read above the threshold gains one replica per period, on the
+        least loaded server not holding it, until it has enough replicas for
+        its read rate.</li>
+    <li>Once the file cools down, the added replicas are retired one per
+        period, latest first, and each is deleted from its storage server one
+        period after it is retired.</li>
+    <li>The replica placed when the file was created is never retired.</li>
+    <li>A file read below the threshold gains no replica, and a deleted file
+        is forgotten.</li>
+    </ul>
+ */
+public class HotFileReplicatorTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking hot file replication";
+
+    /** Reads per second per replica above which a file is hot. */
+    private static final double THRESHOLD = 10;
+
+    /** Path of the hot file. */
+    private final Path          hot = new Path("/hot");
+    /** Path of a file read below the threshold. */
+    private final Path          cold = new Path("/cold");
+    /** Naming server keeping the replicas of the files. */
+    private ReplicaServer       server;
+    /** Storage servers, the first holding the files when created. */
+    private StorageRecord[]     records;
+    /** Paths deleted from each storage server, by server number. */
+    private Map<Integer, List<Path>> deleted;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        server = new ReplicaServer();
+        deleted = new HashMap<>();
+        records = new StorageRecord[3];
+        for(int i = 0; i < records.length; ++i)
+        {
+            records[i] = record(i);
+            deleted.put(i, new ArrayList<Path>());
+        }
+
+        // The second server is busier than the third.
+        records[1].in_flight.set(2);
+        server.holders.put(hot, new ArrayList<>(Arrays.asList(records[0])));
+        server.holders.put(cold, new ArrayList<>(Arrays.asList(records[0])));
+
+        HotFileReplicator   replicator = new HotFileReplicator(server,
+                                                               THRESHOLD);
+
+        // 25 reads per second need three replicas.
+        period(replicator, 25, 5);
+        expect(hot, 0, 2);
+        period(replicator, 25, 5);
+        expect(hot, 0, 2, 1);
+        period(replicator, 25, 5);
+        expect(hot, 0, 2, 1);
+        expect(cold, 0);
+
+        // The smoothed rate falls to 12.5, then 6.25, then 3.125.
+        period(replicator, 0, 0);
+        expect(hot, 0, 2);
+        deletions(new Path[0], new Path[0], new Path[0]);
+        period(replicator, 0, 0);
+        expect(hot, 0);
+        deletions(new Path[0], new Path[] {hot}, new Path[0]);
+        period(replicator, 0, 0);
+        expect(hot, 0);
+        deletions(new Path[0], new Path[] {hot}, new Path[] {hot});
+
+        server.holders.remove(hot);
+        period(replicator, 25, 0);
+        if(server.holders.containsKey(hot))
+            throw new TestFailed("deleted file replicated");
+    }
+
+    /** Counts the reads of one period and runs the replicator.
+
+        @param hotReads Number of reads of the hot file.
+        @param coldReads Number of reads of the other file.
+     */
+    private void period(HotFileReplicator replicator, int hotReads,
+                        int coldReads)
+    {
+        for(int read = 0; read < hotReads; ++read)
+            replicator.read(hot);
+        for(int read = 0; read < coldReads; ++read)
+            replicator.read(cold);
+
+        replicator.run();
+    }
+
+    /** Checks the servers holding replicas of a file.
+
+        @param file The file.
+        @param expected Server numbers of the replicas, in the order they were
+                        added.
+        @throws TestFailed If the replicas differ.
+     */
+    private void expect(Path file, int... expected) throws TestFailed
+    {
+        List<StorageRecord>     held = server.holders.get(file);
+        int[]                   actual = new int[held.size()];
+
+        for(int i = 0; i < actual.length; ++i)
+            actual[i] = held.get(i).id();
+
+        if(!Arrays.equals(actual, expected))
+        {
+            throw new TestFailed("replicas of " + file + " on servers " +
+                                 Arrays.toString(actual) + ", expected " +
+                                 Arrays.toString(expected));
+        }
+    }
+
+    /** Checks the paths deleted from each storage server so far.
+
+        @throws TestFailed If the deletions differ.
+     */
+    private void deletions(Path[]... expected) throws TestFailed
+    {
+        for(int i = 0; i < expected.length; ++i)
+        {
+            if(!deleted.get(i).equals(Arrays.asList(expected[i])))
+            {
+                throw new TestFailed("paths deleted from server " + i + ": " +
+                                     deleted.get(i) + ", expected " +
+                                     Arrays.toString(expected[i]));
+            }
+        }
+    }
+
+    /** Creates a record for a storage server whose deletions are recorded.
+
+        @param id Server number of the record.
+     */
+    private StorageRecord record(final int id)
+    {
+        InetSocketAddress   address = new InetSocketAddress("127.0.0.1", id + 1);
+        Command             command = new Command()
+        {
+            @Override
+            public boolean create(Path file)
+            {
+                return true;
+            }
+
+            @Override
+            public boolean[] createAll(Path[] files)
+            {
+                boolean[]   created = new boolean[files.length];
+                Arrays.fill(created, true);
+                return created;
+            }
+
+            @Override
+            public boolean delete(Path path)
+            {
+                deleted.get(id).add(path);
+                return true;
+            }
+
+            @Override
+            public boolean[] deleteAll(Path[] paths)
+            {
+                boolean[]   done = new boolean[paths.length];
+                for(int i = 0; i < paths.length; ++i)
+                    done[i] = delete(paths[i]);
+                return done;
+            }
+
+            @Override
+            public boolean rename(Path source, Path target)
+            {
+                return false;
+            }
+
+            @Override
+            public boolean copy(Path file, Storage source)
+            {
+                return true;
+            }
+        };
+
+        return new StorageRecord(Stub.create(Storage.class, address), command,
+                                 id, Runnable::run);
+    }
+
+    /** Naming server keeping the replicas of files in memory, in the order
+        they were added. */
+    private class ReplicaServer extends NamingServer
+    {
+        /** Records of the servers holding each file. */
+        final Map<Path, List<StorageRecord>>    holders = new HashMap<>();
+
+        @Override
+        List<StorageRecord> replicaRecords(Path file)
+            throws FileNotFoundException
+        {
+            List<StorageRecord>     held = holders.get(file);
+
+            if(held == null)
+                throw new FileNotFoundException(file.toString());
+
+            return new ArrayList<>(held);
+        }
+
+        @Override
+        List<StorageRecord> liveServers()
+        {
+            return new ArrayList<>(Arrays.asList(records));
+        }
+
+        @Override
+        boolean replicate(Path file, StorageRecord target)
+            throws FileNotFoundException
+        {
+            List<StorageRecord>     held = holders.get(file);
+
+            if(held == null)
+                throw new FileNotFoundException(file.toString());
+            if(held.contains(target))
+                return false;
+
+            held.add(target);
+            return true;
+        }
+
+        @Override
+        boolean retire(Path file, StorageRecord record)
+            throws FileNotFoundException
+        {
+            List<StorageRecord>     held = holders.get(file);
+
+            if(held == null)
+                throw new FileNotFoundException(file.toString());
+            if(held.size() < 2)
+                return false;
+
+            return held.remove(record);
+        }
+    }
+}
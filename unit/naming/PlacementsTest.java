@@ -0,0 +1,244 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Unit test for the built-in placement policies in <code>Placements</code>.
+
+    <p>
+    Items checked are:
+    <ul>
+    <li><code>random</code> places files on every candidate, and on
+        candidates only.</li>
+    <li><code>least-bytes</code> places files on the server storing the fewest
+        bytes, and breaks ties by the number of files.</li>
+    <li><code>least-files</code> places files on the server hosting the
+        fewest files.</li>
+    <li><code>two-choices</code> never places files on the most loaded of
+        three servers, yet places them on both of the others, and places them
+        on the only candidate when there is one.</li>
+    <li><code>siblings</code> places files with their siblings when the
+        sibling server is a candidate, and falls back otherwise.</li>
+    <li><code>forName</code> returns each policy by name and rejects unknown
+        names.</li>
+    </ul>
+ */
+public class PlacementsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking placement policies";
+
+    /** Number of placements made when checking a random policy. */
+    private static final int    ROUNDS = 300;
+
+    /** Path of the file placed. */
+    private final Path          file = new Path("/d/f");
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        StorageRecord[]     records = new StorageRecord[3];
+
+        for(int i = 0; i < records.length; ++i)
+            records[i] = record(i);
+
+        List<StorageRecord> all = Arrays.asList(records);
+
+        checkRandom(all);
+        checkLeastBytes(all);
+        checkLeastFiles(all);
+        checkTwoChoices(all);
+        checkSiblings(all);
+        checkForName();
+    }
+
+    /** Checks that random placement reaches every candidate, and candidates
+        only.
+
+        @throws TestFailed If a server is never chosen, or a server that is not
+                           a candidate is chosen.
+     */
+    private void checkRandom(List<StorageRecord> all) throws TestFailed
+    {
+        List<StorageRecord> candidates = all.subList(0, 2);
+        Set<StorageRecord>  chosen = new HashSet<>();
+
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            StorageRecord   record =
+                Placements.random().choose(file, null, candidates);
+            if(!candidates.contains(record))
+                throw new TestFailed("random placement chose a server that " +
+                                     "is not a candidate");
+            chosen.add(record);
+        }
+
+        if(chosen.size() != candidates.size())
+            throw new TestFailed("random placement did not reach every " +
+                                 "candidate");
+    }
+
+    /** Checks placement on the server storing the fewest bytes.
+
+        @throws TestFailed If another server is chosen.
+     */
+    private void checkLeastBytes(List<StorageRecord> all) throws TestFailed
+    {
+        set(all, new long[] {300, 100, 200}, new int[] {1, 5, 1}, null);
+        if(Placements.leastBytes().choose(file, null, all) != all.get(1))
+            throw new TestFailed("least-bytes did not choose the server " +
+                                 "storing the fewest bytes");
+
+        set(all, new long[] {100, 100, 200}, new int[] {5, 2, 1}, null);
+        if(Placements.leastBytes().choose(file, null, all) != all.get(1))
+            throw new TestFailed("least-bytes did not break a tie by the " +
+                                 "number of files");
+    }
+
+    /** Checks placement on the server hosting the fewest files.
+
+        @throws TestFailed If another server is chosen.
+     */
+    private void checkLeastFiles(List<StorageRecord> all) throws TestFailed
+    {
+        set(all, new long[] {0, 0, 0}, new int[] {7, 9, 3}, null);
+        if(Placements.leastFiles().choose(file, null, all) != all.get(2))
+            throw new TestFailed("least-files did not choose the server " +
+                                 "hosting the fewest files");
+    }
+
+    /** Checks the less loaded of two random servers is chosen.
+
+        @throws TestFailed If the most loaded server is chosen, one of the
+                           others is never chosen, or a single candidate is
+                           not chosen.
+     */
+    private void checkTwoChoices(List<StorageRecord> all) throws TestFailed
+    {
+        set(all, new long[] {0, 0, 0}, new int[] {0, 0, 0},
+            new int[] {5, 1, 9});
+
+        Set<StorageRecord>  chosen = new HashSet<>();
+
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            StorageRecord   record =
+                Placements.twoChoices().choose(file, null, all);
+            if(record == all.get(2))
+                throw new TestFailed("two-choices chose the most loaded " +
+                                     "server");
+            chosen.add(record);
+        }
+
+        if(chosen.size() != 2)
+            throw new TestFailed("two-choices did not reach both less " +
+                                 "loaded servers");
+
+        List<StorageRecord> one = all.subList(2, 3);
+        if(Placements.twoChoices().choose(file, null, one) != all.get(2))
+            throw new TestFailed("two-choices did not choose the only " +
+                                 "candidate");
+    }
+
+    /** Checks that files are kept with their siblings.
+
+        @throws TestFailed If the sibling server is not chosen while it is a
+                           candidate, or the fallback is not used otherwise.
+     */
+    private void checkSiblings(List<StorageRecord> all) throws TestFailed
+    {
+        set(all, new long[] {0, 0, 0}, new int[] {4, 6, 2}, null);
+
+        PlacementPolicy     policy = Placements.siblings(Placements.leastFiles());
+
+        if(policy.choose(file, all.get(1), all) != all.get(1))
+            throw new TestFailed("siblings did not choose the sibling " +
+                                 "server");
+        if(policy.choose(file, null, all) != all.get(2))
+            throw new TestFailed("siblings did not fall back for a " +
+                                 "directory without files");
+        if(policy.choose(file, all.get(2), all.subList(0, 2)) != all.get(0))
+            throw new TestFailed("siblings did not fall back when the " +
+                                 "sibling server is not a candidate");
+    }
+
+    /** Checks the policies returned by name.
+
+        @throws TestFailed If a name is not recognized, a policy behaves
+                           unlike the one named, or an unknown name is
+                           accepted.
+     */
+    private void checkForName() throws TestFailed
+    {
+        for(String name : new String[] {"random", "least-bytes", "least-files",
+                                        "two-choices", "siblings"})
+        {
+            if(Placements.forName(name) == null)
+                throw new TestFailed("no policy named " + name);
+        }
+
+        List<StorageRecord> all = Arrays.asList(record(3), record(4));
+        set(all, new long[] {10, 20}, new int[] {2, 1}, null);
+
+        if(Placements.forName("least-bytes").choose(file, null, all) !=
+           all.get(0))
+            throw new TestFailed("least-bytes policy returned by name " +
+                                 "incorrect");
+        if(Placements.forName("least-files").choose(file, null, all) !=
+           all.get(1))
+            throw new TestFailed("least-files policy returned by name " +
+                                 "incorrect");
+
+        try
+        {
+            Placements.forName("most-bytes");
+            throw new TestFailed("unknown policy name accepted");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    /** Creates a record for a storage server that is never contacted.
+
+        @param id Server number of the record.
+     */
+    private static StorageRecord record(int id)
+    {
+        InetSocketAddress   address = new InetSocketAddress("127.0.0.1", id + 1);
+
+        return new StorageRecord(Stub.create(Storage.class, address),
+                                 Stub.create(Command.class, address), id,
+                                 Runnable::run);
+    }
+
+    /** Sets the usage figures of records.
+
+        @param bytes Bytes stored by each server.
+        @param files Files hosted by each server.
+        @param load Requests in progress on each server, or <code>null</code>
+                    to leave them unchanged.
+     */
+    private static void set(List<StorageRecord> records, long[] bytes,
+                            int[] files, int[] load)
+    {
+        for(int i = 0; i < records.size(); ++i)
+        {
+            StorageRecord   record = records.get(i);
+            record.bytes = bytes[i];
+            record.files = files[i];
+            if(load != null)
+                record.in_flight.set(load[i]);
+        }
+    }
+}
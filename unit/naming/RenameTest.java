@@ -0,0 +1,245 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import storage.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for the renames sent to storage servers by the naming server.
+
+    <p>
+    Storage servers whose commands are recorded are registered with a naming
+    server that is not started, and heartbeats are delivered by direct
+    calls. Items checked are:
+    <ul>
+    <li>A renamed directory is renamed only on the servers holding files
+        below it, and a renamed file only on the servers holding it.</li>
+    <li>When a server cannot be contacted for a rename, its replicas of the
+        moved files are dropped, so that reads are not sent to it.</li>
+    <li>The copies the server kept at the old paths are deleted from it once
+        a heartbeat shows it can be contacted again.</li>
+    <li>If the server registers again before that, the copies it offers at
+        the old paths are returned for deletion instead of being added back
+        to the tree.</li>
+    </ul>
+ */
+public class RenameTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking renames on storage servers";
+
+    /** Milliseconds to wait for the stale copies to be deleted. */
+    private static final long   TIMEOUT = 1500;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+
+        Storage             first = storage(1);
+        RecordingCommand    firstCommand = new RecordingCommand();
+        RecordingCommand    secondCommand = new RecordingCommand();
+
+        server.register(first, firstCommand,
+                        paths("/d/a", "/d/b", "/m/n"));
+        server.register(storage(2), secondCommand, paths("/e/c"));
+
+        try
+        {
+            server.rename(new Path("/d"), new Path("/f"));
+            server.rename(new Path("/e/c"), new Path("/e/z"));
+
+            firstCommand.expectRenames("/d -> /f");
+            secondCommand.expectRenames("/e/c -> /e/z");
+
+            // The first server misses a directory rename: its replicas of
+            // the moved files are dropped.
+            firstCommand.unreachable = true;
+            server.rename(new Path("/f"), new Path("/g"));
+
+            if(!server.replicaRecords(new Path("/g/a")).isEmpty() ||
+               !server.replicaRecords(new Path("/g/b")).isEmpty())
+            {
+                throw new TestFailed("replicas kept on a server that missed " +
+                                     "a rename");
+            }
+
+            if(server.replicaRecords(new Path("/m/n")).size() != 1)
+                throw new TestFailed("replica outside the renamed directory " +
+                                     "dropped");
+
+            // Once the server answers heartbeats, its copies at the old
+            // paths are deleted.
+            firstCommand.unreachable = false;
+            server.heartbeat(firstCommand, new LoadReport(1000, 0, 3, 0, 0));
+            firstCommand.awaitDeleted("/f/a", "/f/b");
+
+            // The server misses another rename, and registers again before
+            // its copies are deleted.
+            firstCommand.unreachable = true;
+            server.rename(new Path("/m"), new Path("/p"));
+
+            Path[]      dropped = server.register(first,
+                                                  new RecordingCommand(),
+                                                  paths("/m/n", "/q"));
+
+            if(!Arrays.asList(dropped).equals(Arrays.asList(paths("/m/n"))))
+            {
+                throw new TestFailed("copy at the old path of a rename not " +
+                                     "dropped at registration: " +
+                                     Arrays.toString(dropped));
+            }
+
+            try
+            {
+                server.isDirectory(new Path("/m"));
+                throw new TestFailed("old path of a rename added back to the " +
+                                     "tree");
+            }
+            catch(FileNotFoundException e) { }
+
+            if(server.replicaRecords(new Path("/q")).size() != 1)
+                throw new TestFailed("new file of a registering server not " +
+                                     "added");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when renaming", t);
+        }
+    }
+
+    /** Returns a client stub for a storage server at a made-up address. */
+    private static Storage storage(int port)
+    {
+        return Stub.create(Storage.class,
+                           new InetSocketAddress("127.0.0.1", port));
+    }
+
+    /** Converts strings to paths. */
+    private static Path[] paths(String... strings)
+    {
+        Path[]      paths = new Path[strings.length];
+
+        for(int i = 0; i < paths.length; ++i)
+            paths[i] = new Path(strings[i]);
+
+        return paths;
+    }
+
+    /** Command interface recording the renames and deletions it receives,
+        which can be made to fail as if the server could not be contacted. */
+    private static class RecordingCommand implements Command
+    {
+        /** Renames received, as <code>source -> target</code>. */
+        final List<String>      renames = new ArrayList<>();
+        /** Paths deleted. */
+        final List<Path>        deleted = new ArrayList<>();
+        /** Indicates that every call fails. */
+        volatile boolean        unreachable;
+
+        /** Fails if the server is made unreachable. */
+        private void contact() throws RMIException
+        {
+            if(unreachable)
+                throw new RMIException("storage server unreachable");
+        }
+
+        @Override
+        public boolean create(Path file) throws RMIException
+        {
+            contact();
+            return true;
+        }
+
+        @Override
+        public boolean[] createAll(Path[] files) throws RMIException
+        {
+            contact();
+            boolean[]   created = new boolean[files.length];
+            Arrays.fill(created, true);
+            return created;
+        }
+
+        @Override
+        public boolean delete(Path path) throws RMIException
+        {
+            return deleteAll(new Path[] {path})[0];
+        }
+
+        @Override
+        public synchronized boolean[] deleteAll(Path[] paths)
+            throws RMIException
+        {
+            contact();
+            deleted.addAll(Arrays.asList(paths));
+            notifyAll();
+            boolean[]   done = new boolean[paths.length];
+            Arrays.fill(done, true);
+            return done;
+        }
+
+        @Override
+        public synchronized boolean rename(Path source, Path target)
+            throws RMIException
+        {
+            contact();
+            renames.add(source + " -> " + target);
+            return true;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage source) throws RMIException
+        {
+            contact();
+            return true;
+        }
+
+        /** Checks the renames received so far.
+
+            @throws TestFailed If the renames differ.
+         */
+        synchronized void expectRenames(String... expected) throws TestFailed
+        {
+            if(!renames.equals(Arrays.asList(expected)))
+            {
+                throw new TestFailed("renames " + renames + " sent, expected " +
+                                     Arrays.toString(expected));
+            }
+        }
+
+        /** Waits until some paths are deleted.
+
+            @throws TestFailed If they are not deleted in time.
+         */
+        synchronized void awaitDeleted(String... expected)
+            throws TestFailed, InterruptedException
+        {
+            List<Path>  paths = Arrays.asList(paths(expected));
+            long        deadline = System.currentTimeMillis() + TIMEOUT;
+
+            while(!deleted.containsAll(paths))
+            {
+                long    left = deadline - System.currentTimeMillis();
+
+                if(left <= 0)
+                {
+                    throw new TestFailed("stale copies " + paths + " not " +
+                                         "deleted, deleted " + deleted);
+                }
+
+                wait(left);
+            }
+        }
+    }
+}
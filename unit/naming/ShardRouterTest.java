@@ -0,0 +1,204 @@
+package naming;
+
+import common.*;
+import rmi.*;
+import test.*;
+
+import java.io.FileNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/** Unit test for <code>MountTable</code> and <code>ShardRouter</code>.
+
+    <p>
+    Items checked are:
+    <ul>
+    <li>A path is owned by the shard of its longest mount point, compared
+        component by component, and a path containing a mount point is
+        reported as such.</li>
+    <li>The table is complete once the root is mounted, and its version
+        increases with every mount.</li>
+    <li>Through the router, each call is run by the shard owning its path,
+        and the other shard refuses the path.</li>
+    <li>A batched call spanning both shards returns each entry's result in
+        the order of the batch.</li>
+    <li>A call sent to the wrong shard because the router's table is out of
+        date is resent to the new owner.</li>
+    </ul>
+ */
+public class ShardRouterTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking mount tables and routing to shards";
+
+    /** Address of the shard holding the root. */
+    private final InetSocketAddress first =
+        new InetSocketAddress("127.0.0.1", 7210);
+    /** Address of the shard holding <code>/s</code>. */
+    private final InetSocketAddress second =
+        new InetSocketAddress("127.0.0.1", 7212);
+
+    /** The shard holding the root. */
+    private NamingServer        root_shard;
+    /** The shard holding <code>/s</code>. */
+    private NamingServer        subtree_shard;
+    /** Table shared by the shards. */
+    private MountTable          table;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkTable();
+
+        table = new MountTable();
+        table.mount(new Path("/"), first);
+        table.mount(new Path("/s"), second);
+
+        root_shard = shard(first, 7211);
+        subtree_shard = shard(second, 7213);
+
+        Service         router = NamingStubs.sharded("127.0.0.1",
+                                                     first.getPort());
+
+        try
+        {
+            if(!router.createDirectory(new Path("/a")) ||
+               !router.createDirectory(new Path("/s/x")))
+                throw new TestFailed("unable to create directories");
+
+            if(!root_shard.isDirectory(new Path("/a")) ||
+               !subtree_shard.isDirectory(new Path("/s/x")))
+                throw new TestFailed("directory not created on its shard");
+            if(!TestUtil.sameElements(router.list(new Path("/")),
+                                      new String[] {"a", "s"}))
+                throw new TestFailed("root listed incorrectly");
+
+            BatchResult<Boolean>    result = router.isDirectoryBatch(
+                new Path[] {new Path("/s/x"), new Path("/a"),
+                            new Path("/missing"), new Path("/s")});
+
+            if(result.size() != 4 || !result.value(0) || !result.value(1) ||
+               !(result.error(2) instanceof FileNotFoundException) ||
+               !result.value(3))
+                throw new TestFailed("batch across shards answered " +
+                                     "incorrectly");
+
+            // The router's table does not mount /t yet.
+            table.mount(new Path("/t"), second);
+            if(!router.createDirectory(new Path("/t")))
+                throw new TestFailed("unable to create directory after a " +
+                                     "mount");
+            if(!subtree_shard.isDirectory(new Path("/t")))
+                throw new TestFailed("call not resent to the new owner");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when routing calls", t);
+        }
+
+        try
+        {
+            root_shard.isDirectory(new Path("/s/x"));
+            throw new TestFailed("shard answered for a path it does not own");
+        }
+        catch(WrongShardException e)
+        {
+            if(!second.equals(e.owner()) || e.version() != table.version())
+                throw new TestFailed("redirect names the wrong owner");
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("shard answered for a path it does not own",
+                                 e);
+        }
+    }
+
+    /** Stops the shards. */
+    @Override
+    protected void clean()
+    {
+        if(root_shard != null)
+            root_shard.stop();
+        if(subtree_shard != null)
+            subtree_shard.stop();
+    }
+
+    /** Checks ownership in a mount table.
+
+        @throws TestFailed If a path has the wrong owner or mount point, or
+                           the table reports its state incorrectly.
+     */
+    private void checkTable() throws TestFailed
+    {
+        MountTable  mounts = new MountTable();
+
+        mounts.mount(new Path("/data"), second);
+        if(mounts.isComplete())
+            throw new TestFailed("table without the root reported complete");
+        if(mounts.owner(new Path("/other")) != null)
+            throw new TestFailed("path owned without a root mount");
+
+        mounts.mount(new Path("/"), first);
+        mounts.mount(new Path("/data/logs"), first);
+
+        if(!mounts.isComplete() || mounts.version() != 3)
+            throw new TestFailed("table state incorrect after mounts");
+
+        String[][]  owners = {{"/", "/"}, {"/database", "/"},
+                              {"/data", "/data"}, {"/data/x/y", "/data"},
+                              {"/data/logs/z", "/data/logs"}};
+        for(String[] owner : owners)
+        {
+            if(!mounts.mountPoint(new Path(owner[0]))
+                .equals(new Path(owner[1])))
+                throw new TestFailed("mount point of " + owner[0] +
+                                     " incorrect");
+        }
+        if(!second.equals(mounts.owner(new Path("/data/x"))) ||
+           !first.equals(mounts.owner(new Path("/data/logs/z"))))
+            throw new TestFailed("owner of a path incorrect");
+
+        if(!mounts.containsMount(new Path("/data")) ||
+           !mounts.containsMount(new Path("/")) ||
+           mounts.containsMount(new Path("/data/x")) ||
+           mounts.containsMount(new Path("/database")))
+            throw new TestFailed("paths containing mount points reported " +
+                                 "incorrectly");
+
+        if(!Arrays.asList(mounts.shards()).containsAll(
+                Arrays.asList(first, second)) || mounts.shards().length != 2)
+            throw new TestFailed("shards listed incorrectly");
+    }
+
+    /** Starts a shard.
+
+        @param address Address of the shard's client service interface.
+        @param registration Port of the shard's registration interface.
+        @throws TestFailed If the shard cannot be started.
+     */
+    private NamingServer shard(InetSocketAddress address, int registration)
+        throws TestFailed
+    {
+        NamingServer    server = new NamingServer();
+
+        server.setPorts(address.getPort(), registration);
+        server.setMountTable(table, address);
+
+        try
+        {
+            server.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start shard", e);
+        }
+
+        return server;
+    }
+}